@@ -0,0 +1,70 @@
+package com.replacer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Minimal growable byte buffer. Unlike ByteArrayOutputStream it is unsynchronized
+// and hands back its backing array when it is already the exact size.
+final class ByteBuilder {
+
+    private byte[] buf;
+    private int len;
+
+    ByteBuilder(int capacity) {
+        buf = new byte[Math.max(capacity, 0)];
+    }
+
+    ByteBuilder append(byte b) {
+        ensure(1);
+        buf[len++] = b;
+        return this;
+    }
+
+    ByteBuilder append(byte[] bytes) {
+        return append(bytes, 0, bytes.length);
+    }
+
+    ByteBuilder append(ByteBuilder other) {
+        return append(other.buf, 0, other.len);
+    }
+
+    ByteBuilder append(byte[] bytes, int from, int to) {
+        int n = to - from;
+        ensure(n);
+        System.arraycopy(bytes, from, buf, len, n);
+        len += n;
+        return this;
+    }
+
+    // For protocol tokens such as header names and lengths, which are always ASCII
+    ByteBuilder appendAscii(String s) {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf[len++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    // Text decoded as ISO-8859-1 back to its bytes, one per char
+    ByteBuilder appendLatin1(String s) {
+        return appendAscii(s);
+    }
+
+    ByteBuilder appendUtf8(String s) {
+        return append(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    int length() {
+        return len;
+    }
+
+    byte[] toByteArray() {
+        return len == buf.length ? buf : Arrays.copyOf(buf, len);
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+        }
+    }
+}
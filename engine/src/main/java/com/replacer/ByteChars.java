@@ -0,0 +1,39 @@
+package com.replacer;
+
+import java.nio.charset.StandardCharsets;
+
+// A byte range read as ISO-8859-1 chars, one per byte, without copying it.
+// Lets a pattern run over a multi-megabyte body in place; match offsets are
+// offsets into the range.
+final class ByteChars implements CharSequence {
+
+    private final byte[] src;
+    private final int from;
+    private final int to;
+
+    ByteChars(byte[] src, int from, int to) {
+        this.src = src;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public int length() {
+        return to - from;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return (char) (src[from + index] & 0xff);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new ByteChars(src, from + start, from + end);
+    }
+
+    @Override
+    public String toString() {
+        return new String(src, from, to - from, StandardCharsets.ISO_8859_1);
+    }
+}
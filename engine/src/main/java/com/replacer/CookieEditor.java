@@ -0,0 +1,84 @@
+package com.replacer;
+
+import com.replacer.RuleSet.Row;
+
+// Rewrites Cookie header values. Each header is tokenized once no
+// matter how many cookies a rule touches; untouched pairs and separators are
+// copied through byte for byte.
+final class CookieEditor {
+
+    private static final byte[] SEPARATOR = {';', ' '};
+
+    private CookieEditor() {
+    }
+
+    // Rewrites the Cookie header value in src[from, to). Every occurrence of an
+    // edited name is updated, so duplicates can't leak a stale value. With
+    // appendMissing set, edits not yet applied by this or an earlier Cookie
+    // header are appended as new pairs.
+    static void rewrite(byte[] src, int from, int to, Row[] edits, boolean[] applied,
+                        boolean appendMissing, ByteBuilder out) {
+        int copyFrom = from;
+        boolean hasPairs = false;
+        int pos = from;
+        while (pos < to) {
+            int semi = RequestRewriter.indexOf(src, (byte) ';', pos, to);
+            int pairEnd = semi >= 0 ? semi : to;
+            int nameStart = skipSpace(src, pos, pairEnd);
+            int eq = RequestRewriter.indexOf(src, (byte) '=', nameStart, pairEnd);
+            if (nameStart < pairEnd) {
+                hasPairs = true;
+            }
+            if (eq > nameStart) {
+                int edit = find(edits, src, nameStart, trimEnd(src, nameStart, eq));
+                if (edit >= 0) {
+                    if (!applied[edit]) {
+                        edits[edit].stats().recordUpdate();
+                    }
+                    applied[edit] = true;
+                    out.append(src, copyFrom, eq + 1).append(edits[edit].cookieValueBytes());
+                    copyFrom = pairEnd;
+                }
+            }
+            pos = pairEnd + 1;
+        }
+        out.append(src, copyFrom, to);
+
+        if (appendMissing) {
+            for (int i = 0; i < edits.length; i++) {
+                if (!applied[i]) {
+                    edits[i].stats().recordInsert();
+                    if (hasPairs) {
+                        out.append(SEPARATOR);
+                    }
+                    out.append(edits[i].cookieNameBytes()).append((byte) '=').append(edits[i].cookieValueBytes());
+                    applied[i] = true;
+                    hasPairs = true;
+                }
+            }
+        }
+    }
+
+    private static int find(Row[] edits, byte[] src, int from, int to) {
+        for (int i = 0; i < edits.length; i++) {
+            if (RequestRewriter.equalsExact(src, from, to, edits[i].matchBytes())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int skipSpace(byte[] src, int from, int to) {
+        while (from < to && (src[from] == ' ' || src[from] == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private static int trimEnd(byte[] src, int from, int to) {
+        while (to > from && (src[to - 1] == ' ' || src[to - 1] == '\t')) {
+            to--;
+        }
+        return to;
+    }
+}
@@ -0,0 +1,543 @@
+package com.replacer;
+
+import com.replacer.RequestRewriter.Head;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// What goes between {{ and }} in a Replace value, parsed once into a tree when
+// the rule is compiled. A name on its own is a variable, name(...) calls a
+// function and 'single' or "double" quotes make a string. Values are bytes, so
+// a MAC or digest passes to an encoder as it is. Evaluating allocates the
+// results and nothing else: MACs and digests are reused per thread, and time
+// formats, header names and counters are bound while parsing.
+abstract class Expression {
+
+    private static final byte[] EMPTY = new byte[0];
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX_UPPER = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SCHEME_END = "://".getBytes(StandardCharsets.US_ASCII);
+    private static final Base64.Encoder BASE64 = Base64.getEncoder();
+    private static final Base64.Encoder BASE64_URL = Base64.getUrlEncoder().withoutPadding();
+    private static final DateTimeFormatter ISO_SECONDS = DateTimeFormatter.ISO_INSTANT;
+    private static final ThreadLocal<Crypto> CRYPTO = ThreadLocal.withInitial(Crypto::new);
+
+    // Whether the value may change from one request to the next
+    final boolean dynamic;
+    // Whether the value reads the message being rewritten
+    final boolean readsMessage;
+
+    private Expression(boolean dynamic, boolean readsMessage) {
+        this.dynamic = dynamic;
+        this.readsMessage = readsMessage;
+    }
+
+    // Null only for a variable that is not set
+    abstract byte[] eval(Context context);
+
+    // Adds the variable holders and counters the expression is bound to
+    void collect(Collection<Variables.Variable> variables, Collection<AtomicLong> counters) {
+    }
+
+    // The value a rule is evaluated against: one clock reading, so every
+    // function in a request sees the same time, and the message being rewritten
+    static final class Context {
+        private final long millis;
+        private final byte[] message;
+        // False for a WebSocket message, which has no head
+        private final boolean http;
+        private Head head;
+
+        Context(long millis, byte[] message, boolean http) {
+            this.millis = millis;
+            this.message = message;
+            this.http = http;
+        }
+
+        // The same clock with another message, for the second pass over a rewritten one
+        Context with(byte[] rewritten) {
+            return new Context(millis, rewritten, http);
+        }
+
+        private Head head() {
+            if (head == null) {
+                head = Head.parse(message);
+            }
+            return head;
+        }
+    }
+
+    // Thrown while parsing, with the offset in the Replace value it refers to
+    static final class SyntaxException extends IllegalArgumentException {
+        final int offset;
+
+        SyntaxException(String message, int offset) {
+            super(message);
+            this.offset = offset;
+        }
+    }
+
+    private interface Function {
+        byte[] apply(byte[][] args, Context context);
+    }
+
+    private static final class Literal extends Expression {
+        private final byte[] value;
+
+        Literal(String value) {
+            super(false, false);
+            this.value = value.getBytes(StandardCharsets.UTF_8);
+        }
+
+        @Override
+        byte[] eval(Context context) {
+            return value;
+        }
+    }
+
+    static final class Reference extends Expression {
+        final Variables.Variable variable;
+
+        Reference(Variables.Variable variable) {
+            super(false, false);
+            this.variable = variable;
+        }
+
+        @Override
+        byte[] eval(Context context) {
+            String value = variable.value();
+            return value != null ? value.getBytes(StandardCharsets.UTF_8) : null;
+        }
+
+        @Override
+        void collect(Collection<Variables.Variable> variables, Collection<AtomicLong> counters) {
+            variables.add(variable);
+        }
+    }
+
+    private static final class Counter extends Expression {
+        private final AtomicLong count;
+
+        Counter(AtomicLong count) {
+            super(true, false);
+            this.count = count;
+        }
+
+        @Override
+        byte[] eval(Context context) {
+            return ascii(Long.toString(count.incrementAndGet()));
+        }
+
+        @Override
+        void collect(Collection<Variables.Variable> variables, Collection<AtomicLong> counters) {
+            counters.add(count);
+        }
+    }
+
+    private static final class Call extends Expression {
+        private final Function function;
+        private final Expression[] args;
+
+        Call(Function function, Expression[] args, boolean dynamic, boolean readsMessage) {
+            super(dynamic || anyDynamic(args), readsMessage || anyReadsMessage(args));
+            this.function = function;
+            this.args = args;
+        }
+
+        @Override
+        byte[] eval(Context context) {
+            byte[][] values = new byte[args.length][];
+            for (int i = 0; i < args.length; i++) {
+                byte[] value = args[i].eval(context);
+                values[i] = value != null ? value : EMPTY;
+            }
+            return function.apply(values, context);
+        }
+
+        @Override
+        void collect(Collection<Variables.Variable> variables, Collection<AtomicLong> counters) {
+            for (Expression arg : args) {
+                arg.collect(variables, counters);
+            }
+        }
+
+        private static boolean anyDynamic(Expression[] args) {
+            for (Expression arg : args) {
+                if (arg.dynamic) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean anyReadsMessage(Expression[] args) {
+            for (Expression arg : args) {
+                if (arg.readsMessage) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    // Parses source from offset from up to the closing }}, which the parser
+    // leaves in place. The parsed expression is at expression and the offset
+    // just past it at end.
+    static final class Parser {
+        private final String source;
+        private final Variables variables;
+        private int pos;
+
+        Parser(String source, int from, Variables variables) {
+            this.source = source;
+            this.pos = from;
+            this.variables = variables;
+        }
+
+        int position() {
+            return pos;
+        }
+
+        Expression parse() {
+            skipSpace();
+            if (pos == source.length()) {
+                throw new SyntaxException("expected a name, function or string", pos);
+            }
+            char c = source.charAt(pos);
+            if (c == '\'' || c == '"') {
+                return new Literal(string(c));
+            }
+            int start = pos;
+            String name = name();
+            skipSpace();
+            if (pos == source.length() || source.charAt(pos) != '(') {
+                return new Reference(variables.variable(name));
+            }
+            pos++;
+            List<Expression> args = new ArrayList<>();
+            List<String> literals = new ArrayList<>();
+            skipSpace();
+            if (pos < source.length() && source.charAt(pos) == ')') {
+                pos++;
+            } else {
+                while (true) {
+                    Expression arg = parse();
+                    args.add(arg);
+                    literals.add(arg instanceof Literal ? new String(((Literal) arg).value, StandardCharsets.UTF_8) : null);
+                    skipSpace();
+                    if (pos < source.length() && source.charAt(pos) == ',') {
+                        pos++;
+                    } else if (pos < source.length() && source.charAt(pos) == ')') {
+                        pos++;
+                        break;
+                    } else {
+                        throw new SyntaxException("expected ',' or ')'", pos);
+                    }
+                }
+            }
+            return call(name, args.toArray(new Expression[0]), literals, start);
+        }
+
+        void skipSpace() {
+            while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+                pos++;
+            }
+        }
+
+        private String name() {
+            int start = pos;
+            if (pos < source.length() && (Character.isLetter(source.charAt(pos)) || source.charAt(pos) == '_')) {
+                pos++;
+                while (pos < source.length() && isNameChar(source.charAt(pos))) {
+                    pos++;
+                }
+            }
+            String name = source.substring(start, pos);
+            if (!Template.isName(name)) {
+                throw new SyntaxException("expected a name, function or string", start);
+            }
+            return name;
+        }
+
+        private static boolean isNameChar(char c) {
+            return c < 128 && (Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '-');
+        }
+
+        // A backslash makes the next char literal
+        private String string(char quote) {
+            int start = pos++;
+            StringBuilder value = new StringBuilder();
+            while (pos < source.length()) {
+                char c = source.charAt(pos++);
+                if (c == quote) {
+                    return value.toString();
+                }
+                if (c == '\\' && pos < source.length()) {
+                    c = source.charAt(pos++);
+                }
+                value.append(c);
+            }
+            throw new SyntaxException("unclosed string", start);
+        }
+
+        private Expression call(String name, Expression[] args, List<String> literals, int at) {
+            switch (name) {
+                case "now":
+                    arity(name, args, 0, at);
+                    return new Call((a, c) -> ascii(Long.toString(c.millis / 1000)), args, true, false);
+                case "now_ms":
+                    arity(name, args, 0, at);
+                    return new Call((a, c) -> ascii(Long.toString(c.millis)), args, true, false);
+                case "iso_now":
+                    arity(name, args, 0, at);
+                    return new Call((a, c) -> ascii(ISO_SECONDS.format(
+                            Instant.ofEpochMilli(c.millis).truncatedTo(ChronoUnit.SECONDS))), args, true, false);
+                case "time": {
+                    arity(name, args, 1, at);
+                    DateTimeFormatter format;
+                    try {
+                        format = DateTimeFormatter.ofPattern(literal(name, literals, 0, at)).withZone(ZoneOffset.UTC);
+                    } catch (IllegalArgumentException e) {
+                        throw new SyntaxException("time: " + e.getMessage(), at);
+                    }
+                    return new Call((a, c) -> format.format(Instant.ofEpochMilli(c.millis))
+                            .getBytes(StandardCharsets.UTF_8), new Expression[0], true, false);
+                }
+                case "counter": {
+                    if (args.length > 1) {
+                        throw new SyntaxException("counter takes at most 1 argument", at);
+                    }
+                    return new Counter(variables.counter(args.length == 0 ? "" : literal(name, literals, 0, at)));
+                }
+                case "uuid":
+                    arity(name, args, 0, at);
+                    return new Call((a, c) -> ascii(uuid()), args, true, false);
+                case "method":
+                    arity(name, args, 0, at);
+                    return new Call((a, c) -> method(c), args, false, true);
+                case "path":
+                    arity(name, args, 0, at);
+                    return new Call((a, c) -> targetPart(c, false), args, false, true);
+                case "query":
+                    arity(name, args, 0, at);
+                    return new Call((a, c) -> targetPart(c, true), args, false, true);
+                case "body":
+                    arity(name, args, 0, at);
+                    return new Call((a, c) -> body(c), args, false, true);
+                case "header": {
+                    arity(name, args, 1, at);
+                    byte[] header = literal(name, literals, 0, at).getBytes(StandardCharsets.US_ASCII);
+                    return new Call((a, c) -> header(c, header), new Expression[0], false, true);
+                }
+                case "concat": {
+                    if (args.length == 0) {
+                        throw new SyntaxException("concat takes at least 1 argument", at);
+                    }
+                    return new Call((a, c) -> concat(a), args, false, false);
+                }
+                case "base64":
+                    arity(name, args, 1, at);
+                    return new Call((a, c) -> BASE64.encode(a[0]), args, false, false);
+                case "base64url":
+                    arity(name, args, 1, at);
+                    return new Call((a, c) -> BASE64_URL.encode(a[0]), args, false, false);
+                case "url":
+                    arity(name, args, 1, at);
+                    return new Call((a, c) -> urlEncode(a[0]), args, false, false);
+                case "hex":
+                    arity(name, args, 1, at);
+                    return new Call((a, c) -> hex(a[0]), args, false, false);
+                case "sha256":
+                    arity(name, args, 1, at);
+                    return new Call((a, c) -> CRYPTO.get().sha256(a[0]), args, false, false);
+                case "hmac_sha256":
+                    arity(name, args, 2, at);
+                    return new Call((a, c) -> CRYPTO.get().hmacSha256(a[0], a[1]), args, false, false);
+                default:
+                    throw new SyntaxException("unknown function " + name + "()", at);
+            }
+        }
+
+        private static void arity(String name, Expression[] args, int count, int at) {
+            if (args.length != count) {
+                throw new SyntaxException(name + " takes " + count + " argument" + (count == 1 ? "" : "s"), at);
+            }
+        }
+
+        private static String literal(String name, List<String> literals, int index, int at) {
+            String value = literals.get(index);
+            if (value == null) {
+                throw new SyntaxException(name + " needs a quoted string", at);
+            }
+            return value;
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    // Version 4 from the thread's generator, which doesn't contend like
+    // UUID.randomUUID(); fine for request ids, not for secrets
+    private static String uuid() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long high = (random.nextLong() & ~0xF000L) | 0x4000L;
+        long low = (random.nextLong() & ~(3L << 62)) | (1L << 63);
+        return new UUID(high, low).toString();
+    }
+
+    // Empty outside HTTP
+    private static byte[] method(Context context) {
+        if (!context.http) {
+            return EMPTY;
+        }
+        int end = context.head().requestLineEnd;
+        int space = RequestRewriter.indexOf(context.message, (byte) ' ', 0, end);
+        return Arrays.copyOf(context.message, space < 0 ? end : space);
+    }
+
+    // The path of the request target, or its query without the '?'. An absolute
+    // target's scheme and authority are left out. Empty outside HTTP.
+    private static byte[] targetPart(Context context, boolean query) {
+        if (!context.http) {
+            return EMPTY;
+        }
+        byte[] message = context.message;
+        int end = context.head().requestLineEnd;
+        int space = RequestRewriter.indexOf(message, (byte) ' ', 0, end);
+        if (space < 0) {
+            return EMPTY;
+        }
+        int start = space + 1;
+        int targetEnd = RequestRewriter.indexOf(message, (byte) ' ', start, end);
+        if (targetEnd < 0) {
+            targetEnd = end;
+        }
+        if (start < targetEnd && message[start] != '/') {
+            int authority = indexOf(message, SCHEME_END, start, targetEnd);
+            if (authority >= 0) {
+                int slash = RequestRewriter.indexOf(message, (byte) '/', authority + SCHEME_END.length, targetEnd);
+                int question = RequestRewriter.indexOf(message, (byte) '?', authority + SCHEME_END.length, targetEnd);
+                start = slash >= 0 && (question < 0 || slash < question) ? slash : question >= 0 ? question : targetEnd;
+            }
+        }
+        int mark = RequestRewriter.indexOf(message, (byte) '?', start, targetEnd);
+        if (query) {
+            return mark < 0 ? EMPTY : Arrays.copyOfRange(message, mark + 1, targetEnd);
+        }
+        return Arrays.copyOfRange(message, start, mark < 0 ? targetEnd : mark);
+    }
+
+    private static int indexOf(byte[] src, byte[] sequence, int from, int to) {
+        for (int i = from; i <= to - sequence.length; i++) {
+            if (src[i] == sequence[0] && Arrays.equals(src, i, i + sequence.length, sequence, 0, sequence.length)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // A WebSocket message is all body
+    private static byte[] body(Context context) {
+        byte[] message = context.message;
+        return context.http ? Arrays.copyOfRange(message, context.head().bodyStart, message.length) : message;
+    }
+
+    private static byte[] header(Context context, byte[] name) {
+        if (!context.http) {
+            return EMPTY;
+        }
+        Head head = context.head();
+        int h = head.find(name);
+        return h < 0 ? EMPTY : Arrays.copyOfRange(context.message, head.valueStart(h), head.valueEnd(h));
+    }
+
+    private static byte[] concat(byte[][] parts) {
+        int length = 0;
+        for (byte[] part : parts) {
+            length += part.length;
+        }
+        byte[] out = new byte[length];
+        int pos = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, out, pos, part.length);
+            pos += part.length;
+        }
+        return out;
+    }
+
+    private static byte[] hex(byte[] value) {
+        byte[] out = new byte[value.length * 2];
+        for (int i = 0; i < value.length; i++) {
+            out[2 * i] = HEX[(value[i] >> 4) & 0xF];
+            out[2 * i + 1] = HEX[value[i] & 0xF];
+        }
+        return out;
+    }
+
+    // Percent-encodes everything but RFC 3986's unreserved characters, so the
+    // result is safe in a path segment, a query string or a form body
+    private static byte[] urlEncode(byte[] value) {
+        ByteBuilder out = new ByteBuilder(value.length + 16);
+        for (byte b : value) {
+            if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9')
+                    || b == '-' || b == '.' || b == '_' || b == '~') {
+                out.append(b);
+            } else {
+                out.append((byte) '%').append(HEX_UPPER[(b >> 4) & 0xF]).append(HEX_UPPER[b & 0xF]);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    // One MAC and one digest per thread. The MAC is only keyed again when the
+    // key changes, which for a signing secret is once per thread.
+    private static final class Crypto {
+        private Mac mac;
+        private byte[] macKey;
+        private MessageDigest sha256;
+
+        byte[] hmacSha256(byte[] key, byte[] data) {
+            try {
+                if (mac == null) {
+                    mac = Mac.getInstance("HmacSHA256");
+                }
+                if (!Arrays.equals(key, macKey)) {
+                    // HMAC pads short keys with zeros, so an empty key is the same
+                    // as one zero byte, which SecretKeySpec accepts
+                    mac.init(new SecretKeySpec(key.length > 0 ? key : new byte[1], "HmacSHA256"));
+                    macKey = key.clone();
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+            return mac.doFinal(data);
+        }
+
+        byte[] sha256(byte[] data) {
+            if (sha256 == null) {
+                try {
+                    sha256 = MessageDigest.getInstance("SHA-256");
+                } catch (GeneralSecurityException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return sha256.digest(data);
+        }
+    }
+}
@@ -0,0 +1,312 @@
+package com.replacer;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+import com.replacer.RequestRewriter.Head;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Rewrites the requests of a HAR file with the live rules whose scope covers them. The file is streamed: log
+// entries are read one at a time, rewritten on the pool and written back in
+// their original order, so at most a few entries per thread are in memory.
+// Everything except the requests is copied through unchanged.
+final class HarRewriter {
+
+    // Nulls are kept and nothing is HTML-escaped, so untouched parts stay as they were
+    private static final Gson GSON = new GsonBuilder().serializeNulls().disableHtmlEscaping().create();
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    private final RuleSet rules;
+    private final ExecutorService pool;
+    // Entries read ahead of the one being written
+    private final int window;
+    private final AtomicInteger rewritten = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private int entries;
+
+    HarRewriter(RuleSet rules, ExecutorService pool, int threads) {
+        this.rules = rules;
+        this.pool = pool;
+        this.window = threads * 4;
+    }
+
+    int entries() {
+        return entries;
+    }
+
+    int rewritten() {
+        return rewritten.get();
+    }
+
+    // Entries whose request couldn't be turned into HTTP; they are copied unchanged
+    int failed() {
+        return failed.get();
+    }
+
+    void rewrite(Reader input, Writer output) throws IOException {
+        JsonReader in = new JsonReader(input);
+        JsonWriter out = new JsonWriter(output);
+        out.setIndent("  ");
+        in.beginObject();
+        out.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            out.name(name);
+            if (name.equals("log") && in.peek() == JsonToken.BEGIN_OBJECT) {
+                rewriteLog(in, out);
+            } else {
+                GSON.toJson(JsonParser.parseReader(in), out);
+            }
+        }
+        in.endObject();
+        out.endObject();
+        out.flush();
+    }
+
+    private void rewriteLog(JsonReader in, JsonWriter out) throws IOException {
+        in.beginObject();
+        out.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            out.name(name);
+            if (name.equals("entries") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                rewriteEntries(in, out);
+            } else {
+                GSON.toJson(JsonParser.parseReader(in), out);
+            }
+        }
+        in.endObject();
+        out.endObject();
+    }
+
+    private void rewriteEntries(JsonReader in, JsonWriter out) throws IOException {
+        Deque<Future<JsonElement>> pending = new ArrayDeque<>();
+        in.beginArray();
+        out.beginArray();
+        try {
+            while (in.hasNext()) {
+                JsonElement entry = JsonParser.parseReader(in);
+                entries++;
+                pending.add(pool.submit(() -> rewriteEntry(entry)));
+                if (pending.size() >= window) {
+                    GSON.toJson(next(pending), out);
+                }
+            }
+            while (!pending.isEmpty()) {
+                GSON.toJson(next(pending), out);
+            }
+        } finally {
+            for (Future<JsonElement> future : pending) {
+                future.cancel(true);
+            }
+        }
+        in.endArray();
+        out.endArray();
+    }
+
+    private static JsonElement next(Deque<Future<JsonElement>> pending) throws IOException {
+        try {
+            return pending.poll().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private JsonElement rewriteEntry(JsonElement entry) {
+        if (!entry.isJsonObject() || !entry.getAsJsonObject().has("request")) {
+            return entry;
+        }
+        try {
+            JsonObject request = entry.getAsJsonObject().getAsJsonObject("request");
+            HarRequest har = HarRequest.of(request);
+            RuleSet.Rule rule = rules.liveRule(har.target());
+            if (rule == null) {
+                return entry;
+            }
+            byte[] raw = har.toBytes();
+            byte[] result = RequestRewriter.rewrite(raw, rule);
+            if (!Arrays.equals(raw, result)) {
+                har.update(request, result);
+                rewritten.incrementAndGet();
+            }
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+        }
+        return entry;
+    }
+
+    // A HAR request as an HTTP/1 message. HTTP/2 pseudo-headers have no place
+    // in one, so they are set aside and written back in front of the headers.
+    private static final class HarRequest {
+        private final String urlPrefix;
+        private final String method;
+        private final String target;
+        private final String version;
+        private final JsonArray pseudoHeaders = new JsonArray();
+        private final JsonArray headers = new JsonArray();
+        private final byte[] body;
+        private final boolean base64;
+
+        private HarRequest(JsonObject request) {
+            String url = request.get("url").getAsString();
+            int scheme = url.indexOf("://");
+            int path = scheme >= 0 ? url.indexOf('/', scheme + 3) : 0;
+            int query = url.indexOf('?', scheme >= 0 ? scheme + 3 : 0);
+            if (path < 0 || (query >= 0 && query < path)) {
+                path = query >= 0 ? query : url.length();
+            }
+            urlPrefix = url.substring(0, path);
+            String rest = url.substring(path);
+            target = rest.startsWith("/") ? rest : "/" + rest;
+            method = request.get("method").getAsString();
+            version = request.has("httpVersion") && !request.get("httpVersion").getAsString().isEmpty()
+                    ? request.get("httpVersion").getAsString() : "HTTP/1.1";
+            if (request.has("headers")) {
+                for (JsonElement header : request.getAsJsonArray("headers")) {
+                    String name = header.getAsJsonObject().get("name").getAsString();
+                    (name.startsWith(":") ? pseudoHeaders : headers).add(header);
+                }
+            }
+            JsonObject postData = request.has("postData") && request.get("postData").isJsonObject()
+                    ? request.getAsJsonObject("postData") : null;
+            String text = postData != null && postData.has("text") && !postData.get("text").isJsonNull()
+                    ? postData.get("text").getAsString() : "";
+            base64 = postData != null && postData.has("encoding")
+                    && "base64".equals(postData.get("encoding").getAsString());
+            body = base64 ? Base64.getDecoder().decode(text) : text.getBytes(StandardCharsets.UTF_8);
+        }
+
+        static HarRequest of(JsonObject request) {
+            return new HarRequest(request);
+        }
+
+        RequestTarget target() {
+            return RequestTarget.of(method, urlPrefix + target, null);
+        }
+
+        byte[] toBytes() {
+            ByteBuilder out = new ByteBuilder(256 + body.length);
+            out.appendUtf8(method + " " + target + " " + version + "\r\n");
+            for (JsonElement header : headers) {
+                JsonObject h = header.getAsJsonObject();
+                out.appendUtf8(h.get("name").getAsString() + ": " + h.get("value").getAsString() + "\r\n");
+            }
+            out.appendAscii("\r\n").append(body);
+            return out.toByteArray();
+        }
+
+        // Writes the rewritten request back. Derived fields (query string,
+        // cookies, form params and sizes) are rebuilt from the new message.
+        void update(JsonObject request, byte[] raw) {
+            Head head = Head.parse(raw);
+            String requestLine = new String(raw, 0, head.requestLineEnd, StandardCharsets.UTF_8);
+            int first = requestLine.indexOf(' ');
+            int last = requestLine.lastIndexOf(' ');
+            String newTarget = first >= 0 && last > first ? requestLine.substring(first + 1, last) : target;
+            if (first > 0) {
+                request.addProperty("method", requestLine.substring(0, first));
+            }
+            request.addProperty("url", urlPrefix + newTarget);
+
+            JsonArray newHeaders = pseudoHeaders.deepCopy();
+            JsonArray cookies = null;
+            String contentType = null;
+            for (int h = 0; h < head.count; h++) {
+                String name = new String(raw, head.start(h), head.nameEnd(h) - head.start(h), StandardCharsets.UTF_8);
+                String value = new String(raw, head.valueStart(h), head.valueEnd(h) - head.valueStart(h),
+                        StandardCharsets.UTF_8);
+                newHeaders.add(pair(name, value));
+                if (name.equalsIgnoreCase("Cookie")) {
+                    if (cookies == null) {
+                        cookies = new JsonArray();
+                    }
+                    for (String cookie : value.split(";")) {
+                        int eq = cookie.indexOf('=');
+                        if (eq > 0) {
+                            cookies.add(pair(cookie.substring(0, eq).trim(), cookie.substring(eq + 1).trim()));
+                        }
+                    }
+                } else if (name.equalsIgnoreCase("Content-Type") && contentType == null) {
+                    contentType = value;
+                }
+            }
+            request.add("headers", newHeaders);
+            request.add("cookies", cookies != null ? cookies : new JsonArray());
+
+            int fragment = newTarget.indexOf('#');
+            String beforeFragment = fragment >= 0 ? newTarget.substring(0, fragment) : newTarget;
+            int query = beforeFragment.indexOf('?');
+            request.add("queryString", query >= 0 ? params(beforeFragment.substring(query + 1)) : new JsonArray());
+
+            byte[] newBody = Arrays.copyOfRange(raw, head.bodyStart, raw.length);
+            if (newBody.length > 0 || request.has("postData")) {
+                JsonObject postData = request.has("postData") && request.get("postData").isJsonObject()
+                        ? request.getAsJsonObject("postData") : new JsonObject();
+                if (!postData.has("mimeType")) {
+                    postData.addProperty("mimeType", contentType != null ? contentType : "");
+                }
+                postData.addProperty("text", base64 ? Base64.getEncoder().encodeToString(newBody)
+                        : new String(newBody, StandardCharsets.UTF_8));
+                if (contentType != null && contentType.toLowerCase(Locale.ROOT).startsWith(FORM_CONTENT_TYPE)) {
+                    postData.add("params", params(new String(newBody, StandardCharsets.UTF_8)));
+                }
+                request.add("postData", postData);
+            }
+            request.addProperty("headersSize", head.bodyStart);
+            request.addProperty("bodySize", newBody.length);
+        }
+
+        private static JsonArray params(String list) {
+            JsonArray params = new JsonArray();
+            for (String param : list.split("&")) {
+                if (param.isEmpty()) {
+                    continue;
+                }
+                int eq = param.indexOf('=');
+                params.add(pair(decode(eq >= 0 ? param.substring(0, eq) : param),
+                        eq >= 0 ? decode(param.substring(eq + 1)) : ""));
+            }
+            return params;
+        }
+
+        // HAR lists parameters decoded; anything that isn't valid encoding is kept as is
+        private static String decode(String value) {
+            try {
+                return URLDecoder.decode(value, StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                return value;
+            }
+        }
+
+        private static JsonObject pair(String name, String value) {
+            JsonObject pair = new JsonObject();
+            pair.addProperty("name", name);
+            pair.addProperty("value", value);
+            return pair;
+        }
+    }
+}
@@ -0,0 +1,514 @@
+package com.replacer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.Strictness;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.replacer.RuleSet.Row;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Finds and replaces values in a JSON body addressed by JSON Pointer
+// (RFC 6901), e.g. /data/items/0/token. The body is scanned once, byte by
+// byte, without building a tree: only containers on the way to a wanted value
+// are looked into, everything else is skipped over by bracket counting, and
+// replacements are spliced into a copy so the rest of the document is kept
+// byte for byte. Once a rule's pointer matched, later duplicates are left alone.
+final class JsonFieldRewriter {
+
+    private static final TypeAdapter<JsonElement> ELEMENTS = new Gson().getAdapter(JsonElement.class);
+
+    private JsonFieldRewriter() {
+    }
+
+    // A match starting with "/" is a JSON Pointer; anything else names a top-level field
+    static String[] parsePointer(String match) {
+        if (!match.startsWith("/")) {
+            return new String[]{match};
+        }
+        String[] segments = match.substring(1).split("/", -1);
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = segments[i].replace("~1", "/").replace("~0", "~");
+        }
+        return segments;
+    }
+
+    // The new body, or null when it isn't JSON or no row applied. A field that
+    // doesn't exist is added to its parent object, when that exists, as the
+    // Replace text when that is valid JSON and as a string otherwise. The rows'
+    // pointers must be distinct.
+    static byte[] rewrite(byte[] src, int from, int to, Row[] rows) {
+        return rewrite(src, from, to, rows, true);
+    }
+
+    // Without insert, only fields that exist are written
+    static byte[] rewrite(byte[] src, int from, int to, Row[] rows, boolean insert) {
+        String[][] pointers = new String[rows.length][];
+        for (int i = 0; i < rows.length; i++) {
+            pointers[i] = rows[i].pointer();
+        }
+        Scan scan = Scan.run(src, from, to, pointers, insert);
+        if (scan == null || scan.hits == 0) {
+            return null;
+        }
+        // Spliced in document order; they never overlap, as a replaced value isn't looked into
+        Integer[] order = new Integer[rows.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(position(scan, a), position(scan, b)));
+        ByteBuilder out = new ByteBuilder(to - from + 64);
+        int copyFrom = from;
+        // Fields added to the same object after one another need commas between them
+        int lastInsertAt = -1;
+        for (int i : order) {
+            if (scan.start[i] >= 0) {
+                Row row = rows[i];
+                row.stats().recordUpdate();
+                out.append(src, copyFrom, scan.start[i]);
+                boolean string = src[scan.start[i]] == '"';
+                out.append(string ? row.jsonStringBytes() : jsonBytes(row));
+                copyFrom = scan.end[i];
+            } else if (scan.insertAt[i] >= 0) {
+                Row row = rows[i];
+                row.stats().recordInsert();
+                out.append(src, copyFrom, scan.insertAt[i]);
+                if (scan.insertAfterMember[i] || scan.insertAt[i] == lastInsertAt) {
+                    out.append((byte) ',');
+                }
+                String[] pointer = pointers[i];
+                out.append(quote(pointer[pointer.length - 1])).append((byte) ':').append(jsonBytes(row));
+                copyFrom = scan.insertAt[i];
+                lastInsertAt = scan.insertAt[i];
+            }
+        }
+        out.append(src, copyFrom, to);
+        return out.toByteArray();
+    }
+
+    // What a row writes in place of a value that isn't a string: the Replace
+    // text itself when it is valid JSON, so 42 stays a number, else a string
+    private static byte[] jsonBytes(Row row) {
+        return row.jsonValueBytes() != null ? row.jsonValueBytes() : row.jsonStringBytes();
+    }
+
+    private static int position(Scan scan, int i) {
+        if (scan.start[i] >= 0) {
+            return scan.start[i];
+        }
+        return scan.insertAt[i] >= 0 ? scan.insertAt[i] : Integer.MAX_VALUE;
+    }
+
+    // The value at each pointer in one pass, or null where it is missing.
+    // Strings are decoded; other values are returned as their JSON text.
+    static String[] values(byte[] src, int from, int to, String[][] pointers) {
+        String[] values = new String[pointers.length];
+        Scan scan = Scan.run(src, from, to, pointers, false);
+        if (scan == null) {
+            return values;
+        }
+        for (int i = 0; i < pointers.length; i++) {
+            if (scan.start[i] >= 0) {
+                values[i] = src[scan.start[i]] == '"'
+                        ? decodeString(src, scan.start[i] + 1, scan.end[i] - 1)
+                        : new String(src, scan.start[i], scan.end[i] - scan.start[i], StandardCharsets.UTF_8);
+            }
+        }
+        return values;
+    }
+
+    // Whether the text is one complete JSON value, such as 42, true, null or {"a":1}
+    static boolean isJson(String text) {
+        try {
+            JsonReader reader = new JsonReader(new StringReader(text));
+            reader.setStrictness(Strictness.STRICT);
+            ELEMENTS.read(reader);
+            return reader.peek() == JsonToken.END_DOCUMENT;
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+    }
+
+    // The text as a JSON string literal, quotes included
+    static byte[] quote(String value) {
+        StringBuilder out = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+            }
+        }
+        return out.append('"').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Decodes the contents of a string literal, between its quotes
+    static String decodeString(byte[] src, int from, int to) {
+        if (RequestRewriter.indexOf(src, (byte) '\\', from, to) < 0) {
+            return new String(src, from, to - from, StandardCharsets.UTF_8);
+        }
+        StringBuilder out = new StringBuilder(to - from);
+        int plain = from;
+        int pos = from;
+        while (pos < to) {
+            if (src[pos] != '\\') {
+                pos++;
+                continue;
+            }
+            out.append(new String(src, plain, pos - plain, StandardCharsets.UTF_8));
+            char escaped = pos + 1 < to ? (char) src[pos + 1] : '\\';
+            pos += 2;
+            switch (escaped) {
+                case 'b':
+                    out.append('\b');
+                    break;
+                case 'f':
+                    out.append('\f');
+                    break;
+                case 'n':
+                    out.append('\n');
+                    break;
+                case 'r':
+                    out.append('\r');
+                    break;
+                case 't':
+                    out.append('\t');
+                    break;
+                case 'u':
+                    if (pos + 4 <= to) {
+                        try {
+                            out.append((char) Integer.parseInt(new String(src, pos, 4, StandardCharsets.US_ASCII), 16));
+                        } catch (NumberFormatException e) {
+                            out.append("\\u");
+                            break;
+                        }
+                        pos += 4;
+                    }
+                    break;
+                default:
+                    out.append(escaped);
+            }
+            plain = pos;
+        }
+        out.append(new String(src, plain, Math.max(0, to - plain), StandardCharsets.UTF_8));
+        return out.toString();
+    }
+
+    // Where each pointer's value starts and ends, or for a missing field the
+    // closing brace of its parent object; -1 when neither was found
+    private static final class Scan {
+        private final byte[] src;
+        private final int to;
+        private final String[][] pointers;
+        private final byte[][][] segmentBytes;
+        private final boolean insert;
+        final int[] start;
+        final int[] end;
+        final int[] insertAt;
+        final boolean[] insertAfterMember;
+        int hits;
+        private int pos;
+
+        private Scan(byte[] src, int from, int to, String[][] pointers, boolean insert) {
+            this.src = src;
+            this.pos = from;
+            this.to = to;
+            this.pointers = pointers;
+            this.insert = insert;
+            segmentBytes = new byte[pointers.length][][];
+            for (int i = 0; i < pointers.length; i++) {
+                segmentBytes[i] = new byte[pointers[i].length][];
+                for (int s = 0; s < pointers[i].length; s++) {
+                    segmentBytes[i][s] = pointers[i][s].getBytes(StandardCharsets.UTF_8);
+                }
+            }
+            start = new int[pointers.length];
+            end = new int[pointers.length];
+            insertAt = new int[pointers.length];
+            insertAfterMember = new boolean[pointers.length];
+            Arrays.fill(start, -1);
+            Arrays.fill(insertAt, -1);
+        }
+
+        // Null when the body doesn't hold a JSON object or array
+        static Scan run(byte[] src, int from, int to, String[][] pointers, boolean insert) {
+            Scan scan = new Scan(src, from, to, pointers, insert);
+            scan.skipSpace();
+            if (scan.pos == to || (src[scan.pos] != '{' && src[scan.pos] != '[')) {
+                return null;
+            }
+            int[] all = new int[pointers.length];
+            for (int i = 0; i < all.length; i++) {
+                all[i] = i;
+            }
+            try {
+                scan.value(0, all);
+            } catch (Malformed e) {
+                return null;
+            }
+            return scan;
+        }
+
+        // Pointers in active matched every segment up to depth
+        private void value(int depth, int[] active) {
+            skipSpace();
+            int valueStart = pos;
+            boolean target = false;
+            for (int i : active) {
+                if (pointers[i].length == depth) {
+                    start[i] = valueStart;
+                    hits++;
+                    target = true;
+                }
+            }
+            // A value being replaced as a whole isn't looked into
+            boolean deeper = !target;
+            if (deeper && pos < to && src[pos] == '{') {
+                object(depth, active);
+            } else if (deeper && pos < to && src[pos] == '[') {
+                array(depth, active);
+            } else {
+                skipValue();
+            }
+            for (int i : active) {
+                if (start[i] == valueStart && pointers[i].length == depth) {
+                    end[i] = pos;
+                }
+            }
+        }
+
+        private void object(int depth, int[] active) {
+            pos++;
+            boolean members = false;
+            skipSpace();
+            if (peek() != '}') {
+                while (true) {
+                    skipSpace();
+                    if (peek() != '"') {
+                        throw Malformed.INSTANCE;
+                    }
+                    int keyStart = pos + 1;
+                    skipString();
+                    int keyEnd = pos - 1;
+                    skipSpace();
+                    if (peek() != ':') {
+                        throw Malformed.INSTANCE;
+                    }
+                    pos++;
+                    int[] child = matchKey(depth, active, keyStart, keyEnd);
+                    if (child.length > 0) {
+                        value(depth + 1, child);
+                    } else {
+                        skipSpace();
+                        skipValue();
+                    }
+                    members = true;
+                    skipSpace();
+                    byte next = peek();
+                    pos++;
+                    if (next == '}') {
+                        break;
+                    }
+                    if (next != ',') {
+                        throw Malformed.INSTANCE;
+                    }
+                }
+                pos--;
+            }
+            if (insert) {
+                // Fields still missing from this object go in front of its closing brace
+                for (int i : active) {
+                    if (pointers[i].length == depth + 1 && start[i] < 0 && insertAt[i] < 0) {
+                        insertAt[i] = pos;
+                        insertAfterMember[i] = members;
+                        hits++;
+                    }
+                }
+            }
+            pos++;
+        }
+
+        private void array(int depth, int[] active) {
+            pos++;
+            skipSpace();
+            if (peek() == ']') {
+                pos++;
+                return;
+            }
+            int index = 0;
+            while (true) {
+                int[] child = matchIndex(depth, active, index);
+                if (child.length > 0) {
+                    value(depth + 1, child);
+                } else {
+                    skipSpace();
+                    skipValue();
+                }
+                index++;
+                skipSpace();
+                byte next = peek();
+                pos++;
+                if (next == ']') {
+                    return;
+                }
+                if (next != ',') {
+                    throw Malformed.INSTANCE;
+                }
+            }
+        }
+
+        private int[] matchKey(int depth, int[] active, int keyStart, int keyEnd) {
+            String decoded = null;
+            List<Integer> child = null;
+            for (int i : active) {
+                if (pointers[i].length <= depth || start[i] >= 0) {
+                    continue;
+                }
+                boolean match;
+                if (RequestRewriter.indexOf(src, (byte) '\\', keyStart, keyEnd) < 0) {
+                    match = RequestRewriter.equalsExact(src, keyStart, keyEnd, segmentBytes[i][depth]);
+                } else {
+                    if (decoded == null) {
+                        decoded = decodeString(src, keyStart, keyEnd);
+                    }
+                    match = decoded.equals(pointers[i][depth]);
+                }
+                if (match) {
+                    if (child == null) {
+                        child = new ArrayList<>();
+                    }
+                    child.add(i);
+                }
+            }
+            return toArray(child);
+        }
+
+        private int[] matchIndex(int depth, int[] active, int index) {
+            List<Integer> child = null;
+            String text = null;
+            for (int i : active) {
+                if (pointers[i].length <= depth || start[i] >= 0) {
+                    continue;
+                }
+                if (text == null) {
+                    text = Integer.toString(index);
+                }
+                if (text.equals(pointers[i][depth])) {
+                    if (child == null) {
+                        child = new ArrayList<>();
+                    }
+                    child.add(i);
+                }
+            }
+            return toArray(child);
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            if (list == null) {
+                return new int[0];
+            }
+            int[] array = new int[list.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+
+        // Skips one value of any kind, containers by counting brackets outside strings
+        private void skipValue() {
+            byte b = peek();
+            if (b == '"') {
+                skipString();
+            } else if (b == '{' || b == '[') {
+                int depth = 0;
+                do {
+                    b = peek();
+                    if (b == '"') {
+                        skipString();
+                        continue;
+                    }
+                    if (b == '{' || b == '[') {
+                        depth++;
+                    } else if (b == '}' || b == ']') {
+                        depth--;
+                    }
+                    pos++;
+                } while (depth > 0);
+            } else {
+                int scalarStart = pos;
+                while (pos < to && b != ',' && b != '}' && b != ']' && !isSpace(b)) {
+                    pos++;
+                    b = pos < to ? src[pos] : 0;
+                }
+                if (pos == scalarStart) {
+                    throw Malformed.INSTANCE;
+                }
+            }
+        }
+
+        private void skipString() {
+            pos++;
+            while (pos < to) {
+                byte b = src[pos++];
+                if (b == '\\') {
+                    pos++;
+                } else if (b == '"') {
+                    return;
+                }
+            }
+            throw Malformed.INSTANCE;
+        }
+
+        private void skipSpace() {
+            while (pos < to && isSpace(src[pos])) {
+                pos++;
+            }
+        }
+
+        private byte peek() {
+            if (pos >= to) {
+                throw Malformed.INSTANCE;
+            }
+            return src[pos];
+        }
+
+        private static boolean isSpace(byte b) {
+            return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+        }
+    }
+
+    // Thrown for a body that stops being JSON part way; the body is left alone
+    private static final class Malformed extends RuntimeException {
+        static final Malformed INSTANCE = new Malformed();
+
+        private Malformed() {
+            super(null, null, false, false);
+        }
+    }
+}
@@ -0,0 +1,524 @@
+package com.replacer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Reads and writes rules files one token at a time, so a large rule library is
+// never held as a JSON tree or one big String. Reading checks every value
+// against the bundled schema and reports problems with their line and column.
+public class JsonUtil {
+
+    private static final Gson COMPACT_GSON = new Gson();
+    private static final Pattern LOCATION = Pattern.compile("at line (\\d+) column (\\d+)");
+    // Enough to fix a file by; a broken library shouldn't fill the heap with errors
+    private static final int MAX_PROBLEMS = 500;
+
+    public static class TypeData {
+        // Identifies the editor row, so its stats follow it; never serialized
+        public transient String id;
+        public String type;
+        public String match;
+        public String replace;
+        // Keep replace up to date with values seen in responses
+        public boolean harvest;
+
+        public TypeData(String type, String match, String replace) {
+            this.type = type;
+            this.match = match;
+            this.replace = replace;
+        }
+    }
+
+    // Conditions on the requests a rule applies to automatically; unset ones match anything
+    public static class ScopeData {
+        public String host;
+        public Integer port;
+        public String path;
+        public String method;
+
+        public boolean isEmpty() {
+            return isBlank(host) && port == null && isBlank(path) && isBlank(method);
+        }
+
+        private static boolean isBlank(String value) {
+            return value == null || value.isBlank();
+        }
+    }
+
+    public static class RuleData {
+        // Identifies the editor panel the rule came from; never serialized
+        public transient String id;
+        public String name;
+        public boolean live;
+        // Null when the rule applies everywhere
+        public ScopeData scope;
+        public List<TypeData> typeRows;
+
+        public RuleData(String name, List<TypeData> typeRows) {
+            this.name = name;
+            this.typeRows = typeRows;
+        }
+    }
+
+    // Called after each rule is read or written. Returning false stops the
+    // import or export with an InterruptedIOException.
+    public interface Progress {
+        Progress NONE = rules -> true;
+
+        boolean update(int rules);
+    }
+
+    public static class Problem {
+        public final int line;
+        public final int column;
+        public final String path;
+        public final String message;
+
+        Problem(int line, int column, String path, String message) {
+            this.line = line;
+            this.column = column;
+            this.path = path;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return "Line " + line + ", column " + column + " (" + path + "): " + message;
+        }
+    }
+
+    // Rules and rows that failed validation are left out of rules and described
+    // in problems. problemCount keeps counting past MAX_PROBLEMS.
+    public static class ReadResult {
+        public final List<RuleData> rules = new ArrayList<>();
+        // Empty for a file that is just an array of rules
+        public final Map<String, String> variables = new LinkedHashMap<>();
+        public final List<Problem> problems = new ArrayList<>();
+        public int problemCount;
+
+        private void report(JsonReader reader, String path, String message) {
+            problemCount++;
+            if (problems.size() < MAX_PROBLEMS) {
+                // Gson has no getter for the position; its toString() states it
+                Matcher m = LOCATION.matcher(reader.toString());
+                int line = m.find() ? Integer.parseInt(m.group(1)) : 0;
+                int column = line > 0 ? Integer.parseInt(m.group(2)) : 0;
+                problems.add(new Problem(line, column, path, message));
+            }
+        }
+    }
+
+    public static String exportRules(List<RuleData> rules) {
+        StringWriter out = new StringWriter();
+        try {
+            writeRules(rules, Collections.emptyMap(), out, Progress.NONE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    // Without variables the file is the array of rules, as it always was; with
+    // them it is an object holding the variables and the rules
+    public static void writeRules(List<RuleData> rules, Map<String, String> variables, Writer out,
+                                  Progress progress) throws IOException {
+        JsonWriter writer = new JsonWriter(out);
+        writer.setIndent("  ");
+        if (!variables.isEmpty()) {
+            writer.beginObject();
+            writer.name("variables").beginObject();
+            for (Map.Entry<String, String> variable : variables.entrySet()) {
+                writer.name(variable.getKey()).value(variable.getValue());
+            }
+            writer.endObject();
+            writer.name("rules");
+        }
+        writer.beginArray();
+        int written = 0;
+        for (RuleData rule : rules) {
+            writer.beginObject();
+            writer.name("name").value(rule.name);
+            writer.name("live").value(rule.live);
+            if (rule.scope != null && !rule.scope.isEmpty()) {
+                writeScope(writer, rule.scope);
+            }
+            writer.name("typeRows").beginArray();
+            for (TypeData row : rule.typeRows) {
+                writer.beginObject();
+                writer.name("type").value(row.type);
+                writer.name("match").value(row.match);
+                writer.name("replace").value(row.replace);
+                if (row.harvest) {
+                    writer.name("harvest").value(true);
+                }
+                writer.endObject();
+            }
+            writer.endArray();
+            writer.endObject();
+            if (!progress.update(++written)) {
+                throw new InterruptedIOException("Export cancelled");
+            }
+        }
+        writer.endArray();
+        if (!variables.isEmpty()) {
+            writer.endObject();
+        }
+        writer.flush();
+    }
+
+    private static void writeScope(JsonWriter writer, ScopeData scope) throws IOException {
+        writer.name("scope").beginObject();
+        if (scope.host != null && !scope.host.isBlank()) {
+            writer.name("host").value(scope.host);
+        }
+        if (scope.port != null) {
+            writer.name("port").value(scope.port);
+        }
+        if (scope.path != null && !scope.path.isBlank()) {
+            writer.name("path").value(scope.path);
+        }
+        if (scope.method != null && !scope.method.isBlank()) {
+            writer.name("method").value(scope.method);
+        }
+        writer.endObject();
+    }
+
+    // Returns the valid rules and the problems with the others, throwing only
+    // for malformed JSON
+    public static ReadResult parseRules(String json) {
+        try {
+            return readRules(new StringReader(json), Progress.NONE);
+        } catch (IOException e) {
+            throw new JsonParseException(e.getMessage(), e);
+        }
+    }
+
+    // Malformed JSON stops the read with an IOException whose message includes
+    // the line and column. Schema violations are collected in the result and
+    // only the offending rule or row is skipped.
+    public static ReadResult readRules(Reader in, Progress progress) throws IOException {
+        ReadResult result = new ReadResult();
+        JsonReader reader = new JsonReader(in);
+        if (reader.peek() == JsonToken.BEGIN_ARRAY) {
+            readRuleArray(reader, "$", result, progress);
+        } else if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+            boolean hasRules = false;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (name.equals("rules") && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                    readRuleArray(reader, "$.rules", result, progress);
+                    hasRules = true;
+                } else if (name.equals("rules")) {
+                    result.report(reader, "$.rules", "expected an array of rules");
+                    reader.skipValue();
+                } else if (name.equals("variables")) {
+                    readVariables(reader, "$.variables", result);
+                } else {
+                    result.report(reader, "$." + name, "unknown property");
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (!hasRules) {
+                result.report(reader, "$", "missing required property \"rules\"");
+            }
+        } else {
+            result.report(reader, "$", "expected an array of rules");
+            return result;
+        }
+        // Content after the rules fails here as malformed JSON
+        reader.peek();
+        return result;
+    }
+
+    private static void readRuleArray(JsonReader reader, String path, ReadResult result, Progress progress)
+            throws IOException {
+        reader.beginArray();
+        int index = 0;
+        while (reader.hasNext()) {
+            RuleData rule = readRule(reader, path + "[" + index + "]", result);
+            if (rule != null) {
+                result.rules.add(rule);
+            }
+            index++;
+            if (!progress.update(index)) {
+                throw new InterruptedIOException("Import cancelled");
+            }
+        }
+        reader.endArray();
+    }
+
+    // A variable with a name that can't be referenced or a value that isn't a
+    // string is skipped on its own
+    private static void readVariables(JsonReader reader, String path, ReadResult result) throws IOException {
+        if (!expectObject(reader, path, "variables", result)) {
+            return;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            String variablePath = path + "." + name;
+            if (!Template.isName(name)) {
+                result.report(reader, variablePath, "must start with a letter or '_' and contain only letters, "
+                        + "digits, '_', '.' and '-'");
+                reader.skipValue();
+            } else if (reader.peek() != JsonToken.STRING) {
+                result.report(reader, variablePath, "expected a string");
+                reader.skipValue();
+            } else {
+                result.variables.put(name, reader.nextString());
+            }
+        }
+        reader.endObject();
+    }
+
+    private static RuleData readRule(JsonReader reader, String path, ReadResult result) throws IOException {
+        RulesSchema.Definition def = RulesSchema.BUNDLED.rule;
+        if (!expectObject(reader, path, "rule", result)) {
+            return null;
+        }
+        RuleData rule = new RuleData(null, new ArrayList<>());
+        Set<String> seen = new HashSet<>();
+        boolean valid = true;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            String propertyPath = path + "." + name;
+            RulesSchema.Property property = property(reader, def, name, propertyPath, result);
+            if (property == null) {
+                valid &= def.additionalProperties;
+                continue;
+            }
+            seen.add(name);
+            if (name.equals("typeRows")) {
+                valid &= readTypeRows(reader, property, propertyPath, rule.typeRows, result);
+                continue;
+            }
+            if (name.equals("scope")) {
+                rule.scope = readScope(reader, propertyPath, result);
+                valid &= rule.scope != null;
+                continue;
+            }
+            Object value = readValue(reader, property, propertyPath, result);
+            if (value == null) {
+                valid = false;
+            } else if (name.equals("name")) {
+                rule.name = (String) value;
+            } else if (name.equals("live")) {
+                rule.live = (Boolean) value;
+            }
+        }
+        valid &= checkRequired(reader, def, seen, path, result);
+        reader.endObject();
+        return valid ? rule : null;
+    }
+
+    // Invalid rows are dropped on their own; the rule is kept as long as the
+    // array itself is well formed and at least one row survives.
+    private static boolean readTypeRows(JsonReader reader, RulesSchema.Property property, String path,
+                                        List<TypeData> rows, ReadResult result) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_ARRAY) {
+            result.report(reader, path, "expected an array");
+            reader.skipValue();
+            return false;
+        }
+        reader.beginArray();
+        int index = 0;
+        while (reader.hasNext()) {
+            TypeData row = readTypeRow(reader, path + "[" + index + "]", result);
+            if (row != null) {
+                rows.add(row);
+            }
+            index++;
+        }
+        reader.endArray();
+        if (index < property.minItems) {
+            result.report(reader, path, "must contain at least " + property.minItems + " row(s)");
+            return false;
+        }
+        return !rows.isEmpty() || index == 0;
+    }
+
+    private static TypeData readTypeRow(JsonReader reader, String path, ReadResult result) throws IOException {
+        RulesSchema.Definition def = RulesSchema.BUNDLED.typeRow;
+        if (!expectObject(reader, path, "type row", result)) {
+            return null;
+        }
+        TypeData row = new TypeData(null, null, null);
+        Set<String> seen = new HashSet<>();
+        boolean valid = true;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            String propertyPath = path + "." + name;
+            RulesSchema.Property property = property(reader, def, name, propertyPath, result);
+            if (property == null) {
+                valid &= def.additionalProperties;
+                continue;
+            }
+            seen.add(name);
+            Object value = readValue(reader, property, propertyPath, result);
+            if (value == null) {
+                valid = false;
+            } else if (name.equals("type")) {
+                row.type = (String) value;
+            } else if (name.equals("match")) {
+                row.match = (String) value;
+            } else if (name.equals("replace")) {
+                row.replace = (String) value;
+            } else if (name.equals("harvest")) {
+                row.harvest = (Boolean) value;
+            }
+        }
+        valid &= checkRequired(reader, def, seen, path, result);
+        reader.endObject();
+        return valid ? row : null;
+    }
+
+    // A rule with an invalid scope is skipped rather than applied more widely than meant
+    private static ScopeData readScope(JsonReader reader, String path, ReadResult result) throws IOException {
+        RulesSchema.Definition def = RulesSchema.BUNDLED.scope;
+        if (!expectObject(reader, path, "scope", result)) {
+            return null;
+        }
+        ScopeData scope = new ScopeData();
+        boolean valid = true;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            String propertyPath = path + "." + name;
+            RulesSchema.Property property = property(reader, def, name, propertyPath, result);
+            if (property == null) {
+                valid &= def.additionalProperties;
+                continue;
+            }
+            Object value = readValue(reader, property, propertyPath, result);
+            if (value == null) {
+                valid = false;
+            } else if (name.equals("host")) {
+                scope.host = (String) value;
+            } else if (name.equals("port")) {
+                scope.port = (Integer) value;
+            } else if (name.equals("path")) {
+                scope.path = (String) value;
+            } else if (name.equals("method")) {
+                scope.method = (String) value;
+            }
+        }
+        reader.endObject();
+        return valid ? scope : null;
+    }
+
+    private static boolean expectObject(JsonReader reader, String path, String what, ReadResult result) throws IOException {
+        if (reader.peek() == JsonToken.BEGIN_OBJECT) {
+            return true;
+        }
+        result.report(reader, path, "expected a " + what + " object");
+        reader.skipValue();
+        return false;
+    }
+
+    // Returns null, after skipping the value, for properties the schema doesn't define
+    private static RulesSchema.Property property(JsonReader reader, RulesSchema.Definition def, String name,
+                                                 String path, ReadResult result) throws IOException {
+        RulesSchema.Property property = def.properties.get(name);
+        if (property == null) {
+            if (!def.additionalProperties) {
+                result.report(reader, path, "unknown property");
+            }
+            reader.skipValue();
+        }
+        return property;
+    }
+
+    // Returns null, after skipping the value, when it doesn't satisfy the schema
+    private static Object readValue(JsonReader reader, RulesSchema.Property property, String path,
+                                    ReadResult result) throws IOException {
+        JsonToken token = reader.peek();
+        if (property.type.equals("boolean")) {
+            if (token != JsonToken.BOOLEAN) {
+                result.report(reader, path, "expected true or false");
+                reader.skipValue();
+                return null;
+            }
+            return reader.nextBoolean();
+        }
+        if (property.type.equals("integer")) {
+            if (token != JsonToken.NUMBER) {
+                result.report(reader, path, "expected a whole number");
+                reader.skipValue();
+                return null;
+            }
+            String number = reader.nextString();
+            long value;
+            try {
+                value = Long.parseLong(number);
+            } catch (NumberFormatException e) {
+                result.report(reader, path, "expected a whole number");
+                return null;
+            }
+            if (value < property.minimum || value > property.maximum) {
+                result.report(reader, path, "must be between " + property.minimum + " and " + property.maximum);
+                return null;
+            }
+            return (int) value;
+        }
+        if (token != JsonToken.STRING) {
+            result.report(reader, path, "expected a string");
+            reader.skipValue();
+            return null;
+        }
+        String value = reader.nextString();
+        if (value.length() < property.minLength) {
+            result.report(reader, path, "must not be empty");
+            return null;
+        }
+        if (property.enumValues != null && !property.enumValues.contains(value)) {
+            result.report(reader, path, "\"" + value + "\" is not one of " + String.join(", ", property.enumValues));
+            return null;
+        }
+        return value;
+    }
+
+    private static boolean checkRequired(JsonReader reader, RulesSchema.Definition def, Set<String> seen,
+                                         String path, ReadResult result) throws IOException {
+        boolean valid = true;
+        for (String name : def.required) {
+            if (!seen.contains(name)) {
+                result.report(reader, path, "missing required property \"" + name + "\"");
+                valid = false;
+            }
+        }
+        return valid;
+    }
+
+    // Single rules as stored by RuleStore
+    public static String exportRule(RuleData rule) {
+        return COMPACT_GSON.toJson(rule);
+    }
+
+    public static RuleData parseRule(String json) {
+        return COMPACT_GSON.fromJson(json, RuleData.class);
+    }
+}
@@ -0,0 +1,188 @@
+package com.replacer;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+
+// Aho-Corasick automaton over raw bytes. Built once per rule, it finds the
+// occurrences of all of the rule's literals in a single scan of the request, so
+// adding literal rows doesn't add passes over the bytes.
+final class LiteralMatcher {
+
+    private final byte[][] patterns;
+    // Per state: sorted transition bytes and their target states
+    private final byte[][] keys;
+    private final int[][] targets;
+    // Transitions from the root for every byte value, so the common case of
+    // bytes that start no pattern is a single array read
+    private final int[] rootNext = new int[256];
+    private final int[] fail;
+    // Pattern ending at this state, or -1
+    private final int[] output;
+    // Nearest state down the failure chain that has an output, or -1
+    private final int[] outputLink;
+    // Length of the prefix a state stands for
+    private final int[] depth;
+
+    LiteralMatcher(byte[][] patterns) {
+        this.patterns = patterns;
+
+        // Trie, built with growable lists and frozen into arrays below
+        List<List<Byte>> edgeKeys = new ArrayList<>();
+        List<List<Integer>> edgeTargets = new ArrayList<>();
+        List<Integer> outputs = new ArrayList<>();
+        List<Integer> depths = new ArrayList<>();
+        edgeKeys.add(new ArrayList<>());
+        edgeTargets.add(new ArrayList<>());
+        outputs.add(-1);
+        depths.add(0);
+        for (int p = 0; p < patterns.length; p++) {
+            int state = 0;
+            for (byte b : patterns[p]) {
+                int next = -1;
+                List<Byte> stateKeys = edgeKeys.get(state);
+                for (int i = 0; i < stateKeys.size(); i++) {
+                    if (stateKeys.get(i) == b) {
+                        next = edgeTargets.get(state).get(i);
+                        break;
+                    }
+                }
+                if (next < 0) {
+                    next = outputs.size();
+                    edgeKeys.add(new ArrayList<>());
+                    edgeTargets.add(new ArrayList<>());
+                    outputs.add(-1);
+                    depths.add(depths.get(state) + 1);
+                    stateKeys.add(b);
+                    edgeTargets.get(state).add(next);
+                }
+                state = next;
+            }
+            // Duplicate literals keep the last row, as other row types do
+            outputs.set(state, p);
+        }
+
+        int states = outputs.size();
+        keys = new byte[states][];
+        targets = new int[states][];
+        output = new int[states];
+        depth = new int[states];
+        for (int s = 0; s < states; s++) {
+            List<Byte> stateKeys = edgeKeys.get(s);
+            Integer[] order = new Integer[stateKeys.size()];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, (a, b) -> Byte.compare(stateKeys.get(a), stateKeys.get(b)));
+            keys[s] = new byte[order.length];
+            targets[s] = new int[order.length];
+            for (int i = 0; i < order.length; i++) {
+                keys[s][i] = stateKeys.get(order[i]);
+                targets[s][i] = edgeTargets.get(s).get(order[i]);
+            }
+            output[s] = outputs.get(s);
+            depth[s] = depths.get(s);
+        }
+        for (int i = 0; i < keys[0].length; i++) {
+            rootNext[keys[0][i] & 0xff] = targets[0][i];
+        }
+
+        // Failure links, breadth first so shorter suffixes are done first
+        fail = new int[states];
+        outputLink = new int[states];
+        outputLink[0] = -1;
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int target : targets[0]) {
+            fail[target] = 0;
+            outputLink[target] = -1;
+            queue.add(target);
+        }
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            for (int i = 0; i < keys[s].length; i++) {
+                byte b = keys[s][i];
+                int t = targets[s][i];
+                int f = fail[s];
+                int next = child(f, b);
+                while (f != 0 && next < 0) {
+                    f = fail[f];
+                    next = child(f, b);
+                }
+                fail[t] = next >= 0 && next != t ? next : 0;
+                outputLink[t] = output[fail[t]] >= 0 ? fail[t] : outputLink[fail[t]];
+                queue.add(t);
+            }
+        }
+    }
+
+    int patternCount() {
+        return patterns.length;
+    }
+
+    byte[] pattern(int index) {
+        return patterns[index];
+    }
+
+    // The leftmost occurrence in src[from, to), the longest one at that start,
+    // as start << 32 | pattern index, or -1 when none. The scan stops as soon as
+    // no later match could start at or before it, so callers step through the
+    // matches by calling again from its end and nothing is buffered.
+    long next(byte[] src, int from, int to) {
+        long found = -1;
+        int foundStart = Integer.MAX_VALUE;
+        int foundLength = 0;
+        int state = 0;
+        for (int i = from; i < to; i++) {
+            byte b = src[i];
+            if (state == 0) {
+                state = rootNext[b & 0xff];
+            } else {
+                int next = child(state, b);
+                while (next < 0 && state != 0) {
+                    state = fail[state];
+                    next = state == 0 ? rootNext[b & 0xff] : child(state, b);
+                }
+                state = Math.max(next, 0);
+            }
+            for (int s = output[state] >= 0 ? state : outputLink[state]; s >= 0; s = outputLink[s]) {
+                int p = output[s];
+                int start = i + 1 - patterns[p].length;
+                if (start < foundStart || start == foundStart && patterns[p].length > foundLength) {
+                    found = (long) start << 32 | p;
+                    foundStart = start;
+                    foundLength = patterns[p].length;
+                }
+            }
+            // Any later match starts within the prefix the state stands for
+            if (found >= 0 && i + 1 - depth[state] > foundStart) {
+                return found;
+            }
+        }
+        return found;
+    }
+
+    private int child(int state, byte b) {
+        if (state == 0) {
+            int next = rootNext[b & 0xff];
+            return next != 0 ? next : -1;
+        }
+        byte[] stateKeys = keys[state];
+        int lo = 0;
+        int hi = stateKeys.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Byte.compare(stateKeys[mid], b);
+            if (cmp == 0) {
+                return targets[state][mid];
+            }
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+}
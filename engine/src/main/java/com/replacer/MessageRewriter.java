@@ -0,0 +1,41 @@
+package com.replacer;
+
+import com.replacer.RuleSet.Row;
+
+// Applies a rule's WebSocket rows to one message. Regex rows run one after
+// another in row order, as raw request rows do, and then every JSON row is
+// written in one scan of the message. Patterns and pointers are compiled with
+// the rule, so a message costs those scans and nothing else. Unlike request
+// bodies, a JSON field a message doesn't have is not added, as one socket
+// carries messages of many shapes.
+public final class MessageRewriter {
+
+    private MessageRewriter() {
+    }
+
+    // Returns the message unchanged (same array) when nothing matched
+    public static byte[] rewrite(byte[] message, RuleSet.Rule rule) {
+        if (rule == null || !rule.hasMessageRows()) {
+            return message;
+        }
+        rule = rule.resolve();
+        long startNanos = System.nanoTime();
+        byte[] result = rule.rewrite(message, false, MessageRewriter::apply);
+        rule.recordApplication(System.nanoTime() - startNanos, RuleSet.Rule::hasMessageRows);
+        return result;
+    }
+
+    private static byte[] apply(byte[] message, RuleSet.Rule rule) {
+        byte[] result = message;
+        for (Row row : rule.messageEdits()) {
+            result = RawRewriter.replaceRegex(result, row);
+        }
+        if (rule.messageJsonEdits().length > 0) {
+            byte[] json = JsonFieldRewriter.rewrite(result, 0, result.length, rule.messageJsonEdits(), false);
+            if (json != null) {
+                result = json;
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,314 @@
+package com.replacer;
+
+import com.replacer.RuleSet.Row;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Rewrites form fields in a multipart body without decoding it. The body is
+// scanned once for boundaries to plan the splices, then copied once into the
+// output, so binary file parts pass through untouched and large uploads cost
+// a single copy.
+final class MultipartRewriter {
+
+    private static final byte[] CONTENT_DISPOSITION = "Content-Disposition".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] DISPOSITION_PREFIX = "Content-Disposition: form-data; name=\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LF = {'\n'};
+
+    private final byte[] src;
+    private final int from;
+    private final int to;
+    private final byte[] delimiter;
+    private final Row[] edits;
+    // For each edit: start and end of the value it replaces, or -1 to insert a new part
+    private final int[] valueStart;
+    private final int[] valueEnd;
+    // Edits whose value holds the delimiter, which would end the part early and
+    // start parts of its own; they are left out
+    private final boolean[] skipped;
+    // Set when only looking values up: every part's name to its content span
+    private Map<String, int[]> fields;
+    private int closingAt = -1;
+    private byte[] eol = CRLF;
+    private int length;
+
+    private MultipartRewriter(byte[] src, int from, int to, byte[] boundary, Row[] edits) {
+        this.src = src;
+        this.from = from;
+        this.to = to;
+        this.edits = edits;
+        this.delimiter = new byte[boundary.length + 2];
+        delimiter[0] = '-';
+        delimiter[1] = '-';
+        System.arraycopy(boundary, 0, delimiter, 2, boundary.length);
+        this.valueStart = new int[edits.length];
+        this.valueEnd = new int[edits.length];
+        Arrays.fill(valueStart, -1);
+        this.skipped = new boolean[edits.length];
+        for (int i = 0; i < edits.length; i++) {
+            skipped[i] = startsLine(edits[i].replaceBytes(), delimiter);
+        }
+    }
+
+    // Returns null when the Content-Type carries no usable boundary
+    static MultipartRewriter plan(byte[] src, int from, int to, String contentType, Row[] edits) {
+        byte[] boundary = boundary(contentType);
+        if (boundary == null) {
+            return null;
+        }
+        MultipartRewriter rewriter = new MultipartRewriter(src, from, to, boundary, edits);
+        rewriter.scan();
+        return rewriter;
+    }
+
+    // Name to {contentStart, contentEnd} of the first part with each name; empty
+    // when the Content-Type carries no usable boundary
+    static Map<String, int[]> fields(byte[] src, int from, int to, String contentType) {
+        Map<String, int[]> fields = new LinkedHashMap<>();
+        byte[] boundary = boundary(contentType);
+        if (boundary != null) {
+            MultipartRewriter scanner = new MultipartRewriter(src, from, to, boundary, new Row[0]);
+            scanner.fields = fields;
+            scanner.scan();
+        }
+        return fields;
+    }
+
+    static byte[] boundary(String contentType) {
+        for (String part : contentType.split(";")) {
+            String trimmed = part.trim();
+            if (trimmed.toLowerCase(Locale.ROOT).startsWith("boundary=")) {
+                String boundary = trimmed.substring("boundary=".length()).trim();
+                // Strip quotes if present
+                if (boundary.length() >= 2 && boundary.startsWith("\"") && boundary.endsWith("\"")) {
+                    boundary = boundary.substring(1, boundary.length() - 1);
+                }
+                return boundary.isEmpty() ? null : boundary.getBytes(StandardCharsets.ISO_8859_1);
+            }
+        }
+        return null;
+    }
+
+    // Length of the rewritten body, known before anything is copied
+    int length() {
+        return length;
+    }
+
+    void writeTo(ByteBuilder out) {
+        int pos = from;
+        // Splices are applied in body order; there are only as many as edited fields
+        while (true) {
+            int next = -1;
+            for (int i = 0; i < edits.length; i++) {
+                if (valueStart[i] >= pos && (next < 0 || valueStart[i] < valueStart[next])) {
+                    next = i;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            out.append(src, pos, valueStart[next]).append(edits[next].replaceBytes());
+            pos = valueEnd[next];
+        }
+
+        if (closingAt < 0) {
+            out.append(src, pos, to);
+            return;
+        }
+        out.append(src, pos, closingAt);
+        for (int i = 0; i < edits.length; i++) {
+            if (valueStart[i] < 0 && !skipped[i]) {
+                out.append(delimiter).append(eol)
+                        .append(DISPOSITION_PREFIX).append(edits[i].fieldNameBytes()).append((byte) '"').append(eol)
+                        .append(eol)
+                        .append(edits[i].replaceBytes()).append(eol);
+            }
+        }
+        out.append(src, closingAt, to);
+    }
+
+    private void scan() {
+        int partsFound = 0;
+        for (boolean skip : skipped) {
+            partsFound += skip ? 1 : 0;
+        }
+        boolean eolKnown = false;
+        int pos = findDelimiter(from);
+        while (pos >= 0) {
+            int afterDelimiter = pos + delimiter.length;
+            if (afterDelimiter + 1 < to && src[afterDelimiter] == '-' && src[afterDelimiter + 1] == '-') {
+                closingAt = pos;
+                break;
+            }
+
+            // Rest of the delimiter line is transport padding
+            int nl = RequestRewriter.indexOf(src, (byte) '\n', afterDelimiter, to);
+            if (nl < 0) {
+                break;
+            }
+            if (!eolKnown) {
+                eol = nl > afterDelimiter && src[nl - 1] == '\r' ? CRLF : LF;
+                eolKnown = true;
+            }
+
+            // Part headers run to the first empty line
+            int name = -1;
+            int nameEnd = -1;
+            int line = nl + 1;
+            int contentStart = -1;
+            while (line < to) {
+                int lineNl = RequestRewriter.indexOf(src, (byte) '\n', line, to);
+                int lineEnd = lineNl < 0 ? to : lineNl;
+                int contentEnd = lineEnd > line && src[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+                if (contentEnd == line) {
+                    contentStart = lineNl < 0 ? to : lineNl + 1;
+                    break;
+                }
+                int colon = RequestRewriter.indexOf(src, (byte) ':', line, contentEnd);
+                if (colon > 0 && RequestRewriter.equalsIgnoreCase(src, line, trimEnd(line, colon), CONTENT_DISPOSITION)) {
+                    long span = nameParameter(colon + 1, contentEnd);
+                    if (span >= 0) {
+                        name = (int) (span >>> 32);
+                        nameEnd = (int) span;
+                    }
+                }
+                line = lineEnd + 1;
+            }
+            if (contentStart < 0) {
+                break;
+            }
+
+            int next = findDelimiter(contentStart);
+            if (next < 0) {
+                break;
+            }
+            // The line break before the delimiter belongs to the delimiter
+            int contentEnd = next;
+            if (contentEnd > contentStart && src[contentEnd - 1] == '\n') {
+                contentEnd--;
+                if (contentEnd > contentStart && src[contentEnd - 1] == '\r') {
+                    contentEnd--;
+                }
+            }
+
+            if (name >= 0 && fields != null) {
+                fields.putIfAbsent(new String(src, name, nameEnd - name, StandardCharsets.UTF_8),
+                        new int[]{contentStart, contentEnd});
+            }
+            if (name >= 0) {
+                for (int i = 0; i < edits.length; i++) {
+                    if (valueStart[i] < 0 && !skipped[i] && RequestRewriter.equalsExact(src, name, nameEnd, edits[i].fieldNameBytes())) {
+                        valueStart[i] = contentStart;
+                        valueEnd[i] = contentEnd;
+                        partsFound++;
+                        break;
+                    }
+                }
+            }
+            if (partsFound == edits.length && fields == null) {
+                // Nothing left to look up, the closing delimiter is only needed for inserts
+                break;
+            }
+            pos = next;
+        }
+
+        length = to - from;
+        for (int i = 0; i < edits.length; i++) {
+            if (valueStart[i] >= 0) {
+                edits[i].stats().recordUpdate();
+                length += edits[i].replaceBytes().length - (valueEnd[i] - valueStart[i]);
+            } else if (closingAt >= 0 && !skipped[i]) {
+                edits[i].stats().recordInsert();
+                length += delimiter.length + eol.length
+                        + DISPOSITION_PREFIX.length + edits[i].fieldNameBytes().length + 1 + eol.length
+                        + eol.length
+                        + edits[i].replaceBytes().length + eol.length;
+            }
+        }
+    }
+
+    // Delimiters only count at the start of the body or of a line
+    private int findDelimiter(int start) {
+        int last = to - delimiter.length;
+        for (int i = start; i <= last; i++) {
+            if (src[i] == '-' && (i == from || src[i - 1] == '\n') && matchesAt(i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private boolean matchesAt(int pos) {
+        for (int i = 0; i < delimiter.length; i++) {
+            if (src[pos + i] != delimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Finds name="..." (or an unquoted name=token) among the Content-Disposition
+    // parameters, skipping filename= and friends. Returns start << 32 | end, or -1.
+    private long nameParameter(int start, int end) {
+        int pos = start;
+        while (pos < end) {
+            int semi = RequestRewriter.indexOf(src, (byte) ';', pos, end);
+            int paramEnd = semi >= 0 ? semi : end;
+            int eq = RequestRewriter.indexOf(src, (byte) '=', pos, paramEnd);
+            if (eq > 0) {
+                int keyStart = trimStart(pos, eq);
+                int keyEnd = trimEnd(keyStart, eq);
+                if (keyEnd - keyStart == 4
+                        && (src[keyStart] | 0x20) == 'n' && (src[keyStart + 1] | 0x20) == 'a'
+                        && (src[keyStart + 2] | 0x20) == 'm' && (src[keyStart + 3] | 0x20) == 'e') {
+                    int valueStart = trimStart(eq + 1, end);
+                    if (valueStart < end && src[valueStart] == '"') {
+                        // Quoted values may contain ';', so look for the closing quote instead
+                        int closing = valueStart + 1;
+                        while (closing < end && src[closing] != '"') {
+                            if (src[closing] == '\\') {
+                                closing++;
+                            }
+                            closing++;
+                        }
+                        return ((long) (valueStart + 1) << 32) | Math.min(closing, end);
+                    }
+                    return ((long) valueStart << 32) | trimEnd(valueStart, paramEnd);
+                }
+            }
+            if (semi < 0) {
+                break;
+            }
+            pos = semi + 1;
+        }
+        return -1;
+    }
+
+    // Whether part starts the value or a line in it; a value starts a line of the body
+    private static boolean startsLine(byte[] value, byte[] part) {
+        for (int i = 0; i + part.length <= value.length; i++) {
+            if ((i == 0 || value[i - 1] == '\n') && Arrays.equals(value, i, i + part.length, part, 0, part.length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int trimStart(int start, int end) {
+        while (start < end && (src[start] == ' ' || src[start] == '\t')) {
+            start++;
+        }
+        return start;
+    }
+
+    private int trimEnd(int start, int end) {
+        while (end > start && (src[end - 1] == ' ' || src[end - 1] == '\t')) {
+            end--;
+        }
+        return end;
+    }
+}
@@ -0,0 +1,216 @@
+package com.replacer;
+
+import com.replacer.RequestRewriter.Head;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+// Read-only view of a raw request for looking values up by name. Each kind of
+// name (headers, cookies, URL and body parameters) is indexed on first use in
+// one scan of its part of the request, so every row of a rule after the first
+// is a map lookup. The maps hold value offsets; strings are only decoded for
+// the values asked for.
+final class ParsedRequest {
+
+    private static final byte[] COOKIE = "Cookie".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_TYPE = "Content-Type".getBytes(StandardCharsets.US_ASCII);
+    private static final String FORM_CONTENT_TYPE = "application/x-www-form-urlencoded";
+
+    // Called with each name and its decoded value, in request order
+    interface Visitor {
+        void visit(RuleType type, String name, String value);
+    }
+
+    private final byte[] src;
+    private final Head head;
+    // Name to {valueStart, valueEnd} of its first occurrence; header names are lower-cased
+    private Map<String, int[]> headers;
+    private Map<String, int[]> cookies;
+    private Map<String, int[]> urlParams;
+    private Map<String, int[]> bodyParams;
+
+    private ParsedRequest(byte[] src) {
+        this.src = src;
+        this.head = Head.parse(src);
+    }
+
+    static ParsedRequest parse(byte[] request) {
+        return new ParsedRequest(request);
+    }
+
+    byte[] bytes() {
+        return src;
+    }
+
+    // Value of the first header, cookie or parameter with that name, or null.
+    // Parameter values are returned as they appear, still URL-encoded. Fields
+    // of a JSON body are found with one scan each; see jsonValues for several.
+    String value(RuleType type, String name) {
+        if (type == RuleType.JSON_FIELD) {
+            return jsonValues(new String[][]{JsonFieldRewriter.parsePointer(name)})[0];
+        }
+        if (type == RuleType.POST_BODY_PARAMETER && isJsonBody()) {
+            return jsonValues(new String[][]{{name}})[0];
+        }
+        Map<String, int[]> names = names(type);
+        if (names == null) {
+            return null;
+        }
+        int[] span = names.get(type == RuleType.HEADER ? name.toLowerCase(Locale.ROOT) : name);
+        return span != null ? decode(span) : null;
+    }
+
+    // Values at the JSON Pointers in a JSON body, found in one scan; null where missing.
+    // Strings are decoded and other values returned as JSON text.
+    String[] jsonValues(String[][] pointers) {
+        return JsonFieldRewriter.values(src, head.bodyStart, src.length, pointers);
+    }
+
+    private boolean isJsonBody() {
+        String contentType = head.value(CONTENT_TYPE);
+        return contentType != null && RequestRewriter.isJson(contentType.toLowerCase(Locale.ROOT));
+    }
+
+    // Visits the first occurrence of every name; header names are lower-cased
+    void forEach(Visitor visitor) {
+        RuleType[] types = {RuleType.URL_PARAMETER, RuleType.HEADER, RuleType.COOKIE, RuleType.POST_BODY_PARAMETER};
+        for (RuleType type : types) {
+            for (Map.Entry<String, int[]> entry : names(type).entrySet()) {
+                visitor.visit(type, entry.getKey(), decode(entry.getValue()));
+            }
+        }
+    }
+
+    private Map<String, int[]> names(RuleType type) {
+        switch (type) {
+            case HEADER:
+                if (headers == null) {
+                    headers = indexHeaders();
+                }
+                return headers;
+            case COOKIE:
+                if (cookies == null) {
+                    cookies = indexCookies();
+                }
+                return cookies;
+            case URL_PARAMETER:
+                if (urlParams == null) {
+                    urlParams = indexQuery();
+                }
+                return urlParams;
+            case POST_BODY_PARAMETER:
+                if (bodyParams == null) {
+                    bodyParams = indexBody();
+                }
+                return bodyParams;
+            default:
+                return null;
+        }
+    }
+
+    private Map<String, int[]> indexHeaders() {
+        Map<String, int[]> names = new LinkedHashMap<>();
+        for (int h = 0; h < head.count; h++) {
+            String name = new String(src, head.start(h), head.nameEnd(h) - head.start(h), StandardCharsets.UTF_8)
+                    .toLowerCase(Locale.ROOT);
+            names.putIfAbsent(name, new int[]{head.valueStart(h), head.valueEnd(h)});
+        }
+        return names;
+    }
+
+    // Across every Cookie header, the first occurrence of a name wins
+    private Map<String, int[]> indexCookies() {
+        Map<String, int[]> names = new LinkedHashMap<>();
+        for (int h = 0; h < head.count; h++) {
+            if (!RequestRewriter.equalsIgnoreCase(src, head.start(h), head.nameEnd(h), COOKIE)) {
+                continue;
+            }
+            int to = head.valueEnd(h);
+            int pos = head.valueStart(h);
+            while (pos < to) {
+                int semi = RequestRewriter.indexOf(src, (byte) ';', pos, to);
+                int pairEnd = semi >= 0 ? semi : to;
+                int eq = RequestRewriter.indexOf(src, (byte) '=', pos, pairEnd);
+                if (eq >= 0) {
+                    int nameStart = skipSpace(pos, eq);
+                    int nameEnd = trimEnd(nameStart, eq);
+                    if (nameEnd > nameStart) {
+                        int valueStart = skipSpace(eq + 1, pairEnd);
+                        names.putIfAbsent(new String(src, nameStart, nameEnd - nameStart, StandardCharsets.UTF_8),
+                                new int[]{valueStart, trimEnd(valueStart, pairEnd)});
+                    }
+                }
+                pos = pairEnd + 1;
+            }
+        }
+        return names;
+    }
+
+    private Map<String, int[]> indexQuery() {
+        // METHOD SP target SP version; the target runs to the last space
+        int lineEnd = head.requestLineEnd;
+        int targetStart = RequestRewriter.indexOf(src, (byte) ' ', 0, lineEnd) + 1;
+        int targetEnd = lineEnd;
+        for (int i = lineEnd - 1; i > targetStart; i--) {
+            if (src[i] == ' ') {
+                targetEnd = i;
+                break;
+            }
+        }
+        int fragment = RequestRewriter.indexOf(src, (byte) '#', targetStart, targetEnd);
+        int pathEnd = fragment >= 0 ? fragment : targetEnd;
+        int query = RequestRewriter.indexOf(src, (byte) '?', targetStart, pathEnd);
+        return query >= 0 ? indexParams(query + 1, pathEnd) : new LinkedHashMap<>();
+    }
+
+    // Form fields and multipart parts, as Use rule rewrites both; JSON fields are
+    // looked up by value, and XML bodies have no parameters here
+    private Map<String, int[]> indexBody() {
+        String contentType = head.value(CONTENT_TYPE);
+        String mimeType = contentType != null ? contentType.toLowerCase(Locale.ROOT) : "";
+        if (mimeType.startsWith(FORM_CONTENT_TYPE)) {
+            return indexParams(head.bodyStart, src.length);
+        }
+        if (mimeType.startsWith("multipart/")) {
+            return MultipartRewriter.fields(src, head.bodyStart, src.length, contentType);
+        }
+        return new LinkedHashMap<>();
+    }
+
+    private Map<String, int[]> indexParams(int from, int to) {
+        Map<String, int[]> names = new LinkedHashMap<>();
+        int pos = from;
+        while (pos < to) {
+            int amp = RequestRewriter.indexOf(src, (byte) '&', pos, to);
+            int end = amp >= 0 ? amp : to;
+            int eq = RequestRewriter.indexOf(src, (byte) '=', pos, end);
+            int nameEnd = eq >= 0 ? eq : end;
+            if (nameEnd > pos) {
+                names.putIfAbsent(new String(src, pos, nameEnd - pos, StandardCharsets.UTF_8),
+                        eq >= 0 ? new int[]{eq + 1, end} : new int[]{end, end});
+            }
+            pos = end + 1;
+        }
+        return names;
+    }
+
+    private String decode(int[] span) {
+        return new String(src, span[0], span[1] - span[0], StandardCharsets.UTF_8);
+    }
+
+    private int skipSpace(int from, int to) {
+        while (from < to && (src[from] == ' ' || src[from] == '\t')) {
+            from++;
+        }
+        return from;
+    }
+
+    private int trimEnd(int from, int to) {
+        while (to > from && (src[to - 1] == ' ' || src[to - 1] == '\t')) {
+            to--;
+        }
+        return to;
+    }
+}
@@ -0,0 +1,201 @@
+package com.replacer;
+
+import com.replacer.RuleSet.Row;
+
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+// Applies the "raw" rows, which match anywhere in the request line, headers or
+// body, or anywhere in a response body. Regex rows run one after another in row
+// order; literal rows are all replaced together in one scan, leftmost and
+// longest match first. Both read the bytes in place and write straight into the
+// result, so a large body is neither decoded nor copied when nothing matches.
+final class RawRewriter {
+
+    private RawRewriter() {
+    }
+
+    // Returns the same array when nothing matched
+    static byte[] rewrite(byte[] request, RuleSet.Rule rule) {
+        return rewrite(request, request.length, rule);
+    }
+
+    // Searches request[0, to) and copies the rest as it is. Returns the same
+    // array when nothing matched.
+    static byte[] rewrite(byte[] request, int to, RuleSet.Rule rule) {
+        byte[] result = rewrite(request, 0, to, rule.regexEdits(), rule.literals(), rule.literalEdits());
+        if (result == null) {
+            return request;
+        }
+        if (to == request.length) {
+            return result;
+        }
+        return new ByteBuilder(result.length + request.length - to)
+                .append(result).append(request, to, request.length).toByteArray();
+    }
+
+    // src[from, to) with the regex rows and then the literal rows applied, or
+    // null when nothing matched
+    static byte[] rewrite(byte[] src, int from, int to, Row[] regexRows, LiteralMatcher literals, Row[] literalRows) {
+        byte[] result = null;
+        for (Row row : regexRows) {
+            byte[] replaced = result == null ? replaceRegex(src, from, to, row)
+                    : replaceRegex(result, 0, result.length, row);
+            if (replaced != null) {
+                result = replaced;
+            }
+        }
+        if (literals != null) {
+            byte[] replaced = result == null ? replaceLiterals(src, from, to, literals, literalRows)
+                    : replaceLiterals(result, 0, result.length, literals, literalRows);
+            if (replaced != null) {
+                result = replaced;
+            }
+        }
+        return result;
+    }
+
+    // Returns the same array when the pattern doesn't match
+    static byte[] replaceRegex(byte[] src, Row row) {
+        byte[] replaced = replaceRegex(src, 0, src.length, row);
+        return replaced != null ? replaced : src;
+    }
+
+    // src[from, to) with every match replaced, or null when there is none
+    static byte[] replaceRegex(byte[] src, int from, int to, Row row) {
+        // ISO-8859-1 maps every byte to one char, so nothing is lost or shifted
+        Matcher matcher = row.pattern().matcher(new ByteChars(src, from, to));
+        if (!matcher.find()) {
+            return null;
+        }
+        row.stats().recordUpdate();
+        String replacement = row.regexReplacement();
+        // Without group references or escapes the replacement is written as it is
+        boolean plain = replacement.indexOf('$') < 0 && replacement.indexOf('\\') < 0;
+        ByteBuilder out = new ByteBuilder(to - from + 64);
+        int copyFrom = from;
+        do {
+            out.append(src, copyFrom, from + matcher.start());
+            if (plain) {
+                out.append(row.replaceBytes());
+            } else {
+                try {
+                    appendReplacement(matcher, replacement, out);
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    // Compiling rejects such rows; never fail a request over one
+                    return null;
+                }
+            }
+            copyFrom = from + matcher.end();
+        } while (matcher.find());
+        out.append(src, copyFrom, to);
+        return out.toByteArray();
+    }
+
+    // Why the replacement can't be used with the pattern, or null when it can:
+    // a dangling '\' or '$', or a reference to a group the pattern doesn't have
+    static String replacementError(Pattern pattern, String replacement) {
+        if (replacement.indexOf('$') < 0 && replacement.indexOf('\\') < 0) {
+            return null;
+        }
+        Matcher matcher;
+        try {
+            // Matches the empty string with the pattern's groups, all of them unset. The
+            // line break ends a comment in (?x) mode before the wrapper closes.
+            matcher = Pattern.compile("(?:" + pattern.pattern() + "\n)|", pattern.flags()).matcher("");
+        } catch (PatternSyntaxException e) {
+            return null;
+        }
+        matcher.find();
+        try {
+            appendReplacement(matcher, replacement, new ByteBuilder(replacement.length()));
+            return null;
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            return e.getMessage();
+        }
+    }
+
+    // Matcher.appendReplacement's syntax, written as bytes: $n and ${name}
+    // insert a group and a backslash makes the next char literal
+    private static void appendReplacement(Matcher matcher, String replacement, ByteBuilder out) {
+        int i = 0;
+        while (i < replacement.length()) {
+            char c = replacement.charAt(i++);
+            if (c == '\\') {
+                if (i == replacement.length()) {
+                    throw new IllegalArgumentException("character to be escaped is missing");
+                }
+                out.append((byte) replacement.charAt(i++));
+            } else if (c == '$') {
+                if (i == replacement.length()) {
+                    throw new IllegalArgumentException("Illegal group reference: group index is missing");
+                }
+                String group;
+                if (replacement.charAt(i) == '{') {
+                    int close = replacement.indexOf('}', i);
+                    if (close < 0) {
+                        throw new IllegalArgumentException("named capturing group is missing trailing '}'");
+                    }
+                    group = matcher.group(replacement.substring(i + 1, close));
+                    i = close + 1;
+                } else {
+                    int number = replacement.charAt(i) - '0';
+                    if (number < 0 || number > 9) {
+                        throw new IllegalArgumentException("Illegal group reference");
+                    }
+                    i++;
+                    // Further digits belong to the reference while it still names a group
+                    while (i < replacement.length()) {
+                        int digit = replacement.charAt(i) - '0';
+                        if (digit < 0 || digit > 9 || number * 10 + digit > matcher.groupCount()) {
+                            break;
+                        }
+                        number = number * 10 + digit;
+                        i++;
+                    }
+                    group = matcher.group(number);
+                }
+                if (group != null) {
+                    out.appendLatin1(group);
+                }
+            } else {
+                out.append((byte) c);
+            }
+        }
+    }
+
+    // src[from, to) with every literal replaced, or null when none occurs
+    private static byte[] replaceLiterals(byte[] src, int from, int to, LiteralMatcher literals, Row[] rows) {
+        long match = literals.next(src, from, to);
+        if (match < 0) {
+            return null;
+        }
+        boolean[] counted = new boolean[rows.length];
+        ByteBuilder out = new ByteBuilder(to - from + 64);
+        int copyFrom = from;
+        while (match >= 0) {
+            int start = (int) (match >>> 32);
+            int p = (int) match;
+            if (!counted[p]) {
+                rows[p].stats().recordUpdate();
+                counted[p] = true;
+            }
+            out.append(src, copyFrom, start).append(rows[p].replaceBytes());
+            copyFrom = start + literals.pattern(p).length;
+            match = literals.next(src, copyFrom, to);
+        }
+        out.append(src, copyFrom, to);
+        return out.toByteArray();
+    }
+
+    // The text of the first match of a regex row, or null
+    static String extract(byte[] request, Row row) {
+        Matcher matcher = row.pattern().matcher(new String(request, StandardCharsets.ISO_8859_1));
+        if (!matcher.find()) {
+            return null;
+        }
+        return new String(matcher.group().getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+    }
+}
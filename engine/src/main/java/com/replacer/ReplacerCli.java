@@ -0,0 +1,258 @@
+package com.replacer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+// Applies rules from an exported rules file outside Burp, to a HAR file or to
+// a directory of raw HTTP requests, one request per file. Requests are
+// rewritten on all cores and streamed, so input of any size runs in bounded
+// memory. The chosen rules are merged in file order, as live rules are in Burp,
+// and a rule with a scope only applies to the requests it covers.
+public final class ReplacerCli {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: replacer-cli --rules FILE (--har FILE | --dir DIR) --out PATH [options]",
+            "",
+            "  --rules FILE    rules exported from the Replacer tab",
+            "  --har FILE      rewrite the requests in a HAR file; --out is the new HAR file",
+            "  --dir DIR       rewrite every file under DIR as a raw HTTP request; --out is a",
+            "                  directory that gets the same layout",
+            "  --out PATH      where to write the result",
+            "  --rule NAME     apply only this rule; repeat for more (default: every rule)",
+            "  --var N=VALUE   set the variable {{N}}, over the value in the rules file; repeat",
+            "                  for more",
+            "  --threads N     worker threads (default: one per core)");
+
+    private static final Set<String> OPTIONS = Set.of("--rules", "--har", "--dir", "--out", "--rule", "--var",
+            "--threads");
+
+    private ReplacerCli() {
+    }
+
+    public static void main(String[] args) {
+        System.exit(run(args));
+    }
+
+    static int run(String[] args) {
+        Path rulesFile = null;
+        Path har = null;
+        Path dir = null;
+        Path out = null;
+        Set<String> ruleNames = new LinkedHashSet<>();
+        Map<String, String> variables = new LinkedHashMap<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String arg = args[i];
+                if (arg.equals("-h") || arg.equals("--help")) {
+                    System.out.println(USAGE);
+                    return 0;
+                }
+                if (!OPTIONS.contains(arg)) {
+                    return usage("Unknown option " + arg);
+                }
+                if (i + 1 == args.length) {
+                    return usage("Missing value for " + arg);
+                }
+                String value = args[++i];
+                switch (arg) {
+                    case "--rules":
+                        rulesFile = Paths.get(value);
+                        break;
+                    case "--har":
+                        har = Paths.get(value);
+                        break;
+                    case "--dir":
+                        dir = Paths.get(value);
+                        break;
+                    case "--out":
+                        out = Paths.get(value);
+                        break;
+                    case "--rule":
+                        ruleNames.add(value);
+                        break;
+                    case "--var":
+                        int eq = value.indexOf('=');
+                        if (eq < 0 || !Template.isName(value.substring(0, eq))) {
+                            return usage("--var needs NAME=VALUE");
+                        }
+                        variables.put(value.substring(0, eq), value.substring(eq + 1));
+                        break;
+                    default:
+                        threads = Integer.parseInt(value);
+                        break;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return usage("--threads needs a number");
+        }
+        if (rulesFile == null || out == null || (har == null) == (dir == null) || threads < 1) {
+            return usage(null);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "replacer-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            RuleSet rules = loadRules(rulesFile, ruleNames, variables);
+            if (rules == null) {
+                return 1;
+            }
+            long start = System.nanoTime();
+            String summary;
+            if (har != null) {
+                summary = rewriteHar(rules, har, out, pool, threads);
+            } else {
+                summary = rewriteDirectory(rules, dir, out, pool, threads);
+            }
+            System.err.printf("%s in %d ms on %d thread(s)%n", summary, (System.nanoTime() - start) / 1_000_000, threads);
+            return 0;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("replacer-cli: " + e.getMessage());
+            return 1;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static int usage(String error) {
+        if (error != null) {
+            System.err.println("replacer-cli: " + error);
+        }
+        System.err.println(USAGE);
+        return 2;
+    }
+
+    // The chosen rules, marked live, or null after reporting why there are none
+    private static RuleSet loadRules(Path rulesFile, Set<String> ruleNames, Map<String, String> variables)
+            throws IOException {
+        JsonUtil.ReadResult result;
+        try (Reader reader = Files.newBufferedReader(rulesFile, StandardCharsets.UTF_8)) {
+            result = JsonUtil.readRules(reader, JsonUtil.Progress.NONE);
+        }
+        for (JsonUtil.Problem problem : result.problems) {
+            System.err.println(rulesFile + ": skipped: " + problem);
+        }
+        Set<String> missing = new LinkedHashSet<>(ruleNames);
+        for (JsonUtil.RuleData data : result.rules) {
+            data.live = ruleNames.isEmpty() || ruleNames.contains(data.name);
+            missing.remove(data.name);
+        }
+        if (!missing.isEmpty()) {
+            System.err.println("replacer-cli: no rule named " + String.join(", ", missing) + " in " + rulesFile);
+            return null;
+        }
+        // Variables stay as they are for the whole run
+        Variables values = new Variables(() -> {
+        });
+        values.setAll(result.variables);
+        values.setAll(variables);
+        RuleSet rules = RuleSet.compile(result.rules, new RuleMetrics(), null, values);
+        for (RuleSet.RowError error : rules.errors()) {
+            System.err.println(rulesFile + ": skipped: " + error);
+        }
+        if (!rules.hasLiveRules()) {
+            System.err.println("replacer-cli: " + rulesFile + " has no rules to apply");
+            return null;
+        }
+        return rules;
+    }
+
+    private static String rewriteHar(RuleSet rules, Path har, Path out, ExecutorService pool, int threads)
+            throws IOException {
+        HarRewriter rewriter = new HarRewriter(rules, pool, threads);
+        // Written next to the target and moved into place, so a failure never leaves half a file
+        Path parent = out.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(parent, out.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedReader reader = Files.newBufferedReader(har, StandardCharsets.UTF_8);
+                 Writer writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                rewriter.rewrite(reader, writer);
+            }
+            Files.move(temp, out, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        String summary = "Rewrote " + rewriter.rewritten() + " of " + rewriter.entries() + " HAR entries";
+        return rewriter.failed() > 0 ? summary + " (" + rewriter.failed() + " could not be read)" : summary;
+    }
+
+    // Files are listed lazily and at most a few per thread are in flight
+    private static String rewriteDirectory(RuleSet rules, Path dir, Path out, ExecutorService pool, int threads)
+            throws IOException {
+        if (!Files.isDirectory(dir)) {
+            throw new IOException(dir + " is not a directory");
+        }
+        Path outDir = out.toAbsolutePath().normalize();
+        if (outDir.equals(dir.toAbsolutePath().normalize())) {
+            throw new IOException("--out must be a different directory from --dir");
+        }
+        AtomicInteger rewritten = new AtomicInteger();
+        int files = 0;
+        Deque<Future<?>> pending = new ArrayDeque<>();
+        try (Stream<Path> walk = Files.walk(dir)) {
+            // An output directory inside the input one is not read back
+            Iterator<Path> paths = walk.filter(Files::isRegularFile)
+                    .filter(path -> !path.toAbsolutePath().normalize().startsWith(outDir))
+                    .iterator();
+            while (paths.hasNext()) {
+                Path file = paths.next();
+                Path target = outDir.resolve(dir.relativize(file).toString());
+                files++;
+                pending.add(pool.submit(() -> {
+                    byte[] request = Files.readAllBytes(file);
+                    RuleSet.Rule rule = rules.liveRule(RequestTarget.parse(request));
+                    byte[] result = rule != null ? RequestRewriter.rewrite(request, rule) : request;
+                    if (!Arrays.equals(request, result)) {
+                        rewritten.incrementAndGet();
+                    }
+                    Files.createDirectories(target.getParent());
+                    Files.write(target, result);
+                    return null;
+                }));
+                if (pending.size() >= threads * 4) {
+                    await(pending.poll());
+                }
+            }
+            while (!pending.isEmpty()) {
+                await(pending.poll());
+            }
+        }
+        return "Rewrote " + rewritten.get() + " of " + files + " requests";
+    }
+
+    private static void await(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+}
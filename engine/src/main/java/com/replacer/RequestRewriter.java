@@ -0,0 +1,437 @@
+package com.replacer;
+
+import com.replacer.RuleSet.Row;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Locale;
+
+// Applies a compiled rule to a raw HTTP request. All edits are planned from the
+// rule's grouped rows up front and the result is written in one pass over the
+// original bytes, so the cost depends on the request size, not the row count.
+public final class RequestRewriter {
+
+    private static final byte[] CRLF = {'\r', '\n'};
+    private static final byte[] LF = {'\n'};
+    private static final byte[] COLON_SPACE = {':', ' '};
+    private static final byte[] COOKIE = "Cookie".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_LENGTH = "Content-Length".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_TYPE = "Content-Type".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRANSFER_ENCODING = "Transfer-Encoding".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] FORM_CONTENT_TYPE = "application/x-www-form-urlencoded".getBytes(StandardCharsets.US_ASCII);
+
+    private RequestRewriter() {
+    }
+
+    // Returns the request unchanged (same array) when the rule has nothing to apply
+    public static byte[] rewrite(byte[] request, RuleSet.Rule rule) {
+        if (rule == null || !rule.hasRequestRows()) {
+            return request;
+        }
+        // Resolved once up front so every edit below sees the same harvested values
+        rule = rule.resolve();
+        long startNanos = System.nanoTime();
+        byte[] result = rule.rewrite(request, true, RequestRewriter::apply);
+        rule.recordApplication(System.nanoTime() - startNanos, RuleSet.Rule::hasRequestRows);
+        return result;
+    }
+
+    private static byte[] apply(byte[] request, RuleSet.Rule rule) {
+        Head head = Head.parse(request);
+        // Chunked bodies keep their framing, so body rows skip them like response rows do
+        boolean chunked = head.isChunked();
+
+        // Raw rows go first, so named rows see and win over what they produced.
+        // Only the request line and headers of a chunked request are searched.
+        boolean rawChanged = false;
+        if (rule.hasRawRows()) {
+            byte[] raw = RawRewriter.rewrite(request, chunked ? head.bodyStart : request.length, rule);
+            if (raw != request) {
+                rawChanged = true;
+                request = raw;
+                head = Head.parse(request);
+                chunked = head.isChunked();
+            }
+        }
+        byte[] eol = head.eol;
+
+        // Form and JSON bodies are rebuilt up front; multipart bodies are only planned
+        // here and copied straight into the output, once their new length is known
+        byte[] newBody = null;
+        MultipartRewriter multipart = null;
+        int bodyLength = -1;
+        boolean formCreated = false;
+        if (!chunked && (rule.bodyEdits().length > 0 || rule.jsonEdits().length > 0)) {
+            String contentType = head.value(CONTENT_TYPE);
+            String mimeType = contentType != null ? contentType.toLowerCase(Locale.ROOT) : "";
+            boolean json = isJson(mimeType);
+            if (json || rule.bodyEdits().length == 0) {
+                // Body parameters of a JSON body are its top-level fields
+                Row[] edits = json ? rule.jsonBodyEdits() : rule.jsonEdits();
+                newBody = JsonFieldRewriter.rewrite(request, head.bodyStart, request.length, edits);
+                if (newBody != null) {
+                    bodyLength = newBody.length;
+                }
+            } else if (mimeType.startsWith("multipart/")) {
+                multipart = MultipartRewriter.plan(request, head.bodyStart, request.length, contentType, rule.bodyEdits());
+                if (multipart != null) {
+                    bodyLength = multipart.length();
+                }
+            } else {
+                ByteBuilder body = new ByteBuilder(request.length - head.bodyStart + 64);
+                writeParams(request, head.bodyStart, request.length, rule.bodyEdits(), body);
+                newBody = body.toByteArray();
+                bodyLength = newBody.length;
+                formCreated = contentType == null && head.bodyStart == request.length && bodyLength > 0
+                        && !hasEdit(rule.headerEdits(), CONTENT_TYPE);
+            }
+        }
+
+        // The head is built on its own so the final array can be allocated at its
+        // exact size and the body copied into it only once
+        ByteBuilder out = new ByteBuilder(head.bodyStart + 256);
+
+        // Request line
+        if (rule.urlEdits().length > 0) {
+            writeRequestLine(request, head.requestLineEnd, rule.urlEdits(), out);
+        } else {
+            out.append(request, 0, head.requestLineEnd);
+        }
+        out.append(eol);
+
+        // Existing headers, updated in place
+        Row[] headerEdits = rule.headerEdits();
+        boolean[] headerFound = new boolean[headerEdits.length];
+        Row[] cookieEdits = rule.cookieEdits();
+        boolean[] cookieApplied = new boolean[cookieEdits.length];
+        // Cookies missing from every Cookie header are appended to the last one
+        int lastCookie = -1;
+        if (cookieEdits.length > 0) {
+            for (int h = 0; h < head.count; h++) {
+                if (equalsIgnoreCase(request, head.start(h), head.nameEnd(h), COOKIE)) {
+                    lastCookie = h;
+                }
+            }
+        }
+        // A raw row may have changed the body, so its length is always rewritten then
+        if (rawChanged && bodyLength < 0 && !chunked) {
+            bodyLength = request.length - head.bodyStart;
+        }
+        boolean lengthDone = bodyLength < 0 || hasEdit(headerEdits, CONTENT_LENGTH);
+        for (int h = 0; h < head.count; h++) {
+            int start = head.start(h);
+            int nameEnd = head.nameEnd(h);
+            int edit = findEdit(headerEdits, headerFound, request, start, nameEnd);
+            if (edit >= 0) {
+                headerFound[edit] = true;
+                headerEdits[edit].stats().recordUpdate();
+                out.append(request, start, head.colon(h)).append(COLON_SPACE)
+                        .append(headerEdits[edit].headerValueBytes()).append(eol);
+            } else if (lastCookie >= 0 && equalsIgnoreCase(request, start, nameEnd, COOKIE)) {
+                out.append(request, start, head.colon(h)).append(COLON_SPACE);
+                CookieEditor.rewrite(request, head.valueStart(h), head.valueEnd(h), cookieEdits, cookieApplied,
+                        h == lastCookie, out);
+                out.append(eol);
+            } else if (!lengthDone && equalsIgnoreCase(request, start, nameEnd, CONTENT_LENGTH)) {
+                lengthDone = true;
+                out.append(request, start, head.colon(h)).append(COLON_SPACE)
+                        .appendAscii(Integer.toString(bodyLength)).append(eol);
+            } else {
+                out.append(request, start, head.end(h)).append(eol);
+            }
+        }
+
+        // Headers the request didn't have
+        for (int i = 0; i < headerEdits.length; i++) {
+            if (!headerFound[i]) {
+                headerEdits[i].stats().recordInsert();
+                out.append(headerEdits[i].headerNameBytes()).append(COLON_SPACE)
+                        .append(headerEdits[i].headerValueBytes()).append(eol);
+            }
+        }
+        if (cookieEdits.length > 0 && lastCookie < 0) {
+            out.append(COOKIE).append(COLON_SPACE);
+            CookieEditor.rewrite(request, 0, 0, cookieEdits, cookieApplied, true, out);
+            out.append(eol);
+        }
+        if (formCreated) {
+            out.append(CONTENT_TYPE).append(COLON_SPACE).append(FORM_CONTENT_TYPE).append(eol);
+        }
+        if (!lengthDone && bodyLength > 0) {
+            out.append(CONTENT_LENGTH).append(COLON_SPACE).appendAscii(Integer.toString(bodyLength)).append(eol);
+        }
+
+        out.append(eol);
+        if (bodyLength < 0) {
+            bodyLength = request.length - head.bodyStart;
+        }
+        ByteBuilder result = new ByteBuilder(out.length() + bodyLength);
+        result.append(out);
+        if (newBody != null) {
+            result.append(newBody);
+        } else if (multipart != null) {
+            multipart.writeTo(result);
+        } else {
+            result.append(request, head.bodyStart, request.length);
+        }
+        return result.toByteArray();
+    }
+
+    // application/json, text/json and suffixed types such as application/vnd.api+json
+    static boolean isJson(String lowerCaseContentType) {
+        int semicolon = lowerCaseContentType.indexOf(';');
+        String mimeType = (semicolon >= 0 ? lowerCaseContentType.substring(0, semicolon) : lowerCaseContentType).trim();
+        return mimeType.endsWith("/json") || mimeType.endsWith("+json");
+    }
+
+    private static void writeRequestLine(byte[] request, int lineEnd, Row[] urlEdits, ByteBuilder out) {
+        // METHOD SP target SP version; the target runs to the last space
+        int targetStart = indexOf(request, (byte) ' ', 0, lineEnd) + 1;
+        int targetEnd = lastIndexOf(request, (byte) ' ', targetStart, lineEnd);
+        if (targetStart == 0 || targetEnd < 0) {
+            targetEnd = lineEnd;
+        }
+        int fragment = indexOf(request, (byte) '#', targetStart, targetEnd);
+        int pathEnd = fragment >= 0 ? fragment : targetEnd;
+        int query = indexOf(request, (byte) '?', targetStart, pathEnd);
+
+        if (query >= 0) {
+            out.append(request, 0, query + 1);
+            writeParams(request, query + 1, pathEnd, urlEdits, out);
+        } else {
+            out.append(request, 0, pathEnd).append((byte) '?');
+            writeParams(request, pathEnd, pathEnd, urlEdits, out);
+        }
+        out.append(request, pathEnd, lineEnd);
+    }
+
+    // Rewrites an a=1&b=2 parameter list, updating the first occurrence of each
+    // edited name and appending the names that were missing
+    private static void writeParams(byte[] src, int from, int to, Row[] edits, ByteBuilder out) {
+        boolean[] found = new boolean[edits.length];
+        int pos = from;
+        while (pos < to) {
+            int amp = indexOf(src, (byte) '&', pos, to);
+            int end = amp >= 0 ? amp : to;
+            int eq = indexOf(src, (byte) '=', pos, end);
+            int nameEnd = eq >= 0 ? eq : end;
+            int edit = findParam(edits, found, src, pos, nameEnd);
+            if (edit >= 0) {
+                found[edit] = true;
+                edits[edit].stats().recordUpdate();
+                out.append(src, pos, nameEnd).append((byte) '=').append(edits[edit].paramValueBytes());
+            } else {
+                out.append(src, pos, end);
+            }
+            if (amp >= 0) {
+                out.append((byte) '&');
+            }
+            pos = end + 1;
+        }
+        boolean empty = to == from || src[to - 1] == '&';
+        for (int i = 0; i < edits.length; i++) {
+            if (!found[i]) {
+                edits[i].stats().recordInsert();
+                if (!empty) {
+                    out.append((byte) '&');
+                }
+                out.append(edits[i].paramNameBytes()).append((byte) '=').append(edits[i].paramValueBytes());
+                empty = false;
+            }
+        }
+    }
+
+    static boolean hasEdit(Row[] headerEdits, byte[] name) {
+        for (Row row : headerEdits) {
+            byte[] candidate = row.headerNameBytes();
+            if (equalsIgnoreCase(candidate, 0, candidate.length, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static int findEdit(Row[] edits, boolean[] done, byte[] src, int from, int to) {
+        for (int i = 0; i < edits.length; i++) {
+            if (!done[i] && equalsIgnoreCase(src, from, to, edits[i].headerNameBytes())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int findParam(Row[] edits, boolean[] done, byte[] src, int from, int to) {
+        for (int i = 0; i < edits.length; i++) {
+            if (!done[i] && equalsExact(src, from, to, edits[i].paramNameBytes())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static boolean equalsExact(byte[] src, int from, int to, byte[] other) {
+        if (to - from != other.length) {
+            return false;
+        }
+        for (int i = 0; i < other.length; i++) {
+            if (src[from + i] != other[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static boolean equalsIgnoreCase(byte[] src, int from, int to, byte[] other) {
+        if (to - from != other.length) {
+            return false;
+        }
+        for (int i = 0; i < other.length; i++) {
+            int a = src[from + i];
+            int b = other[i];
+            if (a != b && toLower(a) != toLower(b)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int toLower(int b) {
+        return b >= 'A' && b <= 'Z' ? b + 32 : b;
+    }
+
+    static int indexOf(byte[] src, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (src[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(byte[] src, byte b, int from, int to) {
+        for (int i = to - 1; i >= from; i--) {
+            if (src[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Offsets of the request line and header lines, found in one scan
+    static final class Head {
+        private final byte[] src;
+        int requestLineEnd;
+        byte[] eol = CRLF;
+        int count;
+        int bodyStart;
+        // Per header: line start, colon, line end (before CR/LF)
+        private int[] offsets = new int[3 * 16];
+
+        private Head(byte[] src) {
+            this.src = src;
+        }
+
+        static Head parse(byte[] request) {
+            Head head = new Head(request);
+            int nl = indexOf(request, (byte) '\n', 0, request.length);
+            if (nl < 0) {
+                head.requestLineEnd = request.length;
+                head.bodyStart = request.length;
+                return head;
+            }
+            boolean cr = nl > 0 && request[nl - 1] == '\r';
+            head.requestLineEnd = cr ? nl - 1 : nl;
+            head.eol = cr ? CRLF : LF;
+
+            int pos = nl + 1;
+            while (pos < request.length) {
+                int lineNl = indexOf(request, (byte) '\n', pos, request.length);
+                int lineEnd = lineNl < 0 ? request.length : lineNl;
+                int contentEnd = lineEnd > pos && request[lineEnd - 1] == '\r' ? lineEnd - 1 : lineEnd;
+                if (contentEnd == pos) {
+                    head.bodyStart = lineNl < 0 ? request.length : lineNl + 1;
+                    return head;
+                }
+                int colon = indexOf(request, (byte) ':', pos, contentEnd);
+                head.add(pos, colon >= 0 ? colon : contentEnd, contentEnd);
+                pos = lineEnd + 1;
+            }
+            head.bodyStart = request.length;
+            return head;
+        }
+
+        private void add(int start, int colon, int end) {
+            if (3 * (count + 1) > offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[3 * count] = start;
+            offsets[3 * count + 1] = colon;
+            offsets[3 * count + 2] = end;
+            count++;
+        }
+
+        int start(int h) {
+            return offsets[3 * h];
+        }
+
+        int colon(int h) {
+            return offsets[3 * h + 1];
+        }
+
+        int end(int h) {
+            return offsets[3 * h + 2];
+        }
+
+        // Header name without the whitespace some clients leave before the colon
+        int nameEnd(int h) {
+            int end = colon(h);
+            while (end > start(h) && isSpace(src[end - 1])) {
+                end--;
+            }
+            return end;
+        }
+
+        // Header value with surrounding whitespace trimmed
+        int valueStart(int h) {
+            int start = Math.min(colon(h) + 1, end(h));
+            while (start < valueEnd(h) && isSpace(src[start])) {
+                start++;
+            }
+            return start;
+        }
+
+        int valueEnd(int h) {
+            int end = end(h);
+            while (end > colon(h) + 1 && isSpace(src[end - 1])) {
+                end--;
+            }
+            return end;
+        }
+
+        int find(byte[] name) {
+            for (int h = 0; h < count; h++) {
+                if (equalsIgnoreCase(src, start(h), nameEnd(h), name)) {
+                    return h;
+                }
+            }
+            return -1;
+        }
+
+        boolean isChunked() {
+            String transfer = value(TRANSFER_ENCODING);
+            return transfer != null && transfer.toLowerCase(Locale.ROOT).contains("chunked");
+        }
+
+        String value(byte[] name) {
+            int h = find(name);
+            if (h < 0) {
+                return null;
+            }
+            return new String(src, valueStart(h), valueEnd(h) - valueStart(h), StandardCharsets.ISO_8859_1);
+        }
+
+        private static boolean isSpace(int b) {
+            return b == ' ' || b == '\t';
+        }
+    }
+}
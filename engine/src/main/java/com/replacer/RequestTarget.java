@@ -0,0 +1,100 @@
+package com.replacer;
+
+import com.replacer.RequestRewriter.Head;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+// Where a request goes, as far as rule scopes are concerned. The host is
+// lower-cased without a trailing dot and the path has no query string. A port
+// of 0 means it isn't known and matches any port condition.
+public final class RequestTarget {
+
+    private static final byte[] HOST = "Host".getBytes(StandardCharsets.US_ASCII);
+
+    private final String host;
+    private final int port;
+    private final String path;
+    private final String method;
+
+    public RequestTarget(String host, int port, String path, String method) {
+        this.host = normalizeHost(host);
+        this.port = port;
+        this.path = stripQuery(path);
+        this.method = method != null ? method : "";
+    }
+
+    // From the request line and Host header of a raw request
+    public static RequestTarget parse(byte[] request) {
+        Head head = Head.parse(request);
+        String line = new String(request, 0, head.requestLineEnd, StandardCharsets.ISO_8859_1);
+        int first = line.indexOf(' ');
+        int last = line.lastIndexOf(' ');
+        String method = first > 0 ? line.substring(0, first) : "";
+        String target = first >= 0 ? line.substring(first + 1, last > first ? last : line.length()) : "/";
+        return of(method, target, head.value(HOST));
+    }
+
+    // The target is a path or an absolute URL; a URL's host wins over the Host
+    // header, as it does for servers. The header may be null.
+    public static RequestTarget of(String method, String target, String hostHeader) {
+        String scheme = null;
+        String authority = hostHeader;
+        int schemeEnd = target.indexOf("://");
+        if (schemeEnd > 0 && target.indexOf('/') > schemeEnd) {
+            scheme = target.substring(0, schemeEnd).toLowerCase(Locale.ROOT);
+            int pathStart = target.indexOf('/', schemeEnd + 3);
+            authority = target.substring(schemeEnd + 3, pathStart >= 0 ? pathStart : target.length());
+            target = pathStart >= 0 ? target.substring(pathStart) : "/";
+        }
+        String host = authority != null ? authority : "";
+        int port = 0;
+        // The port follows the last colon, unless that is inside an IPv6 literal
+        int colon = host.lastIndexOf(':');
+        if (colon >= 0 && colon > host.lastIndexOf(']')) {
+            try {
+                port = Integer.parseInt(host.substring(colon + 1));
+            } catch (NumberFormatException e) {
+                port = 0;
+            }
+            host = host.substring(0, colon);
+        } else if ("https".equals(scheme)) {
+            port = 443;
+        } else if ("http".equals(scheme)) {
+            port = 80;
+        }
+        return new RequestTarget(host, port, target, method);
+    }
+
+    public String host() {
+        return host;
+    }
+
+    public int port() {
+        return port;
+    }
+
+    public String path() {
+        return path;
+    }
+
+    public String method() {
+        return method;
+    }
+
+    static String normalizeHost(String host) {
+        if (host == null) {
+            return "";
+        }
+        String lower = host.trim().toLowerCase(Locale.ROOT);
+        return lower.endsWith(".") ? lower.substring(0, lower.length() - 1) : lower;
+    }
+
+    private static String stripQuery(String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        int query = path.indexOf('?');
+        return query >= 0 ? path.substring(0, query) : path;
+    }
+}
@@ -0,0 +1,274 @@
+package com.replacer;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.replacer.RequestRewriter.Head;
+import com.replacer.RuleSet.Row;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+// Pulls the values of harvesting rows out of a raw HTTP response and puts them
+// in the rows' value store slots. Where a value comes from depends on the row:
+//   Header                       the response header of the same name
+//   Cookie                       the last Set-Cookie for that name
+//   URL / POST Body Parameter    the first JSON field of that name, at any depth
+//   JSON Body Field              the value at the row's JSON Pointer
+//   Regex                        the whole first match in the body, as Copy to rule takes it
+// WebSocket rows are harvested from incoming messages instead: a regex row
+// takes the whole first match and a JSON row the value at its pointer.
+final class ResponseHarvester {
+
+    // Bodies are only searched up to this size; headers are always read
+    static final int MAX_SCANNED_LENGTH = 4 * 1024 * 1024;
+
+    private static final byte[] SET_COOKIE = "Set-Cookie".getBytes(StandardCharsets.US_ASCII);
+
+    private ResponseHarvester() {
+    }
+
+    // Returns how many rows got a new value
+    static int harvest(byte[] response, Row[] rows) {
+        Head head = Head.parse(response);
+        // Compressed and chunked bodies are skipped, as ResponseRewriter skips them
+        boolean scanBody = response.length - head.bodyStart <= MAX_SCANNED_LENGTH && !ResponseRewriter.isEncoded(head);
+        Map<String, String> jsonFields = null;
+        Map<Row, String> pointed = null;
+        String text = null;
+        int harvested = 0;
+        for (Row row : rows) {
+            String value = null;
+            switch (row.type()) {
+                case HEADER:
+                    value = header(response, head, row.headerNameBytes());
+                    break;
+                case COOKIE:
+                    value = setCookie(response, head, row.match());
+                    break;
+                case URL_PARAMETER:
+                case POST_BODY_PARAMETER:
+                    if (scanBody) {
+                        if (jsonFields == null) {
+                            jsonFields = jsonFields(response, head.bodyStart, rows);
+                        }
+                        value = jsonFields.get(row.match());
+                    }
+                    break;
+                case JSON_FIELD:
+                    if (scanBody) {
+                        if (pointed == null) {
+                            pointed = pointedValues(response, head.bodyStart, rows, RuleType.JSON_FIELD);
+                        }
+                        value = pointed.get(row);
+                    }
+                    break;
+                case REGEX:
+                    if (scanBody) {
+                        if (text == null) {
+                            text = new String(response, head.bodyStart, response.length - head.bodyStart,
+                                    StandardCharsets.ISO_8859_1);
+                        }
+                        value = firstMatch(text, row);
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if (value != null && row.harvest(value)) {
+                row.stats().recordHarvest();
+                harvested++;
+            }
+        }
+        return harvested;
+    }
+
+    // The WebSocket rows' values in an incoming message. Returns how many rows
+    // got a new value.
+    static int harvestMessage(byte[] message, Row[] rows) {
+        if (message.length > MAX_SCANNED_LENGTH) {
+            return 0;
+        }
+        Map<Row, String> pointed = null;
+        String text = null;
+        int harvested = 0;
+        for (Row row : rows) {
+            String value = null;
+            if (row.type() == RuleType.WEBSOCKET_REGEX) {
+                if (text == null) {
+                    text = new String(message, StandardCharsets.ISO_8859_1);
+                }
+                value = firstMatch(text, row);
+            } else if (row.type() == RuleType.WEBSOCKET_JSON_FIELD) {
+                if (pointed == null) {
+                    pointed = pointedValues(message, 0, rows, RuleType.WEBSOCKET_JSON_FIELD);
+                }
+                value = pointed.get(row);
+            }
+            if (value != null && row.harvest(value)) {
+                row.stats().recordHarvest();
+                harvested++;
+            }
+        }
+        return harvested;
+    }
+
+    // The whole first match; a regex row quotes it when it keeps it as its replacement
+    private static String firstMatch(String text, Row row) {
+        Matcher matcher = row.pattern().matcher(text);
+        if (!matcher.find()) {
+            return null;
+        }
+        return new String(matcher.group().getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+    }
+
+    private static String header(byte[] response, Head head, byte[] name) {
+        int h = head.find(name);
+        if (h < 0) {
+            return null;
+        }
+        int start = head.valueStart(h);
+        return new String(response, start, head.valueEnd(h) - start, StandardCharsets.UTF_8);
+    }
+
+    // An empty value is how servers delete a cookie, so it is not harvested
+    private static String setCookie(byte[] response, Head head, String name) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        String value = null;
+        for (int h = 0; h < head.count; h++) {
+            if (!RequestRewriter.equalsIgnoreCase(response, head.start(h), head.nameEnd(h), SET_COOKIE)) {
+                continue;
+            }
+            int start = head.valueStart(h);
+            int end = head.valueEnd(h);
+            int semicolon = RequestRewriter.indexOf(response, (byte) ';', start, end);
+            int pairEnd = semicolon >= 0 ? semicolon : end;
+            int eq = RequestRewriter.indexOf(response, (byte) '=', start, pairEnd);
+            if (eq < 0 || !RequestRewriter.equalsExact(response, start, trimEnd(response, start, eq), nameBytes)) {
+                continue;
+            }
+            int valueStart = eq + 1;
+            while (valueStart < pairEnd && response[valueStart] == ' ') {
+                valueStart++;
+            }
+            int valueEnd = trimEnd(response, valueStart, pairEnd);
+            if (valueEnd > valueStart) {
+                value = new String(response, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8);
+            }
+        }
+        return value;
+    }
+
+    private static int trimEnd(byte[] src, int from, int to) {
+        while (to > from && src[to - 1] == ' ') {
+            to--;
+        }
+        return to;
+    }
+
+    // One streaming pass over a JSON body, keeping the first string, number or
+    // boolean found for each parameter row's name. Stops once all are found.
+    private static Map<String, String> jsonFields(byte[] response, int bodyStart, Row[] rows) {
+        Map<String, String> found = new HashMap<>();
+        Map<String, Boolean> wanted = new HashMap<>();
+        for (Row row : rows) {
+            if (row.type() == RuleType.URL_PARAMETER || row.type() == RuleType.POST_BODY_PARAMETER) {
+                wanted.put(row.match(), Boolean.TRUE);
+            }
+        }
+        int start = bodyStart;
+        while (start < response.length && isWhitespace(response[start])) {
+            start++;
+        }
+        if (start == response.length || (response[start] != '{' && response[start] != '[')) {
+            return found;
+        }
+        try (JsonReader reader = new JsonReader(new InputStreamReader(
+                new ByteArrayInputStream(response, start, response.length - start), StandardCharsets.UTF_8))) {
+            String name = null;
+            int depth = 0;
+            do {
+                JsonToken token = reader.peek();
+                switch (token) {
+                    case BEGIN_OBJECT:
+                        reader.beginObject();
+                        depth++;
+                        name = null;
+                        break;
+                    case END_OBJECT:
+                        reader.endObject();
+                        depth--;
+                        break;
+                    case BEGIN_ARRAY:
+                        reader.beginArray();
+                        depth++;
+                        name = null;
+                        break;
+                    case END_ARRAY:
+                        reader.endArray();
+                        depth--;
+                        break;
+                    case NAME:
+                        name = reader.nextName();
+                        break;
+                    case STRING:
+                    case NUMBER:
+                        keep(found, wanted, name, reader.nextString());
+                        name = null;
+                        break;
+                    case BOOLEAN:
+                        keep(found, wanted, name, Boolean.toString(reader.nextBoolean()));
+                        name = null;
+                        break;
+                    case NULL:
+                        reader.nextNull();
+                        name = null;
+                        break;
+                    default:
+                        return found;
+                }
+            } while (depth > 0 && found.size() < wanted.size());
+        } catch (IOException | IllegalStateException e) {
+            // Not JSON after all, or truncated; keep what was found before the error
+        }
+        return found;
+    }
+
+    // The value of every row of the type, found in one scan of the body
+    private static Map<Row, String> pointedValues(byte[] response, int bodyStart, Row[] rows, RuleType type) {
+        List<Row> jsonRows = new ArrayList<>();
+        for (Row row : rows) {
+            if (row.type() == type) {
+                jsonRows.add(row);
+            }
+        }
+        String[][] pointers = new String[jsonRows.size()][];
+        for (int i = 0; i < pointers.length; i++) {
+            pointers[i] = jsonRows.get(i).pointer();
+        }
+        String[] values = JsonFieldRewriter.values(response, bodyStart, response.length, pointers);
+        Map<Row, String> found = new HashMap<>();
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                found.put(jsonRows.get(i), values[i]);
+            }
+        }
+        return found;
+    }
+
+    private static void keep(Map<String, String> found, Map<String, Boolean> wanted, String name, String value) {
+        if (name != null && wanted.containsKey(name)) {
+            found.putIfAbsent(name, value);
+        }
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+}
@@ -0,0 +1,205 @@
+package com.replacer;
+
+import com.replacer.RequestRewriter.Head;
+import com.replacer.RuleSet.Row;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+// Applies a compiled rule's response rows to a raw HTTP response. Header and
+// Set-Cookie rows edit the head. Body rows run over the body bytes in place:
+// regex rows in order, then all literals in one scan, then all JSON fields in
+// one scan. A body that is compressed, chunked, too large or of a content type
+// the rows aren't for is never read, and a response nothing changed is
+// returned as the same array, so a large bundle that is out of scope costs a
+// parse of its head and no copy.
+public final class ResponseRewriter {
+
+    // Bodies over this size are passed on untouched
+    static final int MAX_BODY_LENGTH = 32 * 1024 * 1024;
+
+    private static final byte[] COLON_SPACE = {':', ' '};
+    private static final byte[] CONTENT_LENGTH = "Content-Length".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_TYPE = "Content-Type".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_ENCODING = "Content-Encoding".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRANSFER_ENCODING = "Transfer-Encoding".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SET_COOKIE = "Set-Cookie".getBytes(StandardCharsets.US_ASCII);
+
+    private ResponseRewriter() {
+    }
+
+    // Returns the response unchanged (same array) when nothing applied
+    public static byte[] rewrite(byte[] response, RuleSet.Rule rule) {
+        if (rule == null || !rule.hasResponseRows()) {
+            return response;
+        }
+        rule = rule.resolve();
+        long startNanos = System.nanoTime();
+        byte[] result = rule.rewrite(response, true, ResponseRewriter::apply);
+        rule.recordApplication(System.nanoTime() - startNanos, RuleSet.Rule::hasResponseRows);
+        return result;
+    }
+
+    private static byte[] apply(byte[] response, RuleSet.Rule rule) {
+        Head head = Head.parse(response);
+
+        byte[] newBody = rule.hasResponseBodyRows() ? rewriteBody(response, head, rule) : null;
+        Row[] headerEdits = rule.responseHeaderEdits();
+        Row[] cookieEdits = rule.setCookieEdits();
+        if (newBody == null && headerEdits.length == 0 && !hasSetCookie(response, head, cookieEdits)) {
+            return response;
+        }
+
+        byte[] eol = head.eol;
+        ByteBuilder out = new ByteBuilder(head.bodyStart + 256);
+        out.append(response, 0, head.requestLineEnd).append(eol);
+        boolean[] headerFound = new boolean[headerEdits.length];
+        boolean lengthDone = newBody == null || RequestRewriter.hasEdit(headerEdits, CONTENT_LENGTH);
+        for (int h = 0; h < head.count; h++) {
+            int start = head.start(h);
+            int nameEnd = head.nameEnd(h);
+            int edit = RequestRewriter.findEdit(headerEdits, headerFound, response, start, nameEnd);
+            if (edit >= 0) {
+                headerFound[edit] = true;
+                headerEdits[edit].stats().recordUpdate();
+                out.append(response, start, head.colon(h)).append(COLON_SPACE)
+                        .append(headerEdits[edit].headerValueBytes()).append(eol);
+            } else if (cookieEdits.length > 0
+                    && RequestRewriter.equalsIgnoreCase(response, start, nameEnd, SET_COOKIE)) {
+                writeSetCookie(response, head, h, cookieEdits, out);
+                out.append(eol);
+            } else if (!lengthDone && RequestRewriter.equalsIgnoreCase(response, start, nameEnd, CONTENT_LENGTH)) {
+                lengthDone = true;
+                out.append(response, start, head.colon(h)).append(COLON_SPACE)
+                        .appendAscii(Integer.toString(newBody.length)).append(eol);
+            } else {
+                out.append(response, start, head.end(h)).append(eol);
+            }
+        }
+        // Headers the response didn't have; a Set-Cookie that wasn't sent isn't made up
+        for (int i = 0; i < headerEdits.length; i++) {
+            if (!headerFound[i]) {
+                headerEdits[i].stats().recordInsert();
+                out.append(headerEdits[i].headerNameBytes()).append(COLON_SPACE)
+                        .append(headerEdits[i].headerValueBytes()).append(eol);
+            }
+        }
+        if (!lengthDone) {
+            out.append(CONTENT_LENGTH).append(COLON_SPACE).appendAscii(Integer.toString(newBody.length)).append(eol);
+        }
+        out.append(eol);
+
+        int bodyLength = newBody != null ? newBody.length : response.length - head.bodyStart;
+        ByteBuilder result = new ByteBuilder(out.length() + bodyLength);
+        result.append(out);
+        if (newBody != null) {
+            result.append(newBody);
+        } else {
+            result.append(response, head.bodyStart, response.length);
+        }
+        return result.toByteArray();
+    }
+
+    // Compressed or chunked bytes aren't the text the rows were written for
+    static boolean isEncoded(Head head) {
+        String encoding = head.value(CONTENT_ENCODING);
+        if (encoding != null && !encoding.isBlank() && !encoding.trim().equalsIgnoreCase("identity")) {
+            return true;
+        }
+        String transfer = head.value(TRANSFER_ENCODING);
+        return transfer != null && transfer.toLowerCase(Locale.ROOT).contains("chunked");
+    }
+
+    // The new body, or null when it is out of scope or nothing matched
+    private static byte[] rewriteBody(byte[] response, Head head, RuleSet.Rule rule) {
+        int from = head.bodyStart;
+        int to = response.length;
+        if (to == from || to - from > MAX_BODY_LENGTH) {
+            return null;
+        }
+        if (isEncoded(head)) {
+            return null;
+        }
+        String contentType = head.value(CONTENT_TYPE);
+        String mimeType = contentType != null ? contentType.toLowerCase(Locale.ROOT) : "";
+        byte[] body = null;
+        if (isText(mimeType)) {
+            body = RawRewriter.rewrite(response, from, to, rule.responseRegexEdits(),
+                    rule.responseLiterals(), rule.responseLiteralEdits());
+        }
+        if (rule.responseJsonEdits().length > 0 && (mimeType.isEmpty() || RequestRewriter.isJson(mimeType))) {
+            byte[] json = body != null
+                    ? JsonFieldRewriter.rewrite(body, 0, body.length, rule.responseJsonEdits())
+                    : JsonFieldRewriter.rewrite(response, from, to, rule.responseJsonEdits());
+            if (json != null) {
+                body = json;
+            }
+        }
+        return body;
+    }
+
+    // Text formats, including scripts, markup and JSON; a body without a
+    // Content-Type is treated as text too. Images, fonts, archives and other
+    // binary formats are skipped.
+    static boolean isText(String lowerCaseContentType) {
+        int semicolon = lowerCaseContentType.indexOf(';');
+        String mimeType = (semicolon >= 0 ? lowerCaseContentType.substring(0, semicolon) : lowerCaseContentType).trim();
+        return mimeType.isEmpty()
+                || mimeType.startsWith("text/")
+                || mimeType.endsWith("/json") || mimeType.endsWith("+json")
+                || mimeType.endsWith("/xml") || mimeType.endsWith("+xml")
+                || mimeType.endsWith("/javascript") || mimeType.endsWith("/x-javascript")
+                || mimeType.endsWith("/ecmascript")
+                || mimeType.equals("application/x-www-form-urlencoded");
+    }
+
+    private static boolean hasSetCookie(byte[] response, Head head, Row[] cookieEdits) {
+        if (cookieEdits.length == 0) {
+            return false;
+        }
+        for (int h = 0; h < head.count; h++) {
+            if (RequestRewriter.equalsIgnoreCase(response, head.start(h), head.nameEnd(h), SET_COOKIE)
+                    && findCookie(response, head.valueStart(h), head.valueEnd(h), cookieEdits) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Replaces the cookie's value and keeps its attributes, or copies the header
+    // line as it is when the cookie isn't one the rule edits
+    private static void writeSetCookie(byte[] response, Head head, int h, Row[] cookieEdits, ByteBuilder out) {
+        int start = head.valueStart(h);
+        int end = head.valueEnd(h);
+        int edit = findCookie(response, start, end, cookieEdits);
+        if (edit < 0) {
+            out.append(response, head.start(h), head.end(h));
+            return;
+        }
+        cookieEdits[edit].stats().recordUpdate();
+        int semicolon = RequestRewriter.indexOf(response, (byte) ';', start, end);
+        int eq = RequestRewriter.indexOf(response, (byte) '=', start, semicolon >= 0 ? semicolon : end);
+        out.append(response, head.start(h), eq + 1).append(cookieEdits[edit].cookieValueBytes());
+        if (semicolon >= 0) {
+            out.append(response, semicolon, head.end(h));
+        }
+    }
+
+    private static int findCookie(byte[] response, int start, int end, Row[] cookieEdits) {
+        int semicolon = RequestRewriter.indexOf(response, (byte) ';', start, end);
+        int eq = RequestRewriter.indexOf(response, (byte) '=', start, semicolon >= 0 ? semicolon : end);
+        if (eq < 0) {
+            return -1;
+        }
+        int nameEnd = eq;
+        while (nameEnd > start && response[nameEnd - 1] == ' ') {
+            nameEnd--;
+        }
+        for (int i = 0; i < cookieEdits.length; i++) {
+            if (RequestRewriter.equalsExact(response, start, nameEnd, cookieEdits[i].matchBytes())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
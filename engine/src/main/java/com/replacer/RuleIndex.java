@@ -0,0 +1,174 @@
+package com.replacer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+// Name lookups for the context menu, built once per RuleSet. Rule names may
+// contain '/' to place a rule in a group, e.g. "Auth/Admin token" shows up as
+// "Admin token" in the "Auth" submenu.
+public final class RuleIndex {
+
+    public static final String GROUP_SEPARATOR = "/";
+
+    private final RuleSet.Rule[] sorted;
+    private final String[] sortedKeys;
+    private final String[] keys;
+    private final RuleSet.Rule[] rules;
+    private final Group root = new Group("");
+
+    RuleIndex(List<RuleSet.Rule> ruleList) {
+        rules = ruleList.toArray(new RuleSet.Rule[0]);
+        keys = new String[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            keys[i] = rules[i].name().toLowerCase(Locale.ROOT);
+            root.add(rules[i], rules[i].name().split(GROUP_SEPARATOR), 0);
+        }
+        Integer[] order = new Integer[rules.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparing(i -> keys[i]));
+        sorted = new RuleSet.Rule[rules.length];
+        sortedKeys = new String[rules.length];
+        for (int i = 0; i < order.length; i++) {
+            sorted[i] = rules[order[i]];
+            sortedKeys[i] = keys[order[i]];
+        }
+    }
+
+    public Group root() {
+        return root;
+    }
+
+    // Best matches first: names starting with the query, then names with a
+    // word or group starting with it, then names containing it, then names
+    // containing its characters in order. An empty query returns rules in order.
+    public List<RuleSet.Rule> search(String query, int limit) {
+        String q = query.trim().toLowerCase(Locale.ROOT);
+        List<RuleSet.Rule> matches = new ArrayList<>(Math.min(limit, rules.length));
+        if (q.isEmpty()) {
+            for (int i = 0; i < rules.length && matches.size() < limit; i++) {
+                matches.add(rules[i]);
+            }
+            return matches;
+        }
+
+        // Prefix matches are a contiguous range of the sorted keys
+        boolean[] taken = new boolean[rules.length];
+        int from = lowerBound(q);
+        for (int i = from; i < sortedKeys.length && sortedKeys[i].startsWith(q) && matches.size() < limit; i++) {
+            matches.add(sorted[i]);
+        }
+        if (matches.size() >= limit) {
+            return matches;
+        }
+        for (int i = 0; i < rules.length; i++) {
+            taken[i] = keys[i].startsWith(q);
+        }
+
+        List<RuleSet.Rule> wordMatches = new ArrayList<>();
+        List<RuleSet.Rule> substringMatches = new ArrayList<>();
+        List<RuleSet.Rule> fuzzyMatches = new ArrayList<>();
+        for (int i = 0; i < rules.length; i++) {
+            if (taken[i]) {
+                continue;
+            }
+            int at = keys[i].indexOf(q);
+            if (at > 0 && isWordStart(keys[i], at)) {
+                wordMatches.add(rules[i]);
+            } else if (at > 0) {
+                substringMatches.add(rules[i]);
+            } else if (isSubsequence(q, keys[i])) {
+                fuzzyMatches.add(rules[i]);
+            }
+        }
+        addUpTo(matches, wordMatches, limit);
+        addUpTo(matches, substringMatches, limit);
+        addUpTo(matches, fuzzyMatches, limit);
+        return matches;
+    }
+
+    private int lowerBound(String q) {
+        int lo = 0;
+        int hi = sortedKeys.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sortedKeys[mid].compareTo(q) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    private static boolean isWordStart(String key, int at) {
+        char before = key.charAt(at - 1);
+        return !Character.isLetterOrDigit(before);
+    }
+
+    private static boolean isSubsequence(String q, String key) {
+        int k = 0;
+        for (int i = 0; i < key.length() && k < q.length(); i++) {
+            if (key.charAt(i) == q.charAt(k)) {
+                k++;
+            }
+        }
+        return k == q.length();
+    }
+
+    private static void addUpTo(List<RuleSet.Rule> out, List<RuleSet.Rule> in, int limit) {
+        for (int i = 0; i < in.size() && out.size() < limit; i++) {
+            out.add(in.get(i));
+        }
+    }
+
+    // A submenu. Groups and rules keep the order in which rules were defined.
+    public static final class Group {
+        private final String name;
+        private final Map<String, Group> groups = new LinkedHashMap<>();
+        private final List<RuleSet.Rule> rules = new ArrayList<>();
+        private final List<String> labels = new ArrayList<>();
+
+        private Group(String name) {
+            this.name = name;
+        }
+
+        private void add(RuleSet.Rule rule, String[] path, int depth) {
+            // Skip empty segments so "a//b" and "/b" still land somewhere sensible
+            while (depth < path.length - 1 && path[depth].isBlank()) {
+                depth++;
+            }
+            if (depth >= path.length - 1) {
+                rules.add(rule);
+                String label = path.length > 0 ? path[path.length - 1].trim() : "";
+                labels.add(label.isEmpty() ? rule.name() : label);
+                return;
+            }
+            String group = path[depth].trim();
+            groups.computeIfAbsent(group, Group::new).add(rule, path, depth + 1);
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public List<Group> groups() {
+            return new ArrayList<>(groups.values());
+        }
+
+        public List<RuleSet.Rule> rules() {
+            return rules;
+        }
+
+        // The rule's name within this group
+        public String label(int index) {
+            return labels.get(index);
+        }
+    }
+}
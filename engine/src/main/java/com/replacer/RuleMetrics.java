@@ -0,0 +1,274 @@
+package com.replacer;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-rule and per-row counters. The counter objects are looked up once when a
+// RuleSet is compiled and stored on its rules and rows, so recording is a
+// LongAdder increment with no map lookups or locks on the apply path. Rules and
+// rows are keyed by their editor ids, so renaming a rule or removing a row
+// above another keeps each counter with its own rule and row.
+public final class RuleMetrics {
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private final ConcurrentHashMap<String, RuleStats> rules = new ConcurrentHashMap<>();
+
+    // Rules without an id, such as those read from a file, are keyed by name
+    public RuleStats rule(String id, String name) {
+        RuleStats stats = rules.computeIfAbsent(id != null ? id : "name:" + name, key -> new RuleStats(id, name));
+        stats.name = name;
+        return stats;
+    }
+
+    // Drops the counters of rules that aren't in the collection
+    public void retain(Collection<RuleStats> kept) {
+        rules.values().retainAll(kept);
+    }
+
+    public List<RuleStats> snapshot() {
+        List<RuleStats> stats = new ArrayList<>(rules.values());
+        stats.sort((a, b) -> a.name.compareToIgnoreCase(b.name));
+        return stats;
+    }
+
+    public void reset() {
+        for (RuleStats stats : rules.values()) {
+            stats.reset();
+        }
+    }
+
+    public String toJson() {
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (RuleStats stats : snapshot()) {
+            Map<String, Object> rule = new LinkedHashMap<>();
+            rule.put("name", stats.name);
+            rule.put("applications", stats.applications.sum());
+            rule.put("latencyMicros", stats.latency.toMap());
+            List<Map<String, Object>> rows = new ArrayList<>();
+            for (Map.Entry<Integer, RowStats> entry : stats.rowSnapshot().entrySet()) {
+                RowStats row = entry.getValue();
+                Map<String, Object> r = new LinkedHashMap<>();
+                r.put("row", entry.getKey());
+                r.put("updates", row.updates.sum());
+                r.put("inserts", row.inserts.sum());
+                r.put("hits", row.hits.sum());
+                r.put("misses", row.misses.sum());
+                r.put("harvests", row.harvests.sum());
+                rows.add(r);
+            }
+            rule.put("rows", rows);
+            out.add(rule);
+        }
+        return GSON.toJson(out);
+    }
+
+    public static final class RuleStats {
+        private final String id;
+        // The name the rule had when it was last compiled
+        private volatile String name;
+        private final LongAdder applications = new LongAdder();
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final ConcurrentHashMap<String, RowStats> rows = new ConcurrentHashMap<>();
+
+        private RuleStats(String id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        // Null when the rule has none and the stats are kept by name
+        public String id() {
+            return id;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        // Rows without an id are keyed by position
+        public RowStats row(String id, int index) {
+            RowStats stats = rows.computeIfAbsent(id != null ? id : "#" + index, key -> new RowStats());
+            stats.index = index;
+            return stats;
+        }
+
+        // Drops the counters of rows that aren't in the collection
+        public void retainRows(Collection<RowStats> kept) {
+            rows.values().retainAll(kept);
+        }
+
+        public void recordApplication(long nanos) {
+            applications.increment();
+            latency.record(nanos);
+        }
+
+        public long applications() {
+            return applications.sum();
+        }
+
+        public LatencyHistogram latency() {
+            return latency;
+        }
+
+        // By the rows' positions when the rule was last compiled
+        public Map<Integer, RowStats> rowSnapshot() {
+            Map<Integer, RowStats> snapshot = new TreeMap<>();
+            for (RowStats row : rows.values()) {
+                snapshot.put(row.index, row);
+            }
+            return snapshot;
+        }
+
+        private void reset() {
+            applications.reset();
+            latency.reset();
+            for (RowStats row : rows.values()) {
+                row.reset();
+            }
+        }
+    }
+
+    public static final class RowStats {
+        // Position of the row in its rule when it was last compiled
+        private volatile int index;
+        private final LongAdder updates = new LongAdder();
+        private final LongAdder inserts = new LongAdder();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder harvests = new LongAdder();
+
+        // Applying: the target existed and was changed
+        public void recordUpdate() {
+            updates.increment();
+        }
+
+        // Applying: the target was missing and got added
+        public void recordInsert() {
+            inserts.increment();
+        }
+
+        // Copying: a value was found in the request
+        public void recordHit() {
+            hits.increment();
+        }
+
+        // Copying: nothing matched
+        public void recordMiss() {
+            misses.increment();
+        }
+
+        // Harvesting: a response carried a new value
+        public void recordHarvest() {
+            harvests.increment();
+        }
+
+        public long updates() {
+            return updates.sum();
+        }
+
+        public long inserts() {
+            return inserts.sum();
+        }
+
+        public long hits() {
+            return hits.sum();
+        }
+
+        public long misses() {
+            return misses.sum();
+        }
+
+        public long harvests() {
+            return harvests.sum();
+        }
+
+        private void reset() {
+            updates.reset();
+            inserts.reset();
+            hits.reset();
+            misses.reset();
+            harvests.reset();
+        }
+    }
+
+    // Power-of-two buckets of nanoseconds. Percentiles are reported as the upper
+    // bound of the bucket they fall in, which is plenty to spot an expensive rule.
+    public static final class LatencyHistogram {
+        private static final int BUCKETS = 40;
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder totalNanos = new LongAdder();
+
+        LatencyHistogram() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos) {
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(Math.max(nanos, 0)));
+            buckets[bucket].increment();
+            totalNanos.add(nanos);
+        }
+
+        public long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        public double meanMicros() {
+            long count = count();
+            return count == 0 ? 0 : totalNanos.sum() / 1000.0 / count;
+        }
+
+        public double percentileMicros(double percentile) {
+            long[] counts = new long[BUCKETS];
+            long count = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets[i].sum();
+                count += counts[i];
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long target = (long) Math.ceil(count * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= target) {
+                    return (1L << i) / 1000.0;
+                }
+            }
+            return (1L << (BUCKETS - 1)) / 1000.0;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("count", count());
+            map.put("mean", meanMicros());
+            map.put("p50", percentileMicros(0.50));
+            map.put("p90", percentileMicros(0.90));
+            map.put("p99", percentileMicros(0.99));
+            return map;
+        }
+
+        private void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+            totalNanos.reset();
+        }
+    }
+}
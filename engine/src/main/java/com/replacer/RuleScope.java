@@ -0,0 +1,64 @@
+package com.replacer;
+
+import java.util.Locale;
+
+// The requests a rule applies to automatically, compiled from its scope.
+// Every condition that is set must hold. A host of "*.example.com" covers
+// example.com and all of its subdomains; any other host must match exactly.
+final class RuleScope {
+
+    private static final String SUBDOMAINS = "*.";
+
+    // Lower case, without "*." or a trailing dot; null matches any host
+    final String host;
+    final boolean subdomains;
+    // 0 matches any port
+    final int port;
+    // Null matches any path
+    final String pathPrefix;
+    // Upper case; null matches any method
+    final String method;
+
+    private RuleScope(String host, boolean subdomains, int port, String pathPrefix, String method) {
+        this.host = host;
+        this.subdomains = subdomains;
+        this.port = port;
+        this.pathPrefix = pathPrefix;
+        this.method = method;
+    }
+
+    // Null when the rule has no conditions
+    static RuleScope compile(JsonUtil.ScopeData data) {
+        if (data == null || data.isEmpty()) {
+            return null;
+        }
+        String host = blankToNull(data.host);
+        boolean subdomains = host != null && host.startsWith(SUBDOMAINS);
+        if (subdomains) {
+            host = host.substring(SUBDOMAINS.length());
+        }
+        host = host != null ? RequestTarget.normalizeHost(host) : null;
+        String method = blankToNull(data.method);
+        return new RuleScope(host, subdomains, data.port != null ? data.port : 0, blankToNull(data.path),
+                method != null ? method.toUpperCase(Locale.ROOT) : null);
+    }
+
+    boolean matches(RequestTarget target) {
+        if (host != null && !target.host().equals(host)
+                && !(subdomains && target.host().endsWith("." + host))) {
+            return false;
+        }
+        return (pathPrefix == null || target.path().startsWith(pathPrefix)) && matchesPortAndMethod(target);
+    }
+
+    // The conditions the scope index doesn't look up. A raw request without an
+    // absolute URL or a port in its Host header has no known port, and matches
+    // any port condition.
+    boolean matchesPortAndMethod(RequestTarget target) {
+        return (port == 0 || target.port() == 0 || port == target.port()) && (method == null || method.equalsIgnoreCase(target.method()));
+    }
+
+    private static String blankToNull(String value) {
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+}
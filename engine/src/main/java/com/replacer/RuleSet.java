@@ -0,0 +1,1155 @@
+package com.replacer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+// Immutable, pre-validated snapshot of the rules. Built on the EDT whenever the
+// rules change and read lock-free from any thread that applies them.
+public final class RuleSet {
+
+    public static final RuleSet EMPTY = new RuleSet(Collections.emptyList(), Collections.emptyList(),
+            new RuleMetrics(), null, null);
+
+    // Rules are recompiled on every edit, so compiled patterns are kept by source
+    // text and only the regex being typed is compiled again
+    private static final int PATTERN_CACHE_SIZE = 1024;
+    private static final Map<String, Pattern> PATTERNS = Collections.synchronizedMap(
+            new LinkedHashMap<String, Pattern>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+                    return size() > PATTERN_CACHE_SIZE;
+                }
+            });
+    // Distinct combinations of scoped rules merged for live traffic; past this
+    // many a combination is merged for each request instead of kept
+    private static final int MAX_CACHED_SELECTIONS = 256;
+    private static final Rule[] NO_RULES = new Rule[0];
+    private static final String HEADER_NAME_ERROR = "Not a valid header name";
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+    private final List<Rule> rules;
+    private final List<RowError> errors;
+    private final Map<String, Rule> byId;
+    private final Map<String, Rule> byName;
+    private final Rule[] liveRules;
+    private final Rule liveRule;
+    private final Row[] harvestRows;
+    private final Rule[] harvestRules;
+    private final ScopeIndex liveScopes;
+    private final ScopeIndex harvestScopes;
+    private final RuleMetrics.RuleStats liveStats;
+    private final ValueStore values;
+    private final Variables variables;
+    private final Map<Selection, Rule> liveBySelection = new ConcurrentHashMap<>();
+    private final Map<Selection, Row[]> harvestBySelection = new ConcurrentHashMap<>();
+    // Only the context menu needs it, so it is built on first use rather than
+    // on every compile; a race just builds it twice
+    private volatile RuleIndex index;
+
+    private RuleSet(List<Rule> rules, List<RowError> errors, RuleMetrics metrics, ValueStore values,
+                    Variables variables) {
+        this.rules = rules;
+        this.errors = errors;
+        Map<String, Rule> ids = new HashMap<>();
+        Map<String, Rule> names = new HashMap<>();
+        List<Rule> live = new ArrayList<>();
+        List<Row> liveRows = new ArrayList<>();
+        List<Row> harvest = new ArrayList<>();
+        List<Rule> harvesting = new ArrayList<>();
+        for (Rule rule : rules) {
+            ids.put(rule.id, rule);
+            names.putIfAbsent(rule.name, rule);
+            for (Row row : rule.rows) {
+                if (row.harvests) {
+                    harvest.add(row);
+                }
+            }
+            if (rule.harvestEdits.length > 0) {
+                harvesting.add(rule);
+            }
+            if (rule.live && !rule.rows.isEmpty()) {
+                live.add(rule);
+                liveRows.addAll(rule.rows);
+            }
+        }
+        this.byId = ids;
+        this.byName = names;
+        this.liveRules = live.toArray(new Rule[0]);
+        this.harvestRows = harvest.toArray(new Row[0]);
+        this.harvestRules = harvesting.toArray(new Rule[0]);
+        this.liveScopes = new ScopeIndex(liveRules);
+        this.harvestScopes = new ScopeIndex(harvestRules);
+        this.values = values;
+        this.variables = variables;
+        this.liveStats = live.isEmpty() ? null : metrics.rule(null, LIVE_RULES);
+        // All live rules folded into one, so live traffic is rewritten in a single pass
+        this.liveRule = live.isEmpty() ? null : new Rule(null, LIVE_RULES, true, null, liveRows, liveStats, values,
+                variables, liveRules);
+    }
+
+    public static RuleSet compile(List<JsonUtil.RuleData> ruleData) {
+        return compile(ruleData, new RuleMetrics(), null, null);
+    }
+
+    // Counters, harvest slots, variables and {{...}} expressions are resolved
+    // here, once per compile, so applying a rule never looks them up or parses
+    // anything. Without a value store no row harvests into itself, and without
+    // variables {{name}} is kept as typed while functions still work.
+    public static RuleSet compile(List<JsonUtil.RuleData> ruleData, RuleMetrics metrics, ValueStore values,
+                                  Variables variables) {
+        if (variables == null) {
+            variables = new Variables(() -> {});
+        }
+        List<Rule> rules = new ArrayList<>(ruleData.size());
+        List<RowError> errors = new ArrayList<>();
+        for (JsonUtil.RuleData data : ruleData) {
+            // Unnamed rules can't be selected from the context menu
+            if (data.name == null || data.name.isBlank()) {
+                continue;
+            }
+            rules.add(new Rule(data, metrics.rule(data.id, data.name), values, variables, errors));
+        }
+        RuleSet compiled = new RuleSet(Collections.unmodifiableList(rules), Collections.unmodifiableList(errors),
+                metrics, values, variables);
+        dropStaleStats(compiled, metrics);
+        dropStaleReferences(compiled, variables);
+        return compiled;
+    }
+
+    // Compiling binds every {{name}} and counter it parses, including the ones
+    // of names that were only typed on the way to the final one
+    private static void dropStaleReferences(RuleSet compiled, Variables variables) {
+        Set<Variables.Variable> referenced = new HashSet<>();
+        Set<AtomicLong> counters = new HashSet<>();
+        for (Rule rule : compiled.rules) {
+            for (Row row : rule.rows) {
+                if (row.template != null) {
+                    row.template.collect(referenced, counters);
+                }
+            }
+        }
+        variables.retain(referenced, counters);
+    }
+
+    // Counters of rules and rows that were removed, and of the names a rule
+    // without an id had on the way to its current one, are dropped with them
+    private static void dropStaleStats(RuleSet compiled, RuleMetrics metrics) {
+        Map<RuleMetrics.RuleStats, List<RuleMetrics.RowStats>> kept = new IdentityHashMap<>();
+        for (Rule rule : compiled.rules) {
+            List<RuleMetrics.RowStats> rows = kept.computeIfAbsent(rule.stats, stats -> new ArrayList<>());
+            for (Row row : rule.rows) {
+                rows.add(row.stats);
+            }
+        }
+        if (compiled.liveStats != null) {
+            kept.put(compiled.liveStats, Collections.emptyList());
+        }
+        for (Map.Entry<RuleMetrics.RuleStats, List<RuleMetrics.RowStats>> entry : kept.entrySet()) {
+            entry.getKey().retainRows(entry.getValue());
+        }
+        metrics.retain(kept.keySet());
+    }
+
+    // Find a rule by its display name, as metrics are keyed by name. With
+    // duplicate names the first rule wins.
+    public Rule ruleNamed(String name) {
+        return byName.get(name);
+    }
+
+    public List<Rule> rules() {
+        return rules;
+    }
+
+    // Rows left out because they can't be applied as they are, in rule order
+    public List<RowError> errors() {
+        return errors;
+    }
+
+    public Rule rule(String id) {
+        return byId.get(id);
+    }
+
+    public RuleIndex index() {
+        RuleIndex built = index;
+        if (built == null) {
+            built = new RuleIndex(rules);
+            index = built;
+        }
+        return built;
+    }
+
+    public boolean isEmpty() {
+        return rules.isEmpty();
+    }
+
+    // Cheap checks for the traffic handlers, before they work out a request's target
+    public boolean hasLiveRules() {
+        return liveRules.length > 0;
+    }
+
+    public boolean hasHarvestRows() {
+        return harvestRows.length > 0;
+    }
+
+    // Rules applied automatically to outgoing traffic. Callers must not modify the array.
+    public Rule[] liveRules() {
+        return liveRules;
+    }
+
+    // The live rules whose scope covers the target merged in order, or null when
+    // none does. Each combination of rules is merged once and then reused.
+    public Rule liveRule(RequestTarget target) {
+        if (!liveScopes.isScoped()) {
+            return liveRule;
+        }
+        int[] selected = liveScopes.select(target);
+        if (selected.length == 0) {
+            return null;
+        }
+        if (selected.length == liveRules.length) {
+            return liveRule;
+        }
+        Selection key = new Selection(selected);
+        Rule merged = liveBySelection.get(key);
+        if (merged == null) {
+            List<Row> rows = new ArrayList<>();
+            Rule[] sources = new Rule[selected.length];
+            for (int i = 0; i < selected.length; i++) {
+                sources[i] = liveRules[selected[i]];
+                rows.addAll(sources[i].rows);
+            }
+            merged = new Rule(null, LIVE_RULES, true, null, rows, liveStats, values, variables, sources);
+            if (liveBySelection.size() < MAX_CACHED_SELECTIONS) {
+                liveBySelection.putIfAbsent(key, merged);
+            }
+        }
+        return merged;
+    }
+
+    // Rows that take their value from responses to requests for the target, of
+    // rules whose scope covers it. Callers must not modify the array.
+    public Row[] harvestRows(RequestTarget target) {
+        if (!harvestScopes.isScoped()) {
+            return harvestRows;
+        }
+        int[] selected = harvestScopes.select(target);
+        if (selected.length == harvestRules.length) {
+            return harvestRows;
+        }
+        Selection key = new Selection(selected);
+        Row[] rows = harvestBySelection.get(key);
+        if (rows == null) {
+            List<Row> found = new ArrayList<>();
+            for (int position : selected) {
+                for (Row row : harvestRules[position].rows) {
+                    if (row.harvests) {
+                        found.add(row);
+                    }
+                }
+            }
+            rows = found.toArray(new Row[0]);
+            if (harvestBySelection.size() < MAX_CACHED_SELECTIONS) {
+                harvestBySelection.putIfAbsent(key, rows);
+            }
+        }
+        return rows;
+    }
+
+    // Name the merged live rule reports its metrics under
+    public static final String LIVE_RULES = "Live rules (combined)";
+
+    public static final class Rule {
+        private final String id;
+        private final String name;
+        private final boolean live;
+        // Null when the rule applies everywhere
+        private final RuleScope scope;
+        private final List<Row> rows;
+        private final Row[] headerEdits;
+        private final Row[] cookieEdits;
+        private final Row[] urlEdits;
+        private final Row[] bodyEdits;
+        private final Row[] jsonEdits;
+        // Body parameter rows as top-level fields followed by the JSON rows, for JSON bodies
+        private final Row[] jsonBodyEdits;
+        private final Row[] regexEdits;
+        private final Row[] literalEdits;
+        // WebSocket regex rows in order, then the last row per JSON Pointer
+        private final Row[] messageEdits;
+        private final Row[] messageJsonEdits;
+        private final Row[] responseHeaderEdits;
+        private final Row[] setCookieEdits;
+        private final Row[] responseJsonEdits;
+        private final Row[] responseRegexEdits;
+        private final Row[] responseLiteralEdits;
+        private final LiteralMatcher responseLiterals;
+        private final boolean requestRows;
+        private final Row[] harvestEdits;
+        private final LiteralMatcher literals;
+        private final RuleMetrics.RuleStats stats;
+        // The rules a merged live rule was built from, whose stats count its
+        // applications too; empty for any other rule
+        private final Rule[] sources;
+        // Rows of this pass whose value is filled in for each message
+        private final Row[] perMessage;
+        // Whether this pass has rows at all; a rule whose every row reads the
+        // message has only the second pass
+        private final boolean firstPass;
+        // Rows whose value reads the message, applied to what the other rows
+        // produced so a signature covers the final request. Null when there are none.
+        private final Rule secondPass;
+        // Null unless a row harvests into its own slot
+        private final ValueStore values;
+        // Null unless a row references a variable
+        private final Variables variables;
+        // The rule with harvested values and variables filled in, for the
+        // versions it was built at
+        private volatile Resolved resolved;
+
+        private Rule(JsonUtil.RuleData data, RuleMetrics.RuleStats stats, ValueStore values, Variables variables,
+                     List<RowError> errors) {
+            this(data.id, data.name, data.live, RuleScope.compile(data.scope),
+                    compileRows(data, stats, values, variables, errors), stats, values, variables, NO_RULES);
+        }
+
+        private Rule(String id, String name, boolean live, RuleScope scope, List<Row> rows,
+                     RuleMetrics.RuleStats stats, ValueStore values, Variables variables, Rule[] sources) {
+            this(id, name, live, scope, rows, stats, values, variables, sources, true);
+        }
+
+        private Rule(String id, String name, boolean live, RuleScope scope, List<Row> allRows,
+                     RuleMetrics.RuleStats stats, ValueStore values, Variables variables, Rule[] sources,
+                     boolean split) {
+            this.id = id;
+            this.stats = stats;
+            this.sources = sources;
+            this.name = name;
+            this.live = live;
+            this.scope = scope;
+            this.rows = Collections.unmodifiableList(allRows);
+            List<Row> harvesting = new ArrayList<>();
+            List<Row> rows = new ArrayList<>(allRows.size());
+            List<Row> reading = new ArrayList<>();
+            List<Row> perMessage = new ArrayList<>();
+            boolean slots = false;
+            boolean templates = false;
+            for (Row row : allRows) {
+                if (row.harvests) {
+                    harvesting.add(row);
+                }
+                slots |= row.slot != null;
+                templates |= row.template != null;
+                if (split && row.template != null && row.template.readsMessage()) {
+                    reading.add(row);
+                    continue;
+                }
+                rows.add(row);
+                if (row.template != null && row.template.perMessage()) {
+                    perMessage.add(row);
+                }
+            }
+            this.harvestEdits = harvesting.toArray(new Row[0]);
+            this.values = slots ? values : null;
+            this.variables = templates ? variables : null;
+            this.perMessage = perMessage.toArray(new Row[0]);
+            this.firstPass = !rows.isEmpty();
+            this.secondPass = reading.isEmpty() ? null
+                    : new Rule(id, name, live, scope, reading, stats, null, null, NO_RULES, false);
+            this.headerEdits = lastEditPerName(rows, RuleType.HEADER);
+            this.cookieEdits = lastEditPerName(rows, RuleType.COOKIE);
+            this.urlEdits = lastEditPerName(rows, RuleType.URL_PARAMETER);
+            this.bodyEdits = lastEditPerName(rows, RuleType.POST_BODY_PARAMETER);
+            this.jsonEdits = lastEditPerPointer(lastEditPerName(rows, RuleType.JSON_FIELD));
+            Row[] jsonBodyEdits = new Row[bodyEdits.length + jsonEdits.length];
+            System.arraycopy(bodyEdits, 0, jsonBodyEdits, 0, bodyEdits.length);
+            System.arraycopy(jsonEdits, 0, jsonBodyEdits, bodyEdits.length, jsonEdits.length);
+            this.jsonBodyEdits = lastEditPerPointer(jsonBodyEdits);
+            this.regexEdits = rowsOfType(rows, RuleType.REGEX);
+            this.messageEdits = rowsOfType(rows, RuleType.WEBSOCKET_REGEX);
+            this.messageJsonEdits = lastEditPerPointer(lastEditPerName(rows, RuleType.WEBSOCKET_JSON_FIELD));
+            this.responseHeaderEdits = lastEditPerName(rows, RuleType.RESPONSE_HEADER);
+            this.setCookieEdits = lastEditPerName(rows, RuleType.SET_COOKIE);
+            this.responseJsonEdits = lastEditPerPointer(lastEditPerName(rows, RuleType.RESPONSE_JSON_FIELD));
+            this.responseRegexEdits = rowsOfType(rows, RuleType.RESPONSE_REGEX);
+            this.literalEdits = lastEditPerName(rows, RuleType.LITERAL);
+            this.literals = literalMatcher(literalEdits);
+            this.responseLiteralEdits = lastEditPerName(rows, RuleType.RESPONSE_LITERAL);
+            this.responseLiterals = literalMatcher(responseLiteralEdits);
+            boolean requestRows = false;
+            for (Row row : allRows) {
+                requestRows |= row.type.isRequest();
+            }
+            this.requestRows = requestRows;
+        }
+
+        // The base rule with the rows in filled swapped for their filled-in copies.
+        // The rows keep their matches, so the grouping and literal matchers are reused.
+        private Rule(Rule base, Map<Row, Row> filled) {
+            this.id = base.id;
+            this.name = base.name;
+            this.live = base.live;
+            this.scope = base.scope;
+            this.stats = base.stats;
+            this.sources = base.sources;
+            List<Row> rows = new ArrayList<>(base.rows.size());
+            for (Row row : base.rows) {
+                rows.add(filled.getOrDefault(row, row));
+            }
+            this.rows = Collections.unmodifiableList(rows);
+            this.headerEdits = swap(base.headerEdits, filled);
+            this.cookieEdits = swap(base.cookieEdits, filled);
+            this.urlEdits = swap(base.urlEdits, filled);
+            this.bodyEdits = swap(base.bodyEdits, filled);
+            this.jsonEdits = swap(base.jsonEdits, filled);
+            this.jsonBodyEdits = swap(base.jsonBodyEdits, filled);
+            this.regexEdits = swap(base.regexEdits, filled);
+            this.literalEdits = swap(base.literalEdits, filled);
+            this.messageEdits = swap(base.messageEdits, filled);
+            this.messageJsonEdits = swap(base.messageJsonEdits, filled);
+            this.responseHeaderEdits = swap(base.responseHeaderEdits, filled);
+            this.setCookieEdits = swap(base.setCookieEdits, filled);
+            this.responseJsonEdits = swap(base.responseJsonEdits, filled);
+            this.responseRegexEdits = swap(base.responseRegexEdits, filled);
+            this.responseLiteralEdits = swap(base.responseLiteralEdits, filled);
+            this.literals = base.literals;
+            this.responseLiterals = base.responseLiterals;
+            this.requestRows = base.requestRows;
+            this.harvestEdits = base.harvestEdits;
+            this.perMessage = new Row[0];
+            this.firstPass = base.firstPass;
+            this.secondPass = null;
+            this.values = null;
+            this.variables = null;
+        }
+
+        private static Row[] swap(Row[] edits, Map<Row, Row> filled) {
+            Row[] swapped = null;
+            for (int i = 0; i < edits.length; i++) {
+                Row row = filled.get(edits[i]);
+                if (row != null) {
+                    if (swapped == null) {
+                        swapped = edits.clone();
+                    }
+                    swapped[i] = row;
+                }
+            }
+            return swapped != null ? swapped : edits;
+        }
+
+        // Every row of the type in order. Regex rows each run on the output of the
+        // previous one, so none of them is collapsed.
+        private static Row[] rowsOfType(List<Row> rows, RuleType type) {
+            List<Row> found = new ArrayList<>();
+            for (Row row : rows) {
+                if (row.type == type) {
+                    found.add(row);
+                }
+            }
+            return found.toArray(new Row[0]);
+        }
+
+        private static LiteralMatcher literalMatcher(Row[] literalEdits) {
+            if (literalEdits.length == 0) {
+                return null;
+            }
+            byte[][] patterns = new byte[literalEdits.length][];
+            for (int i = 0; i < literalEdits.length; i++) {
+                patterns[i] = literalEdits[i].matchBytes;
+            }
+            return new LiteralMatcher(patterns);
+        }
+
+        private static List<Row> compileRows(JsonUtil.RuleData data, RuleMetrics.RuleStats stats,
+                                             ValueStore values, Variables variables, List<RowError> errors) {
+            List<Row> compiled = new ArrayList<>();
+            List<JsonUtil.TypeData> typeRows = data.typeRows;
+            if (typeRows != null) {
+                for (int i = 0; i < typeRows.size(); i++) {
+                    JsonUtil.TypeData typeData = typeRows.get(i);
+                    RuleType type = RuleType.fromLabel(typeData.type);
+                    if (type == null || typeData.match == null || typeData.match.isBlank()) {
+                        continue;
+                    }
+                    // A literal's replacement has nothing to be harvested from, and
+                    // response rows write responses rather than read them
+                    boolean harvest = typeData.harvest && !type.isLiteral() && !type.isResponse();
+                    Template template = variables != null
+                            ? Template.compile(typeData.replace, variables, type.isRegex()) : null;
+                    // A row that is just {{name}} harvests into the variable, for every rule using it
+                    ValueStore.Slot slot = harvest && values != null && data.id != null
+                            && (template == null || template.only() == null) ? values.slot(data.id, i) : null;
+                    try {
+                        compiled.add(new Row(i, type, typeData.match, typeData.replace, stats.row(typeData.id, i), slot,
+                                template, harvest));
+                    } catch (PatternSyntaxException e) {
+                        // The editor flags such rows too; until they are fixed they are left out
+                        errors.add(new RowError(data.name, i, "Invalid regex: " + e.getDescription()));
+                    } catch (IllegalArgumentException e) {
+                        errors.add(new RowError(data.name, i, e.getMessage()));
+                    }
+                }
+            }
+            return compiled;
+        }
+
+        // Rows applied one after another to the same name collapse into the last one,
+        // kept at the position of the first so inserts land where they always did
+        private static Row[] lastEditPerName(List<Row> rows, RuleType type) {
+            Map<String, Row> byName = new LinkedHashMap<>();
+            for (Row row : rows) {
+                if (row.type == type) {
+                    String key = type == RuleType.HEADER || type == RuleType.RESPONSE_HEADER
+                            ? row.match.toLowerCase(Locale.ROOT) : row.match;
+                    byName.put(key, row);
+                }
+            }
+            return byName.values().toArray(new Row[0]);
+        }
+
+        // JSON rows whose Match differs but points at the same field, such as
+        // token and /token, collapse the same way
+        private static Row[] lastEditPerPointer(Row[] edits) {
+            Map<List<String>, Row> byPointer = new LinkedHashMap<>();
+            for (Row row : edits) {
+                byPointer.put(Arrays.asList(row.pointer), row);
+            }
+            return byPointer.size() == edits.length ? edits : byPointer.values().toArray(new Row[0]);
+        }
+
+        public String id() {
+            return id;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        public boolean isLive() {
+            return live;
+        }
+
+        public List<Row> rows() {
+            return rows;
+        }
+
+        // Whether the rule's scope covers the target; a rule without one covers everything
+        public boolean appliesTo(RequestTarget target) {
+            return scope == null || scope.matches(target);
+        }
+
+        RuleScope scope() {
+            return scope;
+        }
+
+        public boolean hasCookieRows() {
+            return cookieEdits.length > 0 || secondPass != null && secondPass.hasCookieRows();
+        }
+
+        public boolean hasBodyRows() {
+            return bodyEdits.length > 0 || secondPass != null && secondPass.hasBodyRows();
+        }
+
+        public boolean hasRawRows() {
+            return regexEdits.length > 0 || literals != null || secondPass != null && secondPass.hasRawRows();
+        }
+
+        // Whether any row applies to HTTP requests rather than WebSocket messages
+        public boolean hasRequestRows() {
+            return requestRows;
+        }
+
+        public boolean hasMessageRows() {
+            return messageEdits.length > 0 || messageJsonEdits.length > 0
+                    || secondPass != null && secondPass.hasMessageRows();
+        }
+
+        public boolean hasResponseRows() {
+            return responseHeaderEdits.length > 0 || setCookieEdits.length > 0 || hasResponseBodyRows()
+                    || secondPass != null && secondPass.hasResponseRows();
+        }
+
+        boolean hasResponseBodyRows() {
+            return responseJsonEdits.length > 0 || responseRegexEdits.length > 0 || responseLiterals != null;
+        }
+
+        public RuleMetrics.RuleStats stats() {
+            return stats;
+        }
+
+        // Counts one application of the rule. A merged live rule counts it for
+        // each rule it was built from that has rows of that kind as well, with
+        // the time the whole merged rule took.
+        void recordApplication(long nanos, Predicate<Rule> hasRows) {
+            stats.recordApplication(nanos);
+            for (Rule source : sources) {
+                if (hasRows.test(source)) {
+                    source.stats.recordApplication(nanos);
+                }
+            }
+        }
+
+        // This rule with the latest harvested values in place of the typed ones
+        // and its variables filled in, or the rule itself when there is nothing to
+        // fill in. The copy is cached until the next harvest or variable change,
+        // so most requests just read two counters and a field. Values that change
+        // per message are left for rewrite to fill in.
+        public Rule resolve() {
+            if (values == null && variables == null) {
+                return this;
+            }
+            long version = values != null ? values.version() : 0;
+            long variablesVersion = variables != null ? variables.version() : 0;
+            Resolved current = resolved;
+            if (current != null && current.version == version && current.variablesVersion == variablesVersion) {
+                return current.rule;
+            }
+            List<Row> resolvedRows = null;
+            for (int i = 0; i < rows.size(); i++) {
+                Row row = rows.get(i);
+                ValueStore.Harvest latest = row.slot != null ? row.slot.latest() : null;
+                String value = null;
+                if (latest != null && latest.version > row.baseVersion) {
+                    value = latest.value;
+                } else if (row.template != null && !row.template.perMessage()) {
+                    value = row.template.render(null);
+                }
+                if (value != null && !value.equals(row.replace)) {
+                    if (resolvedRows == null) {
+                        resolvedRows = new ArrayList<>(rows);
+                    }
+                    resolvedRows.set(i, new Row(row, value));
+                }
+            }
+            Rule rule = resolvedRows == null ? this
+                    : new Rule(id, name, live, scope, resolvedRows, stats, null, null, sources);
+            resolved = new Resolved(version, variablesVersion, rule);
+            return rule;
+        }
+
+        // Applies the rule to a resolved message with pass, once with the values
+        // that change per message filled in and again for the rows that read the
+        // message, over what the first pass produced. Both passes see the same clock.
+        byte[] rewrite(byte[] message, boolean http, Pass pass) {
+            if (perMessage.length == 0 && secondPass == null) {
+                return pass.apply(message, this);
+            }
+            Expression.Context context = new Expression.Context(System.currentTimeMillis(), message, http);
+            byte[] result = firstPass ? pass.apply(message, fill(context)) : message;
+            if (secondPass != null) {
+                result = pass.apply(result, secondPass.fill(context.with(result)));
+            }
+            return result;
+        }
+
+        // This pass with its per-message values evaluated, leaving the second pass out
+        private Rule fill(Expression.Context context) {
+            if (perMessage.length == 0) {
+                return this;
+            }
+            Map<Row, Row> filled = new IdentityHashMap<>();
+            for (Row row : perMessage) {
+                filled.put(row, new Row(row, row.template.render(context)));
+            }
+            return new Rule(this, filled);
+        }
+
+        Row[] headerEdits() {
+            return headerEdits;
+        }
+
+        Row[] cookieEdits() {
+            return cookieEdits;
+        }
+
+        Row[] urlEdits() {
+            return urlEdits;
+        }
+
+        Row[] bodyEdits() {
+            return bodyEdits;
+        }
+
+        Row[] jsonEdits() {
+            return jsonEdits;
+        }
+
+        Row[] jsonBodyEdits() {
+            return jsonBodyEdits;
+        }
+
+        Row[] regexEdits() {
+            return regexEdits;
+        }
+
+        Row[] messageEdits() {
+            return messageEdits;
+        }
+
+        Row[] messageJsonEdits() {
+            return messageJsonEdits;
+        }
+
+        Row[] responseHeaderEdits() {
+            return responseHeaderEdits;
+        }
+
+        Row[] setCookieEdits() {
+            return setCookieEdits;
+        }
+
+        Row[] responseJsonEdits() {
+            return responseJsonEdits;
+        }
+
+        Row[] responseRegexEdits() {
+            return responseRegexEdits;
+        }
+
+        // Response literal rows in the order of the matcher's patterns
+        Row[] responseLiteralEdits() {
+            return responseLiteralEdits;
+        }
+
+        // Null when the rule has no response literal rows
+        LiteralMatcher responseLiterals() {
+            return responseLiterals;
+        }
+
+        // Literal rows in the order of the matcher's patterns
+        Row[] literalEdits() {
+            return literalEdits;
+        }
+
+        // Rows that take their value from responses
+        Row[] harvestEdits() {
+            return harvestEdits;
+        }
+
+        // Null when the rule has no literal rows
+        LiteralMatcher literals() {
+            return literals;
+        }
+    }
+
+    // One rewriter's pass over a message with a rule whose values are all in place
+    interface Pass {
+        byte[] apply(byte[] message, Rule rule);
+    }
+
+    // Positions of the rules a scope lookup selected, as a map key
+    private static final class Selection {
+        final int[] positions;
+        final int hash;
+
+        Selection(int[] positions) {
+            this.positions = positions;
+            this.hash = Arrays.hashCode(positions);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Selection && Arrays.equals(positions, ((Selection) other).positions);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    private static final class Resolved {
+        final long version;
+        final long variablesVersion;
+        final Rule rule;
+
+        Resolved(long version, long variablesVersion, Rule rule) {
+            this.version = version;
+            this.variablesVersion = variablesVersion;
+            this.rule = rule;
+        }
+    }
+
+    // A row that was left out when compiling: its rule, its position in the
+    // rule as shown in the editor and why
+    public static final class RowError {
+        public final String rule;
+        public final int row;
+        public final String message;
+
+        RowError(String rule, int row, String message) {
+            this.rule = rule;
+            this.row = row;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return "Rule '" + rule + "', row " + (row + 1) + ": " + message;
+        }
+    }
+
+    public static final class Row {
+        private final int index;
+        private final RuleType type;
+        private final String match;
+        private final String replace;
+        private final String headerValue;
+        private final String fieldName;
+        private final byte[] matchBytes;
+        private final byte[] headerNameBytes;
+        private final byte[] cookieNameBytes;
+        private final byte[] replaceBytes;
+        private final byte[] headerValueBytes;
+        private final byte[] fieldNameBytes;
+        private final byte[] paramNameBytes;
+        private final byte[] paramValueBytes;
+        private final byte[] cookieValueBytes;
+        private final Pattern pattern;
+        private final String regexReplacement;
+        // JSON field and body parameter rows only: the path to the field and the
+        // replacement as a JSON string, and as itself when it is valid JSON (else null)
+        private final String[] pointer;
+        private final byte[] jsonStringBytes;
+        private final byte[] jsonValueBytes;
+        private final RuleMetrics.RowStats stats;
+        private final ValueStore.Slot slot;
+        // Harvests up to this version are already in the typed replace value
+        private final long baseVersion;
+        // Null unless the replace value references a variable
+        private final Template template;
+        // The variable when the replace value is just {{name}}
+        private final Variables.Variable variable;
+        // Into the slot, or into the variable when there is no slot
+        private final boolean harvests;
+
+        private Row(int index, RuleType type, String match, String replace, RuleMetrics.RowStats stats,
+                    ValueStore.Slot slot, Template template, boolean harvest) {
+            this.index = index;
+            this.stats = stats;
+            this.slot = slot;
+            this.template = template;
+            this.variable = template != null ? template.only() : null;
+            this.harvests = slot != null || (harvest && variable != null);
+            this.baseVersion = slot != null ? slot.applied() : 0;
+            this.type = type;
+            this.match = match;
+            this.replace = replace != null ? replace : "";
+            this.headerValue = sanitizeHeaderValue(this.replace);
+            this.fieldName = sanitizeFieldName(match);
+            this.matchBytes = match.getBytes(StandardCharsets.UTF_8);
+            this.headerNameBytes = sanitizeHeaderValue(match).getBytes(StandardCharsets.UTF_8);
+            this.cookieNameBytes = sanitizeCookieName(match).getBytes(StandardCharsets.UTF_8);
+            this.replaceBytes = this.replace.getBytes(StandardCharsets.UTF_8);
+            this.headerValueBytes = headerValue.getBytes(StandardCharsets.UTF_8);
+            this.fieldNameBytes = fieldName.getBytes(StandardCharsets.UTF_8);
+            this.paramNameBytes = encodeParam(match);
+            this.paramValueBytes = encodeParam(this.replace);
+            this.cookieValueBytes = encodeCookieValue(this.replace);
+            this.pattern = type.isRegex() ? RuleSet.pattern(match) : null;
+            this.regexReplacement = type.isRegex() ? latin1(this.replace) : null;
+            if ((type == RuleType.HEADER || type == RuleType.RESPONSE_HEADER) && !isToken(match)) {
+                throw new IllegalArgumentException(HEADER_NAME_ERROR);
+            }
+            if (pattern != null) {
+                String error = RawRewriter.replacementError(pattern, regexReplacement);
+                if (error != null) {
+                    throw new IllegalArgumentException("Invalid replacement: " + error);
+                }
+            }
+            if (type == RuleType.JSON_FIELD || type == RuleType.WEBSOCKET_JSON_FIELD
+                    || type == RuleType.RESPONSE_JSON_FIELD || type == RuleType.POST_BODY_PARAMETER) {
+                this.pointer = type == RuleType.POST_BODY_PARAMETER
+                        ? new String[]{match} : JsonFieldRewriter.parsePointer(match);
+                this.jsonStringBytes = JsonFieldRewriter.quote(this.replace);
+                this.jsonValueBytes = JsonFieldRewriter.isJson(this.replace) ? replaceBytes : null;
+            } else {
+                this.pointer = null;
+                this.jsonStringBytes = null;
+                this.jsonValueBytes = null;
+            }
+        }
+
+        // The base row with a filled-in replace value and nothing left to fill
+        // in or harvest. What comes from the match is shared, not rebuilt.
+        private Row(Row base, String replace) {
+            this.index = base.index;
+            this.stats = base.stats;
+            this.slot = null;
+            this.template = null;
+            this.variable = null;
+            this.harvests = false;
+            this.baseVersion = 0;
+            this.type = base.type;
+            this.match = base.match;
+            this.replace = replace;
+            this.headerValue = sanitizeHeaderValue(replace);
+            this.fieldName = base.fieldName;
+            this.matchBytes = base.matchBytes;
+            this.headerNameBytes = base.headerNameBytes;
+            this.cookieNameBytes = base.cookieNameBytes;
+            this.replaceBytes = replace.getBytes(StandardCharsets.UTF_8);
+            this.headerValueBytes = headerValue.getBytes(StandardCharsets.UTF_8);
+            this.fieldNameBytes = base.fieldNameBytes;
+            this.paramNameBytes = base.paramNameBytes;
+            this.paramValueBytes = encodeParam(replace);
+            this.cookieValueBytes = encodeCookieValue(replace);
+            this.pattern = base.pattern;
+            this.regexReplacement = type.isRegex() ? latin1(replace) : null;
+            this.pointer = base.pointer;
+            if (pointer != null) {
+                this.jsonStringBytes = JsonFieldRewriter.quote(replace);
+                this.jsonValueBytes = JsonFieldRewriter.isJson(replace) ? replaceBytes : null;
+            } else {
+                this.jsonStringBytes = null;
+                this.jsonValueBytes = null;
+            }
+        }
+
+        // Position of the row in the rule as shown in the editor, blank rows included
+        public int index() {
+            return index;
+        }
+
+        public RuleType type() {
+            return type;
+        }
+
+        public String match() {
+            return match;
+        }
+
+        public String replace() {
+            return replace;
+        }
+
+        // Replace value with CR/LF stripped, safe to write into a header line
+        public String headerValue() {
+            return headerValue;
+        }
+
+        // Match name with quotes and CR/LF stripped, safe inside a multipart Content-Disposition
+        public String fieldName() {
+            return fieldName;
+        }
+
+        public RuleMetrics.RowStats stats() {
+            return stats;
+        }
+
+        // The variable a row whose Replace is just {{name}} stands for, or null
+        public Variables.Variable variable() {
+            return variable;
+        }
+
+        // Stores a value harvested for the row. Regex rows keep it quoted in their
+        // own slot, as it becomes their replacement; a variable keeps it as it is.
+        // Returns false when it is the value already stored.
+        boolean harvest(String value) {
+            if (slot == null) {
+                return variable.set(value);
+            }
+            return slot.put(type.isRegex() ? Matcher.quoteReplacement(value) : value);
+        }
+
+        byte[] matchBytes() {
+            return matchBytes;
+        }
+
+        byte[] headerNameBytes() {
+            return headerNameBytes;
+        }
+
+        // The name a missing cookie is added under
+        byte[] cookieNameBytes() {
+            return cookieNameBytes;
+        }
+
+        byte[] replaceBytes() {
+            return replaceBytes;
+        }
+
+        byte[] headerValueBytes() {
+            return headerValueBytes;
+        }
+
+        byte[] fieldNameBytes() {
+            return fieldNameBytes;
+        }
+
+        // Match and replace as they are written into a query string or form body
+        byte[] paramNameBytes() {
+            return paramNameBytes;
+        }
+
+        byte[] paramValueBytes() {
+            return paramValueBytes;
+        }
+
+        // Replace as it is written into a Cookie or Set-Cookie header
+        byte[] cookieValueBytes() {
+            return cookieValueBytes;
+        }
+
+        // Regex rows only. Matches against the request, message or body decoded as ISO-8859-1, one
+        // char per byte, so offsets map straight back to the raw bytes.
+        Pattern pattern() {
+            return pattern;
+        }
+
+        String[] pointer() {
+            return pointer;
+        }
+
+        byte[] jsonStringBytes() {
+            return jsonStringBytes;
+        }
+
+        // Written in place of a value that isn't a string, so 42 stays a number
+        byte[] jsonValueBytes() {
+            return jsonValueBytes;
+        }
+
+        // Regex rows only. The replacement with its UTF-8 bytes as ISO-8859-1 chars,
+        // so group references work and non-ASCII text survives the round trip.
+        String regexReplacement() {
+            return regexReplacement;
+        }
+    }
+
+    // Throws PatternSyntaxException for an invalid regex
+    static Pattern pattern(String regex) {
+        String source = latin1(regex);
+        Pattern pattern = PATTERNS.get(source);
+        if (pattern == null) {
+            pattern = Pattern.compile(source);
+            PATTERNS.put(source, pattern);
+        }
+        return pattern;
+    }
+
+    // Why a regex row's pattern doesn't compile, or null when it does
+    public static String regexError(String regex) {
+        try {
+            pattern(regex);
+            return null;
+        } catch (PatternSyntaxException e) {
+            return e.getDescription();
+        }
+    }
+
+    // Why a row's Match can't be used: a regex that doesn't compile, or a
+    // header name that isn't a token. Null when it can.
+    public static String matchError(RuleType type, String match) {
+        if (type.isRegex()) {
+            String error = regexError(match);
+            return error != null ? "Invalid regex: " + error : null;
+        }
+        if ((type == RuleType.HEADER || type == RuleType.RESPONSE_HEADER) && !isToken(match)) {
+            return HEADER_NAME_ERROR;
+        }
+        return null;
+    }
+
+    // RFC 9110's token: what a header name may contain
+    static boolean isToken(String name) {
+        if (name.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9')
+                    || "!#$%&'*+-.^_`|~".indexOf(c) >= 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Why a regex row's replacement can't be used with its pattern, or null when
+    // it can or the pattern itself doesn't compile
+    public static String replacementError(String regex, String replace) {
+        try {
+            return RawRewriter.replacementError(pattern(regex), latin1(replace));
+        } catch (PatternSyntaxException e) {
+            return null;
+        }
+    }
+
+    // Why a {{...}} in a Replace value isn't an expression, or null when every one is
+    public static String templateError(String replace) {
+        return Template.error(replace);
+    }
+
+    // The string's UTF-8 bytes, one char each
+    static String latin1(String value) {
+        return new String(value.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1);
+    }
+
+    static String sanitizeHeaderValue(String value) {
+        if (value == null) return null;
+        return value.replace("\r", "").replace("\n", "");
+    }
+
+    // Control characters would end or split the Cookie header, and ';' and '='
+    // the pair
+    static String sanitizeCookieName(String name) {
+        StringBuilder out = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c >= 0x20 && c != 0x7F && c != ';' && c != '=') {
+                out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    static String sanitizeFieldName(String name) {
+        if (name == null) return null;
+        return name.replace("\"", "").replace("\r", "").replace("\n", "");
+    }
+
+    // Drops CR/LF and percent-encodes what would end or split a name=value pair
+    // or the request line: other control characters, space, '#', '&', '=' and
+    // non-ASCII bytes. '%' is kept, so values that are already encoded pass through.
+    static byte[] encodeParam(String value) {
+        return percentEncode(value, " #&=", true);
+    }
+
+    // The same for a cookie value, where ';' and ',' would end the pair and RFC
+    // 6265 leaves out spaces, '"' and '\\' as well. Non-ASCII text is kept.
+    static byte[] encodeCookieValue(String value) {
+        return percentEncode(value, " \",;\\", false);
+    }
+
+    private static byte[] percentEncode(String value, String special, boolean nonAscii) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        ByteBuilder out = new ByteBuilder(bytes.length);
+        for (byte b : bytes) {
+            if (b == '\r' || b == '\n') {
+                continue;
+            }
+            if ((b >= 0 && b < ' ') || b == 0x7F || (b < 0 && nonAscii) || special.indexOf(b) >= 0) {
+                out.append((byte) '%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+            } else {
+                out.append(b);
+            }
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,82 @@
+package com.replacer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public enum RuleType {
+    HEADER("Header"),
+    COOKIE("Cookie"),
+    URL_PARAMETER("URL Parameter"),
+    POST_BODY_PARAMETER("POST Body Parameter"),
+    JSON_FIELD("JSON Body Field"),
+    REGEX("Regex (raw request)"),
+    LITERAL("Literal (raw request)"),
+    WEBSOCKET_REGEX("Regex (WebSocket message)"),
+    WEBSOCKET_JSON_FIELD("JSON Field (WebSocket message)"),
+    RESPONSE_HEADER("Response Header"),
+    SET_COOKIE("Response Set-Cookie"),
+    RESPONSE_JSON_FIELD("JSON Field (response body)"),
+    RESPONSE_REGEX("Regex (response body)"),
+    RESPONSE_LITERAL("Literal (response body)");
+
+    private static final Map<String, RuleType> BY_LABEL = new HashMap<>();
+
+    static {
+        for (RuleType type : values()) {
+            BY_LABEL.put(type.label, type);
+        }
+    }
+
+    private final String label;
+
+    RuleType(String label) {
+        this.label = label;
+    }
+
+    public String label() {
+        return label;
+    }
+
+    // Matched anywhere in the request bytes rather than by name
+    public boolean isRaw() {
+        return this == REGEX || this == LITERAL;
+    }
+
+    // Whether the match is a regular expression
+    public boolean isRegex() {
+        return this == REGEX || this == WEBSOCKET_REGEX || this == RESPONSE_REGEX;
+    }
+
+    // Whether the match is exact text with nothing to harvest
+    public boolean isLiteral() {
+        return this == LITERAL || this == RESPONSE_LITERAL;
+    }
+
+    // Applied to outgoing WebSocket messages rather than to HTTP requests
+    public boolean isWebSocket() {
+        return this == WEBSOCKET_REGEX || this == WEBSOCKET_JSON_FIELD;
+    }
+
+    // Applied to HTTP responses as they arrive
+    public boolean isResponse() {
+        return this == RESPONSE_HEADER || this == SET_COOKIE || this == RESPONSE_JSON_FIELD
+                || this == RESPONSE_REGEX || this == RESPONSE_LITERAL;
+    }
+
+    public boolean isRequest() {
+        return !isWebSocket() && !isResponse();
+    }
+
+    public static RuleType fromLabel(String label) {
+        return label != null ? BY_LABEL.get(label) : null;
+    }
+
+    public static String[] labels() {
+        RuleType[] types = values();
+        String[] labels = new String[types.length];
+        for (int i = 0; i < types.length; i++) {
+            labels[i] = types[i].label;
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,96 @@
+package com.replacer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+// The subset of replacer-rules-schema.json that the streaming reader checks:
+// required and allowed properties, property types, minLength, minItems,
+// minimum, maximum and enum. Loaded once from the bundled resource so the schema file stays the
+// single definition of what a valid rules file looks like.
+final class RulesSchema {
+
+    static final RulesSchema BUNDLED = load("/replacer-rules-schema.json");
+
+    final Definition rule;
+    final Definition typeRow;
+    final Definition scope;
+
+    private RulesSchema(Definition rule, Definition typeRow, Definition scope) {
+        this.rule = rule;
+        this.typeRow = typeRow;
+        this.scope = scope;
+    }
+
+    private static RulesSchema load(String resource) {
+        try (InputStream in = RulesSchema.class.getResourceAsStream(resource)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing " + resource);
+            }
+            Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8);
+            JsonObject defs = JsonParser.parseReader(reader).getAsJsonObject().getAsJsonObject("$defs");
+            return new RulesSchema(new Definition(defs.getAsJsonObject("rule")),
+                    new Definition(defs.getAsJsonObject("typeRow")), new Definition(defs.getAsJsonObject("scope")));
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot read " + resource, e);
+        }
+    }
+
+    static final class Definition {
+        final Set<String> required;
+        final boolean additionalProperties;
+        final Map<String, Property> properties = new HashMap<>();
+
+        private Definition(JsonObject def) {
+            required = strings(def.getAsJsonArray("required"));
+            JsonElement additional = def.get("additionalProperties");
+            additionalProperties = additional == null || additional.getAsBoolean();
+            for (Map.Entry<String, JsonElement> entry : def.getAsJsonObject("properties").entrySet()) {
+                properties.put(entry.getKey(), new Property(entry.getValue().getAsJsonObject()));
+            }
+        }
+    }
+
+    static final class Property {
+        final String type;
+        final int minLength;
+        final int minItems;
+        // Integers only
+        final long minimum;
+        final long maximum;
+        // Null when any value is allowed
+        final Set<String> enumValues;
+
+        private Property(JsonObject property) {
+            type = property.get("type").getAsString();
+            minLength = property.has("minLength") ? property.get("minLength").getAsInt() : 0;
+            minItems = property.has("minItems") ? property.get("minItems").getAsInt() : 0;
+            minimum = property.has("minimum") ? property.get("minimum").getAsLong() : Integer.MIN_VALUE;
+            maximum = property.has("maximum") ? property.get("maximum").getAsLong() : Integer.MAX_VALUE;
+            enumValues = property.has("enum") ? strings(property.getAsJsonArray("enum")) : null;
+        }
+    }
+
+    private static Set<String> strings(JsonArray array) {
+        if (array == null) {
+            return Collections.emptySet();
+        }
+        Set<String> values = new LinkedHashSet<>();
+        for (JsonElement element : array) {
+            values.add(element.getAsString());
+        }
+        return Collections.unmodifiableSet(values);
+    }
+}
@@ -0,0 +1,163 @@
+package com.replacer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+// Finds the rules whose scope covers a request without testing every rule.
+// Hosts form a trie of labels read right to left (com -> example -> api), and
+// under each host node the path prefixes form a trie of characters. A lookup
+// walks the request's host and then its path once, so it costs the length of
+// host + path however many rules there are. Port and method are checked only
+// on the rules found that way.
+final class ScopeIndex {
+
+    private static final int[] NONE = new int[0];
+
+    private final RuleScope[] scopes;
+    // Rules without a host condition hang off the root's subtree paths
+    private final HostNode root = new HostNode();
+    private final boolean scoped;
+
+    // Positions returned by select are positions in this array
+    ScopeIndex(RuleSet.Rule[] rules) {
+        scopes = new RuleScope[rules.length];
+        boolean any = false;
+        for (int i = 0; i < rules.length; i++) {
+            RuleScope scope = rules[i].scope();
+            scopes[i] = scope;
+            any |= scope != null;
+            HostNode node = root;
+            PathNode paths;
+            if (scope == null || scope.host == null) {
+                paths = root.subtree();
+            } else {
+                String host = scope.host;
+                int end = host.length();
+                while (end > 0) {
+                    int dot = host.lastIndexOf('.', end - 1);
+                    node = node.child(host.substring(dot + 1, end));
+                    end = dot;
+                }
+                paths = scope.subdomains ? node.subtree() : node.exact();
+            }
+            String prefix = scope != null && scope.pathPrefix != null ? scope.pathPrefix : "";
+            for (int c = 0; c < prefix.length(); c++) {
+                paths = paths.child(prefix.charAt(c));
+            }
+            paths.add(i);
+        }
+        scoped = any;
+    }
+
+    // False when no rule has a scope, so every rule applies everywhere
+    boolean isScoped() {
+        return scoped;
+    }
+
+    // Positions of the rules that apply to the target, in ascending order
+    int[] select(RequestTarget target) {
+        Found found = new Found();
+        String host = target.host();
+        collect(root.subtree, target, found);
+        HostNode node = root;
+        int end = host.length();
+        while (end > 0) {
+            int dot = host.lastIndexOf('.', end - 1);
+            node = node.children != null ? node.children.get(host.substring(dot + 1, end)) : null;
+            if (node == null) {
+                break;
+            }
+            collect(node.subtree, target, found);
+            if (dot < 0) {
+                collect(node.exact, target, found);
+            }
+            end = dot;
+        }
+        if (found.size == 0) {
+            return NONE;
+        }
+        int[] selected = Arrays.copyOf(found.positions, found.size);
+        Arrays.sort(selected);
+        return selected;
+    }
+
+    private void collect(PathNode node, RequestTarget target, Found found) {
+        String path = target.path();
+        int c = 0;
+        while (node != null) {
+            for (int i = 0; i < node.size; i++) {
+                int position = node.rules[i];
+                RuleScope scope = scopes[position];
+                if (scope == null || scope.matchesPortAndMethod(target)) {
+                    found.add(position);
+                }
+            }
+            if (c == path.length() || node.children == null) {
+                break;
+            }
+            node = node.children.get(path.charAt(c++));
+        }
+    }
+
+    private static final class HostNode {
+        Map<String, HostNode> children;
+        // Rules for exactly this host, and for this host and everything under it
+        PathNode exact;
+        PathNode subtree;
+
+        HostNode child(String label) {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            return children.computeIfAbsent(label, l -> new HostNode());
+        }
+
+        PathNode exact() {
+            if (exact == null) {
+                exact = new PathNode();
+            }
+            return exact;
+        }
+
+        PathNode subtree() {
+            if (subtree == null) {
+                subtree = new PathNode();
+            }
+            return subtree;
+        }
+    }
+
+    private static final class PathNode {
+        Map<Character, PathNode> children;
+        // Rules whose path prefix ends here
+        int[] rules = NONE;
+        int size;
+
+        PathNode child(char c) {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            return children.computeIfAbsent(c, k -> new PathNode());
+        }
+
+        void add(int position) {
+            if (size == rules.length) {
+                rules = Arrays.copyOf(rules, Math.max(4, size * 2));
+            }
+            rules[size++] = position;
+        }
+    }
+
+    private static final class Found {
+        int[] positions = new int[8];
+        int size;
+
+        void add(int position) {
+            if (size == positions.length) {
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            positions[size++] = position;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.replacer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// A Replace value with {{...}} expressions, split into text and parsed
+// expressions once when the rule is compiled, so filling it in is a
+// concatenation with no parsing or lookups. A {{ that doesn't start a valid
+// expression and }} is kept as typed.
+final class Template {
+
+    static final Pattern NAME = Pattern.compile("[A-Za-z_][A-Za-z0-9_.-]*");
+
+    // text[i] comes before parts[i]; the last text follows the last part
+    private final String[] text;
+    private final Expression[] parts;
+    // Each expression as typed, written while a variable standing alone is unset
+    private final String[] references;
+    // Regex rows only: values are quoted so '$' and '\' in them are literal
+    private final boolean quote;
+    private final boolean dynamic;
+    private final boolean readsMessage;
+
+    private Template(String[] text, Expression[] parts, String[] references, boolean quote) {
+        this.text = text;
+        this.parts = parts;
+        this.references = references;
+        this.quote = quote;
+        boolean dynamic = false;
+        boolean readsMessage = false;
+        for (Expression part : parts) {
+            dynamic |= part.dynamic;
+            readsMessage |= part.readsMessage;
+        }
+        this.dynamic = dynamic;
+        this.readsMessage = readsMessage;
+    }
+
+    // Null when the value has no expression
+    static Template compile(String source, Variables store, boolean quote) {
+        if (source == null || !source.contains("{{")) {
+            return null;
+        }
+        List<String> text = new ArrayList<>();
+        List<Expression> parts = new ArrayList<>();
+        List<String> references = new ArrayList<>();
+        int last = 0;
+        int open = source.indexOf("{{");
+        while (open >= 0) {
+            int end;
+            try {
+                Expression.Parser parser = new Expression.Parser(source, open + 2, store);
+                Expression part = parser.parse();
+                end = close(source, parser);
+                text.add(source.substring(last, open));
+                parts.add(part);
+                references.add(source.substring(open, end));
+            } catch (Expression.SyntaxException e) {
+                open = source.indexOf("{{", open + 1);
+                continue;
+            }
+            last = end;
+            open = source.indexOf("{{", end);
+        }
+        if (parts.isEmpty()) {
+            return null;
+        }
+        text.add(source.substring(last));
+        return new Template(text.toArray(new String[0]), parts.toArray(new Expression[0]),
+                references.toArray(new String[0]), quote);
+    }
+
+    // Why a {{...}} in the value isn't an expression, or null when every one is.
+    // A {{ with no }} after it is plain text and not reported.
+    static String error(String source) {
+        if (source == null || !source.contains("{{")) {
+            return null;
+        }
+        Variables scratch = new Variables(() -> {});
+        int open = source.indexOf("{{");
+        while (open >= 0 && source.indexOf("}}", open + 2) >= 0) {
+            Expression.Parser parser = new Expression.Parser(source, open + 2, scratch);
+            try {
+                parser.parse();
+                open = source.indexOf("{{", close(source, parser));
+            } catch (Expression.SyntaxException e) {
+                return e.getMessage() + " at position " + (e.offset + 1);
+            }
+        }
+        return null;
+    }
+
+    // Offset just past the }} ending the expression the parser read
+    private static int close(String source, Expression.Parser parser) {
+        parser.skipSpace();
+        int end = parser.position();
+        if (!source.startsWith("}}", end)) {
+            throw new Expression.SyntaxException("expected }}", end);
+        }
+        return end + 2;
+    }
+
+    static boolean isName(String name) {
+        return NAME.matcher(name).matches();
+    }
+
+    // Whether the value has to be filled in again for every message, as it
+    // reads the clock, a counter or the message itself
+    boolean perMessage() {
+        return dynamic || readsMessage;
+    }
+
+    boolean readsMessage() {
+        return readsMessage;
+    }
+
+    // The context may be null when the value is not filled in per message
+    String render(Expression.Context context) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < parts.length; i++) {
+            out.append(text[i]);
+            byte[] value = parts[i].eval(context);
+            if (value == null) {
+                out.append(references[i]);
+            } else {
+                String decoded = new String(value, StandardCharsets.UTF_8);
+                out.append(quote ? Matcher.quoteReplacement(decoded) : decoded);
+            }
+        }
+        return out.append(text[parts.length]).toString();
+    }
+
+    void collect(Collection<Variables.Variable> variables, Collection<AtomicLong> counters) {
+        for (Expression part : parts) {
+            part.collect(variables, counters);
+        }
+    }
+
+    // The variable when the value is nothing but one reference, else null
+    Variables.Variable only() {
+        return parts.length == 1 && parts[0] instanceof Expression.Reference
+                && text[0].isEmpty() && text[1].isEmpty() ? ((Expression.Reference) parts[0]).variable : null;
+    }
+}
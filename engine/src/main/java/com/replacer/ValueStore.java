@@ -0,0 +1,101 @@
+package com.replacer;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Values harvested from responses, one slot per harvesting row. Slots are
+// written from Burp's HTTP threads and read by every rewrite, so a fresh value
+// is used by the very next request. The editor catches up later on the EDT.
+//
+// Every harvest gets a new version from one counter. A compiled row remembers
+// the version its typed Replace text already includes and uses a harvested
+// value only when it is newer, so a user edit made after a harvest wins.
+public final class ValueStore {
+
+    private final AtomicLong version = new AtomicLong();
+    private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<>();
+    private final Queue<Slot> changed = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    // Called from the harvesting thread when changes are waiting to be drained
+    private final Runnable onChange;
+
+    public ValueStore(Runnable onChange) {
+        this.onChange = onChange;
+    }
+
+    public interface Consumer {
+        void accept(String ruleId, int rowIndex, String value);
+    }
+
+    Slot slot(String ruleId, int rowIndex) {
+        return slots.computeIfAbsent(ruleId + ':' + rowIndex, key -> new Slot(ruleId, rowIndex));
+    }
+
+    // Changes with every harvest, so resolved rules can be cached until the next one
+    long version() {
+        return version.get();
+    }
+
+    // Must be called on the EDT. Hands the latest value of every changed slot
+    // to the editor and marks it as applied there.
+    public void drain(Consumer editor) {
+        drainScheduled.set(false);
+        Slot slot;
+        while ((slot = changed.poll()) != null) {
+            Harvest latest = slot.latest;
+            if (latest != null && latest.version > slot.applied) {
+                editor.accept(slot.ruleId, slot.rowIndex, latest.value);
+                slot.applied = latest.version;
+            }
+        }
+    }
+
+    public final class Slot {
+        private final String ruleId;
+        private final int rowIndex;
+        private volatile Harvest latest;
+        // Version of the latest value the editor has; only written on the EDT
+        private volatile long applied;
+
+        private Slot(String ruleId, int rowIndex) {
+            this.ruleId = ruleId;
+            this.rowIndex = rowIndex;
+        }
+
+        // Returns false when the value is the one already stored, which is
+        // the usual case for a token that is sent back on every response
+        boolean put(String value) {
+            Harvest current = latest;
+            if (current != null && current.value.equals(value)) {
+                return false;
+            }
+            latest = new Harvest(value, version.incrementAndGet());
+            changed.add(this);
+            if (drainScheduled.compareAndSet(false, true)) {
+                onChange.run();
+            }
+            return true;
+        }
+
+        Harvest latest() {
+            return latest;
+        }
+
+        long applied() {
+            return applied;
+        }
+    }
+
+    static final class Harvest {
+        final String value;
+        final long version;
+
+        private Harvest(String value, long version) {
+            this.value = value;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package com.replacer;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Named values shared by every rule, written {{name}} in a Replace field. Each
+// variable is held once and compiled rows keep a reference to its holder, so
+// setting it, from the editor, the context menu or a harvest, is one write that
+// the next request of every rule using it sees. Nothing is recompiled.
+//
+// Every change takes a new version from one counter, so a rule with its
+// variables filled in can be cached until any of them changes.
+public final class Variables {
+
+    private final AtomicLong version = new AtomicLong();
+    private final ConcurrentHashMap<String, Variable> byName = new ConcurrentHashMap<>();
+    // Behind {{counter('name')}}, kept across recompiles so counters only go up
+    private final ConcurrentHashMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final AtomicBoolean changeScheduled = new AtomicBoolean();
+    // Called from the writing thread when changes are waiting to be drained
+    private final Runnable onChange;
+
+    public Variables(Runnable onChange) {
+        this.onChange = onChange;
+    }
+
+    // The holder rows bind to. Referencing a name that was never set creates an
+    // unset holder, which renders as the reference itself until it is set or
+    // a compile drops it.
+    Variable variable(String name) {
+        return byName.computeIfAbsent(name, Variable::new);
+    }
+
+    // The empty name is counter() without an argument
+    AtomicLong counter(String name) {
+        return counters.computeIfAbsent(name, key -> new AtomicLong());
+    }
+
+    // Drops the unset variables and the counters no compiled rule refers to, so
+    // names typed on the way to the final one don't pile up. Set variables stay.
+    void retain(Set<Variable> referenced, Set<AtomicLong> counting) {
+        for (Variable variable : byName.values()) {
+            if (!referenced.contains(variable)) {
+                byName.computeIfPresent(variable.name, (name, current) ->
+                        current == variable && current.value == null ? null : current);
+            }
+        }
+        counters.values().retainAll(counting);
+    }
+
+    // Changes with every write, so resolved rules can be cached until the next one
+    long version() {
+        return version.get();
+    }
+
+    // Null when the variable is not set
+    public String get(String name) {
+        Variable variable = byName.get(name);
+        return variable != null ? variable.value : null;
+    }
+
+    // Returns false when the value is the one already set. Pass null to unset.
+    public boolean set(String name, String value) {
+        return variable(name).set(value);
+    }
+
+    // Sets every variable in the map, leaving the others as they are
+    public void setAll(Map<String, String> values) {
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            set(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // The variables that are set, by name
+    public Map<String, String> values() {
+        Map<String, String> values = new TreeMap<>();
+        for (Variable variable : byName.values()) {
+            String value = variable.value;
+            if (value != null) {
+                values.put(variable.name, value);
+            }
+        }
+        return values;
+    }
+
+    // Must be called on the EDT. Returns the current values and lets the next
+    // change be reported again.
+    public Map<String, String> drain() {
+        changeScheduled.set(false);
+        return values();
+    }
+
+    public final class Variable {
+        private final String name;
+        private volatile String value;
+
+        private Variable(String name) {
+            this.name = name;
+        }
+
+        public String name() {
+            return name;
+        }
+
+        // Null when not set
+        public String value() {
+            return value;
+        }
+
+        // The value is written before the version moves on, so a rule resolved
+        // at the new version always sees it
+        public boolean set(String newValue) {
+            if (Objects.equals(value, newValue)) {
+                return false;
+            }
+            value = newValue;
+            version.incrementAndGet();
+            if (changeScheduled.compareAndSet(false, true)) {
+                onChange.run();
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.replacer;
+
+import org.junit.jupiter.api.Test;
+
+import static com.replacer.TestData.rewrite;
+import static com.replacer.TestData.rule;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CookieEditorTest {
+
+    @Test
+    void replacesCookieAndKeepsTheOthers() {
+        assertEquals("GET / HTTP/1.1\nHost: h\nCookie: a=1; session=new;b=2\n\n",
+                rewrite("GET / HTTP/1.1\nHost: h\nCookie: a=1; session=old;b=2\n\n", rule("Cookie", "session", "new")));
+    }
+
+    @Test
+    void replacesEveryDuplicate() {
+        assertEquals("GET / HTTP/1.1\nHost: h\nCookie: s=new; a=1\nCookie: s=new\n\n",
+                rewrite("GET / HTTP/1.1\nHost: h\nCookie: s=old; a=1\nCookie: s=older\n\n", rule("Cookie", "s", "new")));
+    }
+
+    @Test
+    void addsMissingCookieToLastHeader() {
+        assertEquals("GET / HTTP/1.1\nHost: h\nCookie: a=1\nCookie: b=2; s=new\n\n",
+                rewrite("GET / HTTP/1.1\nHost: h\nCookie: a=1\nCookie: b=2\n\n", rule("Cookie", "s", "new")));
+    }
+
+    @Test
+    void addsCookieHeaderWhenThereIsNone() {
+        assertEquals("GET / HTTP/1.1\nHost: h\nCookie: s=new; t=2\n\n",
+                rewrite("GET / HTTP/1.1\nHost: h\n\n", rule("Cookie", "s", "new", "Cookie", "t", "2")));
+    }
+
+    // Rows don't remove cookies; an empty Replace clears the value, which is how
+    // a server deletes one too
+    @Test
+    void clearsCookieWithEmptyValue() {
+        assertEquals("GET / HTTP/1.1\nHost: h\nCookie: a=1; s=\n\n",
+                rewrite("GET / HTTP/1.1\nHost: h\nCookie: a=1; s=old\n\n", rule("Cookie", "s", "")));
+    }
+
+    @Test
+    void matchesNamesExactly() {
+        assertEquals("GET / HTTP/1.1\nHost: h\nCookie: S=1; sid=2; s=new\n\n",
+                rewrite("GET / HTTP/1.1\nHost: h\nCookie: S=1; sid=2\n\n", rule("Cookie", "s", "new")));
+    }
+
+    @Test
+    void valuesCannotAddCookies() {
+        assertEquals("GET / HTTP/1.1\nHost: h\nCookie: a=x%3B%20admin=1%2C%20b=2; s=%22%5C\n\n",
+                rewrite("GET / HTTP/1.1\nHost: h\nCookie: a=1\n\n",
+                        rule("Cookie", "a", "x; admin=1, b=2", "Cookie", "s", "\"\\")));
+    }
+
+    @Test
+    void addedNamesCannotAddHeaders() {
+        assertEquals("GET / HTTP/1.1\nHost: h\nCookie: a=1; sX-Injected: 1=v\n\n",
+                rewrite("GET / HTTP/1.1\nHost: h\nCookie: a=1\n\n", rule("Cookie", "s\r\nX-Injected: 1", "v")));
+    }
+}
@@ -0,0 +1,90 @@
+package com.replacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.replacer.TestData.rule;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class JsonFieldRewriterTest {
+
+    // The body after applying JSON Body Field rows, given as pointer and value pairs
+    private static String apply(String body, String... pointerAndValue) {
+        String[] rows = new String[pointerAndValue.length / 2 * 3];
+        for (int i = 0; i < pointerAndValue.length; i += 2) {
+            rows[i / 2 * 3] = "JSON Body Field";
+            rows[i / 2 * 3 + 1] = pointerAndValue[i];
+            rows[i / 2 * 3 + 2] = pointerAndValue[i + 1];
+        }
+        String rewritten = TestData.rewrite("POST / HTTP/1.1\nHost: h\nContent-Type: application/json\n"
+                + "Content-Length: " + body.length() + "\n\n" + body, rule(rows));
+        return rewritten.substring(rewritten.indexOf("\n\n") + 2);
+    }
+
+    @Test
+    void updatesKeepingTheFieldType() {
+        assertEquals("{\"s\": \"5\", \"n\": 6, \"b\": false}", apply("{\"s\": \"x\", \"n\": 1, \"b\": true}",
+                "/s", "5", "/n", "6", "/b", "false"));
+        assertEquals("{\"n\": \"not json\"}", apply("{\"n\": 1}", "/n", "not json"));
+        assertEquals("{\"s\": \"a\\\"b\\\\c\"}", apply("{\"s\": \"x\"}", "/s", "a\"b\\c"));
+    }
+
+    @Test
+    void keepsTheRestOfTheBodyByteForByte() {
+        String body = "{ \"a\" :1,\n  \"b\":\"\\u0041\" ,\"c\":[1, 2] }";
+        assertEquals(body.replace("1,\n", "9,\n"), apply(body, "/a", "9"));
+    }
+
+    @Test
+    void updatesNestedFieldsAndArrayElements() {
+        assertEquals("{\"data\":{\"items\":[{\"t\":\"a\"},{\"t\":\"new\"}]}}",
+                apply("{\"data\":{\"items\":[{\"t\":\"a\"},{\"t\":\"b\"}]}}", "/data/items/1/t", "new"));
+        assertEquals("[1,{\"x\":2},3]", apply("[1,{\"x\":1},3]", "/1/x", "2"));
+        assertEquals("{\"a\":[\"z\",2]}", apply("{\"a\":[1,2]}", "/a/0", "z"));
+    }
+
+    @Test
+    void insertsIntoEmptyAndNonEmptyObjects() {
+        assertEquals("{\"a\":1,\"b\":2}", apply("{}", "/a", "1", "/b", "2"));
+        assertEquals("{ \"a\":\"x\"}", apply("{ }", "/a", "x"));
+        assertEquals("{\"x\":0,\"a\":\"x\",\"b\":{\"c\":1}}", apply("{\"x\":0}", "/a", "x", "/b", "{\"c\":1}"));
+        assertEquals("{\"o\":{\"k\":true}}", apply("{\"o\":{}}", "/o/k", "true"));
+    }
+
+    @Test
+    void leavesMissingParentsAndArrayElementsAlone() {
+        assertEquals("{\"a\":1}", apply("{\"a\":1}", "/missing/b", "2"));
+        assertEquals("{\"a\":[1]}", apply("{\"a\":[1]}", "/a/5", "2"));
+    }
+
+    @Test
+    void lastRowWinsForTheSamePointer() {
+        assertEquals("{\"a\":2}", apply("{}", "/a", "1", "a", "2"));
+    }
+
+    @Test
+    void addressesEscapedKeys() {
+        assertEquals("{\"a/b\":1,\"m~n\":2}", apply("{\"a/b\":0,\"m~n\":0}", "/a~1b", "1", "/m~0n", "2"));
+        assertEquals("{\"q\\\"k\":\"v\"}", apply("{\"q\\\"k\":\"x\"}", "/q\"k", "v"));
+        assertEquals("{\"\\u0061\":5}", apply("{\"\\u0061\":1}", "/a", "5"));
+        assertEquals("{\"q\\\"k\":\"v\"}", apply("{}", "/q\"k", "v"));
+    }
+
+    @Test
+    void leavesInvalidJsonAlone() {
+        byte[] body = "{\"a\":".getBytes(StandardCharsets.UTF_8);
+        assertNull(JsonFieldRewriter.rewrite(body, 0, body.length, rule("JSON Body Field", "/a", "1").jsonEdits()));
+    }
+
+    @Test
+    void readsValuesAtPointers() {
+        byte[] body = "{\"a\":{\"b\":[\"x\",\"y\\n\"]},\"n\":1.5}".getBytes(StandardCharsets.UTF_8);
+        String[] values = JsonFieldRewriter.values(body, 0, body.length, new String[][]{
+                JsonFieldRewriter.parsePointer("/a/b/1"), JsonFieldRewriter.parsePointer("/n"),
+                JsonFieldRewriter.parsePointer("/none")});
+        assertArrayEquals(new String[]{"y\n", "1.5", null}, values);
+    }
+}
@@ -0,0 +1,87 @@
+package com.replacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsonUtilTest {
+
+    private static JsonUtil.ReadResult read(String json) throws IOException {
+        return JsonUtil.readRules(new StringReader(json), JsonUtil.Progress.NONE);
+    }
+
+    @Test
+    void roundTripsRules() throws IOException {
+        List<JsonUtil.TypeData> rows = new ArrayList<>();
+        rows.add(new JsonUtil.TypeData("Header", "X-Test", "a\"b"));
+        rows.add(new JsonUtil.TypeData("Cookie", "s", ""));
+        rows.get(1).harvest = true;
+        JsonUtil.RuleData rule = new JsonUtil.RuleData("r", rows);
+        rule.live = true;
+
+        JsonUtil.ReadResult read = read(JsonUtil.exportRules(List.of(rule)));
+        assertTrue(read.problems.isEmpty());
+        JsonUtil.RuleData copy = read.rules.get(0);
+        assertEquals("r", copy.name);
+        assertTrue(copy.live);
+        assertEquals("a\"b", copy.typeRows.get(0).replace);
+        assertTrue(copy.typeRows.get(1).harvest);
+    }
+
+    @Test
+    void reportsProblemsWithTheirLocation() throws IOException {
+        JsonUtil.ReadResult read = read("[\n"
+                + "  {\"name\": \"a\", \"typeRows\": [{\"type\": \"Header\", \"match\": \"X\", \"replace\": \"1\"}]},\n"
+                + "  {\"name\": \"\", \"typeRows\": []},\n"
+                + "  {\"name\": \"c\", \"live\": \"yes\", \"typeRows\": [{\"type\": \"Header\", \"match\": \"X\", \"replace\": \"1\"}]}\n"
+                + "]");
+        assertEquals(1, read.rules.size());
+        assertEquals(3, read.problemCount);
+        JsonUtil.Problem empty = read.problems.get(0);
+        assertEquals("$[1].name", empty.path);
+        assertEquals("must not be empty", empty.message);
+        assertEquals(3, empty.line);
+        assertEquals("$[1].typeRows", read.problems.get(1).path);
+        JsonUtil.Problem live = read.problems.get(2);
+        assertEquals("$[2].live", live.path);
+        assertEquals(4, live.line);
+    }
+
+    // A bad row is dropped on its own and the rest of the rule is kept
+    @Test
+    void dropsInvalidRowsOnly() throws IOException {
+        JsonUtil.ReadResult read = read("[{\"name\": \"a\", \"typeRows\": ["
+                + "{\"type\": \"Nope\", \"match\": \"X\", \"replace\": \"1\"},"
+                + "{\"type\": \"Header\", \"match\": \"X\"},"
+                + "{\"type\": \"Header\", \"match\": \"Y\", \"replace\": \"2\", \"extra\": 1},"
+                + "{\"type\": \"Header\", \"match\": \"Z\", \"replace\": \"3\"}]}]");
+        assertEquals(1, read.rules.size());
+        assertEquals(1, read.rules.get(0).typeRows.size());
+        assertEquals("Z", read.rules.get(0).typeRows.get(0).match);
+        assertEquals("$[0].typeRows[0].type", read.problems.get(0).path);
+        assertEquals("$[0].typeRows[1]", read.problems.get(1).path);
+        assertEquals("missing required property \"replace\"", read.problems.get(1).message);
+        assertEquals("$[0].typeRows[2].extra", read.problems.get(2).path);
+    }
+
+    @Test
+    void rejectsMalformedJson() {
+        assertThrows(IOException.class, () -> read("[{\"name\": \"a\", "));
+        assertThrows(IOException.class, () -> read("[] []"));
+    }
+
+    @Test
+    void stopsWhenProgressSaysSo() {
+        String json = "[{\"name\": \"a\", \"typeRows\": [{\"type\": \"Header\", \"match\": \"X\", \"replace\": \"1\"}]}]";
+        assertThrows(InterruptedIOException.class,
+                () -> JsonUtil.readRules(new StringReader(json), rules -> false));
+    }
+}
@@ -0,0 +1,89 @@
+package com.replacer;
+
+import org.junit.jupiter.api.Test;
+
+import static com.replacer.TestData.rewrite;
+import static com.replacer.TestData.rule;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MultipartRewriterTest {
+
+    private static String request(String contentType, String body) {
+        return "POST /upload HTTP/1.1\nHost: h\nContent-Type: " + contentType + "\nContent-Length: "
+                + body.replace("\n", "\r\n").length() + "\n\n" + body;
+    }
+
+    private static String body(String rewritten) {
+        return rewritten.substring(rewritten.indexOf("\n\n") + 2);
+    }
+
+    @Test
+    void replacesFieldAndKeepsOtherParts() {
+        String body = "--b1\nContent-Disposition: form-data; name=\"user\"\n\nalice\n"
+                + "--b1\nContent-Disposition: form-data; name=\"file\"; filename=\"a.bin\"\n\nBINARY\n"
+                + "--b1--\n";
+        String rewritten = rewrite(request("multipart/form-data; boundary=b1", body),
+                rule("POST Body Parameter", "user", "bob"));
+        assertEquals(body.replace("alice", "bob"), body(rewritten));
+        assertTrue(rewritten.contains("Content-Length: " + TestData.message(body.replace("alice", "bob")).length + "\n"));
+    }
+
+    @Test
+    void insertsMissingFieldBeforeClosingDelimiter() {
+        String body = "--b1\nContent-Disposition: form-data; name=\"user\"\n\nalice\n--b1--\n";
+        assertEquals("--b1\nContent-Disposition: form-data; name=\"user\"\n\nalice\n"
+                        + "--b1\nContent-Disposition: form-data; name=\"token\"\n\nt\n--b1--\n",
+                body(rewrite(request("multipart/form-data; boundary=b1", body), rule("POST Body Parameter", "token", "t"))));
+    }
+
+    @Test
+    void readsQuotedBoundary() {
+        String body = "--a b:c\nContent-Disposition: form-data; name=\"x\"\n\n1\n--a b:c--\n";
+        assertEquals(body.replace("\n1\n", "\n2\n"),
+                body(rewrite(request("multipart/form-data; boundary=\"a b:c\"", body), rule("POST Body Parameter", "x", "2"))));
+    }
+
+    // The boundary text inside a value doesn't end the part unless it starts a line
+    @Test
+    void ignoresBoundaryTextInsideValues() {
+        String body = "--b1\nContent-Disposition: form-data; name=\"note\"\n\nsee --b1 here\n"
+                + "--b1\nContent-Disposition: form-data; name=\"x\"\n\n1\n--b1--\n";
+        assertEquals(body.replace("\n1\n", "\n2\n"),
+                body(rewrite(request("multipart/form-data; boundary=b1", body), rule("POST Body Parameter", "x", "2"))));
+    }
+
+    @Test
+    void valuesCannotAddParts() {
+        String body = "--b1\nContent-Disposition: form-data; name=\"x\"\n\n1\n--b1--\n";
+        assertEquals(body.replace("--b1--", "--b1\nContent-Disposition: form-data; name=\"y\"\n\nsee --b1\n--b1--"),
+                body(rewrite(request("multipart/form-data; boundary=b1", body), rule(
+                        "POST Body Parameter", "x", "2\r\n--b1\r\nContent-Disposition: form-data; name=\"admin\"\r\n\r\n1",
+                        "POST Body Parameter", "y", "see --b1"))));
+    }
+
+    @Test
+    void keepsBareLineFeeds() {
+        String body = "--b1\nContent-Disposition: form-data; name=\"x\"\n\n1\n--b1--\n";
+        String rewritten = body.replace("\n1\n", "\n22\n");
+        byte[] request = ("POST / HTTP/1.1\nHost: h\nContent-Type: multipart/form-data; boundary=b1\n\n" + body).getBytes();
+        byte[] expected = ("POST / HTTP/1.1\nHost: h\nContent-Type: multipart/form-data; boundary=b1\n"
+                + "Content-Length: " + rewritten.length() + "\n\n" + rewritten).getBytes();
+        assertArrayEquals(expected, RequestRewriter.rewrite(request, rule("POST Body Parameter", "x", "22")));
+    }
+
+    @Test
+    void leavesBodyWithoutBoundaryAlone() {
+        String body = "--b1\nContent-Disposition: form-data; name=\"x\"\n\n1\n--b1--\n";
+        assertEquals(body, body(rewrite(request("multipart/form-data", body), rule("POST Body Parameter", "x", "2"))));
+    }
+
+    @Test
+    void findsFieldsForLookups() {
+        byte[] body = TestData.message("--b1\nContent-Disposition: form-data; name=\"a\"\n\nalpha\n"
+                + "--b1\nContent-Disposition: form-data; name=\"a\"\n\nsecond\n--b1--\n");
+        int[] span = MultipartRewriter.fields(body, 0, body.length, "multipart/form-data; boundary=b1").get("a");
+        assertEquals("alpha", new String(body, span[0], span[1] - span[0]));
+    }
+}
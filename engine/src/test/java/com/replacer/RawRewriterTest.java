@@ -0,0 +1,97 @@
+package com.replacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static com.replacer.TestData.rewrite;
+import static com.replacer.TestData.rule;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RawRewriterTest {
+
+    private static final String REQUEST = "GET /v1/users/42?debug=false HTTP/1.1\nHost: h\n\n";
+
+    @Test
+    void insertsNumberedAndNamedGroups() {
+        assertEquals("GET /v2/users/42?debug=false HTTP/1.1\nHost: h\n\n",
+                rewrite(REQUEST, rule("Regex (raw request)", "/v(\\d)/", "/v2/")));
+        assertEquals("GET /v1/users/42/42?debug=false HTTP/1.1\nHost: h\n\n",
+                rewrite(REQUEST, rule("Regex (raw request)", "users/(\\d+)", "users/$1/$1")));
+        assertEquals("GET /v1/users/42?debug=true HTTP/1.1\nHost: h\n\n",
+                rewrite(REQUEST, rule("Regex (raw request)", "(?<key>debug)=false", "${key}=true")));
+    }
+
+    @Test
+    void escapedDollarAndBackslashAreLiteral() {
+        assertEquals("GET /v1/users/$1\\x?debug=false HTTP/1.1\nHost: h\n\n",
+                rewrite(REQUEST, rule("Regex (raw request)", "42", "\\$1\\\\x")));
+    }
+
+    @Test
+    void replacesEveryMatchAndUpdatesLength() {
+        assertEquals("POST / HTTP/1.1\nHost: h\nContent-Length: 7\n\nb-b-b-b",
+                rewrite("POST / HTTP/1.1\nHost: h\nContent-Length: 7\n\na-a-a-a", rule("Regex (raw request)", "a", "b")));
+        assertEquals("POST / HTTP/1.1\nHost: h\nContent-Length: 11\n\nxx-xx-xx-xx",
+                rewrite("POST / HTTP/1.1\nHost: h\nContent-Length: 7\n\na-a-a-a", rule("Literal (raw request)", "a", "xx")));
+    }
+
+    @Test
+    void literalsAreNotPatterns() {
+        assertEquals("GET /v1/users/42?debug=false HTTP/1.1\nHost: h\n\n",
+                rewrite(REQUEST, rule("Literal (raw request)", "4.", "$0")));
+        assertEquals("GET /v1/users/$0?debug=false HTTP/1.1\nHost: h\n\n",
+                rewrite(REQUEST, rule("Literal (raw request)", "42", "$0")));
+    }
+
+    @Test
+    void literalsTakeTheLeftmostLongestMatch() {
+        RuleSet.Rule rule = rule("Literal (raw request)", "v1", "A", "Literal (raw request)", "v1/users", "B",
+                "Literal (raw request)", "1/", "C", "Literal (raw request)", "users/42?x", "D",
+                "Literal (raw request)", "42", "E");
+        assertEquals("GET /B/E?debug=false HTTP/1.1\nHost: h\n\n", rewrite(REQUEST, rule));
+        // "/v1/u" is still a candidate when "v" completes, so "u" must be found again after it
+        rule = rule("Literal (raw request)", "/v1/ux", "A", "Literal (raw request)", "v", "B",
+                "Literal (raw request)", "u", "C");
+        assertEquals("GET /B1/Csers/42?debCg=false HTTP/1.1\nHost: h\n\n", rewrite(REQUEST, rule));
+    }
+
+    @Test
+    void reportsReplacementsThatCannotApply() {
+        assertNotNull(RuleSet.replacementError("(a)", "$2"));
+        assertNotNull(RuleSet.replacementError("a", "cost $"));
+        assertNotNull(RuleSet.replacementError("a", "x\\"));
+        assertNotNull(RuleSet.replacementError("(a)", "${name}"));
+        assertNull(RuleSet.replacementError("(a)", "$1 and \\$2"));
+        assertNull(RuleSet.replacementError("(?<name>a)", "${name}"));
+        // Java reads $12 as $1 and a literal 2 when there is no group 12
+        assertNull(RuleSet.replacementError("(a)", "$12"));
+    }
+
+    @Test
+    void skipsRowsWithInvalidReplacement() {
+        RuleSet.Rule rule = rule("Regex (raw request)", "(\\d+)", "$2", "Header", "X-Test", "1");
+        assertEquals("GET /v1/users/42?debug=false HTTP/1.1\nHost: h\nX-Test: 1\n\n", rewrite(REQUEST, rule));
+    }
+
+    @Test
+    void skipsRowsWithInvalidPattern() {
+        RuleSet.Rule rule = rule("Regex (raw request)", "([a-", "x", "Header", "X-Test", "1");
+        assertEquals("GET /v1/users/42?debug=false HTTP/1.1\nHost: h\nX-Test: 1\n\n", rewrite(REQUEST, rule));
+    }
+
+    @Test
+    void reportsRowsItSkips() {
+        JsonUtil.RuleData data = new JsonUtil.RuleData("r", List.of(
+                new JsonUtil.TypeData("Header", "X-Test", "1"),
+                new JsonUtil.TypeData("Regex (raw request)", "a(b)", "$2"),
+                new JsonUtil.TypeData("Regex (raw request)", "([a-", "x")));
+        List<RuleSet.RowError> errors = RuleSet.compile(List.of(data)).errors();
+        assertEquals(2, errors.size());
+        assertTrue(errors.get(0).toString().startsWith("Rule 'r', row 2: Invalid replacement: "), errors.get(0).toString());
+        assertTrue(errors.get(1).toString().startsWith("Rule 'r', row 3: Invalid regex: "), errors.get(1).toString());
+    }
+}
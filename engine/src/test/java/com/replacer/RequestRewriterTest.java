@@ -0,0 +1,94 @@
+package com.replacer;
+
+import org.junit.jupiter.api.Test;
+
+import static com.replacer.TestData.rewrite;
+import static com.replacer.TestData.rule;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class RequestRewriterTest {
+
+    @Test
+    void updatesAndAddsHeaders() {
+        RuleSet.Rule rule = rule("Header", "Authorization", "Bearer new", "Header", "X-Added", "1");
+        assertEquals("GET / HTTP/1.1\nHost: h\nAuthorization: Bearer new\nX-Added: 1\n\n",
+                rewrite("GET / HTTP/1.1\nHost: h\nAuthorization: Bearer old\n\n", rule));
+    }
+
+    @Test
+    void headerValuesCannotAddHeaders() {
+        RuleSet.Rule rule = rule("Header", "X-Test", "a\r\nX-Injected: 1");
+        assertEquals("GET / HTTP/1.1\nHost: h\nX-Test: aX-Injected: 1\n\n",
+                rewrite("GET / HTTP/1.1\nHost: h\n\n", rule));
+    }
+
+    @Test
+    void headerNamesMustBeTokens() {
+        RuleSet.Rule rule = rule("Header", "X: y\r\nZ", "v", "Header", "X-Ok", "1");
+        assertEquals(1, rule.rows().size());
+        assertEquals("GET / HTTP/1.1\nHost: h\nX-Ok: 1\n\n", rewrite("GET / HTTP/1.1\nHost: h\n\n", rule));
+    }
+
+    @Test
+    void urlParametersCannotSplitTheRequestLine() {
+        RuleSet.Rule rule = rule("URL Parameter", "id", "a b\r\nX-Evil: 1", "URL Parameter", "new#", "1");
+        assertEquals("GET /items?id=a%20bX-Evil:%201&new%23=1 HTTP/1.1\nHost: h\n\n",
+                rewrite("GET /items?id=1 HTTP/1.1\nHost: h\n\n", rule));
+    }
+
+    @Test
+    void parameterValuesCannotAddParameters() {
+        RuleSet.Rule rule = rule("POST Body Parameter", "a", "x&admin=true", "POST Body Parameter", "b", "50%25");
+        assertEquals("POST / HTTP/1.1\nHost: h\nContent-Type: application/x-www-form-urlencoded\n"
+                        + "Content-Length: 26\n\na=x%26admin%3Dtrue&b=50%25",
+                rewrite("POST / HTTP/1.1\nHost: h\nContent-Type: application/x-www-form-urlencoded\n"
+                        + "Content-Length: 7\n\na=1&b=2", rule));
+    }
+
+    @Test
+    void updatesUrlParameters() {
+        RuleSet.Rule rule = rule("URL Parameter", "id", "7", "URL Parameter", "new", "x");
+        assertEquals("GET /items?id=7&sort=name&new=x HTTP/1.1\nHost: h\n\n",
+                rewrite("GET /items?id=1&sort=name HTTP/1.1\nHost: h\n\n", rule));
+    }
+
+    @Test
+    void rewritesFormBodyAndItsLength() {
+        RuleSet.Rule rule = rule("POST Body Parameter", "csrf", "abcdef");
+        assertEquals("POST / HTTP/1.1\nHost: h\nContent-Type: application/x-www-form-urlencoded\n"
+                        + "Content-Length: 15\n\na=1&csrf=abcdef",
+                rewrite("POST / HTTP/1.1\nHost: h\nContent-Type: application/x-www-form-urlencoded\n"
+                        + "Content-Length: 10\n\na=1&csrf=x", rule));
+    }
+
+    @Test
+    void typesBodyItCreates() {
+        RuleSet.Rule rule = rule("POST Body Parameter", "a", "1");
+        assertEquals("POST / HTTP/1.1\nHost: h\nContent-Type: application/x-www-form-urlencoded\n"
+                        + "Content-Length: 3\n\na=1",
+                rewrite("POST / HTTP/1.1\nHost: h\n\n", rule));
+    }
+
+    @Test
+    void leavesChunkedBodiesAlone() {
+        String request = "POST / HTTP/1.1\nHost: h\nTransfer-Encoding: chunked\n\n3\nb=2\n0\n\n";
+        assertEquals(request, rewrite(request, rule("POST Body Parameter", "a", "1")));
+        // Raw rows still edit the headers, but b=22 would no longer fit its chunk size of 3
+        assertEquals(request.replace("Host: h", "Host: h2"), rewrite(request,
+                rule("Literal (raw request)", "Host: h", "Host: h2", "Literal (raw request)", "b=2", "b=22")));
+    }
+
+    @Test
+    void keepsLineEndings() {
+        RuleSet.Rule rule = rule("Header", "X-Test", "1");
+        byte[] request = "GET / HTTP/1.1\nHost: h\n\n".getBytes();
+        assertEquals("GET / HTTP/1.1\nHost: h\nX-Test: 1\n\n", new String(RequestRewriter.rewrite(request, rule)));
+    }
+
+    @Test
+    void returnsSameArrayWithoutRequestRows() {
+        byte[] request = TestData.message("GET / HTTP/1.1\nHost: h\n\n");
+        assertSame(request, RequestRewriter.rewrite(request, rule("Response Header", "Server", "x")));
+    }
+}
@@ -0,0 +1,111 @@
+package com.replacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ResponseHarvesterTest {
+
+    // The rules are unscoped, so any target selects all of their rows
+    private static final RequestTarget TARGET = new RequestTarget("h", 443, "/", "GET");
+
+    // A rule whose rows, given as type and match pairs, all harvest and start out as "old"
+    private static RuleSet harvesting(String... typeAndMatch) {
+        List<JsonUtil.TypeData> rows = new ArrayList<>();
+        for (int i = 0; i < typeAndMatch.length; i += 2) {
+            JsonUtil.TypeData row = new JsonUtil.TypeData(typeAndMatch[i], typeAndMatch[i + 1], "old");
+            row.harvest = true;
+            rows.add(row);
+        }
+        JsonUtil.RuleData data = new JsonUtil.RuleData("test", rows);
+        data.id = "test";
+        return RuleSet.compile(List.of(data), new RuleMetrics(), new ValueStore(() -> {}), null);
+    }
+
+    // The rows' replace values after harvesting the response
+    private static String harvest(RuleSet rules, String response) {
+        ResponseHarvester.harvest(TestData.message(response), rules.harvestRows(TARGET));
+        return values(rules);
+    }
+
+    // The replace values the next request would use
+    private static String values(RuleSet rules) {
+        StringBuilder values = new StringBuilder();
+        for (RuleSet.Row row : rules.rules().get(0).resolve().rows()) {
+            values.append(values.length() > 0 ? " " : "").append(row.replace());
+        }
+        return values.toString();
+    }
+
+    @Test
+    void takesHeaderValues() {
+        assertEquals("abc old", harvest(harvesting("Header", "x-token", "Header", "X-Missing"),
+                "HTTP/1.1 200 OK\nX-Token:  abc \n\n"));
+    }
+
+    @Test
+    void takesTheLastSetCookieButNotDeletions() {
+        assertEquals("2 old", harvest(harvesting("Cookie", "s", "Cookie", "t"),
+                "HTTP/1.1 200 OK\nSet-Cookie: s=1; Path=/\nSet-Cookie: s = 2 ; HttpOnly\nSet-Cookie: t=; Max-Age=0\n\n"));
+    }
+
+    @Test
+    void takesJsonFieldsByNameAndPointer() {
+        RuleSet rules = harvesting("POST Body Parameter", "token", "URL Parameter", "n",
+                "JSON Body Field", "/list/1", "URL Parameter", "none");
+        assertEquals("t1 5 b old", harvest(rules,
+                "HTTP/1.1 200 OK\nContent-Type: application/json\n\n{\"data\":{\"token\":\"t1\",\"n\":5},\"list\":[\"a\",\"b\"]}"));
+    }
+
+    @Test
+    void takesTheFirstRegexMatchInTheBody() {
+        assertEquals("id=7", harvest(harvesting("Regex (raw request)", "id=\\d"),
+                "HTTP/1.1 200 OK\nX-Id: id=9\n\nid=7 id=8"));
+    }
+
+    @Test
+    void skipsEncodedBodiesButNotHeaders() {
+        RuleSet rules = harvesting("Header", "X-Token", "POST Body Parameter", "token");
+        assertEquals("a old", harvest(rules,
+                "HTTP/1.1 200 OK\nX-Token: a\nContent-Encoding: gzip\n\n{\"token\":\"t1\"}"));
+        assertEquals("b old", harvest(rules,
+                "HTTP/1.1 200 OK\nX-Token: b\nTransfer-Encoding: chunked\n\n{\"token\":\"t1\"}"));
+    }
+
+    @Test
+    void countsOnlyNewValues() {
+        RuleSet rules = harvesting("Header", "X-Token");
+        byte[] response = TestData.message("HTTP/1.1 200 OK\nX-Token: a\n\n");
+        assertEquals(1, ResponseHarvester.harvest(response, rules.harvestRows(TARGET)));
+        assertEquals(0, ResponseHarvester.harvest(response, rules.harvestRows(TARGET)));
+        assertEquals(1, rules.rules().get(0).rows().get(0).stats().harvests());
+    }
+
+    @Test
+    void usesTheHarvestedValueInTheNextRequest() {
+        RuleSet rules = harvesting("Header", "X-Token");
+        harvest(rules, "HTTP/1.1 200 OK\nX-Token: fresh\n\n");
+        assertEquals("GET / HTTP/1.1\nHost: h\nX-Token: fresh\n\n",
+                TestData.rewrite("GET / HTTP/1.1\nHost: h\n\n", rules.rules().get(0)));
+    }
+
+    // Harvested values come from the server, so they are encoded like typed ones
+    @Test
+    void cannotAddCookiesOrParameters() {
+        RuleSet rules = harvesting("Cookie", "a", "URL Parameter", "id");
+        harvest(rules, "HTTP/1.1 200 OK\nSet-Cookie: a=x, admin=1; Path=/\nContent-Type: application/json\n\n"
+                + "{\"id\":\"1&admin=true\"}");
+        assertEquals("GET /?id=1%26admin%3Dtrue HTTP/1.1\nHost: h\nCookie: a=x%2C%20admin=1\n\n",
+                TestData.rewrite("GET /?id=1 HTTP/1.1\nHost: h\nCookie: a=1\n\n", rules.rules().get(0)));
+    }
+
+    @Test
+    void takesWebSocketValues() {
+        RuleSet rules = harvesting("Regex (WebSocket message)", "tok-\\w+", "JSON Field (WebSocket message)", "/id");
+        ResponseHarvester.harvestMessage(TestData.message("{\"id\":3,\"t\":\"tok-1\"}"), rules.harvestRows(TARGET));
+        assertEquals("tok-1 3", values(rules));
+    }
+}
@@ -0,0 +1,60 @@
+package com.replacer;
+
+import org.junit.jupiter.api.Test;
+
+import static com.replacer.TestData.rule;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ResponseRewriterTest {
+
+    private static String rewrite(String response, RuleSet.Rule rule) {
+        return TestData.text(ResponseRewriter.rewrite(TestData.message(response), rule));
+    }
+
+    @Test
+    void updatesAndAddsHeaders() {
+        RuleSet.Rule rule = rule("Response Header", "server", "x", "Response Header", "X-Frame-Options", "DENY");
+        assertEquals("HTTP/1.1 200 OK\nServer: x\nX-Frame-Options: DENY\n\n",
+                rewrite("HTTP/1.1 200 OK\nServer: nginx\n\n", rule));
+    }
+
+    @Test
+    void replacesSetCookieValuesAndKeepsAttributes() {
+        RuleSet.Rule rule = rule("Response Set-Cookie", "s", "new", "Response Set-Cookie", "missing", "x");
+        assertEquals("HTTP/1.1 200 OK\nSet-Cookie: s=new; Path=/; HttpOnly\nSet-Cookie: t=1\n\n",
+                rewrite("HTTP/1.1 200 OK\nSet-Cookie: s=old; Path=/; HttpOnly\nSet-Cookie: t=1\n\n", rule));
+    }
+
+    @Test
+    void rewritesTextBodiesAndTheirLength() {
+        RuleSet.Rule rule = rule("Regex (response body)", "debug=(\\w+)", "debug=true",
+                "Literal (response body)", "nonce", "n");
+        assertEquals("HTTP/1.1 200 OK\nContent-Type: text/html\nContent-Length: 19\n\n<p>debug=true n</p>",
+                rewrite("HTTP/1.1 200 OK\nContent-Type: text/html\nContent-Length: 24\n\n<p>debug=false nonce</p>", rule));
+    }
+
+    @Test
+    void rewritesJsonFields() {
+        assertEquals("HTTP/1.1 200 OK\nContent-Type: application/json\nContent-Length: 14\n\n{\"admin\":true}",
+                rewrite("HTTP/1.1 200 OK\nContent-Type: application/json\nContent-Length: 15\n\n{\"admin\":false}",
+                        rule("JSON Field (response body)", "/admin", "true")));
+    }
+
+    @Test
+    void leavesEncodedAndBinaryBodiesAlone() {
+        RuleSet.Rule rule = rule("Literal (response body)", "a", "b");
+        for (String head : new String[]{"Content-Encoding: gzip", "Transfer-Encoding: chunked", "Content-Type: image/png"}) {
+            byte[] response = TestData.message("HTTP/1.1 200 OK\n" + head + "\n\naaa");
+            assertSame(response, ResponseRewriter.rewrite(response, rule));
+        }
+    }
+
+    @Test
+    void returnsSameArrayWhenNothingMatches() {
+        byte[] response = TestData.message("HTTP/1.1 200 OK\nSet-Cookie: t=1\nContent-Type: text/plain\n\nbody");
+        assertSame(response, ResponseRewriter.rewrite(response, rule("Literal (response body)", "none", "x",
+                "Response Set-Cookie", "s", "x")));
+        assertSame(response, ResponseRewriter.rewrite(response, rule("Header", "X-Test", "1")));
+    }
+}
@@ -0,0 +1,131 @@
+package com.replacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class RuleScopeTest {
+
+    // Each rule adds a header named after it, so the merged live rule shows which ones applied
+    private static RuleSet ruleSet(Object... nameAndScope) {
+        List<JsonUtil.RuleData> rules = new ArrayList<>();
+        for (int i = 0; i < nameAndScope.length; i += 2) {
+            String name = (String) nameAndScope[i];
+            List<JsonUtil.TypeData> rows = new ArrayList<>();
+            rows.add(new JsonUtil.TypeData("Header", "X-" + name, "1"));
+            JsonUtil.RuleData data = new JsonUtil.RuleData(name, rows);
+            data.id = name;
+            data.live = true;
+            data.scope = (JsonUtil.ScopeData) nameAndScope[i + 1];
+            rules.add(data);
+        }
+        return RuleSet.compile(rules);
+    }
+
+    private static JsonUtil.ScopeData scope(String host, Integer port, String path, String method) {
+        JsonUtil.ScopeData scope = new JsonUtil.ScopeData();
+        scope.host = host;
+        scope.port = port;
+        scope.path = path;
+        scope.method = method;
+        return scope;
+    }
+
+    private static JsonUtil.ScopeData host(String host) {
+        return scope(host, null, null, null);
+    }
+
+    private static String applied(RuleSet ruleSet, RequestTarget target) {
+        RuleSet.Rule rule = ruleSet.liveRule(target);
+        if (rule == null) {
+            return "";
+        }
+        StringBuilder names = new StringBuilder();
+        for (RuleSet.Row row : rule.rows()) {
+            names.append(names.length() > 0 ? " " : "").append(row.match().substring(2));
+        }
+        return names.toString();
+    }
+
+    private static RequestTarget target(String host, int port, String path) {
+        return new RequestTarget(host, port, path, "GET");
+    }
+
+    @Test
+    void matchesHostsExactlyOrWithSubdomains() {
+        RuleSet rules = ruleSet("exact", host("api.example.com"), "wild", host("*.example.com"));
+        assertEquals("exact wild", applied(rules, target("API.Example.com.", 443, "/")));
+        assertEquals("wild", applied(rules, target("example.com", 443, "/")));
+        assertEquals("wild", applied(rules, target("a.b.example.com", 443, "/")));
+        assertEquals("", applied(rules, target("badexample.com", 443, "/")));
+        assertEquals("", applied(rules, target("example.com.evil", 443, "/")));
+    }
+
+    @Test
+    void matchesPathPrefixesWithoutQuery() {
+        RuleSet rules = ruleSet("api", scope("h", null, "/api/", null), "v2", scope("h", null, "/api/v2", null));
+        assertEquals("api v2", applied(rules, target("h", 80, "/api/v2/users?x=/api/")));
+        assertEquals("api", applied(rules, target("h", 80, "/api/v1")));
+        assertEquals("", applied(rules, target("h", 80, "/apiary?p=/api/")));
+        assertEquals("", applied(rules, target("other", 80, "/api/")));
+    }
+
+    @Test
+    void matchesPortAndMethod() {
+        RuleSet rules = ruleSet("tls", scope("h", 443, null, null), "post", scope("h", null, null, "POST"));
+        assertEquals("tls", applied(rules, target("h", 443, "/")));
+        assertEquals("", applied(rules, target("h", 8443, "/")));
+        assertEquals("tls post", applied(rules, new RequestTarget("h", 443, "/", "post")));
+    }
+
+    @Test
+    void unknownPortMatchesPortConditions() {
+        RuleSet rules = ruleSet("tls", scope("h", 443, null, null));
+        assertEquals("tls", applied(rules, RequestTarget.parse(TestData.message("GET / HTTP/1.1\nHost: h\n\n"))));
+        assertEquals("", applied(rules, RequestTarget.parse(TestData.message("GET / HTTP/1.1\nHost: h:8443\n\n"))));
+    }
+
+    @Test
+    void unscopedRulesApplyEverywhereInOrder() {
+        RuleSet rules = ruleSet("first", null, "scoped", host("h"), "last", null);
+        assertEquals("first scoped last", applied(rules, target("h", 80, "/")));
+        assertEquals("first last", applied(rules, target("other", 80, "/")));
+    }
+
+    @Test
+    void parsesTargetsFromRawRequests() {
+        RequestTarget origin = RequestTarget.parse(TestData.message("POST /a/b?c=d HTTP/1.1\nHost: Example.COM:8080\n\n"));
+        assertEquals("example.com", origin.host());
+        assertEquals(8080, origin.port());
+        assertEquals("/a/b", origin.path());
+        assertEquals("POST", origin.method());
+
+        RequestTarget absolute = RequestTarget.parse(TestData.message("GET https://api.example.com/x HTTP/1.1\nHost: ignored\n\n"));
+        assertEquals("api.example.com", absolute.host());
+        assertEquals(443, absolute.port());
+        assertEquals("/x", absolute.path());
+
+        RequestTarget ipv6 = RequestTarget.of("GET", "/", "[::1]:8080");
+        assertEquals("[::1]", ipv6.host());
+        assertEquals(8080, ipv6.port());
+        assertNull(RuleScope.compile(new JsonUtil.ScopeData()));
+    }
+
+    // The merged live rule counts its applications, and so does each rule in it
+    @Test
+    void countsLiveApplicationsForEachMergedRule() {
+        RuleSet rules = ruleSet("a", host("a.example.com"), "b", null, "c", host("c.example.com"));
+        byte[] request = TestData.message("GET / HTTP/1.1\nHost: a.example.com\n\n");
+        RequestRewriter.rewrite(request, rules.liveRule(target("a.example.com", 443, "/")));
+        RequestRewriter.rewrite(request, rules.liveRule(target("b.example.com", 443, "/")));
+        assertEquals(2, rules.liveRule(target("a.example.com", 443, "/")).stats().applications());
+        assertEquals(1, rules.ruleNamed("a").stats().applications());
+        assertEquals(2, rules.ruleNamed("b").stats().applications());
+        assertEquals(0, rules.ruleNamed("c").stats().applications());
+        assertEquals(2, rules.ruleNamed("b").rows().get(0).stats().inserts());
+    }
+}
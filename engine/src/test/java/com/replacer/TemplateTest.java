@@ -0,0 +1,97 @@
+package com.replacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class TemplateTest {
+
+    private static String render(String source, Variables variables, String request) {
+        Template template = Template.compile(source, variables, false);
+        return template.render(new Expression.Context(1_700_000_000_123L, TestData.message(request), true));
+    }
+
+    private static String render(String source) {
+        return render(source, new Variables(() -> {}), "POST /api/items?page=2 HTTP/1.1\nHost: h\nX-Id: 7\n\nbody");
+    }
+
+    @Test
+    void reportsParsingErrorsWithPosition() {
+        assertEquals("unknown function nope() at position 3", Template.error("{{nope()}}"));
+        assertEquals("expected ',' or ')' at position 14", Template.error("{{concat('a' 'b')}}"));
+        assertEquals("unclosed string at position 10", Template.error("{{base64('abc}}"));
+        assertEquals("now takes 0 arguments at position 3", Template.error("{{now('x')}}"));
+        assertEquals("header needs a quoted string at position 3", Template.error("{{header(name)}}"));
+        assertEquals("expected a name, function or string at position 4", Template.error("{{ }}"));
+        assertEquals("expected }} at position 5", Template.error("{{a b}}"));
+    }
+
+    @Test
+    void acceptsValidAndPlainText() {
+        assertNull(Template.error("Bearer {{token}}"));
+        assertNull(Template.error("{{ base64( concat(method(), \"-\", 'x') ) }}"));
+        assertNull(Template.error("no expression"));
+        // A {{ with no }} after it is plain text
+        assertNull(Template.error("{{not closed"));
+        assertNull(Template.compile("{{not closed", new Variables(() -> {}), false));
+    }
+
+    @Test
+    void keepsInvalidExpressionsAsTyped() {
+        assertEquals("{{nope()}} POST", render("{{nope()}} {{method()}}"));
+    }
+
+    @Test
+    void rendersVariablesAndUnsetReferences() {
+        Variables variables = new Variables(() -> {});
+        variables.set("token", "abc");
+        assertEquals("Bearer abc {{missing}}", render("Bearer {{token}} {{missing}}", variables, "GET / HTTP/1.1\n\n"));
+    }
+
+    @Test
+    void rendersRequestParts() {
+        assertEquals("POST /api/items page=2 7 body", render("{{method()}} {{path()}} {{query()}} {{header('X-Id')}} {{body()}}"));
+        assertEquals("/p|", render("{{path()}}|{{query()}}", new Variables(() -> {}), "GET http://h:81/p HTTP/1.1\n\n"));
+    }
+
+    @Test
+    void rendersFunctions() {
+        assertEquals("1700000000 1700000000123 2023-11-14T22:13:20Z 2023-11-14",
+                render("{{now()}} {{now_ms()}} {{iso_now()}} {{time('yyyy-MM-dd')}}"));
+        assertEquals("YWI= YWI a%2Fb 6162", render("{{base64('ab')}} {{base64url('ab')}} {{url('a/b')}} {{hex('ab')}}"));
+        assertEquals("f7bc83f430538424b13298e6aa6fb143ef4d59a14946175997479dbc2d1a3cd8",
+                render("{{hex(hmac_sha256('key', 'The quick brown fox jumps over the lazy dog'))}}"));
+        assertEquals("1 2 1", render("{{counter('t')}} {{counter('t')}} {{counter('u')}}"));
+    }
+
+    @Test
+    void quotesValuesForRegexRows() {
+        Variables variables = new Variables(() -> {});
+        variables.set("price", "$5\\");
+        Template template = Template.compile("{{price}}", variables, true);
+        assertEquals("\\$5\\\\", template.render(null));
+    }
+
+    @Test
+    void compileDropsCountersAndHoldersNoRuleUses() {
+        Variables variables = new Variables(() -> {});
+        List<JsonUtil.TypeData> rows = new ArrayList<>();
+        rows.add(new JsonUtil.TypeData("Header", "X-Id", "{{counter('c')}} {{half}}"));
+        RuleSet.compile(List.of(new JsonUtil.RuleData("r", rows)), new RuleMetrics(), null, variables);
+        AtomicLong counter = variables.counter("c");
+        RuleSet.compile(List.of(new JsonUtil.RuleData("r", rows)), new RuleMetrics(), null, variables);
+        assertSame(counter, variables.counter("c"));
+
+        variables.set("kept", "1");
+        RuleSet.compile(List.of(), new RuleMetrics(), null, variables);
+        assertNotSame(counter, variables.counter("c"));
+        assertEquals("{kept=1}", variables.values().toString());
+    }
+}
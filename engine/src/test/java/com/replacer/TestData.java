@@ -0,0 +1,35 @@
+package com.replacer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Rules and raw messages shared by the tests. Messages are written with \n
+// for readability and sent with \r\n, as Burp would.
+final class TestData {
+
+    private TestData() {
+    }
+
+    static RuleSet.Rule rule(String... typeMatchReplace) {
+        List<JsonUtil.TypeData> rows = new ArrayList<>();
+        for (int i = 0; i < typeMatchReplace.length; i += 3) {
+            rows.add(new JsonUtil.TypeData(typeMatchReplace[i], typeMatchReplace[i + 1], typeMatchReplace[i + 2]));
+        }
+        JsonUtil.RuleData data = new JsonUtil.RuleData("test", rows);
+        data.id = "test";
+        return RuleSet.compile(List.of(data)).rules().get(0);
+    }
+
+    static byte[] message(String text) {
+        return text.replace("\n", "\r\n").getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    static String text(byte[] message) {
+        return new String(message, StandardCharsets.ISO_8859_1).replace("\r\n", "\n");
+    }
+
+    static String rewrite(String request, RuleSet.Rule rule) {
+        return text(RequestRewriter.rewrite(message(request), rule));
+    }
+}
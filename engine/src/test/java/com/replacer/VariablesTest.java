@@ -0,0 +1,100 @@
+package com.replacer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VariablesTest {
+
+    private static JsonUtil.RuleData ruleData(String name, String type, String match, String replace, boolean harvest) {
+        List<JsonUtil.TypeData> rows = new ArrayList<>();
+        JsonUtil.TypeData row = new JsonUtil.TypeData(type, match, replace);
+        row.harvest = harvest;
+        rows.add(row);
+        JsonUtil.RuleData data = new JsonUtil.RuleData(name, rows);
+        data.id = name;
+        return data;
+    }
+
+    @Test
+    void setsAndUnsetsValues() {
+        Variables variables = new Variables(() -> {});
+        assertTrue(variables.set("a", "1"));
+        assertFalse(variables.set("a", "1"));
+        variables.set("b", "2");
+        assertEquals(Map.of("a", "1", "b", "2"), variables.values());
+        variables.set("a", null);
+        assertNull(variables.get("a"));
+        assertEquals(Map.of("b", "2"), variables.values());
+    }
+
+    @Test
+    void reportsChangesOnceUntilDrained() {
+        AtomicInteger changes = new AtomicInteger();
+        Variables variables = new Variables(changes::incrementAndGet);
+        variables.set("a", "1");
+        variables.set("a", "2");
+        assertEquals(1, changes.get());
+        assertEquals(Map.of("a", "2"), variables.drain());
+        variables.set("a", "3");
+        assertEquals(2, changes.get());
+    }
+
+    @Test
+    void compiledRulesSeeNewValuesWithoutRecompiling() {
+        Variables variables = new Variables(() -> {});
+        variables.set("token", "one");
+        RuleSet.Rule rule = RuleSet.compile(List.of(ruleData("r", "Header", "Authorization", "Bearer {{token}}", false)),
+                new RuleMetrics(), null, variables).rules().get(0);
+        String request = "GET / HTTP/1.1\nHost: h\n\n";
+        assertEquals("GET / HTTP/1.1\nHost: h\nAuthorization: Bearer one\n\n", TestData.rewrite(request, rule));
+        variables.set("token", "two");
+        assertEquals("GET / HTTP/1.1\nHost: h\nAuthorization: Bearer two\n\n", TestData.rewrite(request, rule));
+    }
+
+    // A row that is just {{name}} harvests into the variable, which every rule using it sees
+    @Test
+    void harvestsIntoTheVariable() {
+        Variables variables = new Variables(() -> {});
+        RuleSet ruleSet = RuleSet.compile(List.of(ruleData("login", "Header", "X-Token", "{{token}}", true),
+                        ruleData("api", "Header", "Authorization", "Bearer {{token}}", false)),
+                new RuleMetrics(), new ValueStore(() -> {}), variables);
+        ResponseHarvester.harvest(TestData.message("HTTP/1.1 200 OK\nX-Token: t1\n\n"),
+                ruleSet.rule("login").harvestEdits());
+        assertEquals("t1", variables.get("token"));
+        assertEquals("GET / HTTP/1.1\nHost: h\nAuthorization: Bearer t1\n\n",
+                TestData.rewrite("GET / HTTP/1.1\nHost: h\n\n", ruleSet.rule("api")));
+    }
+
+    @Test
+    void roundTripsThroughTheRulesFile() throws IOException {
+        List<JsonUtil.RuleData> rules = List.of(ruleData("r", "Header", "X-Test", "{{a}}", false));
+        StringWriter out = new StringWriter();
+        JsonUtil.writeRules(rules, Map.of("a", "1"), out, JsonUtil.Progress.NONE);
+        JsonUtil.ReadResult read = JsonUtil.readRules(new StringReader(out.toString()), JsonUtil.Progress.NONE);
+        assertEquals(Map.of("a", "1"), read.variables);
+        assertEquals("{{a}}", read.rules.get(0).typeRows.get(0).replace);
+        assertTrue(read.problems.isEmpty());
+    }
+
+    @Test
+    void reportsVariablesThatCannotBeReferenced() throws IOException {
+        JsonUtil.ReadResult read = JsonUtil.readRules(new StringReader(
+                "{\"variables\": {\"ok\": \"1\", \"1bad\": \"2\", \"n\": 3}, \"rules\": []}"), JsonUtil.Progress.NONE);
+        assertEquals(Map.of("ok", "1"), read.variables);
+        assertEquals(2, read.problems.size());
+        assertEquals("$.variables.1bad", read.problems.get(0).path);
+        assertEquals("$.variables.n", read.problems.get(1).path);
+    }
+}
@@ -0,0 +1,54 @@
+package com.replacer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+
+@State(Scope.Benchmark)
+public class CookieBenchmark {
+
+    private static final String[] NAMES = {"session", "csrftoken", "theme", "lang", "missing"};
+
+    @Param({"128", "1024", "8192"})
+    public int headerSize;
+
+    private byte[] headerBytes;
+    private byte[] request;
+    private RuleSet.Row[] edits;
+
+    @Setup
+    public void setup() {
+        String header = BenchmarkData.cookieHeader(headerSize);
+        headerBytes = header.getBytes(StandardCharsets.ISO_8859_1);
+        request = ("GET / HTTP/1.1\r\nHost: app.example.com\r\nCookie: " + header + "\r\n\r\n")
+                .getBytes(StandardCharsets.ISO_8859_1);
+        edits = BenchmarkData.rule(
+                "Cookie", "session", "new-session",
+                "Cookie", "csrftoken", "new-csrf",
+                "Cookie", "theme", "light",
+                "Cookie", "lang", "de",
+                "Cookie", "missing", "added").cookieEdits();
+    }
+
+    @Benchmark
+    public byte[] replaceFiveCookies() {
+        ByteBuilder out = new ByteBuilder(headerBytes.length + 64);
+        CookieEditor.rewrite(headerBytes, 0, headerBytes.length, edits, new boolean[edits.length], true, out);
+        return out.toByteArray();
+    }
+
+    // The lookup Copy to rule does: the Cookie header indexed once, then one map lookup per row
+    @Benchmark
+    public String[] parseFiveCookies() {
+        ParsedRequest parsed = ParsedRequest.parse(request);
+        String[] values = new String[NAMES.length];
+        for (int i = 0; i < NAMES.length; i++) {
+            values[i] = parsed.value(RuleType.COOKIE, NAMES[i]);
+        }
+        return values;
+    }
+}
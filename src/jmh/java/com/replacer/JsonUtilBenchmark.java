@@ -0,0 +1,40 @@
+package com.replacer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+@State(Scope.Benchmark)
+public class JsonUtilBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int ruleCount;
+
+    private List<JsonUtil.RuleData> rules;
+    private String json;
+
+    @Setup
+    public void setup() {
+        rules = BenchmarkData.rules(ruleCount);
+        json = JsonUtil.exportRules(rules);
+    }
+
+    @Benchmark
+    public JsonUtil.ReadResult parseRules() {
+        return JsonUtil.parseRules(json);
+    }
+
+    @Benchmark
+    public String exportRules() {
+        return JsonUtil.exportRules(rules);
+    }
+
+    @Benchmark
+    public RuleSet compileRules() {
+        return RuleSet.compile(rules);
+    }
+}
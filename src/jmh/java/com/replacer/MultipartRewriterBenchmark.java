@@ -0,0 +1,35 @@
+package com.replacer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+public class MultipartRewriterBenchmark {
+
+    @Param({"1024", "65536", "1048576", "16777216"})
+    public int bodySize;
+
+    private byte[] request;
+    private RuleSet.Rule updateField;
+    private RuleSet.Rule addField;
+
+    @Setup
+    public void setup() {
+        request = BenchmarkData.multipartRequest(bodySize);
+        updateField = BenchmarkData.rule("POST Body Parameter", "token", "new-token");
+        addField = BenchmarkData.rule("POST Body Parameter", "extra", "added");
+    }
+
+    @Benchmark
+    public byte[] updateField() {
+        return RequestRewriter.rewrite(request, updateField);
+    }
+
+    @Benchmark
+    public byte[] addField() {
+        return RequestRewriter.rewrite(request, addField);
+    }
+}
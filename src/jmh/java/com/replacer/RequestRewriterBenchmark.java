@@ -0,0 +1,56 @@
+package com.replacer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+@State(Scope.Benchmark)
+public class RequestRewriterBenchmark {
+
+    @Param({"Header", "Cookie", "URL Parameter", "POST Body Parameter"})
+    public String type;
+
+    private byte[] request;
+    private RuleSet.Rule singleRow;
+    private RuleSet.Rule tenRows;
+
+    @Setup
+    public void setup() {
+        request = BenchmarkData.formRequest();
+        String match;
+        switch (type) {
+            case "Cookie":
+                match = "session";
+                break;
+            case "URL Parameter":
+                match = "id";
+                break;
+            case "POST Body Parameter":
+                match = "csrf";
+                break;
+            default:
+                match = "Authorization";
+        }
+        singleRow = BenchmarkData.rule(type, match, "new-value");
+
+        String[] rows = new String[30];
+        for (int i = 0; i < 10; i++) {
+            rows[3 * i] = type;
+            rows[3 * i + 1] = i == 0 ? match : match + i;
+            rows[3 * i + 2] = "new-value-" + i;
+        }
+        tenRows = BenchmarkData.rule(rows);
+    }
+
+    @Benchmark
+    public byte[] singleRow() {
+        return RequestRewriter.rewrite(request, singleRow);
+    }
+
+    @Benchmark
+    public byte[] tenRows() {
+        return RequestRewriter.rewrite(request, tenRows);
+    }
+}
@@ -0,0 +1,58 @@
+package com.replacer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+
+@State(Scope.Benchmark)
+public class ResponseRewriterBenchmark {
+
+    @Param({"65536", "1048576", "8388608"})
+    public int bodySize;
+
+    private byte[] script;
+    private byte[] image;
+    private RuleSet.Rule literal;
+    private RuleSet.Rule regex;
+
+    @Setup
+    public void setup() {
+        StringBuilder body = new StringBuilder(bodySize + 64);
+        while (body.length() < bodySize) {
+            body.append("function f(a){return window.config.enabled&&a+1;} var s='some text';\n");
+        }
+        body.append("if(checkLicense()){start();}");
+        script = response("application/javascript", body);
+        image = response("image/png", body);
+        literal = BenchmarkData.rule("Literal (response body)", "checkLicense()", "true");
+        regex = BenchmarkData.rule("Regex (response body)", "checkLicense\\(\\)", "true");
+    }
+
+    private static byte[] response(String contentType, CharSequence body) {
+        return ("HTTP/1.1 200 OK\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + body.length() + "\r\n"
+                + "\r\n"
+                + body).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Benchmark
+    public byte[] literalInBundle() {
+        return ResponseRewriter.rewrite(script, literal);
+    }
+
+    @Benchmark
+    public byte[] regexInBundle() {
+        return ResponseRewriter.rewrite(script, regex);
+    }
+
+    // Out of scope by content type: only the head is parsed
+    @Benchmark
+    public byte[] skippedImage() {
+        return ResponseRewriter.rewrite(image, literal);
+    }
+}
@@ -0,0 +1,56 @@
+package com.replacer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@State(Scope.Benchmark)
+public class ScopeBenchmark {
+
+    private static final int HOSTS = 50;
+
+    @Param({"50", "500", "5000"})
+    public int ruleCount;
+
+    private RuleSet ruleSet;
+    private RequestTarget target;
+
+    @Setup
+    public void setup() {
+        List<JsonUtil.RuleData> rules = new ArrayList<>(ruleCount);
+        for (int i = 0; i < ruleCount; i++) {
+            List<JsonUtil.TypeData> rows = new ArrayList<>();
+            rows.add(new JsonUtil.TypeData("Header", "X-Rule-" + i, "value"));
+            JsonUtil.RuleData data = new JsonUtil.RuleData("Rule " + i, rows);
+            data.live = true;
+            data.scope = new JsonUtil.ScopeData();
+            data.scope.host = (i % 3 == 0 ? "*." : "api.") + "host" + (i % HOSTS) + ".example.com";
+            data.scope.path = "/v" + (i % 7) + "/";
+            rules.add(data);
+        }
+        ruleSet = RuleSet.compile(rules);
+        target = new RequestTarget("api.host7.example.com", 443, "/v3/users/42/orders", "GET");
+    }
+
+    @Benchmark
+    public RuleSet.Rule selectLiveRules() {
+        return ruleSet.liveRule(target);
+    }
+
+    // What selection costs without the index: every rule's scope checked in turn
+    @Benchmark
+    public int scanAllRules() {
+        int matched = 0;
+        for (RuleSet.Rule rule : ruleSet.liveRules()) {
+            if (rule.appliesTo(target)) {
+                matched++;
+            }
+        }
+        return matched;
+    }
+}
@@ -0,0 +1,44 @@
+package com.replacer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+// A header filled in per request, against the same header typed as a constant.
+// The signature row reads the body, so it also pays for the second pass.
+@State(Scope.Benchmark)
+public class TemplateBenchmark {
+
+    @Param({"constant", "timestamp", "uuid", "hmac"})
+    public String value;
+
+    private RuleSet.Rule rule;
+    private byte[] request;
+
+    @Setup
+    public void setup() {
+        String replace;
+        switch (value) {
+            case "timestamp":
+                replace = "{{now()}}";
+                break;
+            case "uuid":
+                replace = "{{uuid()}}";
+                break;
+            case "hmac":
+                replace = "{{base64(hmac_sha256('secret', concat(method(), path(), query(), body())))}}";
+                break;
+            default:
+                replace = "1700000000";
+        }
+        rule = BenchmarkData.rule("Header", "X-Value", replace);
+        request = BenchmarkData.formRequest();
+    }
+
+    @Benchmark
+    public byte[] rewrite() {
+        return RequestRewriter.rewrite(request, rule);
+    }
+}
@@ -0,0 +1,176 @@
+package com.replacer;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.message.requests.HttpRequest;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+
+// Settings and live results for "Use rule on selected". Rows are added as each
+// request completes rather than when the whole batch is done.
+public class BulkResultsPanel {
+
+    private static final String[] COLUMNS = {"#", "Method", "URL", "Status", "Length", "Time (ms)", "Error"};
+
+    private final MontoyaApi api;
+    private final JPanel panel;
+    private final JSpinner concurrencySpinner;
+    private final JSpinner rateSpinner;
+    private final JButton cancelButton;
+    private final JLabel statusLabel;
+    private final ResultsModel model = new ResultsModel();
+    private BulkRunner runner;
+    private int completed;
+    private int total;
+    private String ruleName;
+
+    public BulkResultsPanel(MontoyaApi api, Runnable onBack) {
+        this.api = api;
+        panel = new JPanel(new BorderLayout());
+
+        JPanel topBar = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton backButton = new JButton("Back");
+        backButton.addActionListener(e -> onBack.run());
+        topBar.add(backButton);
+
+        topBar.add(new JLabel("Concurrency:"));
+        concurrencySpinner = new JSpinner(new SpinnerNumberModel(10, 1, 256, 1));
+        topBar.add(concurrencySpinner);
+
+        topBar.add(new JLabel("Requests/sec (0 = unlimited):"));
+        rateSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 100_000, 10));
+        topBar.add(rateSpinner);
+
+        cancelButton = new JButton("Cancel");
+        cancelButton.setEnabled(false);
+        cancelButton.addActionListener(e -> {
+            if (runner != null) {
+                runner.cancel();
+            }
+        });
+        topBar.add(cancelButton);
+
+        JButton clearButton = new JButton("Clear");
+        clearButton.addActionListener(e -> model.clear());
+        topBar.add(clearButton);
+
+        statusLabel = new JLabel();
+        topBar.add(statusLabel);
+
+        JTable table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+        table.getColumnModel().getColumn(0).setMaxWidth(60);
+        table.getColumnModel().getColumn(1).setMaxWidth(80);
+
+        panel.add(topBar, BorderLayout.NORTH);
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+    }
+
+    JPanel getPanel() {
+        return panel;
+    }
+
+    // Must be called on the EDT
+    void run(RuleSet.Rule rule, List<HttpRequest> requests) {
+        if (runner != null && cancelButton.isEnabled()) {
+            JOptionPane.showMessageDialog(panel,
+                    "A bulk run is already in progress. Cancel it before starting another.",
+                    "Bulk Run",
+                    JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        model.clear();
+        ruleName = rule.name();
+        completed = 0;
+        total = requests.size();
+        cancelButton.setEnabled(true);
+        updateStatus();
+
+        runner = BulkRunner.start(api, rule, requests,
+                (Integer) concurrencySpinner.getValue(),
+                (Integer) rateSpinner.getValue(),
+                result -> SwingUtilities.invokeLater(() -> {
+                    completed++;
+                    model.add(result);
+                    updateStatus();
+                }),
+                () -> SwingUtilities.invokeLater(() -> {
+                    cancelButton.setEnabled(false);
+                    updateStatus();
+                }));
+    }
+
+    private void updateStatus() {
+        String state = cancelButton.isEnabled() ? "Running" : (runner != null && runner.isCancelled() ? "Cancelled" : "Finished");
+        statusLabel.setText(state + " " + ruleName + ": " + completed + " / " + total);
+    }
+
+    private static class ResultsModel extends AbstractTableModel {
+        private final List<BulkRunner.Result> results = new ArrayList<>();
+
+        void add(BulkRunner.Result result) {
+            results.add(result);
+            fireTableRowsInserted(results.size() - 1, results.size() - 1);
+        }
+
+        void clear() {
+            results.clear();
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return results.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            switch (column) {
+                case 0:
+                case 3:
+                case 4:
+                    return Integer.class;
+                case 5:
+                    return Long.class;
+                default:
+                    return String.class;
+            }
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            BulkRunner.Result result = results.get(row);
+            switch (column) {
+                case 0:
+                    return result.index + 1;
+                case 1:
+                    return result.method;
+                case 2:
+                    return result.url;
+                case 3:
+                    return result.status >= 0 ? result.status : null;
+                case 4:
+                    return result.length >= 0 ? result.length : null;
+                case 5:
+                    return result.elapsedMillis;
+                case 6:
+                    return result.error;
+                default:
+                    return null;
+            }
+        }
+    }
+}
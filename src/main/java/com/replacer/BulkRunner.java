@@ -0,0 +1,133 @@
+package com.replacer;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.message.requests.HttpRequest;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// Applies one rule to many requests and resends them on a bounded pool. Each
+// result is handed to the listener as soon as its request completes.
+public class BulkRunner {
+
+    // Only the summary is kept so large runs don't hold on to every response
+    public static class Result {
+        public final int index;
+        public final String method;
+        public final String url;
+        public final int status;
+        public final int length;
+        public final long elapsedMillis;
+        public final String error;
+
+        Result(int index, HttpRequest request, HttpRequestResponse response, long elapsedMillis, String error) {
+            this.index = index;
+            this.method = request.method();
+            this.url = request.url();
+            boolean hasResponse = response != null && response.hasResponse();
+            this.status = hasResponse ? response.response().statusCode() : -1;
+            this.length = hasResponse ? response.response().toByteArray().length() : -1;
+            this.elapsedMillis = elapsedMillis;
+            this.error = error != null ? error : (hasResponse ? "" : "No response");
+        }
+    }
+
+    private final MontoyaApi api;
+    private final ExecutorService executor;
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final AtomicInteger remaining;
+    private final Runnable onDone;
+    // Earliest time the next request may start, for the rate limit
+    private final AtomicLong nextStart = new AtomicLong(System.nanoTime());
+    private final long intervalNanos;
+
+    private BulkRunner(MontoyaApi api, int concurrency, int requestsPerSecond, int jobs, Runnable onDone) {
+        this.api = api;
+        this.remaining = new AtomicInteger(jobs);
+        this.onDone = onDone;
+        this.intervalNanos = requestsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / requestsPerSecond : 0;
+        AtomicInteger threadId = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(1, concurrency), r -> {
+            Thread thread = new Thread(r, "Replacer-bulk-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // requestsPerSecond of 0 means unlimited; onDone runs once after the last result
+    public static BulkRunner start(MontoyaApi api, RuleSet.Rule rule, List<HttpRequest> requests,
+                                   int concurrency, int requestsPerSecond,
+                                   Consumer<Result> onResult, Runnable onDone) {
+        BulkRunner runner = new BulkRunner(api, concurrency, requestsPerSecond, requests.size(), onDone);
+        if (requests.isEmpty()) {
+            runner.executor.shutdown();
+            onDone.run();
+            return runner;
+        }
+        for (int i = 0; i < requests.size(); i++) {
+            int index = i;
+            HttpRequest original = requests.get(i);
+            runner.executor.execute(() -> {
+                try {
+                    if (!runner.cancelled.get()) {
+                        onResult.accept(runner.send(index, original, rule));
+                    }
+                } finally {
+                    if (runner.remaining.decrementAndGet() == 0) {
+                        onDone.run();
+                    }
+                }
+            });
+        }
+        runner.executor.shutdown();
+        return runner;
+    }
+
+    public void cancel() {
+        if (cancelled.getAndSet(true)) {
+            return;
+        }
+        // Requests that never started still count towards completion
+        int dropped = executor.shutdownNow().size();
+        if (dropped > 0 && remaining.addAndGet(-dropped) == 0) {
+            onDone.run();
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    private Result send(int index, HttpRequest original, RuleSet.Rule rule) {
+        HttpRequest request = RuleApplier.apply(original, rule);
+        awaitSlot();
+        long start = System.nanoTime();
+        try {
+            HttpRequestResponse response = api.http().sendRequest(request);
+            return new Result(index, request, response, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), null);
+        } catch (RuntimeException ex) {
+            return new Result(index, request, null, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                    ex.getMessage() != null ? ex.getMessage() : ex.getClass().getSimpleName());
+        }
+    }
+
+    private void awaitSlot() {
+        if (intervalNanos == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long slot = Math.max(nextStart.getAndAccumulate(now, (prev, t) -> Math.max(prev, t) + intervalNanos), now);
+        long wait = slot - now;
+        if (wait > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+}
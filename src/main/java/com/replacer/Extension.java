@@ -3,15 +3,29 @@ package com.replacer;
 import burp.api.montoya.BurpExtension;
 import burp.api.montoya.MontoyaApi;
 
+import javax.swing.*;
+
 public class Extension implements BurpExtension {
 
     @Override
     public void initialize(MontoyaApi api) {
         api.extension().setName("Replacer");
         ReplacerTab replacerTab = new ReplacerTab(api);
-        api.userInterface().registerContextMenuItemsProvider(
-                new ReplacerContextMenu(api, replacerTab)
-        );
+        ProxyHistoryIndex historyIndex = new ProxyHistoryIndex(api);
+        historyIndex.start();
+        ReplacerContextMenu contextMenu = new ReplacerContextMenu(api, replacerTab, historyIndex);
+        api.userInterface().registerContextMenuItemsProvider(contextMenu);
+        contextMenu.registerHotKeys();
+        api.http().registerHttpHandler(new LiveTrafficHandler(replacerTab));
+        api.websockets().registerWebSocketCreatedHandler(new LiveWebSocketHandler(replacerTab));
+        RuleActions ruleActions = new RuleActions(api, replacerTab::getRuleSet);
+        SwingUtilities.invokeLater(() -> {
+            replacerTab.setRulesListener(ruleActions::rulesChanged);
+            ruleActions.update();
+        });
+        api.extension().registerUnloadingHandler(replacerTab::saveRules);
+        api.extension().registerUnloadingHandler(historyIndex::close);
+        api.extension().registerUnloadingHandler(replacerTab::stopWatching);
         api.logging().logToOutput("Replacer extension loaded successfully.");
     }
 }
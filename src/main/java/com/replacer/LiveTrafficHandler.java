@@ -0,0 +1,79 @@
+package com.replacer;
+
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.core.ToolType;
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.handler.HttpHandler;
+import burp.api.montoya.http.handler.HttpRequestToBeSent;
+import burp.api.montoya.http.handler.HttpResponseReceived;
+import burp.api.montoya.http.handler.RequestToBeSentAction;
+import burp.api.montoya.http.handler.ResponseReceivedAction;
+import burp.api.montoya.http.message.requests.HttpRequest;
+import burp.api.montoya.http.message.responses.HttpResponse;
+
+// Applies live rules to outgoing requests and their responses, and harvests
+// values for rows marked "Harvest" from the responses.
+public class LiveTrafficHandler implements HttpHandler {
+
+    // Tools whose traffic live rules rewrite
+    static final ToolType[] LIVE_TOOLS = {ToolType.PROXY, ToolType.SCANNER, ToolType.INTRUDER, ToolType.EXTENSIONS};
+
+    private final ReplacerTab replacerTab;
+
+    public LiveTrafficHandler(ReplacerTab replacerTab) {
+        this.replacerTab = replacerTab;
+    }
+
+    @Override
+    public RequestToBeSentAction handleHttpRequestToBeSent(HttpRequestToBeSent requestToBeSent) {
+        RuleSet ruleSet = replacerTab.getRuleSet();
+        if (!ruleSet.hasLiveRules() || !requestToBeSent.toolSource().isFromTool(LIVE_TOOLS)) {
+            return RequestToBeSentAction.continueWith(requestToBeSent, requestToBeSent.annotations());
+        }
+        // Only the live rules scoped to this request are looked at
+        RuleSet.Rule liveRule = ruleSet.liveRule(target(requestToBeSent));
+        if (liveRule == null || !liveRule.hasRequestRows()) {
+            return RequestToBeSentAction.continueWith(requestToBeSent, requestToBeSent.annotations());
+        }
+        // The same request comes back when no row changed it, so nothing is copied
+        return RequestToBeSentAction.continueWith(RuleApplier.apply(requestToBeSent, liveRule),
+                requestToBeSent.annotations());
+    }
+
+    // Responses from every tool are harvested, so a token refreshed in Repeater
+    // is used by the next live request as much as one seen through the Proxy.
+    // Live response rows then rewrite responses for the same tools as requests,
+    // after harvesting has seen what the server sent.
+    @Override
+    public ResponseReceivedAction handleHttpResponseReceived(HttpResponseReceived responseReceived) {
+        RuleSet ruleSet = replacerTab.getRuleSet();
+        boolean live = ruleSet.hasLiveRules() && responseReceived.toolSource().isFromTool(LIVE_TOOLS);
+        if (!live && !ruleSet.hasHarvestRows()) {
+            return ResponseReceivedAction.continueWith(responseReceived, responseReceived.annotations());
+        }
+        RequestTarget target = target(responseReceived.initiatingRequest());
+        RuleSet.Row[] harvestRows = ruleSet.harvestRows(target);
+        RuleSet.Rule liveRule = live ? ruleSet.liveRule(target) : null;
+        boolean rewrite = liveRule != null && liveRule.hasResponseRows();
+        if (harvestRows.length == 0 && !rewrite) {
+            return ResponseReceivedAction.continueWith(responseReceived, responseReceived.annotations());
+        }
+        byte[] original = responseReceived.toByteArray().getBytes();
+        if (harvestRows.length > 0) {
+            ResponseHarvester.harvest(original, harvestRows);
+        }
+        byte[] rewritten = rewrite ? ResponseRewriter.rewrite(original, liveRule) : original;
+        if (rewritten == original) {
+            return ResponseReceivedAction.continueWith(responseReceived, responseReceived.annotations());
+        }
+        // Rows rewrite the whole message, so the response is rebuilt from its bytes;
+        // notes and highlights stay with it
+        return ResponseReceivedAction.continueWith(HttpResponse.httpResponse(ByteArray.byteArray(rewritten)),
+                responseReceived.annotations());
+    }
+
+    static RequestTarget target(HttpRequest request) {
+        HttpService service = request.httpService();
+        return new RequestTarget(service.host(), service.port(), request.pathWithoutQuery(), request.method());
+    }
+}
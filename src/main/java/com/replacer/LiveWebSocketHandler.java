@@ -0,0 +1,111 @@
+package com.replacer;
+
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.websocket.BinaryMessage;
+import burp.api.montoya.websocket.BinaryMessageAction;
+import burp.api.montoya.websocket.Direction;
+import burp.api.montoya.websocket.MessageHandler;
+import burp.api.montoya.websocket.TextMessage;
+import burp.api.montoya.websocket.TextMessageAction;
+import burp.api.montoya.websocket.WebSocketCreated;
+import burp.api.montoya.websocket.WebSocketCreatedHandler;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Applies live WebSocket rows to client messages and harvests from server
+// messages. Each socket reselects its scoped rules only when the RuleSet changes.
+public class LiveWebSocketHandler implements WebSocketCreatedHandler {
+
+    private final ReplacerTab replacerTab;
+
+    public LiveWebSocketHandler(ReplacerTab replacerTab) {
+        this.replacerTab = replacerTab;
+    }
+
+    @Override
+    public void handleWebSocketCreated(WebSocketCreated webSocketCreated) {
+        // The same tools as live HTTP rules; messages from every tool are harvested
+        boolean live = webSocketCreated.toolSource().isFromTool(LiveTrafficHandler.LIVE_TOOLS);
+        RequestTarget target = LiveTrafficHandler.target(webSocketCreated.upgradeRequest());
+        webSocketCreated.webSocket().registerMessageHandler(new Messages(target, live));
+    }
+
+    // The rules for one socket, as selected from one RuleSet
+    private static final class SocketRules {
+        final RuleSet ruleSet;
+        // Null when no live rule has WebSocket rows for the socket
+        final RuleSet.Rule live;
+        final RuleSet.Row[] harvest;
+
+        SocketRules(RuleSet ruleSet, RequestTarget target, boolean live) {
+            this.ruleSet = ruleSet;
+            RuleSet.Rule liveRule = live ? ruleSet.liveRule(target) : null;
+            this.live = liveRule != null && liveRule.hasMessageRows() ? liveRule : null;
+            List<RuleSet.Row> harvest = new ArrayList<>();
+            for (RuleSet.Row row : ruleSet.harvestRows(target)) {
+                if (row.type().isWebSocket()) {
+                    harvest.add(row);
+                }
+            }
+            this.harvest = harvest.toArray(new RuleSet.Row[0]);
+        }
+    }
+
+    private class Messages implements MessageHandler {
+        private final RequestTarget target;
+        private final boolean live;
+        private volatile SocketRules rules;
+
+        Messages(RequestTarget target, boolean live) {
+            this.target = target;
+            this.live = live;
+        }
+
+        // Messages in both directions may arrive at once; a race selects twice
+        private SocketRules rules() {
+            RuleSet ruleSet = replacerTab.getRuleSet();
+            SocketRules current = rules;
+            if (current == null || current.ruleSet != ruleSet) {
+                current = new SocketRules(ruleSet, target, live);
+                rules = current;
+            }
+            return current;
+        }
+
+        @Override
+        public TextMessageAction handleTextMessage(TextMessage textMessage) {
+            SocketRules current = rules();
+            if (textMessage.direction() == Direction.CLIENT_TO_SERVER) {
+                if (current.live != null) {
+                    byte[] original = textMessage.payload().getBytes(StandardCharsets.UTF_8);
+                    byte[] rewritten = MessageRewriter.rewrite(original, current.live);
+                    if (rewritten != original) {
+                        return TextMessageAction.continueWith(new String(rewritten, StandardCharsets.UTF_8));
+                    }
+                }
+            } else if (current.harvest.length > 0) {
+                ResponseHarvester.harvestMessage(textMessage.payload().getBytes(StandardCharsets.UTF_8), current.harvest);
+            }
+            return TextMessageAction.continueWith(textMessage);
+        }
+
+        @Override
+        public BinaryMessageAction handleBinaryMessage(BinaryMessage binaryMessage) {
+            SocketRules current = rules();
+            if (binaryMessage.direction() == Direction.CLIENT_TO_SERVER) {
+                if (current.live != null) {
+                    byte[] original = binaryMessage.payload().getBytes();
+                    byte[] rewritten = MessageRewriter.rewrite(original, current.live);
+                    if (rewritten != original) {
+                        return BinaryMessageAction.continueWith(ByteArray.byteArray(rewritten));
+                    }
+                }
+            } else if (current.harvest.length > 0) {
+                ResponseHarvester.harvestMessage(binaryMessage.payload().getBytes(), current.harvest);
+            }
+            return BinaryMessageAction.continueWith(binaryMessage);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.replacer;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.proxy.ProxyHttpRequestResponse;
+import burp.api.montoya.proxy.http.InterceptedRequest;
+import burp.api.montoya.proxy.http.ProxyRequestHandler;
+import burp.api.montoya.proxy.http.ProxyRequestReceivedAction;
+import burp.api.montoya.proxy.http.ProxyRequestToBeSentAction;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The latest value of every header, cookie and parameter name seen in Proxy
+// traffic, for "Copy latest value". Proxy history is read once in the
+// background when the extension loads; after that each request is added as it
+// leaves the Proxy, so a lookup never scans history.
+//
+// Only names are keys, so memory grows with the number of distinct names, not
+// with the history. Past MAX_NAMES the least recently seen names are dropped.
+public class ProxyHistoryIndex implements ProxyRequestHandler {
+
+    private static final int MAX_NAMES = 20_000;
+    // Larger values are not kept; the name is forgotten rather than left stale
+    private static final int MAX_VALUE_LENGTH = 8 * 1024;
+    // History items are numbered by position and live requests after all of
+    // them, so a live request seen while history is read is never overwritten
+    private static final long FIRST_LIVE_SEQUENCE = 1L << 40;
+
+    private final MontoyaApi api;
+    private final AtomicLong liveSequence = new AtomicLong(FIRST_LIVE_SEQUENCE);
+    // Guarded by itself; access order, so the eldest entry is the least recently seen name
+    private final Map<String, Entry> latest = new LinkedHashMap<String, Entry>(1024, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_NAMES;
+        }
+    };
+    private volatile boolean historyRead;
+    private volatile boolean closed;
+
+    public ProxyHistoryIndex(MontoyaApi api) {
+        this.api = api;
+    }
+
+    public void start() {
+        api.proxy().registerRequestHandler(this);
+        Thread reader = new Thread(this::readHistory, "Replacer proxy history index");
+        reader.setDaemon(true);
+        reader.setPriority(Thread.MIN_PRIORITY);
+        reader.start();
+    }
+
+    // Stops reading history when the extension is unloaded
+    public void close() {
+        closed = true;
+    }
+
+    // False until history has been read once; lookups may miss older values until then
+    public boolean isReady() {
+        return historyRead;
+    }
+
+    // Latest value of the name in a request that went through the Proxy, or null.
+    // Raw rows have no name to look up and always return null.
+    public String latest(RuleType type, String name) {
+        String key = key(type, name);
+        if (key == null) {
+            return null;
+        }
+        synchronized (latest) {
+            Entry entry = latest.get(key);
+            return entry != null ? entry.value : null;
+        }
+    }
+
+    @Override
+    public ProxyRequestReceivedAction handleRequestReceived(InterceptedRequest interceptedRequest) {
+        return ProxyRequestReceivedAction.continueWith(interceptedRequest);
+    }
+
+    // After interception, so values edited by hand are the ones remembered
+    @Override
+    public ProxyRequestToBeSentAction handleRequestToBeSent(InterceptedRequest interceptedRequest) {
+        add(interceptedRequest.toByteArray().getBytes(), liveSequence.incrementAndGet());
+        return ProxyRequestToBeSentAction.continueWith(interceptedRequest);
+    }
+
+    private void readHistory() {
+        try {
+            List<ProxyHttpRequestResponse> history = api.proxy().history();
+            for (int i = 0; i < history.size() && !closed; i++) {
+                add(history.get(i).finalRequest().toByteArray().getBytes(), i);
+            }
+        } catch (RuntimeException e) {
+            api.logging().logToError("Could not read Proxy history: " + e);
+        } finally {
+            historyRead = true;
+        }
+    }
+
+    void add(byte[] request, long sequence) {
+        List<String> found = new ArrayList<>();
+        ParsedRequest.parse(request).forEach((type, name, value) -> {
+            found.add(key(type, name));
+            found.add(value);
+        });
+
+        synchronized (latest) {
+            for (int i = 0; i < found.size(); i += 2) {
+                String key = found.get(i);
+                String value = found.get(i + 1);
+                Entry current = latest.get(key);
+                if (current != null && current.sequence > sequence) {
+                    continue;
+                }
+                if (value.length() > MAX_VALUE_LENGTH) {
+                    latest.remove(key);
+                } else {
+                    latest.put(key, new Entry(value, sequence));
+                }
+            }
+        }
+    }
+
+    // Header names are case-insensitive; everything else matches exactly
+    private static String key(RuleType type, String name) {
+        switch (type) {
+            case HEADER:
+                return "h:" + name.toLowerCase(Locale.ROOT);
+            case COOKIE:
+                return "c:" + name;
+            case URL_PARAMETER:
+                return "u:" + name;
+            case POST_BODY_PARAMETER:
+                return "b:" + name;
+            default:
+                return null;
+        }
+    }
+
+    private static final class Entry {
+        final String value;
+        final long sequence;
+
+        Entry(String value, long sequence) {
+            this.value = value;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -1,29 +1,59 @@
 package com.replacer;
 
 import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.core.Range;
 import burp.api.montoya.core.ToolType;
 import burp.api.montoya.http.message.HttpRequestResponse;
-import burp.api.montoya.http.message.ContentType;
-import burp.api.montoya.http.message.params.HttpParameter;
-import burp.api.montoya.http.message.params.HttpParameterType;
 import burp.api.montoya.http.message.requests.HttpRequest;
 import burp.api.montoya.ui.contextmenu.ContextMenuEvent;
 import burp.api.montoya.ui.contextmenu.ContextMenuItemsProvider;
 import burp.api.montoya.ui.contextmenu.MessageEditorHttpRequestResponse;
+import burp.api.montoya.ui.hotkey.HotKeyContext;
+import burp.api.montoya.ui.hotkey.HotKeyEvent;
 
 import javax.swing.*;
+import javax.swing.event.MenuEvent;
+import javax.swing.event.MenuListener;
 import java.awt.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
 
+// Each action is a submenu that is filled in only when it is opened, so a
+// right-click costs the same with five rules or five thousand. Submenus list
+// recently used rules, a type-ahead search and the rules by group.
 public class ReplacerContextMenu implements ContextMenuItemsProvider {
 
+    static final int HOTKEY_SLOTS = 3;
+    private static final int RECENT_RULES = 5;
+    // Larger groups list their first rules and point to the search popup
+    private static final int MAX_MENU_RULES = 40;
+
     private final MontoyaApi api;
     private final ReplacerTab replacerTab;
+    private final ProxyHistoryIndex historyIndex;
+    // Rule ids, most recently used first. Only touched on the EDT.
+    private final Deque<String> recentRules = new ArrayDeque<>();
 
-    public ReplacerContextMenu(MontoyaApi api, ReplacerTab replacerTab) {
+    public ReplacerContextMenu(MontoyaApi api, ReplacerTab replacerTab, ProxyHistoryIndex historyIndex) {
         this.api = api;
         this.replacerTab = replacerTab;
+        this.historyIndex = historyIndex;
+    }
+
+    // Ctrl+Alt+1..3 apply the rule pinned to that slot: "Use" in Repeater and
+    // "Copy to" in Proxy, Logger and Target
+    public void registerHotKeys() {
+        for (int slot = 1; slot <= HOTKEY_SLOTS; slot++) {
+            int pinned = slot;
+            api.userInterface().registerHotKeyHandler(HotKeyContext.HTTP_MESSAGE_EDITOR, hotKey(slot),
+                    event -> SwingUtilities.invokeLater(() -> runPinnedRule(pinned, event)));
+        }
     }
 
     @Override
@@ -33,243 +63,253 @@ public class ReplacerContextMenu implements ContextMenuItemsProvider {
         boolean isCopyContext = event.isFromTool(ToolType.PROXY, ToolType.LOGGER, ToolType.TARGET);
         boolean isRepeater = event.isFromTool(ToolType.REPEATER);
 
-        if (!isCopyContext && !isRepeater) {
+        RuleSet ruleSet = replacerTab.getRuleSet();
+        if ((!isCopyContext && !isRepeater) || ruleSet.isEmpty()) {
             return menuItems;
         }
 
         // Resolve the request: prefer selected rows, fall back to the message viewer pane
         HttpRequest copyRequest = null;
+        List<HttpRequest> bulkRequests = new ArrayList<>();
         if (isCopyContext) {
             List<HttpRequestResponse> selected = event.selectedRequestResponses();
             if (!selected.isEmpty()) {
                 copyRequest = selected.get(0).request();
+                for (HttpRequestResponse item : selected) {
+                    bulkRequests.add(item.request());
+                }
             } else if (event.messageEditorRequestResponse().isPresent()) {
                 copyRequest = event.messageEditorRequestResponse().get().requestResponse().request();
             }
         }
 
-        for (ReplacerTab.RulePanel rule : replacerTab.getRulePanels()) {
-            String name = rule.getName();
-            if (name == null || name.isBlank()) {
-                continue;
-            }
+        if (isCopyContext && copyRequest != null) {
+            HttpRequest req = copyRequest;
+            menuItems.add(ruleMenu("Copy to rule", ruleSet, rule -> copyToRule(req, rule)));
+        }
 
-            if (isCopyContext && copyRequest != null) {
-                HttpRequest req = copyRequest;
-                JMenuItem item = new JMenuItem("Copy to " + name);
-                item.addActionListener(e -> copyToRule(req, rule));
-                menuItems.add(item);
-            }
+        // Needs no request, so it is offered even when the right one is long gone
+        menuItems.add(ruleMenu("Copy latest value to rule", ruleSet, this::copyLatestToRule));
 
-            if (isRepeater) {
-                event.messageEditorRequestResponse().ifPresent(editor -> {
-                    JMenuItem item = new JMenuItem("Use " + name);
-                    item.addActionListener(e -> useRule(editor, rule));
-                    menuItems.add(item);
-                });
-            }
+        if (!bulkRequests.isEmpty()) {
+            menuItems.add(ruleMenu("Use rule on " + bulkRequests.size() + " selected and resend", ruleSet,
+                    rule -> replacerTab.runBulk(rule, bulkRequests)));
+        }
+
+        if (isRepeater) {
+            event.messageEditorRequestResponse().ifPresent(editor ->
+                    menuItems.add(ruleMenu("Use rule", ruleSet, rule -> useRule(editor, rule))));
         }
 
+        // Selected text in any message can become a variable every rule shares
+        event.messageEditorRequestResponse().ifPresent(editor -> editor.selectionOffsets().ifPresent(range ->
+                menuItems.add(variableMenu(selectedText(editor, range)))));
+
+        menuItems.add(pinMenu(ruleSet));
         return menuItems;
     }
 
-    private void copyToRule(HttpRequest request, ReplacerTab.RulePanel rule) {
-        for (ReplacerTab.TypeRow typeRow : rule.getTypeRows()) {
-            String type = typeRow.getType();
-            String match = typeRow.getMatch();
-            if (match == null || match.isBlank()) {
-                continue;
+    private JMenu ruleMenu(String title, RuleSet ruleSet, Consumer<RuleSet.Rule> action) {
+        Consumer<RuleSet.Rule> used = rule -> {
+            recentRules.remove(rule.id());
+            recentRules.addFirst(rule.id());
+            while (recentRules.size() > RECENT_RULES) {
+                recentRules.removeLast();
             }
-
-            String extracted = extractValue(request, type, match);
-            if (extracted != null) {
-                typeRow.setReplace(extracted);
-            } else {
-                api.logging().logToError("No match found for " + type + ": " + match);
+            action.accept(rule);
+        };
+        return lazyMenu(title, menu -> {
+            boolean anyRecent = false;
+            for (String id : recentRules) {
+                RuleSet.Rule rule = ruleSet.rule(id);
+                if (rule != null) {
+                    menu.add(ruleItem(rule.name(), rule, used));
+                    anyRecent = true;
+                }
             }
-        }
-    }
-
-    private void useRule(MessageEditorHttpRequestResponse editor, ReplacerTab.RulePanel rule) {
-        HttpRequest request = editor.requestResponse().request();
-
-        for (ReplacerTab.TypeRow typeRow : rule.getTypeRows()) {
-            String type = typeRow.getType();
-            String match = typeRow.getMatch();
-            String replace = typeRow.getReplace();
-            if (match == null || match.isBlank()) {
-                continue;
+            if (anyRecent) {
+                menu.addSeparator();
             }
+            menu.add(searchItem("Search rules...", title, ruleSet, used));
+            menu.addSeparator();
+            addGroup(menu, ruleSet.index().root(), title, ruleSet, used);
+        });
+    }
 
-            request = applyReplacement(request, type, match, replace);
+    private void addGroup(JMenu menu, RuleIndex.Group group, String title, RuleSet ruleSet,
+                          Consumer<RuleSet.Rule> used) {
+        for (RuleIndex.Group child : group.groups()) {
+            menu.add(lazyMenu(child.name(), sub -> addGroup(sub, child, title, ruleSet, used)));
+        }
+        List<RuleSet.Rule> rules = group.rules();
+        int shown = Math.min(rules.size(), MAX_MENU_RULES);
+        for (int i = 0; i < shown; i++) {
+            menu.add(ruleItem(group.label(i), rules.get(i), used));
+        }
+        if (rules.size() > shown) {
+            menu.add(searchItem((rules.size() - shown) + " more...", title, ruleSet, used));
         }
-
-        editor.setRequest(request);
     }
 
-    private String extractValue(HttpRequest request, String type, String match) {
-        switch (type) {
-            case "Header":
-                return request.headerValue(match);
-            case "Cookie":
-                String cookieHeader = request.headerValue("Cookie");
-                if (cookieHeader != null) {
-                    return parseCookieValue(cookieHeader, match);
-                }
-                return null;
-            case "URL Parameter":
-                for (HttpParameter param : request.parameters()) {
-                    if (param.type() == HttpParameterType.URL && param.name().equals(match)) {
-                        return param.value();
-                    }
+    private JMenu pinMenu(RuleSet ruleSet) {
+        return lazyMenu("Pin rule to hotkey", menu -> {
+            for (int slot = 1; slot <= HOTKEY_SLOTS; slot++) {
+                int pinned = slot;
+                RuleSet.Rule current = ruleSet.rule(replacerTab.pinnedRuleId(slot));
+                String label = hotKey(slot) + ": " + (current != null ? current.name() : "(none)");
+                menu.add(searchItem(label, "Pin to " + hotKey(slot), ruleSet,
+                        rule -> replacerTab.pinRule(pinned, rule.id())));
+                if (current != null) {
+                    JMenuItem clear = new JMenuItem("Unpin " + hotKey(slot));
+                    clear.addActionListener(e -> replacerTab.pinRule(pinned, null));
+                    menu.add(clear);
                 }
-                return null;
-            case "POST Body Parameter":
-                for (HttpParameter param : request.parameters()) {
-                    if (param.type() == HttpParameterType.BODY && param.name().equals(match)) {
-                        return param.value();
-                    }
-                }
-                return null;
-            default:
-                return null;
-        }
+            }
+        });
     }
 
-    private HttpRequest applyReplacement(HttpRequest request, String type, String match, String replace) {
-        switch (type) {
-            case "Header":
-                String safeHeaderValue = sanitizeHeaderValue(replace);
-                if (request.hasHeader(match)) {
-                    return request.withUpdatedHeader(match, safeHeaderValue);
-                }
-                return request.withAddedHeader(match, safeHeaderValue);
-            case "Cookie":
-                String safeCookieValue = sanitizeHeaderValue(replace);
-                String cookieHeader = request.headerValue("Cookie");
-                if (cookieHeader != null) {
-                    String updatedCookie = replaceCookieValue(cookieHeader, match, safeCookieValue);
-                    return request.withUpdatedHeader("Cookie", updatedCookie);
-                }
-                return request.withAddedHeader("Cookie", match + "=" + safeCookieValue);
-            case "URL Parameter":
-                if (request.hasParameter(match, HttpParameterType.URL)) {
-                    return request.withUpdatedParameters(HttpParameter.urlParameter(match, replace));
-                }
-                return request.withAddedParameters(HttpParameter.urlParameter(match, replace));
-            case "POST Body Parameter":
-                if (request.contentType() == ContentType.MULTIPART) {
-                    return applyMultipartReplacement(request, match, replace);
+    private JMenu variableMenu(String value) {
+        Variables variables = replacerTab.getVariables();
+        return lazyMenu("Set variable to selection", menu -> {
+            for (String name : variables.values().keySet()) {
+                JMenuItem item = new JMenuItem(name);
+                item.addActionListener(e -> variables.set(name, value));
+                menu.add(item);
+            }
+            if (menu.getMenuComponentCount() > 0) {
+                menu.addSeparator();
+            }
+            JMenuItem create = new JMenuItem("New variable...");
+            create.addActionListener(e -> {
+                Component parent = api.userInterface().swingUtils().suiteFrame();
+                String name = JOptionPane.showInputDialog(parent, "Name, used as {{name}} in Replace fields:",
+                        "New Variable", JOptionPane.PLAIN_MESSAGE);
+                if (name == null) {
+                    return;
                 }
-                if (request.hasParameter(match, HttpParameterType.BODY)) {
-                    return request.withUpdatedParameters(HttpParameter.bodyParameter(match, replace));
+                if (!Template.isName(name.trim())) {
+                    JOptionPane.showMessageDialog(parent,
+                            "A name starts with a letter or '_' and has only letters, digits, '_', '.' and '-'.",
+                            "New Variable", JOptionPane.WARNING_MESSAGE);
+                    return;
                 }
-                return request.withAddedParameters(HttpParameter.bodyParameter(match, replace));
-            default:
-                return request;
-        }
+                variables.set(name.trim(), value);
+            });
+            menu.add(create);
+        });
     }
 
-    private HttpRequest applyMultipartReplacement(HttpRequest request, String name, String value) {
-        name = sanitizeFieldName(name);
-        String contentType = request.headerValue("Content-Type");
-        if (contentType == null) {
-            return request;
-        }
+    private static String selectedText(MessageEditorHttpRequestResponse editor, Range range) {
+        HttpRequestResponse requestResponse = editor.requestResponse();
+        ByteArray message = editor.selectionContext() == MessageEditorHttpRequestResponse.SelectionContext.REQUEST
+                ? requestResponse.request().toByteArray() : requestResponse.response().toByteArray();
+        return new String(message.subArray(range).getBytes(), StandardCharsets.UTF_8);
+    }
 
-        // Extract boundary from Content-Type header
-        String boundary = null;
-        for (String part : contentType.split(";")) {
-            String trimmed = part.trim();
-            if (trimmed.startsWith("boundary=")) {
-                boundary = trimmed.substring("boundary=".length()).trim();
-                // Strip quotes if present
-                if (boundary.startsWith("\"") && boundary.endsWith("\"")) {
-                    boundary = boundary.substring(1, boundary.length() - 1);
+    private static JMenu lazyMenu(String title, Consumer<JMenu> populate) {
+        JMenu menu = new JMenu(title);
+        menu.addMenuListener(new MenuListener() {
+            @Override
+            public void menuSelected(MenuEvent e) {
+                if (menu.getMenuComponentCount() == 0) {
+                    populate.accept(menu);
                 }
-                break;
             }
-        }
-        if (boundary == null) {
-            return request;
-        }
-
-        String body = request.bodyToString();
-        String partDelimiter = "--" + boundary;
-        String closingDelimiter = partDelimiter + "--";
-
-        // Multipart part looks like:
-        // --boundary\r\nContent-Disposition: form-data; name="fieldName"\r\n\r\nvalue\r\n
-        String partPattern = partDelimiter + "\r\nContent-Disposition: form-data; name=\"" + name + "\"";
-        int partStart = body.indexOf(partPattern);
 
-        if (partStart >= 0) {
-            // Update existing part: find the blank line after headers, then replace value up to next boundary
-            int headersEnd = body.indexOf("\r\n\r\n", partStart);
-            if (headersEnd < 0) {
-                return request;
+            @Override
+            public void menuDeselected(MenuEvent e) {
             }
-            int valueStart = headersEnd + 4; // skip \r\n\r\n
-            int nextBoundary = body.indexOf("\r\n" + partDelimiter, valueStart);
-            if (nextBoundary < 0) {
-                return request;
+
+            @Override
+            public void menuCanceled(MenuEvent e) {
             }
-            String newBody = body.substring(0, valueStart) + value + body.substring(nextBoundary);
-            return request.withBody(newBody);
-        } else {
-            // Add new part before the closing delimiter
-            String newPart = partDelimiter + "\r\n"
-                    + "Content-Disposition: form-data; name=\"" + name + "\"\r\n"
-                    + "\r\n"
-                    + value + "\r\n";
-            String newBody = body.replace(closingDelimiter, newPart + closingDelimiter);
-            return request.withBody(newBody);
+        });
+        return menu;
+    }
+
+    private static JMenuItem ruleItem(String label, RuleSet.Rule rule, Consumer<RuleSet.Rule> used) {
+        JMenuItem item = new JMenuItem(label);
+        item.addActionListener(e -> used.accept(rule));
+        return item;
+    }
+
+    private JMenuItem searchItem(String label, String title, RuleSet ruleSet, Consumer<RuleSet.Rule> used) {
+        JMenuItem item = new JMenuItem(label);
+        item.addActionListener(e ->
+                RuleSearchPopup.show(api.userInterface().swingUtils().suiteFrame(), title, ruleSet, used));
+        return item;
+    }
+
+    private void runPinnedRule(int slot, HotKeyEvent event) {
+        RuleSet.Rule rule = replacerTab.getRuleSet().rule(replacerTab.pinnedRuleId(slot));
+        if (rule == null) {
+            api.logging().logToError("No rule is pinned to " + hotKey(slot));
+            return;
         }
+        event.messageEditorRequestResponse().ifPresent(editor -> {
+            if (event.isFromTool(ToolType.REPEATER)) {
+                useRule(editor, rule);
+            } else if (event.isFromTool(ToolType.PROXY, ToolType.LOGGER, ToolType.TARGET)) {
+                copyToRule(editor.requestResponse().request(), rule);
+            }
+        });
     }
 
-    private static String sanitizeHeaderValue(String value) {
-        if (value == null) return null;
-        return value.replace("\r", "").replace("\n", "");
+    private static String hotKey(int slot) {
+        return "Ctrl+Alt+" + slot;
     }
 
-    private static String sanitizeFieldName(String name) {
-        if (name == null) return null;
-        return name.replace("\"", "").replace("\r", "").replace("\n", "");
+    private void copyToRule(HttpRequest request, RuleSet.Rule rule) {
+        copyValues(rule, RuleApplier.extractValues(request, rule), true);
     }
 
-    private String parseCookieValue(String cookieHeader, String name) {
-        for (String part : cookieHeader.split(";")) {
-            String trimmed = part.trim();
-            int eq = trimmed.indexOf('=');
-            if (eq > 0 && trimmed.substring(0, eq).trim().equals(name)) {
-                return trimmed.substring(eq + 1).trim();
+    // Takes each row's value from the most recent Proxy request that had it
+    private void copyLatestToRule(RuleSet.Rule rule) {
+        List<RuleSet.Row> rows = rule.rows();
+        String[] values = new String[rows.size()];
+        for (int i = 0; i < values.length; i++) {
+            RuleSet.Row row = rows.get(i);
+            if (row.type() == RuleType.REGEX) {
+                api.logging().logToError("Copy latest value doesn't search for regexes: " + row.match());
             }
+            values[i] = historyIndex.latest(row.type(), row.match());
+        }
+        if (!historyIndex.isReady()) {
+            api.logging().logToOutput("Proxy history is still being indexed; older values may be missing.");
         }
-        return null;
+        copyValues(rule, values, false);
     }
 
-    private String replaceCookieValue(String cookieHeader, String name, String newValue) {
-        StringBuilder result = new StringBuilder();
-        boolean found = false;
-        for (String part : cookieHeader.split(";")) {
-            String trimmed = part.trim();
-            if (result.length() > 0) {
-                result.append("; ");
+    private void copyValues(RuleSet.Rule rule, String[] values, boolean withRegex) {
+        for (int i = 0; i < values.length; i++) {
+            RuleSet.Row row = rule.rows().get(i);
+            if (row.type().isLiteral() || !row.type().isRequest()
+                    || (row.type() == RuleType.REGEX && !withRegex)) {
+                continue;
             }
-            int eq = trimmed.indexOf('=');
-            if (eq > 0 && trimmed.substring(0, eq).trim().equals(name)) {
-                result.append(name).append("=").append(newValue);
-                found = true;
-            } else {
-                result.append(trimmed);
+            String extracted = values[i];
+            if (extracted == null) {
+                row.stats().recordMiss();
+                api.logging().logToError("No match found for " + row.type().label() + ": " + row.match());
+                continue;
             }
-        }
-        if (!found) {
-            if (result.length() > 0) {
-                result.append("; ");
+            row.stats().recordHit();
+            if (row.variable() != null) {
+                // One write, and every rule using the variable has the value
+                row.variable().set(extracted);
+            } else if (row.type().isRegex()) {
+                // The whole match becomes the replacement, quoted so '$' and '\'
+                // in the copied text aren't read as group references
+                replacerTab.setReplace(rule.id(), row.index(), Matcher.quoteReplacement(extracted));
+            } else {
+                replacerTab.setReplace(rule.id(), row.index(), extracted);
             }
-            result.append(name).append("=").append(newValue);
         }
-        return result.toString();
+    }
+
+    private void useRule(MessageEditorHttpRequestResponse editor, RuleSet.Rule rule) {
+        HttpRequest request = editor.requestResponse().request();
+
+        editor.setRequest(RuleApplier.apply(request, rule));
     }
 }
@@ -1,42 +1,88 @@
 package com.replacer;
 
 import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.http.message.requests.HttpRequest;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class ReplacerTab {
 
-    private static final String[] RULE_TYPES = {
-            "Header", "Cookie", "URL Parameter", "POST Body Parameter"
-    };
+    private static final String[] RULE_TYPES = RuleType.labels();
     private static final Set<String> VALID_TYPES = Set.of(RULE_TYPES);
 
     private static final String RULES_CARD = "rules";
     private static final String JSON_CARD = "json";
+    private static final String BULK_CARD = "bulk";
+    private static final String STATS_CARD = "stats";
+    private static final String VARIABLES_CARD = "variables";
+    private static final String PANELS_EDITOR = "panels";
+    private static final String TABLE_EDITOR = "table";
+    // Above this many type rows, rules are loaded into the table editor
+    private static final int TABLE_EDITOR_THRESHOLD = 300;
+    // Edits are compiled once typing pauses, not for every keystroke
+    private static final int PUBLISH_DELAY_MS = 250;
 
     private final JPanel cardPanel;
     private final CardLayout cardLayout;
     private final JPanel rulesContainer;
+    private final JPanel editorCards;
+    private final CardLayout editorLayout;
+    private final JToggleButton tableViewButton;
+    private final RuleTableEditor tableEditor;
     private final JTextArea jsonTextArea;
+    private final RuleTransfer transfer;
+    private final BulkResultsPanel bulkResultsPanel;
     private final List<RulePanel> rulePanels = new ArrayList<>();
+    private final AtomicReference<RuleSet> ruleSet = new AtomicReference<>(RuleSet.EMPTY);
+    private final Timer publishTimer = new Timer(PUBLISH_DELAY_MS, e -> publishRules());
+    private final RuleMetrics metrics = new RuleMetrics();
+    private final RuleStore store;
+    // Harvested values reach the editor in batches, published as one change
+    private final ValueStore values = new ValueStore(() -> SwingUtilities.invokeLater(this::applyHarvested));
+    // Read by rules as they are applied; the table and saved project catch up on the EDT
+    private final Variables variables = new Variables(() -> SwingUtilities.invokeLater(this::variablesChanged));
+    private final VariablesPanel variablesPanel;
+    // Set while a batch of harvested values or a file reload is applied
+    private boolean batching;
+    private final JLabel watchLabel = new JLabel();
+    private RuleFileWatcher watcher;
+    // The watched file's rules as last loaded, by name, to tell which ones it changed
+    private Map<String, JsonUtil.RuleData> fileRules = new HashMap<>();
+    private Map<String, String> fileVariables = new HashMap<>();
+    // Told on the EDT after each new rule set is published
+    private Runnable rulesListener = () -> { };
 
     public ReplacerTab(MontoyaApi api) {
+        publishTimer.setRepeats(false);
+        store = new RuleStore(api.persistence().extensionData());
         cardLayout = new CardLayout();
         cardPanel = new JPanel(cardLayout);
         jsonTextArea = new JTextArea();
         jsonTextArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+        transfer = new RuleTransfer(cardPanel);
 
         // --- Rules View ---
         JPanel rulesView = new JPanel(new BorderLayout());
 
         JPanel topBar = new JPanel(new FlowLayout(FlowLayout.LEFT));
         JButton addButton = new JButton("+");
-        addButton.addActionListener(e -> addRulePanel());
+        addButton.addActionListener(e -> addRule());
         topBar.add(addButton);
 
         JButton saveLoadButton = new JButton("Save / Load Rules");
@@ -46,6 +92,23 @@ public class ReplacerTab {
         });
         topBar.add(saveLoadButton);
 
+        JButton bulkButton = new JButton("Bulk Results");
+        bulkButton.addActionListener(e -> cardLayout.show(cardPanel, BULK_CARD));
+        topBar.add(bulkButton);
+
+        JButton statsButton = new JButton("Stats");
+        topBar.add(statsButton);
+
+        JButton variablesButton = new JButton("Variables");
+        variablesButton.setToolTipText("Values any rule can use as {{name}} in a Replace field");
+        topBar.add(variablesButton);
+
+        tableViewButton = new JToggleButton("Table View");
+        tableViewButton.setToolTipText("Edit rules in a table, which stays fast with thousands of rules");
+        tableViewButton.addActionListener(e -> switchEditor(tableViewButton.isSelected()));
+        topBar.add(tableViewButton);
+        topBar.add(watchLabel);
+
         rulesContainer = new JPanel();
         rulesContainer.setLayout(new BoxLayout(rulesContainer, BoxLayout.Y_AXIS));
 
@@ -53,8 +116,15 @@ public class ReplacerTab {
         scrollPane.setVerticalScrollBarPolicy(JScrollPane.VERTICAL_SCROLLBAR_AS_NEEDED);
         scrollPane.setHorizontalScrollBarPolicy(JScrollPane.HORIZONTAL_SCROLLBAR_NEVER);
 
+        tableEditor = new RuleTableEditor(this::ruleChanged);
+
+        editorLayout = new CardLayout();
+        editorCards = new JPanel(editorLayout);
+        editorCards.add(scrollPane, PANELS_EDITOR);
+        editorCards.add(tableEditor.getPanel(), TABLE_EDITOR);
+
         rulesView.add(topBar, BorderLayout.NORTH);
-        rulesView.add(scrollPane, BorderLayout.CENTER);
+        rulesView.add(editorCards, BorderLayout.CENTER);
 
         // --- JSON View ---
         JPanel jsonView = new JPanel(new BorderLayout());
@@ -68,39 +138,137 @@ public class ReplacerTab {
 
         JPanel jsonBottomBar = new JPanel(new FlowLayout(FlowLayout.LEFT));
         JButton exportButton = new JButton("Export Rules");
-        exportButton.addActionListener(e -> {
-            String json = JsonUtil.exportRules(rulePanels);
-            jsonTextArea.setText(json);
-        });
+        exportButton.addActionListener(e ->
+                transfer.exportText(getRuleData(), variables.values(), jsonTextArea::setText));
         JButton loadButton = new JButton("Load Rules");
         loadButton.addActionListener(e -> loadRulesFromJson());
+        JButton exportFileButton = new JButton("Export to File...");
+        exportFileButton.addActionListener(e -> exportRulesToFile());
+        JButton importFileButton = new JButton("Load from File...");
+        importFileButton.addActionListener(e -> loadRulesFromFile());
         jsonBottomBar.add(exportButton);
         jsonBottomBar.add(loadButton);
+        jsonBottomBar.add(exportFileButton);
+        jsonBottomBar.add(importFileButton);
+        JButton watchButton = new JButton("Watch File...");
+        watchButton.setToolTipText("Keep the rules in step with a file, reloading it whenever it changes");
+        watchButton.addActionListener(e -> chooseWatchedFile());
+        JButton stopWatchButton = new JButton("Stop Watching");
+        stopWatchButton.addActionListener(e -> {
+            stopWatching();
+            store.setWatchedFile(null);
+        });
+        jsonBottomBar.add(watchButton);
+        jsonBottomBar.add(stopWatchButton);
+        jsonBottomBar.add(transfer.getProgressBar());
+        jsonBottomBar.add(transfer.getCancelButton());
 
         jsonView.add(jsonTopBar, BorderLayout.NORTH);
         jsonView.add(jsonScrollPane, BorderLayout.CENTER);
         jsonView.add(jsonBottomBar, BorderLayout.SOUTH);
 
+        // --- Bulk View ---
+        bulkResultsPanel = new BulkResultsPanel(api, () -> cardLayout.show(cardPanel, RULES_CARD));
+
+        // --- Stats View ---
+        StatsPanel statsPanel = new StatsPanel(metrics, this::getRuleSet, () -> cardLayout.show(cardPanel, RULES_CARD));
+        statsButton.addActionListener(e -> {
+            statsPanel.refresh();
+            cardLayout.show(cardPanel, STATS_CARD);
+        });
+
+        // --- Variables View ---
+        variablesPanel = new VariablesPanel(variables, () -> cardLayout.show(cardPanel, RULES_CARD));
+        variablesButton.addActionListener(e -> {
+            variablesPanel.refresh(variables.values());
+            cardLayout.show(cardPanel, VARIABLES_CARD);
+        });
+
         // --- Card Panel ---
         cardPanel.add(rulesView, RULES_CARD);
         cardPanel.add(jsonView, JSON_CARD);
+        cardPanel.add(bulkResultsPanel.getPanel(), BULK_CARD);
+        cardPanel.add(statsPanel.getPanel(), STATS_CARD);
+        cardPanel.add(variablesPanel.getPanel(), VARIABLES_CARD);
         cardLayout.show(cardPanel, RULES_CARD);
 
         api.userInterface().registerSuiteTab("Replacer", cardPanel);
+
+        // Publish stored rules straight away so live rules apply from the first
+        // request; the editor panels are built later on the EDT
+        List<JsonUtil.RuleData> stored = store.load();
+        variables.setAll(store.loadVariables());
+        ruleSet.set(RuleSet.compile(stored, metrics, values, variables));
+        SwingUtilities.invokeLater(() -> showRules(stored));
+        String watched = store.watchedFile();
+        if (watched != null) {
+            SwingUtilities.invokeLater(() -> watchFile(new File(watched)));
+        }
     }
 
     private void loadRulesFromJson() {
         String json = jsonTextArea.getText().trim();
         if (json.isEmpty()) return;
 
-        List<JsonUtil.RuleData> parsed;
-        try {
-            parsed = JsonUtil.parseRules(json);
-        } catch (RuntimeException ex) {
-            JOptionPane.showMessageDialog(cardPanel,
-                    "Invalid JSON. Please check the format and try again.",
-                    "Load Error",
-                    JOptionPane.ERROR_MESSAGE);
+        transfer.importText(json, this::showLoadedRules);
+    }
+
+    private void loadRulesFromFile() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(cardPanel) == JFileChooser.APPROVE_OPTION) {
+            transfer.importFile(chooser.getSelectedFile(), this::showLoadedRules);
+        }
+    }
+
+    private void exportRulesToFile() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("replacer-rules.json"));
+        if (chooser.showSaveDialog(cardPanel) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        if (file.exists() && JOptionPane.showConfirmDialog(cardPanel,
+                file.getName() + " already exists. Replace it?",
+                "Export Rules",
+                JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION) {
+            return;
+        }
+        transfer.exportFile(getRuleData(), variables.values(), file);
+    }
+
+    // Variables the file sets are updated; any others are kept
+    private void showLoadedRules(JsonUtil.ReadResult result) {
+        variables.setAll(result.variables);
+        showRules(result.rules);
+        cardLayout.show(cardPanel, RULES_CARD);
+    }
+
+    // The editor being left is cleared so only one copy of the rules is kept
+    private void switchEditor(boolean table) {
+        List<JsonUtil.RuleData> rules = table ? getRuleData() : tableEditor.getRules();
+        tableViewButton.setSelected(table);
+        if (table) {
+            rulePanels.clear();
+            rulesContainer.removeAll();
+            tableEditor.setRules(rules);
+            publishRules();
+        } else {
+            tableEditor.setRules(new ArrayList<>());
+            showRules(rules);
+        }
+        editorLayout.show(editorCards, table ? TABLE_EDITOR : PANELS_EDITOR);
+    }
+
+    private void showRules(List<JsonUtil.RuleData> rules) {
+        if (!tableViewButton.isSelected() && countRows(rules) > TABLE_EDITOR_THRESHOLD) {
+            tableViewButton.setSelected(true);
+            rulePanels.clear();
+            rulesContainer.removeAll();
+            editorLayout.show(editorCards, TABLE_EDITOR);
+        }
+        if (tableViewButton.isSelected()) {
+            tableEditor.setRules(rules);
+            publishRules();
             return;
         }
 
@@ -109,32 +277,316 @@ public class ReplacerTab {
         rulesContainer.removeAll();
 
         // Create rule panels from parsed data
-        for (JsonUtil.RuleData ruleData : parsed) {
-            RulePanel rulePanel = new RulePanel();
-            rulePanel.nameField.setText(ruleData.name);
+        for (JsonUtil.RuleData ruleData : rules) {
+            RulePanel rulePanel = ruleData.id != null ? new RulePanel(ruleData.id) : new RulePanel();
+            rulePanel.setRule(ruleData);
+            rulePanels.add(rulePanel);
+            rulesContainer.add(rulePanel.getPanel());
+        }
 
-            // Remove the default empty type row
-            rulePanel.typeRows.clear();
-            rulePanel.typesListPanel.removeAll();
+        rulesContainer.revalidate();
+        rulesContainer.repaint();
+        publishRules();
+    }
 
-            for (JsonUtil.TypeData typeData : ruleData.typeRows) {
-                if (typeData.type == null || !VALID_TYPES.contains(typeData.type)) {
-                    continue;
+    // Safe to call from any thread; the returned snapshot never changes
+    public RuleSet getRuleSet() {
+        return ruleSet.get();
+    }
+
+    // Safe to call from any thread
+    public Variables getVariables() {
+        return variables;
+    }
+
+    // Must be called on the EDT
+    public void runBulk(RuleSet.Rule rule, List<HttpRequest> requests) {
+        cardLayout.show(cardPanel, BULK_CARD);
+        bulkResultsPanel.run(rule, requests);
+    }
+
+    // Must be called on the EDT
+    public void setReplace(String ruleId, int rowIndex, String value) {
+        if (tableViewButton.isSelected()) {
+            tableEditor.setReplace(ruleId, rowIndex, value);
+            return;
+        }
+        for (RulePanel panel : rulePanels) {
+            if (panel.id.equals(ruleId)) {
+                if (rowIndex < panel.typeRows.size()) {
+                    panel.typeRows.get(rowIndex).setReplace(value);
                 }
-                rulePanel.addTypeRow(typeData.type, typeData.match, typeData.replace);
+                return;
             }
+        }
+    }
 
-            rulePanels.add(rulePanel);
-            rulesContainer.add(rulePanel.getPanel());
+    private static int countRows(List<JsonUtil.RuleData> rules) {
+        int rows = 0;
+        for (JsonUtil.RuleData rule : rules) {
+            rows += rule.typeRows.size();
+        }
+        return rows;
+    }
+
+    private List<JsonUtil.RuleData> getRuleData() {
+        if (tableViewButton.isSelected()) {
+            return tableEditor.getRules();
+        }
+        List<JsonUtil.RuleData> rules = new ArrayList<>(rulePanels.size());
+        for (RulePanel panel : rulePanels) {
+            List<JsonUtil.TypeData> typeRows = new ArrayList<>(panel.typeRows.size());
+            for (TypeRow row : panel.typeRows) {
+                JsonUtil.TypeData typeData = new JsonUtil.TypeData(row.getType(), row.getMatch(), row.getReplace());
+                typeData.harvest = row.getHarvest();
+                typeData.id = row.id;
+                typeRows.add(typeData);
+            }
+            JsonUtil.RuleData data = new JsonUtil.RuleData(panel.getName(), typeRows);
+            data.id = panel.id;
+            data.live = panel.liveCheckBox.isSelected();
+            data.scope = panel.getScope();
+            rules.add(data);
+        }
+        return rules;
+    }
+
+    public String pinnedRuleId(int slot) {
+        return store.pinnedRule(slot);
+    }
+
+    // Pass a null id to clear the slot
+    public void pinRule(int slot, String ruleId) {
+        store.pinRule(slot, ruleId);
+    }
+
+    // Writes any pending rule changes now instead of waiting for the debounce
+    public void saveRules() {
+        // An edit still waiting to be compiled is saved as well
+        if (publishTimer.isRunning()) {
+            if (SwingUtilities.isEventDispatchThread()) {
+                publishRules();
+            } else {
+                try {
+                    SwingUtilities.invokeAndWait(this::publishRules);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (InvocationTargetException e) {
+                    // Save what was published before
+                }
+            }
         }
+        store.flush();
+    }
+
+    // Stops reloading the watched file, e.g. when the extension unloads. The
+    // file stays bound to the project, so watching resumes when it is opened again.
+    public void stopWatching() {
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+        fileRules = new HashMap<>();
+        fileVariables = new HashMap<>();
+        watchLabel.setForeground(UIManager.getColor("Label.foreground"));
+        watchLabel.setText("");
+        watchLabel.setToolTipText(null);
+    }
+
+    private void chooseWatchedFile() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(cardPanel) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        store.setWatchedFile(file.getAbsolutePath());
+        watchFile(file);
+        cardLayout.show(cardPanel, RULES_CARD);
+    }
+
+    private void watchFile(File file) {
+        stopWatching();
+        try {
+            watcher = new RuleFileWatcher(file.toPath(), this::applyFileRules, this::showWatchError);
+        } catch (IOException | RuntimeException e) {
+            showWatchError("Can't watch " + file + ": " + e.getMessage());
+            return;
+        }
+        watchLabel.setText("Watching " + file.getName());
+        watchLabel.setToolTipText(file.getAbsolutePath());
+        watcher.start();
+    }
+
+    // A file that can't be read leaves the rules as they are
+    private void showWatchError(String message) {
+        watchLabel.setText("Not synced");
+        watchLabel.setForeground(Color.RED);
+        watchLabel.setToolTipText(message);
+    }
 
+    // Applies what changed in the watched file since it was last loaded. Only
+    // rules and variables the file changed are touched, so edits made here to
+    // others, and values harvested into them, are kept. Rules are matched by
+    // name and the result is published as one new rule set.
+    private void applyFileRules(JsonUtil.ReadResult result) {
+        for (Map.Entry<String, String> variable : result.variables.entrySet()) {
+            if (!variable.getValue().equals(fileVariables.get(variable.getKey()))) {
+                variables.set(variable.getKey(), variable.getValue());
+            }
+        }
+        fileVariables = new HashMap<>(result.variables);
+
+        Map<String, JsonUtil.RuleData> loaded = new LinkedHashMap<>();
+        for (JsonUtil.RuleData rule : result.rules) {
+            loaded.put(rule.name, rule);
+        }
+        Map<String, JsonUtil.RuleData> current = new HashMap<>();
+        for (JsonUtil.RuleData rule : getRuleData()) {
+            current.putIfAbsent(rule.name, rule);
+        }
+        List<JsonUtil.RuleData> changed = new ArrayList<>();
+        for (JsonUtil.RuleData rule : loaded.values()) {
+            // The first load compares with the rules as they are
+            JsonUtil.RuleData before = fileRules.containsKey(rule.name)
+                    ? fileRules.get(rule.name) : current.get(rule.name);
+            if (before == null || !sameRule(before, rule)) {
+                changed.add(rule);
+            }
+        }
+        Set<String> removed = new HashSet<>(fileRules.keySet());
+        removed.removeAll(loaded.keySet());
+        fileRules = loaded;
+
+        if (!changed.isEmpty() || !removed.isEmpty()) {
+            batching = true;
+            try {
+                if (tableViewButton.isSelected()) {
+                    tableEditor.applyFileChanges(changed, removed);
+                } else {
+                    applyFileChanges(changed, removed);
+                }
+            } finally {
+                batching = false;
+            }
+            publishRules();
+        }
+
+        // Rows of the file's rules that can't be applied count as skipped too
+        List<String> problems = new ArrayList<>();
+        for (JsonUtil.Problem problem : result.problems) {
+            problems.add(problem.toString());
+        }
+        for (RuleSet.RowError error : ruleSet.get().errors()) {
+            if (loaded.containsKey(error.rule)) {
+                problems.add(error.toString());
+            }
+        }
+        watchLabel.setForeground(UIManager.getColor("Label.foreground"));
+        watchLabel.setText("Synced with " + watcher.file().getFileName()
+                + (problems.isEmpty() ? "" : " (" + problems.size() + " skipped)"));
+        watchLabel.setToolTipText(problems.isEmpty() ? watcher.file().toString() : watcher.file() + ": " + problems.get(0));
+    }
+
+    private void applyFileChanges(List<JsonUtil.RuleData> changed, Set<String> removed) {
+        for (JsonUtil.RuleData rule : changed) {
+            RulePanel panel = findPanel(rule.name);
+            if (panel != null) {
+                panel.setRule(rule);
+                ruleChanged(panel.id);
+            } else {
+                RulePanel added = new RulePanel();
+                added.setRule(rule);
+                rulePanels.add(added);
+                rulesContainer.add(added.getPanel());
+            }
+        }
+        for (String name : removed) {
+            RulePanel panel = findPanel(name);
+            if (panel != null) {
+                rulePanels.remove(panel);
+                rulesContainer.remove(panel.getPanel());
+            }
+        }
         rulesContainer.revalidate();
         rulesContainer.repaint();
-        cardLayout.show(cardPanel, RULES_CARD);
     }
 
-    public List<RulePanel> getRulePanels() {
-        return Collections.unmodifiableList(rulePanels);
+    private RulePanel findPanel(String name) {
+        for (RulePanel panel : rulePanels) {
+            if (panel.getName().equals(name)) {
+                return panel;
+            }
+        }
+        return null;
+    }
+
+    private static String blankToNull(String value) {
+        return value.isBlank() ? null : value.trim();
+    }
+
+    private static boolean sameRule(JsonUtil.RuleData a, JsonUtil.RuleData b) {
+        if (!Objects.equals(a.name, b.name) || a.live != b.live || a.typeRows.size() != b.typeRows.size()
+                || !RuleTableEditor.scopeText(a.scope).equals(RuleTableEditor.scopeText(b.scope))) {
+            return false;
+        }
+        for (int i = 0; i < a.typeRows.size(); i++) {
+            JsonUtil.TypeData x = a.typeRows.get(i);
+            JsonUtil.TypeData y = b.typeRows.get(i);
+            if (!Objects.equals(x.type, y.type) || !Objects.equals(x.match, y.match)
+                    || !Objects.equals(x.replace, y.replace) || x.harvest != y.harvest) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ruleChanged(String id) {
+        store.markDirty(id);
+        // A batch publishes once at the end rather than per value
+        if (!batching) {
+            publishTimer.restart();
+        }
+    }
+
+    // Shows newly harvested values in the editor. Requests already use them
+    // through the value store; this keeps the typed rules and saved project in step.
+    private void applyHarvested() {
+        batching = true;
+        try {
+            values.drain(this::setReplace);
+        } finally {
+            batching = false;
+        }
+        publishRules();
+    }
+
+    // Rules read variables as they are applied, so nothing is recompiled here
+    private void variablesChanged() {
+        Map<String, String> current = variables.drain();
+        store.saveVariables(current);
+        variablesPanel.refresh(current);
+    }
+
+    // Publishes straight away, including any edit still waiting for typing to pause
+    private void publishRules() {
+        publishTimer.stop();
+        List<JsonUtil.RuleData> rules = getRuleData();
+        ruleSet.set(RuleSet.compile(rules, metrics, values, variables));
+        store.scheduleSave(rules);
+        rulesListener.run();
+    }
+
+    // Must be called on the EDT
+    public void setRulesListener(Runnable listener) {
+        rulesListener = listener;
+    }
+
+    private void addRule() {
+        if (tableViewButton.isSelected()) {
+            tableEditor.addRule();
+        } else {
+            addRulePanel();
+        }
     }
 
     private void addRulePanel() {
@@ -144,11 +596,13 @@ public class ReplacerTab {
         rulesContainer.add(rulePanel.getPanel());
         rulesContainer.revalidate();
         rulesContainer.repaint();
+        publishRules();
     }
 
     private void copyRulePanel(RulePanel source) {
         RulePanel copy = new RulePanel();
         copy.nameField.setText(source.getName() + "-copy");
+        copy.setScope(source.getScope());
 
         // Remove the default empty type row that RulePanel creates
         copy.typeRows.clear();
@@ -156,22 +610,26 @@ public class ReplacerTab {
 
         // Copy each type row from the source
         for (TypeRow srcRow : source.getTypeRows()) {
-            copy.addTypeRow(srcRow.getType(), srcRow.getMatch(), srcRow.getReplace());
+            copy.addTypeRow(null, srcRow.getType(), srcRow.getMatch(), srcRow.getReplace(), srcRow.getHarvest());
         }
 
         rulePanels.add(copy);
         rulesContainer.add(copy.getPanel());
         rulesContainer.revalidate();
         rulesContainer.repaint();
+        publishRules();
     }
 
     public static class TypeRow {
+        // Keeps the row's stats with it when rows above it are removed
+        private String id = UUID.randomUUID().toString();
         private final JComboBox<String> typeCombo;
         private final JTextField matchField;
         private final JTextField replaceField;
+        private final JCheckBox harvestCheckBox;
         private final JPanel row;
 
-        TypeRow(JPanel typesListPanel, JPanel rulePanel) {
+        TypeRow(RulePanel owner, JPanel typesListPanel, JPanel rulePanel) {
             row = new JPanel(new GridBagLayout());
             row.setMaximumSize(new Dimension(Integer.MAX_VALUE, 28));
             GridBagConstraints gbc = new GridBagConstraints();
@@ -183,32 +641,44 @@ public class ReplacerTab {
             row.add(new JLabel("Type:"), gbc);
             gbc.gridx = 1; gbc.weightx = 0;
             typeCombo = new JComboBox<>(RULE_TYPES);
+            typeCombo.addActionListener(e -> owner.changed());
             row.add(typeCombo, gbc);
 
             gbc.gridx = 2; gbc.weightx = 0;
             row.add(new JLabel("Match:"), gbc);
             gbc.gridx = 3; gbc.weightx = 1;
             matchField = new JTextField();
+            matchField.getDocument().addDocumentListener(owner.changeListener);
             row.add(matchField, gbc);
 
             gbc.gridx = 4; gbc.weightx = 0;
             row.add(new JLabel("Replace:"), gbc);
             gbc.gridx = 5; gbc.weightx = 1;
             replaceField = new JTextField();
+            replaceField.getDocument().addDocumentListener(owner.changeListener);
             row.add(replaceField, gbc);
 
+            harvestCheckBox = new JCheckBox("Harvest");
+            harvestCheckBox.setToolTipText("Update Replace with the value the match finds in responses, "
+                    + "or the variable when Replace is just {{name}}");
+            harvestCheckBox.addActionListener(e -> owner.changed());
+            gbc.gridx = 6; gbc.weightx = 0;
+            row.add(harvestCheckBox, gbc);
+
             JButton removeTypeButton = new JButton("x");
             removeTypeButton.setMargin(new Insets(0, 3, 0, 3));
             removeTypeButton.addActionListener(e -> {
                 if (typesListPanel.getComponentCount() > 1) {
+                    owner.typeRows.remove(this);
                     typesListPanel.remove(row);
                     typesListPanel.revalidate();
                     typesListPanel.repaint();
                     rulePanel.revalidate();
                     rulePanel.repaint();
+                    owner.changed();
                 }
             });
-            gbc.gridx = 6; gbc.weightx = 0;
+            gbc.gridx = 7; gbc.weightx = 0;
             row.add(removeTypeButton, gbc);
 
             typesListPanel.add(row);
@@ -231,18 +701,66 @@ public class ReplacerTab {
             replaceField.setText(value);
         }
 
+        public boolean getHarvest() {
+            return harvestCheckBox.isSelected();
+        }
+
         JPanel getRow() {
             return row;
         }
+
+        // Regex rows whose pattern or replacement is invalid and header rows whose
+        // name is invalid are skipped when applying, and a {{...}} that isn't an expression is sent as typed, so
+        // say why here
+        private void checkPattern() {
+            RuleType type = RuleType.fromLabel(getType());
+            String error = type != null && !getMatch().isEmpty() ? RuleSet.matchError(type, getMatch()) : null;
+            matchField.setForeground(error != null ? Color.RED : UIManager.getColor("TextField.foreground"));
+            matchField.setToolTipText(error != null ? error + ", row skipped" : null);
+            String invalid = type != null && type.isRegex() && !getMatch().isEmpty() && error == null
+                    ? RuleSet.replacementError(getMatch(), getReplace()) : null;
+            String templateError = invalid == null ? RuleSet.templateError(getReplace()) : null;
+            replaceField.setForeground(invalid != null || templateError != null
+                    ? Color.RED : UIManager.getColor("TextField.foreground"));
+            replaceField.setToolTipText(invalid != null ? "Invalid replacement, row skipped: " + invalid
+                    : templateError != null ? "Sent as typed: " + templateError : null);
+        }
     }
 
     public class RulePanel {
+        private final String id;
+        private final DocumentListener changeListener = new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                changed();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                changed();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                changed();
+            }
+        };
         private final JPanel panel;
         private final JTextField nameField;
+        private final JCheckBox liveCheckBox;
+        private final JTextField hostField;
+        private final JTextField portField;
+        private final JTextField pathField;
+        private final JTextField methodField;
         private final JPanel typesListPanel;
         private final List<TypeRow> typeRows = new ArrayList<>();
 
         RulePanel() {
+            this(UUID.randomUUID().toString());
+        }
+
+        RulePanel(String id) {
+            this.id = id;
             panel = new JPanel(new BorderLayout(5, 5));
             panel.setBorder(BorderFactory.createEtchedBorder());
 
@@ -257,18 +775,67 @@ public class ReplacerTab {
             headerRow.add(new JLabel("Name:"), hgbc);
             hgbc.gridx = 1; hgbc.weightx = 1;
             nameField = new JTextField();
+            nameField.getDocument().addDocumentListener(changeListener);
             headerRow.add(nameField, hgbc);
 
+            liveCheckBox = new JCheckBox("Live");
+            liveCheckBox.setToolTipText("Apply automatically to requests from Proxy, Scanner, Intruder and extensions");
+            liveCheckBox.addActionListener(e -> changed());
+            hgbc.gridx = 2; hgbc.weightx = 0;
+            headerRow.add(liveCheckBox, hgbc);
+
             JButton removeButton = new JButton("X");
             removeButton.addActionListener(e -> {
                 rulesContainer.remove(panel);
                 rulePanels.remove(this);
                 rulesContainer.revalidate();
                 rulesContainer.repaint();
+                publishRules();
             });
-            hgbc.gridx = 2; hgbc.weightx = 0;
+            hgbc.gridx = 3; hgbc.weightx = 0;
             headerRow.add(removeButton, hgbc);
-            panel.add(headerRow, BorderLayout.NORTH);
+
+            // Scope row: where a live rule applies; empty fields match anything
+            JPanel scopeRow = new JPanel(new GridBagLayout());
+            GridBagConstraints sgbc = new GridBagConstraints();
+            sgbc.insets = new Insets(0, 5, 5, 5);
+            sgbc.gridy = 0;
+            sgbc.fill = GridBagConstraints.HORIZONTAL;
+
+            sgbc.gridx = 0; sgbc.weightx = 0;
+            scopeRow.add(new JLabel("Host:"), sgbc);
+            sgbc.gridx = 1; sgbc.weightx = 1;
+            hostField = new JTextField();
+            hostField.setToolTipText("Only apply live to this host; *.example.com also covers its subdomains");
+            hostField.getDocument().addDocumentListener(changeListener);
+            scopeRow.add(hostField, sgbc);
+
+            sgbc.gridx = 2; sgbc.weightx = 0;
+            scopeRow.add(new JLabel("Port:"), sgbc);
+            sgbc.gridx = 3; sgbc.weightx = 0;
+            portField = new JTextField(5);
+            portField.getDocument().addDocumentListener(changeListener);
+            scopeRow.add(portField, sgbc);
+
+            sgbc.gridx = 4; sgbc.weightx = 0;
+            scopeRow.add(new JLabel("Path:"), sgbc);
+            sgbc.gridx = 5; sgbc.weightx = 1;
+            pathField = new JTextField();
+            pathField.setToolTipText("Only apply live to paths starting with this");
+            pathField.getDocument().addDocumentListener(changeListener);
+            scopeRow.add(pathField, sgbc);
+
+            sgbc.gridx = 6; sgbc.weightx = 0;
+            scopeRow.add(new JLabel("Method:"), sgbc);
+            sgbc.gridx = 7; sgbc.weightx = 0;
+            methodField = new JTextField(6);
+            methodField.getDocument().addDocumentListener(changeListener);
+            scopeRow.add(methodField, sgbc);
+
+            JPanel north = new JPanel(new BorderLayout());
+            north.add(headerRow, BorderLayout.NORTH);
+            north.add(scopeRow, BorderLayout.SOUTH);
+            panel.add(north, BorderLayout.NORTH);
 
             // Types section
             JPanel typesWrapper = new JPanel(new BorderLayout(5, 0));
@@ -285,6 +852,7 @@ public class ReplacerTab {
                 panel.revalidate();
                 panel.repaint();
                 rulesContainer.revalidate();
+                changed();
             });
 
             JButton copyRuleButton = new JButton("+ make a copy");
@@ -300,16 +868,52 @@ public class ReplacerTab {
             panel.add(typesWrapper, BorderLayout.CENTER);
         }
 
+        private void changed() {
+            for (TypeRow row : typeRows) {
+                row.checkPattern();
+            }
+            boolean badPort = !portField.getText().isBlank() && port() == null;
+            portField.setForeground(badPort ? Color.RED : UIManager.getColor("TextField.foreground"));
+            portField.setToolTipText(badPort ? "Not a port; the rule applies on any port" : null);
+            // Panels under construction publish once they are added to rulePanels
+            if (rulePanels.contains(this)) {
+                ruleChanged(id);
+            }
+        }
+
         private void addTypeRow() {
-            TypeRow typeRow = new TypeRow(typesListPanel, panel);
+            TypeRow typeRow = new TypeRow(this, typesListPanel, panel);
             typeRows.add(typeRow);
         }
 
-        private void addTypeRow(String type, String match, String replace) {
-            TypeRow typeRow = new TypeRow(typesListPanel, panel);
+        // Replaces what the panel shows with the rule; types this version doesn't know are dropped
+        private void setRule(JsonUtil.RuleData rule) {
+            nameField.setText(rule.name);
+            liveCheckBox.setSelected(rule.live);
+            setScope(rule.scope);
+            typeRows.clear();
+            typesListPanel.removeAll();
+            for (JsonUtil.TypeData typeData : rule.typeRows) {
+                if (typeData.type == null || !VALID_TYPES.contains(typeData.type)) {
+                    continue;
+                }
+                addTypeRow(typeData.id, typeData.type, typeData.match, typeData.replace, typeData.harvest);
+            }
+            typesListPanel.revalidate();
+            panel.revalidate();
+            panel.repaint();
+        }
+
+        // A null id gives the row a new one
+        private void addTypeRow(String id, String type, String match, String replace, boolean harvest) {
+            TypeRow typeRow = new TypeRow(this, typesListPanel, panel);
+            if (id != null) {
+                typeRow.id = id;
+            }
             typeRow.typeCombo.setSelectedItem(type);
             typeRow.matchField.setText(match);
             typeRow.replaceField.setText(replace);
+            typeRow.harvestCheckBox.setSelected(harvest);
             typeRows.add(typeRow);
         }
 
@@ -317,6 +921,32 @@ public class ReplacerTab {
             return nameField.getText();
         }
 
+        // Null when no condition is set
+        JsonUtil.ScopeData getScope() {
+            JsonUtil.ScopeData scope = new JsonUtil.ScopeData();
+            scope.host = blankToNull(hostField.getText());
+            scope.port = port();
+            scope.path = blankToNull(pathField.getText());
+            scope.method = blankToNull(methodField.getText());
+            return scope.isEmpty() ? null : scope;
+        }
+
+        private void setScope(JsonUtil.ScopeData scope) {
+            hostField.setText(scope != null && scope.host != null ? scope.host : "");
+            portField.setText(scope != null && scope.port != null ? scope.port.toString() : "");
+            pathField.setText(scope != null && scope.path != null ? scope.path : "");
+            methodField.setText(scope != null && scope.method != null ? scope.method : "");
+        }
+
+        private Integer port() {
+            try {
+                int port = Integer.parseInt(portField.getText().trim());
+                return port > 0 && port <= 65535 ? port : null;
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
         public List<TypeRow> getTypeRows() {
             return typeRows;
         }
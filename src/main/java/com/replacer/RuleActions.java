@@ -0,0 +1,140 @@
+package com.replacer;
+
+import burp.api.montoya.MontoyaApi;
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.core.Registration;
+import burp.api.montoya.http.message.HttpRequestResponse;
+import burp.api.montoya.http.sessions.ActionResult;
+import burp.api.montoya.http.sessions.SessionHandlingAction;
+import burp.api.montoya.http.sessions.SessionHandlingActionData;
+import burp.api.montoya.intruder.PayloadData;
+import burp.api.montoya.intruder.PayloadProcessingResult;
+import burp.api.montoya.intruder.PayloadProcessor;
+
+import javax.swing.*;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+// Offers rules as session handling actions and, with raw request rows, as
+// Intruder payload processors; each looks its rule up by name when it runs.
+public class RuleActions {
+
+    private static final String PREFIX = "Replacer: ";
+    // Names are registered once typing pauses, not for every keystroke
+    private static final int UPDATE_DELAY_MS = 1000;
+
+    private final MontoyaApi api;
+    private final Supplier<RuleSet> ruleSet;
+    private final Timer updateTimer;
+    private final Map<String, Registration> actions = new HashMap<>();
+    private final Map<String, Registration> processors = new HashMap<>();
+
+    public RuleActions(MontoyaApi api, Supplier<RuleSet> ruleSet) {
+        this.api = api;
+        this.ruleSet = ruleSet;
+        updateTimer = new Timer(UPDATE_DELAY_MS, e -> update());
+        updateTimer.setRepeats(false);
+    }
+
+    // Must be called on the EDT after the rules change
+    public void rulesChanged() {
+        updateTimer.restart();
+    }
+
+    // Registers rules that are new and deregisters rules that are gone
+    public void update() {
+        updateTimer.stop();
+        Set<String> names = new HashSet<>();
+        Set<String> rawNames = new HashSet<>();
+        for (RuleSet.Rule rule : ruleSet.get().rules()) {
+            names.add(rule.name());
+            if (rule.hasRawRows()) {
+                rawNames.add(rule.name());
+            }
+        }
+        sync(actions, names, name -> api.http().registerSessionHandlingAction(new RuleAction(name)));
+        sync(processors, rawNames, name -> api.intruder().registerPayloadProcessor(new RuleProcessor(name)));
+    }
+
+    private static void sync(Map<String, Registration> registered, Set<String> names,
+                             Function<String, Registration> register) {
+        for (Iterator<Map.Entry<String, Registration>> it = registered.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Registration> entry = it.next();
+            if (!names.contains(entry.getKey())) {
+                entry.getValue().deregister();
+                it.remove();
+            }
+        }
+        for (String name : names) {
+            if (!registered.containsKey(name)) {
+                registered.put(name, register.apply(name));
+            }
+        }
+    }
+
+    // Applies the rule to the request. When the session handling rule ran a
+    // macro first, the rule's harvesting rows take their values from the macro's
+    // responses, so a token the macro fetched is the one written.
+    private class RuleAction implements SessionHandlingAction {
+        private final String ruleName;
+
+        RuleAction(String ruleName) {
+            this.ruleName = ruleName;
+        }
+
+        @Override
+        public String name() {
+            return PREFIX + ruleName;
+        }
+
+        @Override
+        public ActionResult performAction(SessionHandlingActionData actionData) {
+            RuleSet.Rule rule = ruleSet.get().ruleNamed(ruleName);
+            if (rule == null) {
+                return ActionResult.actionResult(actionData.request(), actionData.annotations());
+            }
+            RuleSet.Row[] harvestRows = rule.harvestEdits();
+            if (harvestRows.length > 0) {
+                for (HttpRequestResponse macro : actionData.macroRequestResponses()) {
+                    if (macro.response() != null) {
+                        ResponseHarvester.harvest(macro.response().toByteArray().getBytes(), harvestRows);
+                    }
+                }
+            }
+            return ActionResult.actionResult(RuleApplier.apply(actionData.request(), rule), actionData.annotations());
+        }
+    }
+
+    // Runs the rule's raw request rows over each payload. Header, cookie and
+    // parameter rows need a whole request, which live rules already cover.
+    private class RuleProcessor implements PayloadProcessor {
+        private final String ruleName;
+
+        RuleProcessor(String ruleName) {
+            this.ruleName = ruleName;
+        }
+
+        @Override
+        public String displayName() {
+            return PREFIX + ruleName;
+        }
+
+        @Override
+        public PayloadProcessingResult processPayload(PayloadData payloadData) {
+            ByteArray payload = payloadData.currentPayload();
+            RuleSet.Rule rule = ruleSet.get().ruleNamed(ruleName);
+            if (rule == null || !rule.hasRawRows()) {
+                return PayloadProcessingResult.usePayload(payload);
+            }
+            byte[] original = payload.getBytes();
+            // A payload has no head, so {{body()}} is the whole payload
+            byte[] processed = rule.resolve().rewrite(original, false, RawRewriter::rewrite);
+            return PayloadProcessingResult.usePayload(processed == original ? payload : ByteArray.byteArray(processed));
+        }
+    }
+}
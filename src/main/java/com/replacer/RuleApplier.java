@@ -0,0 +1,73 @@
+package com.replacer;
+
+import burp.api.montoya.core.ByteArray;
+import burp.api.montoya.http.HttpService;
+import burp.api.montoya.http.message.requests.HttpRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Applies compiled rules to Montoya requests. Stateless, so it is safe to call
+// from the EDT, the context menu or Burp's HTTP worker threads.
+public final class RuleApplier {
+
+    private RuleApplier() {
+    }
+
+    // Returns the request itself when no row changed it; the rewriter hands
+    // back the same array then, so only a real change builds a new request
+    public static HttpRequest apply(HttpRequest request, RuleSet.Rule rule) {
+        byte[] original = request.toByteArray().getBytes();
+        byte[] rewritten = RequestRewriter.rewrite(original, rule);
+        if (rewritten == original) {
+            return request;
+        }
+        HttpService service = request.httpService();
+        return service != null
+                ? HttpRequest.httpRequest(service, ByteArray.byteArray(rewritten))
+                : HttpRequest.httpRequest(ByteArray.byteArray(rewritten));
+    }
+
+    // Current value of each of the rule's rows in the request, null where missing.
+    // The request is parsed once and every row is a lookup in that parse; JSON
+    // body fields are all found in one scan of the body.
+    static String[] extractValues(HttpRequest request, RuleSet.Rule rule) {
+        List<RuleSet.Row> rows = rule.rows();
+        String[] values = new String[rows.size()];
+        ParsedRequest parsed = ParsedRequest.parse(request.toByteArray().getBytes());
+        List<Integer> jsonRows = new ArrayList<>();
+        for (int i = 0; i < rows.size(); i++) {
+            if (rows.get(i).type() == RuleType.JSON_FIELD) {
+                jsonRows.add(i);
+            }
+        }
+        if (!jsonRows.isEmpty()) {
+            String[][] pointers = new String[jsonRows.size()][];
+            for (int j = 0; j < pointers.length; j++) {
+                pointers[j] = JsonFieldRewriter.parsePointer(rows.get(jsonRows.get(j)).match());
+            }
+            String[] found = parsed.jsonValues(pointers);
+            for (int j = 0; j < found.length; j++) {
+                values[jsonRows.get(j)] = found[j];
+            }
+        }
+        for (int i = 0; i < rows.size(); i++) {
+            RuleSet.Row row = rows.get(i);
+            if (row.type() == RuleType.JSON_FIELD) {
+                continue;
+            }
+            if (row.type().isLiteral() || !row.type().isRequest()) {
+                // A literal has nothing to copy, and WebSocket and response rows
+                // aren't in the request; their replacements are kept as typed
+                continue;
+            }
+            if (row.type() == RuleType.REGEX) {
+                // The whole match, as it is; it is quoted where it becomes a replacement
+                values[i] = RawRewriter.extract(parsed.bytes(), row);
+            } else {
+                values[i] = parsed.value(row.type(), row.match());
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,119 @@
+package com.replacer;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Watches a rules file and reads it again on a background thread whenever it
+// changes. The result is handed to the EDT; a file that doesn't parse, e.g.
+// because it is still being written, is reported and the rules are left alone.
+public class RuleFileWatcher {
+
+    // Editors often write a file in several steps; reload once they have been quiet this long
+    private static final long QUIET_MS = 300;
+
+    private final Path file;
+    private final Consumer<JsonUtil.ReadResult> onLoaded;
+    private final Consumer<String> onError;
+    private final WatchService service;
+    private volatile boolean closed;
+
+    public RuleFileWatcher(Path file, Consumer<JsonUtil.ReadResult> onLoaded, Consumer<String> onError)
+            throws IOException {
+        this.file = file.toAbsolutePath().normalize();
+        this.onLoaded = onLoaded;
+        this.onError = onError;
+        // The directory is watched, as editors that save by renaming replace the file itself
+        service = FileSystems.getDefault().newWatchService();
+        this.file.getParent().register(service, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    public Path file() {
+        return file;
+    }
+
+    // Loads the file once and then on every change
+    public void start() {
+        Thread thread = new Thread(this::run, "Replacer rules file watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void close() {
+        closed = true;
+        try {
+            service.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+
+    private void run() {
+        load();
+        try {
+            while (!closed) {
+                WatchKey key = service.take();
+                boolean changed = touchesFile(key);
+                // Wait for the writes to settle, whichever files they touch
+                WatchKey more;
+                while ((more = service.poll(QUIET_MS, TimeUnit.MILLISECONDS)) != null) {
+                    changed |= touchesFile(more);
+                }
+                if (changed && !closed) {
+                    load();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    private boolean touchesFile(WatchKey key) {
+        boolean touches = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            Object context = event.context();
+            touches |= event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || (context instanceof Path && file.getFileName().equals(context));
+        }
+        key.reset();
+        return touches;
+    }
+
+    private void load() {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            JsonUtil.ReadResult result = JsonUtil.readRules(reader, JsonUtil.Progress.NONE);
+            SwingUtilities.invokeLater(() -> {
+                if (!closed) {
+                    onLoaded.accept(result);
+                }
+            });
+        } catch (NoSuchFileException e) {
+            report(file.getFileName() + " not found");
+        } catch (IOException | RuntimeException e) {
+            // Gson puts the location on the first line and a help link after it
+            String message = e.getMessage() != null ? e.getMessage().lines().findFirst().orElse("") : e.toString();
+            report(file.getFileName() + ": " + message);
+        }
+    }
+
+    private void report(String message) {
+        SwingUtilities.invokeLater(() -> {
+            if (!closed) {
+                onError.accept(message);
+            }
+        });
+    }
+}
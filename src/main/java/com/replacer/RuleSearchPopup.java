@@ -0,0 +1,123 @@
+package com.replacer;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import java.awt.*;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Type-ahead rule picker opened from "Search rules..." in the context menu.
+// Up/Down move through the matches, Enter or a double-click picks one and
+// Escape closes the popup.
+class RuleSearchPopup {
+
+    private static final int MAX_RESULTS = 200;
+
+    private RuleSearchPopup() {
+    }
+
+    static void show(Window owner, String title, RuleSet ruleSet, Consumer<RuleSet.Rule> onPick) {
+        RuleIndex index = ruleSet.index();
+        JDialog dialog = new JDialog(owner, title, Dialog.ModalityType.MODELESS);
+
+        JTextField queryField = new JTextField(40);
+        DefaultListModel<RuleSet.Rule> matches = new DefaultListModel<>();
+        JList<RuleSet.Rule> list = new JList<>(matches);
+        list.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        list.setVisibleRowCount(15);
+        list.setCellRenderer(new DefaultListCellRenderer() {
+            @Override
+            public Component getListCellRendererComponent(JList<?> l, Object value, int i, boolean selected, boolean focus) {
+                return super.getListCellRendererComponent(l, ((RuleSet.Rule) value).name(), i, selected, focus);
+            }
+        });
+
+        Runnable refresh = () -> {
+            List<RuleSet.Rule> found = index.search(queryField.getText(), MAX_RESULTS);
+            matches.clear();
+            matches.addAll(found);
+            if (!found.isEmpty()) {
+                list.setSelectedIndex(0);
+            }
+        };
+        Runnable pick = () -> {
+            RuleSet.Rule rule = list.getSelectedValue();
+            if (rule != null) {
+                dialog.dispose();
+                onPick.accept(rule);
+            }
+        };
+
+        queryField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                refresh.run();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                refresh.run();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                refresh.run();
+            }
+        });
+        queryField.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                int selected = list.getSelectedIndex();
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_DOWN:
+                        if (selected < matches.size() - 1) {
+                            list.setSelectedIndex(selected + 1);
+                            list.ensureIndexIsVisible(selected + 1);
+                        }
+                        e.consume();
+                        break;
+                    case KeyEvent.VK_UP:
+                        if (selected > 0) {
+                            list.setSelectedIndex(selected - 1);
+                            list.ensureIndexIsVisible(selected - 1);
+                        }
+                        e.consume();
+                        break;
+                    case KeyEvent.VK_ENTER:
+                        pick.run();
+                        break;
+                    case KeyEvent.VK_ESCAPE:
+                        dialog.dispose();
+                        break;
+                    default:
+                        break;
+                }
+            }
+        });
+        list.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    pick.run();
+                }
+            }
+        });
+
+        JPanel content = new JPanel(new BorderLayout(0, 5));
+        content.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
+        content.add(queryField, BorderLayout.NORTH);
+        content.add(new JScrollPane(list), BorderLayout.CENTER);
+        dialog.setContentPane(content);
+        dialog.pack();
+        dialog.setLocationRelativeTo(owner);
+
+        refresh.run();
+        dialog.setVisible(true);
+        queryField.requestFocusInWindow();
+    }
+}
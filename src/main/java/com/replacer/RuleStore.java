@@ -0,0 +1,166 @@
+package com.replacer;
+
+import burp.api.montoya.persistence.PersistedList;
+import burp.api.montoya.persistence.PersistedObject;
+
+import javax.swing.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Keeps rules and variables in Burp's extension data, which is saved with the
+// project. Each rule and each variable lives under its own key so an edit
+// rewrites only that one; the order is kept in a separate list. Rule writes are
+// debounced so typing into a field causes one save once the user pauses rather
+// than one per keystroke.
+public class RuleStore {
+
+    private static final String ORDER_KEY = "rules.order";
+    private static final String RULE_PREFIX = "rule.";
+    private static final String HOTKEY_PREFIX = "hotkey.";
+    private static final String WATCHED_FILE_KEY = "rules.watchedFile";
+    private static final String VARIABLE_PREFIX = "variable.";
+    private static final int SAVE_DELAY_MS = 750;
+
+    private final PersistedObject data;
+    private final Timer saveTimer;
+    private final Set<String> stored = new HashSet<>();
+    private final Set<String> dirty = new HashSet<>();
+    private List<String> storedOrder = new ArrayList<>();
+    private List<JsonUtil.RuleData> pending;
+    private Map<String, String> storedVariables = new HashMap<>();
+
+    public RuleStore(PersistedObject data) {
+        this.data = data;
+        saveTimer = new Timer(SAVE_DELAY_MS, e -> flush());
+        saveTimer.setRepeats(false);
+    }
+
+    // Rules that fail to parse are skipped so one bad entry can't lose the rest
+    public synchronized List<JsonUtil.RuleData> load() {
+        List<JsonUtil.RuleData> rules = new ArrayList<>();
+        PersistedList<String> order = data.getStringList(ORDER_KEY);
+        if (order == null) {
+            return rules;
+        }
+        for (String id : order) {
+            String json = data.getString(RULE_PREFIX + id);
+            if (json == null) {
+                continue;
+            }
+            JsonUtil.RuleData rule;
+            try {
+                rule = JsonUtil.parseRule(json);
+            } catch (RuntimeException ex) {
+                continue;
+            }
+            if (rule == null || rule.typeRows == null) {
+                continue;
+            }
+            rule.id = id;
+            rules.add(rule);
+            stored.add(id);
+            storedOrder.add(id);
+        }
+        return rules;
+    }
+
+    public synchronized Map<String, String> loadVariables() {
+        Map<String, String> variables = new HashMap<>();
+        for (String key : data.stringKeys()) {
+            if (key.startsWith(VARIABLE_PREFIX)) {
+                variables.put(key.substring(VARIABLE_PREFIX.length()), data.getString(key));
+            }
+        }
+        storedVariables = new HashMap<>(variables);
+        return variables;
+    }
+
+    // Writes only the variables that changed, so a harvested token rewrites one key
+    public synchronized void saveVariables(Map<String, String> variables) {
+        for (Map.Entry<String, String> variable : variables.entrySet()) {
+            if (!variable.getValue().equals(storedVariables.get(variable.getKey()))) {
+                data.setString(VARIABLE_PREFIX + variable.getKey(), variable.getValue());
+            }
+        }
+        for (String name : storedVariables.keySet()) {
+            if (!variables.containsKey(name)) {
+                data.deleteString(VARIABLE_PREFIX + name);
+            }
+        }
+        storedVariables = new HashMap<>(variables);
+    }
+
+    // Id of the rule pinned to a hotkey slot, or null
+    public synchronized String pinnedRule(int slot) {
+        return data.getString(HOTKEY_PREFIX + slot);
+    }
+
+    public synchronized void pinRule(int slot, String id) {
+        if (id == null) {
+            data.deleteString(HOTKEY_PREFIX + slot);
+        } else {
+            data.setString(HOTKEY_PREFIX + slot, id);
+        }
+    }
+
+    // Path of the rules file the tab is bound to, or null
+    public synchronized String watchedFile() {
+        return data.getString(WATCHED_FILE_KEY);
+    }
+
+    public synchronized void setWatchedFile(String path) {
+        if (path == null) {
+            data.deleteString(WATCHED_FILE_KEY);
+        } else {
+            data.setString(WATCHED_FILE_KEY, path);
+        }
+    }
+
+    public synchronized void markDirty(String id) {
+        dirty.add(id);
+    }
+
+    // Takes the latest rules and saves them after SAVE_DELAY_MS without further
+    // changes. The list must not be modified afterwards.
+    public synchronized void scheduleSave(List<JsonUtil.RuleData> rules) {
+        pending = rules;
+        saveTimer.restart();
+    }
+
+    // Writes dirty rules, deletes removed ones and updates the order if it
+    // changed. Safe to call from any thread, e.g. when the extension unloads.
+    public synchronized void flush() {
+        saveTimer.stop();
+        if (pending == null) {
+            return;
+        }
+        List<String> order = new ArrayList<>(pending.size());
+        for (JsonUtil.RuleData rule : pending) {
+            order.add(rule.id);
+            if (dirty.contains(rule.id) || !stored.contains(rule.id)) {
+                data.setString(RULE_PREFIX + rule.id, JsonUtil.exportRule(rule));
+                stored.add(rule.id);
+            }
+        }
+        Set<String> current = new HashSet<>(order);
+        stored.removeIf(id -> {
+            if (current.contains(id)) {
+                return false;
+            }
+            data.deleteString(RULE_PREFIX + id);
+            return true;
+        });
+        if (!order.equals(storedOrder)) {
+            PersistedList<String> list = PersistedList.persistedStringList();
+            list.addAll(order);
+            data.setStringList(ORDER_KEY, list);
+            storedOrder = order;
+        }
+        dirty.clear();
+        pending = null;
+    }
+}
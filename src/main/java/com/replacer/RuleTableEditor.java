@@ -0,0 +1,541 @@
+package com.replacer;
+
+import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.DefaultTableCellRenderer;
+import javax.swing.table.TableRowSorter;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+// Edits rules as one table row per type row. JTable only renders the rows in
+// view, so thousands of rules cost a few objects each instead of a panel full
+// of components. The rule name, Live flag and scope are shown on every row of a
+// rule; editing them on any row changes the whole rule.
+public class RuleTableEditor {
+
+    private static final String[] COLUMNS = {"Rule", "Live", "Scope", "Type", "Match", "Replace", "Harvest"};
+    private static final int RULE_COLUMN = 0;
+    private static final int LIVE_COLUMN = 1;
+    private static final int SCOPE_COLUMN = 2;
+    private static final int TYPE_COLUMN = 3;
+    private static final int MATCH_COLUMN = 4;
+    private static final int REPLACE_COLUMN = 5;
+    private static final int HARVEST_COLUMN = 6;
+
+    private final JPanel panel;
+    private final JTable table;
+    private final JTextField filterField;
+    private final RulesModel model = new RulesModel();
+    private final TableRowSorter<RulesModel> sorter = new TableRowSorter<>(model);
+    // Called with the id of a rule after it is edited, added or removed
+    private final Consumer<String> onChanged;
+
+    public RuleTableEditor(Consumer<String> onChanged) {
+        this.onChanged = onChanged;
+        panel = new JPanel(new BorderLayout());
+
+        JPanel toolBar = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        toolBar.add(new JLabel("Filter:"));
+        filterField = new JTextField(20);
+        filterField.setToolTipText("Show rows whose rule name, type or match contains this text");
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                applyFilter();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                applyFilter();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+                applyFilter();
+            }
+        });
+        toolBar.add(filterField);
+
+        JButton addRowButton = new JButton("+ add new type");
+        addRowButton.addActionListener(e -> addRow());
+        toolBar.add(addRowButton);
+
+        JButton copyButton = new JButton("+ make a copy");
+        copyButton.addActionListener(e -> copyRule());
+        toolBar.add(copyButton);
+
+        JButton removeRowButton = new JButton("Remove Type");
+        removeRowButton.addActionListener(e -> removeRow());
+        toolBar.add(removeRowButton);
+
+        JButton removeRuleButton = new JButton("Remove Rule");
+        removeRuleButton.addActionListener(e -> removeRule());
+        toolBar.add(removeRuleButton);
+
+        table = new JTable(model);
+        table.setRowSorter(sorter);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.putClientProperty("terminateEditOnFocusLost", Boolean.TRUE);
+        table.getColumnModel().getColumn(TYPE_COLUMN)
+                .setCellEditor(new DefaultCellEditor(new JComboBox<>(RuleType.labels())));
+        table.getColumnModel().getColumn(LIVE_COLUMN).setMaxWidth(50);
+        table.getColumnModel().getColumn(HARVEST_COLUMN).setMaxWidth(60);
+        table.getColumnModel().getColumn(MATCH_COLUMN).setCellRenderer(new MatchRenderer());
+        table.getColumnModel().getColumn(REPLACE_COLUMN).setCellRenderer(new ReplaceRenderer());
+        DefaultTableCellRenderer scopeRenderer = new DefaultTableCellRenderer();
+        scopeRenderer.setToolTipText("[METHOD] [host][:port][/path prefix], e.g. POST *.example.com:443/api/");
+        table.getColumnModel().getColumn(SCOPE_COLUMN).setCellRenderer(scopeRenderer);
+
+        panel.add(toolBar, BorderLayout.NORTH);
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+    }
+
+    JPanel getPanel() {
+        return panel;
+    }
+
+    // Takes a copy; rules and rows without an id get a new one
+    public void setRules(List<JsonUtil.RuleData> rules) {
+        stopEditing();
+        List<JsonUtil.RuleData> copy = new ArrayList<>(rules.size());
+        for (JsonUtil.RuleData rule : rules) {
+            JsonUtil.RuleData ruleCopy = copyOf(rule);
+            if (ruleCopy.id == null) {
+                ruleCopy.id = UUID.randomUUID().toString();
+            }
+            copy.add(ruleCopy);
+        }
+        model.setRules(copy);
+    }
+
+    // Returns a copy, so callers may keep it after further edits
+    public List<JsonUtil.RuleData> getRules() {
+        List<JsonUtil.RuleData> copy = new ArrayList<>(model.rules.size());
+        for (JsonUtil.RuleData rule : model.rules) {
+            copy.add(copyOf(rule));
+        }
+        return copy;
+    }
+
+    public int getRowCount() {
+        return model.getRowCount();
+    }
+
+    public void addRule() {
+        stopEditing();
+        List<JsonUtil.TypeData> rows = new ArrayList<>();
+        rows.add(newRow());
+        JsonUtil.RuleData rule = new JsonUtil.RuleData("", rows);
+        rule.id = UUID.randomUUID().toString();
+        model.rules.add(rule);
+        model.rebuild();
+        select(model.rules.size() - 1, 0, RULE_COLUMN);
+        onChanged.accept(rule.id);
+    }
+
+    public void setReplace(String ruleId, int rowIndex, String value) {
+        for (int r = 0; r < model.rules.size(); r++) {
+            JsonUtil.RuleData rule = model.rules.get(r);
+            if (rule.id.equals(ruleId)) {
+                if (rowIndex < rule.typeRows.size()) {
+                    rule.typeRows.get(rowIndex).replace = value;
+                    int row = model.firstRow[r] + rowIndex;
+                    model.fireTableRowsUpdated(row, row);
+                    onChanged.accept(ruleId);
+                }
+                return;
+            }
+        }
+    }
+
+    // Updates rules by name from a reloaded rules file, adds the new ones at
+    // the end and drops the removed ones, then rebuilds the table once
+    public void applyFileChanges(List<JsonUtil.RuleData> changed, Set<String> removed) {
+        stopEditing();
+        List<String> affected = new ArrayList<>();
+        for (JsonUtil.RuleData fileRule : changed) {
+            JsonUtil.RuleData copy = copyOf(fileRule);
+            int existing = indexOfName(fileRule.name);
+            if (existing >= 0) {
+                copy.id = model.rules.get(existing).id;
+                model.rules.set(existing, copy);
+            } else {
+                copy.id = UUID.randomUUID().toString();
+                model.rules.add(copy);
+            }
+            affected.add(copy.id);
+        }
+        model.rules.removeIf(rule -> {
+            if (removed.contains(rule.name)) {
+                affected.add(rule.id);
+                return true;
+            }
+            return false;
+        });
+        model.rebuild();
+        for (String id : affected) {
+            onChanged.accept(id);
+        }
+    }
+
+    private int indexOfName(String name) {
+        for (int r = 0; r < model.rules.size(); r++) {
+            if (name.equals(model.rules.get(r).name)) {
+                return r;
+            }
+        }
+        return -1;
+    }
+
+    private void addRow() {
+        int selected = selectedModelRow();
+        if (selected < 0) {
+            return;
+        }
+        stopEditing();
+        int r = model.ruleOf[selected];
+        JsonUtil.RuleData rule = model.rules.get(r);
+        rule.typeRows.add(newRow());
+        model.rebuild();
+        select(r, rule.typeRows.size() - 1, MATCH_COLUMN);
+        onChanged.accept(rule.id);
+    }
+
+    // Same as "+ make a copy" on a rule panel: appended at the end, not live
+    private void copyRule() {
+        int selected = selectedModelRow();
+        if (selected < 0) {
+            return;
+        }
+        stopEditing();
+        JsonUtil.RuleData copy = copyOf(model.rules.get(model.ruleOf[selected]));
+        copy.id = UUID.randomUUID().toString();
+        for (JsonUtil.TypeData row : copy.typeRows) {
+            row.id = UUID.randomUUID().toString();
+        }
+        copy.name = copy.name + "-copy";
+        copy.live = false;
+        model.rules.add(copy);
+        model.rebuild();
+        select(model.rules.size() - 1, 0, RULE_COLUMN);
+        onChanged.accept(copy.id);
+    }
+
+    // Like the panel editor, a rule always keeps at least one type row
+    private void removeRow() {
+        int selected = selectedModelRow();
+        if (selected < 0) {
+            return;
+        }
+        stopEditing();
+        JsonUtil.RuleData rule = model.rules.get(model.ruleOf[selected]);
+        if (rule.typeRows.size() > 1) {
+            rule.typeRows.remove(model.rowOf[selected]);
+            model.rebuild();
+            onChanged.accept(rule.id);
+        }
+    }
+
+    private void removeRule() {
+        int selected = selectedModelRow();
+        if (selected < 0) {
+            return;
+        }
+        stopEditing();
+        JsonUtil.RuleData rule = model.rules.remove(model.ruleOf[selected]);
+        model.rebuild();
+        onChanged.accept(rule.id);
+    }
+
+    private int selectedModelRow() {
+        int view = table.getSelectedRow();
+        return view >= 0 ? table.convertRowIndexToModel(view) : -1;
+    }
+
+    private void select(int ruleIndex, int rowIndex, int column) {
+        int view = table.convertRowIndexToView(model.firstRow[ruleIndex] + rowIndex);
+        if (view >= 0) {
+            table.setRowSelectionInterval(view, view);
+            table.scrollRectToVisible(table.getCellRect(view, column, true));
+        }
+    }
+
+    private void stopEditing() {
+        if (table.isEditing()) {
+            table.getCellEditor().stopCellEditing();
+        }
+    }
+
+    private void applyFilter() {
+        String text = filterField.getText().toLowerCase(Locale.ROOT);
+        if (text.isEmpty()) {
+            sorter.setRowFilter(null);
+            return;
+        }
+        sorter.setRowFilter(new RowFilter<RulesModel, Integer>() {
+            @Override
+            public boolean include(Entry<? extends RulesModel, ? extends Integer> entry) {
+                return contains(entry.getStringValue(RULE_COLUMN), text)
+                        || contains(entry.getStringValue(TYPE_COLUMN), text)
+                        || contains(entry.getStringValue(MATCH_COLUMN), text);
+            }
+        });
+    }
+
+    private static boolean contains(String value, String lowerCaseText) {
+        return value.toLowerCase(Locale.ROOT).contains(lowerCaseText);
+    }
+
+    private static JsonUtil.TypeData newRow() {
+        JsonUtil.TypeData row = new JsonUtil.TypeData(RuleType.labels()[0], "", "");
+        row.id = UUID.randomUUID().toString();
+        return row;
+    }
+
+    // Rows read from a file have no id yet and get a new one
+    private static JsonUtil.RuleData copyOf(JsonUtil.RuleData rule) {
+        List<JsonUtil.TypeData> rows = new ArrayList<>(rule.typeRows.size());
+        for (JsonUtil.TypeData row : rule.typeRows) {
+            JsonUtil.TypeData rowCopy = new JsonUtil.TypeData(row.type, row.match, row.replace);
+            rowCopy.id = row.id != null ? row.id : UUID.randomUUID().toString();
+            rowCopy.harvest = row.harvest;
+            rows.add(rowCopy);
+        }
+        JsonUtil.RuleData copy = new JsonUtil.RuleData(rule.name, rows);
+        copy.id = rule.id;
+        copy.live = rule.live;
+        if (rule.scope != null) {
+            copy.scope = new JsonUtil.ScopeData();
+            copy.scope.host = rule.scope.host;
+            copy.scope.port = rule.scope.port;
+            copy.scope.path = rule.scope.path;
+            copy.scope.method = rule.scope.method;
+        }
+        return copy;
+    }
+
+    // Scope in one cell: [METHOD] [host][:port][/path prefix]
+    static String scopeText(JsonUtil.ScopeData scope) {
+        if (scope == null || scope.isEmpty()) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder();
+        if (scope.method != null && !scope.method.isBlank()) {
+            text.append(scope.method.trim()).append(' ');
+        }
+        if (scope.host != null) {
+            text.append(scope.host.trim());
+        }
+        if (scope.port != null) {
+            text.append(':').append(scope.port);
+        }
+        if (scope.path != null) {
+            text.append(scope.path.trim());
+        }
+        return text.toString().trim();
+    }
+
+    // A port that isn't a valid number is dropped
+    static JsonUtil.ScopeData parseScope(String text) {
+        String rest = text != null ? text.trim() : "";
+        JsonUtil.ScopeData scope = new JsonUtil.ScopeData();
+        int space = rest.indexOf(' ');
+        if (space > 0) {
+            scope.method = rest.substring(0, space);
+            rest = rest.substring(space + 1).trim();
+        }
+        int slash = rest.indexOf('/');
+        String authority = slash >= 0 ? rest.substring(0, slash) : rest;
+        if (slash >= 0) {
+            scope.path = rest.substring(slash);
+        }
+        int colon = authority.lastIndexOf(':');
+        if (colon >= 0) {
+            try {
+                int port = Integer.parseInt(authority.substring(colon + 1));
+                scope.port = port > 0 && port <= 65535 ? port : null;
+            } catch (NumberFormatException e) {
+                scope.port = null;
+            }
+            authority = authority.substring(0, colon);
+        }
+        if (!authority.isEmpty()) {
+            scope.host = authority;
+        }
+        return scope.isEmpty() ? null : scope;
+    }
+
+    // Shows regex rows whose pattern doesn't compile and header rows whose name
+    // isn't valid in red, with the reason as a tooltip
+    private class MatchRenderer extends DefaultTableCellRenderer {
+        @Override
+        public Component getTableCellRendererComponent(JTable t, Object value, boolean selected, boolean focus,
+                                                       int row, int column) {
+            super.getTableCellRendererComponent(t, value, selected, focus, row, column);
+            int modelRow = t.convertRowIndexToModel(row);
+            String match = (String) value;
+            RuleType type = RuleType.fromLabel((String) model.getValueAt(modelRow, TYPE_COLUMN));
+            String error = type != null && match != null && !match.isEmpty() ? RuleSet.matchError(type, match) : null;
+            if (error != null) {
+                setForeground(Color.RED);
+            } else if (!selected) {
+                setForeground(t.getForeground());
+            }
+            setToolTipText(error != null ? error + ", row skipped" : null);
+            return this;
+        }
+    }
+
+    // Shows regex replacements that refer to missing groups, and Replace values
+    // with a {{...}} that isn't an expression, in red with the reason as a tooltip
+    private class ReplaceRenderer extends DefaultTableCellRenderer {
+        @Override
+        public Component getTableCellRendererComponent(JTable t, Object value, boolean selected, boolean focus,
+                                                       int row, int column) {
+            super.getTableCellRendererComponent(t, value, selected, focus, row, column);
+            int modelRow = t.convertRowIndexToModel(row);
+            String replace = (String) value;
+            String match = (String) model.getValueAt(modelRow, MATCH_COLUMN);
+            RuleType type = RuleType.fromLabel((String) model.getValueAt(modelRow, TYPE_COLUMN));
+            String invalid = type != null && type.isRegex() && match != null && !match.isEmpty() && replace != null
+                    ? RuleSet.replacementError(match, replace) : null;
+            String template = invalid == null ? RuleSet.templateError(replace) : null;
+            if (invalid != null || template != null) {
+                setForeground(Color.RED);
+            } else if (!selected) {
+                setForeground(t.getForeground());
+            }
+            setToolTipText(invalid != null ? "Invalid replacement, row skipped: " + invalid
+                    : template != null ? "Sent as typed: " + template : null);
+            return this;
+        }
+    }
+
+    // Flattens rules into table rows. ruleOf and rowOf map a table row back to
+    // its rule and type row; firstRow maps a rule to its first table row.
+    private class RulesModel extends AbstractTableModel {
+        private List<JsonUtil.RuleData> rules = new ArrayList<>();
+        private int[] ruleOf = new int[0];
+        private int[] rowOf = new int[0];
+        private int[] firstRow = new int[0];
+
+        void setRules(List<JsonUtil.RuleData> rules) {
+            this.rules = rules;
+            rebuild();
+        }
+
+        void rebuild() {
+            int count = 0;
+            for (JsonUtil.RuleData rule : rules) {
+                count += rule.typeRows.size();
+            }
+            ruleOf = new int[count];
+            rowOf = new int[count];
+            firstRow = new int[rules.size()];
+            int row = 0;
+            for (int r = 0; r < rules.size(); r++) {
+                firstRow[r] = row;
+                for (int i = 0; i < rules.get(r).typeRows.size(); i++) {
+                    ruleOf[row] = r;
+                    rowOf[row] = i;
+                    row++;
+                }
+            }
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return ruleOf.length;
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            return column == LIVE_COLUMN || column == HARVEST_COLUMN ? Boolean.class : String.class;
+        }
+
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return true;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            JsonUtil.RuleData rule = rules.get(ruleOf[row]);
+            JsonUtil.TypeData typeRow = rule.typeRows.get(rowOf[row]);
+            switch (column) {
+                case RULE_COLUMN:
+                    return rule.name;
+                case LIVE_COLUMN:
+                    return rule.live;
+                case SCOPE_COLUMN:
+                    return scopeText(rule.scope);
+                case TYPE_COLUMN:
+                    return typeRow.type;
+                case MATCH_COLUMN:
+                    return typeRow.match;
+                case REPLACE_COLUMN:
+                    return typeRow.replace;
+                case HARVEST_COLUMN:
+                    return typeRow.harvest;
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public void setValueAt(Object value, int row, int column) {
+            int r = ruleOf[row];
+            JsonUtil.RuleData rule = rules.get(r);
+            JsonUtil.TypeData typeRow = rule.typeRows.get(rowOf[row]);
+            switch (column) {
+                case RULE_COLUMN:
+                    rule.name = (String) value;
+                    break;
+                case LIVE_COLUMN:
+                    rule.live = (Boolean) value;
+                    break;
+                case SCOPE_COLUMN:
+                    rule.scope = parseScope((String) value);
+                    break;
+                case TYPE_COLUMN:
+                    typeRow.type = (String) value;
+                    break;
+                case MATCH_COLUMN:
+                    typeRow.match = (String) value;
+                    break;
+                case REPLACE_COLUMN:
+                    typeRow.replace = (String) value;
+                    break;
+                case HARVEST_COLUMN:
+                    typeRow.harvest = (Boolean) value;
+                    break;
+                default:
+                    return;
+            }
+            if (column == RULE_COLUMN || column == LIVE_COLUMN || column == SCOPE_COLUMN) {
+                fireTableRowsUpdated(firstRow[r], firstRow[r] + rule.typeRows.size() - 1);
+            } else {
+                fireTableRowsUpdated(row, row);
+            }
+            onChanged.accept(rule.id);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.replacer;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+// Runs rule imports and exports on a background thread so the EDT stays free
+// while a large library is read, validated or written. Only one transfer runs
+// at a time; the progress bar and Cancel button belong to the JSON view.
+class RuleTransfer {
+
+    private static final int MAX_PROBLEMS_SHOWN = 50;
+
+    private final Component parent;
+    private final JProgressBar progressBar;
+    private final JButton cancelButton;
+    private SwingWorker<?, ?> worker;
+    private String label;
+
+    RuleTransfer(Component parent) {
+        this.parent = parent;
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        progressBar.setVisible(false);
+        cancelButton = new JButton("Cancel");
+        cancelButton.setVisible(false);
+        cancelButton.addActionListener(e -> {
+            if (worker != null) {
+                worker.cancel(false);
+            }
+        });
+    }
+
+    JProgressBar getProgressBar() {
+        return progressBar;
+    }
+
+    JButton getCancelButton() {
+        return cancelButton;
+    }
+
+    void importText(String json, Consumer<JsonUtil.ReadResult> onLoaded) {
+        runImport(json.length(), () -> new StringReader(json), onLoaded);
+    }
+
+    void importFile(File file, Consumer<JsonUtil.ReadResult> onLoaded) {
+        runImport(file.length(), () -> Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8), onLoaded);
+    }
+
+    void exportText(List<JsonUtil.RuleData> rules, Map<String, String> variables, Consumer<String> onDone) {
+        StringWriter out = new StringWriter();
+        runExport(rules, variables, () -> out, () -> onDone.accept(out.toString()), () -> {
+        });
+    }
+
+    // Written to a temporary file first so a cancelled or failed export never
+    // leaves a truncated rules file behind
+    void exportFile(List<JsonUtil.RuleData> rules, Map<String, String> variables, File file) {
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        runExport(rules, variables, () -> Files.newBufferedWriter(temp, StandardCharsets.UTF_8),
+                () -> {
+                    try {
+                        move(temp, target);
+                    } catch (IOException e) {
+                        showError("Export Error", "Could not write " + target + ": " + e.getMessage());
+                    }
+                },
+                () -> {
+                    try {
+                        Files.deleteIfExists(temp);
+                    } catch (IOException ignored) {
+                        // Nothing useful to do; the original file is untouched
+                    }
+                });
+    }
+
+    private interface Source<T> {
+        T open() throws IOException;
+    }
+
+    private void runImport(long size, Source<Reader> source, Consumer<JsonUtil.ReadResult> onLoaded) {
+        if (!begin("Importing")) {
+            return;
+        }
+        worker = new SwingWorker<JsonUtil.ReadResult, Void>() {
+            // Rows that are valid JSON but can't be applied, e.g. an invalid regex
+            private List<RuleSet.RowError> rowErrors = List.of();
+
+            @Override
+            protected JsonUtil.ReadResult doInBackground() throws IOException {
+                JsonUtil.ReadResult result;
+                try (CountingReader in = new CountingReader(new BufferedReader(source.open()))) {
+                    result = JsonUtil.readRules(in, rules -> {
+                        setProgress(size > 0 ? (int) Math.min(100, in.count * 100 / size) : 0);
+                        return !isCancelled();
+                    });
+                }
+                rowErrors = RuleSet.compile(result.rules).errors();
+                return result;
+            }
+
+            @Override
+            protected void done() {
+                end();
+                JsonUtil.ReadResult result;
+                try {
+                    result = get();
+                } catch (CancellationException | InterruptedException e) {
+                    return;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (!(cause instanceof InterruptedIOException)) {
+                        // Gson appends a troubleshooting link on a second line
+                        showError("Load Error", "Invalid JSON: " + cause.getMessage().split("\n")[0]);
+                    }
+                    return;
+                }
+                if ((result.problemCount > 0 || !rowErrors.isEmpty()) && !confirmProblems(result, rowErrors)) {
+                    return;
+                }
+                onLoaded.accept(result);
+            }
+        };
+        start();
+    }
+
+    private void runExport(List<JsonUtil.RuleData> rules, Map<String, String> variables, Source<Writer> target,
+                           Runnable onDone, Runnable onFailed) {
+        if (!begin("Exporting")) {
+            return;
+        }
+        worker = new SwingWorker<Void, Void>() {
+            @Override
+            protected Void doInBackground() throws IOException {
+                try (Writer out = new BufferedWriter(target.open())) {
+                    JsonUtil.writeRules(rules, variables, out, written -> {
+                        setProgress(written * 100 / rules.size());
+                        return !isCancelled();
+                    });
+                }
+                return null;
+            }
+
+            @Override
+            protected void done() {
+                end();
+                try {
+                    get();
+                } catch (CancellationException | InterruptedException e) {
+                    onFailed.run();
+                    return;
+                } catch (ExecutionException e) {
+                    onFailed.run();
+                    if (!(e.getCause() instanceof InterruptedIOException)) {
+                        showError("Export Error", "Export failed: " + e.getCause().getMessage());
+                    }
+                    return;
+                }
+                onDone.run();
+            }
+        };
+        start();
+    }
+
+    private boolean begin(String label) {
+        if (worker != null && !worker.isDone()) {
+            JOptionPane.showMessageDialog(parent,
+                    "An import or export is already running. Cancel it before starting another.",
+                    "Rules",
+                    JOptionPane.WARNING_MESSAGE);
+            return false;
+        }
+        this.label = label;
+        progressBar.setValue(0);
+        progressBar.setString(label + "...");
+        progressBar.setVisible(true);
+        cancelButton.setVisible(true);
+        return true;
+    }
+
+    private void start() {
+        worker.addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName())) {
+                progressBar.setValue((Integer) e.getNewValue());
+                progressBar.setString(label + " " + e.getNewValue() + "%");
+            }
+        });
+        worker.execute();
+    }
+
+    private void end() {
+        progressBar.setVisible(false);
+        cancelButton.setVisible(false);
+    }
+
+    private boolean confirmProblems(JsonUtil.ReadResult result, List<RuleSet.RowError> rowErrors) {
+        StringBuilder text = new StringBuilder();
+        int shown = Math.min(result.problems.size(), MAX_PROBLEMS_SHOWN);
+        for (int i = 0; i < shown; i++) {
+            text.append(result.problems.get(i)).append('\n');
+        }
+        int count = result.problemCount + rowErrors.size();
+        for (int i = 0; i < rowErrors.size() && shown < MAX_PROBLEMS_SHOWN; i++, shown++) {
+            text.append(rowErrors.get(i)).append('\n');
+        }
+        if (count > shown) {
+            text.append("... and ").append(count - shown).append(" more\n");
+        }
+        JTextArea problems = new JTextArea(text.toString(), 15, 80);
+        problems.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+        problems.setEditable(false);
+
+        JPanel message = new JPanel(new BorderLayout(0, 8));
+        message.add(new JLabel(count + " problem(s) found. Invalid rules and rows are skipped."),
+                BorderLayout.NORTH);
+        message.add(new JScrollPane(problems), BorderLayout.CENTER);
+        message.add(new JLabel("Load the " + result.rules.size() + " valid rule(s)? This replaces all existing rules."),
+                BorderLayout.SOUTH);
+        return JOptionPane.showConfirmDialog(parent, message, "Load Rules",
+                JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE) == JOptionPane.YES_OPTION;
+    }
+
+    private void showError(String title, String message) {
+        JOptionPane.showMessageDialog(parent, message, title, JOptionPane.ERROR_MESSAGE);
+    }
+
+    private static void move(Path from, Path to) throws IOException {
+        try {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Counts characters handed to the JSON reader for the progress bar. For
+    // files this is measured against the size in bytes, which is close enough.
+    private static final class CountingReader extends FilterReader {
+        private volatile long count;
+
+        CountingReader(Reader in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c >= 0) {
+                count++;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) throws IOException {
+            int n = super.read(buf, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.replacer;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Shows the counters from RuleMetrics. The table is refreshed every second while
+// the panel is visible; reading the counters never blocks rule application.
+public class StatsPanel {
+
+    private static final String[] COLUMNS = {
+            "Rule", "Row", "Type", "Match", "Applications", "Updates", "Inserts", "Hits", "Misses",
+            "Harvested", "Mean (us)", "p50 (us)", "p99 (us)"
+    };
+
+    private final RuleMetrics metrics;
+    private final Supplier<RuleSet> ruleSet;
+    private final JPanel panel;
+    private final StatsModel model = new StatsModel();
+
+    public StatsPanel(RuleMetrics metrics, Supplier<RuleSet> ruleSet, Runnable onBack) {
+        this.metrics = metrics;
+        this.ruleSet = ruleSet;
+        panel = new JPanel(new BorderLayout());
+
+        JPanel topBar = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton backButton = new JButton("Back");
+        backButton.addActionListener(e -> onBack.run());
+        topBar.add(backButton);
+
+        JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(e -> {
+            metrics.reset();
+            refresh();
+        });
+        topBar.add(resetButton);
+
+        JButton exportButton = new JButton("Export JSON");
+        exportButton.addActionListener(e -> {
+            JTextArea textArea = new JTextArea(metrics.toJson(), 25, 80);
+            textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 13));
+            textArea.setEditable(false);
+            JOptionPane.showMessageDialog(panel, new JScrollPane(textArea), "Rule Metrics", JOptionPane.PLAIN_MESSAGE);
+        });
+        topBar.add(exportButton);
+
+        JTable table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+
+        panel.add(topBar, BorderLayout.NORTH);
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+
+        Timer timer = new Timer(1000, e -> {
+            if (panel.isShowing()) {
+                refresh();
+            }
+        });
+        timer.start();
+    }
+
+    JPanel getPanel() {
+        return panel;
+    }
+
+    void refresh() {
+        RuleSet rules = ruleSet.get();
+        List<Object[]> rows = new ArrayList<>();
+        for (RuleMetrics.RuleStats stats : metrics.snapshot()) {
+            RuleSet.Rule rule = stats.id() != null ? rules.rule(stats.id()) : rules.ruleNamed(stats.name());
+            RuleMetrics.LatencyHistogram latency = stats.latency();
+            rows.add(new Object[]{
+                    stats.name(), null, null, null, stats.applications(), null, null, null, null, null,
+                    round(latency.meanMicros()), round(latency.percentileMicros(0.50)), round(latency.percentileMicros(0.99))
+            });
+
+            for (Map.Entry<Integer, RuleMetrics.RowStats> entry : stats.rowSnapshot().entrySet()) {
+                RuleMetrics.RowStats row = entry.getValue();
+                RuleSet.Row current = rule != null ? findRow(rule, entry.getKey()) : null;
+                rows.add(new Object[]{
+                        stats.name(), entry.getKey() + 1,
+                        current != null ? current.type().label() : null,
+                        current != null ? current.match() : null,
+                        null, row.updates(), row.inserts(), row.hits(), row.misses(), row.harvests(),
+                        null, null, null
+                });
+            }
+        }
+        model.setRows(rows);
+    }
+
+    private static RuleSet.Row findRow(RuleSet.Rule rule, int index) {
+        for (RuleSet.Row row : rule.rows()) {
+            if (row.index() == index) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    private static Double round(double value) {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static class StatsModel extends AbstractTableModel {
+        private List<Object[]> rows = new ArrayList<>();
+
+        void setRows(List<Object[]> rows) {
+            this.rows = rows;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public Class<?> getColumnClass(int column) {
+            if (column == 1) {
+                return Integer.class;
+            }
+            if (column >= 4 && column <= 9) {
+                return Long.class;
+            }
+            if (column >= 10) {
+                return Double.class;
+            }
+            return String.class;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            return rows.get(row)[column];
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.replacer;
+
+import javax.swing.*;
+import javax.swing.table.AbstractTableModel;
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// Lists the variables rules reference as {{name}}. An edit here is written
+// straight to the store, so live rules use the new value from the next request
+// without being recompiled. Harvests and the context menu change values too;
+// the table catches up on the EDT.
+public class VariablesPanel {
+
+    private static final String[] COLUMNS = {"Name", "Value"};
+
+    private final Variables variables;
+    private final JPanel panel;
+    private final JTable table;
+    private final VariablesModel model = new VariablesModel();
+
+    public VariablesPanel(Variables variables, Runnable onBack) {
+        this.variables = variables;
+        panel = new JPanel(new BorderLayout());
+
+        JPanel topBar = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        JButton backButton = new JButton("Back");
+        backButton.addActionListener(e -> onBack.run());
+        topBar.add(backButton);
+
+        JButton addButton = new JButton("Add");
+        addButton.addActionListener(e -> addVariable());
+        topBar.add(addButton);
+
+        JButton removeButton = new JButton("Remove");
+        removeButton.setToolTipText("Rules that reference a removed variable send {{name}} as typed");
+        removeButton.addActionListener(e -> removeSelected());
+        topBar.add(removeButton);
+
+        table = new JTable(model);
+        table.setAutoCreateRowSorter(true);
+
+        panel.add(topBar, BorderLayout.NORTH);
+        panel.add(new JScrollPane(table), BorderLayout.CENTER);
+    }
+
+    JPanel getPanel() {
+        return panel;
+    }
+
+    // Must be called on the EDT. A cell being edited is left alone; committing
+    // it changes the store and brings the next refresh.
+    void refresh(Map<String, String> values) {
+        if (table.isEditing()) {
+            return;
+        }
+        List<String[]> rows = new ArrayList<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            rows.add(new String[]{entry.getKey(), entry.getValue()});
+        }
+        model.setRows(rows);
+    }
+
+    private void addVariable() {
+        String name = JOptionPane.showInputDialog(panel, "Name, used as {{name}} in Replace fields:",
+                "Add Variable", JOptionPane.PLAIN_MESSAGE);
+        if (name == null) {
+            return;
+        }
+        name = name.trim();
+        if (!checkName(name)) {
+            return;
+        }
+        if (variables.get(name) == null) {
+            variables.set(name, "");
+        }
+    }
+
+    private void removeSelected() {
+        int[] selected = table.getSelectedRows();
+        List<String> names = new ArrayList<>();
+        for (int row : selected) {
+            names.add(model.rows.get(table.convertRowIndexToModel(row))[0]);
+        }
+        for (String name : names) {
+            variables.set(name, null);
+        }
+    }
+
+    private boolean checkName(String name) {
+        if (Template.isName(name)) {
+            return true;
+        }
+        JOptionPane.showMessageDialog(panel,
+                "A name starts with a letter or '_' and has only letters, digits, '_', '.' and '-'.",
+                "Variables", JOptionPane.WARNING_MESSAGE);
+        return false;
+    }
+
+    private class VariablesModel extends AbstractTableModel {
+        private List<String[]> rows = new ArrayList<>();
+
+        void setRows(List<String[]> rows) {
+            this.rows = rows;
+            fireTableDataChanged();
+        }
+
+        @Override
+        public int getRowCount() {
+            return rows.size();
+        }
+
+        @Override
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        @Override
+        public boolean isCellEditable(int row, int column) {
+            return true;
+        }
+
+        @Override
+        public Object getValueAt(int row, int column) {
+            return rows.get(row)[column];
+        }
+
+        // Renaming moves the value; rules that used the old name keep it as typed
+        @Override
+        public void setValueAt(Object value, int row, int column) {
+            String[] entry = rows.get(row);
+            String text = value.toString();
+            if (column == 1) {
+                variables.set(entry[0], text);
+                return;
+            }
+            String name = text.trim();
+            if (name.equals(entry[0]) || !checkName(name)) {
+                return;
+            }
+            if (variables.get(name) != null) {
+                JOptionPane.showMessageDialog(panel, "There is already a variable named " + name + ".",
+                        "Variables", JOptionPane.WARNING_MESSAGE);
+                return;
+            }
+            variables.set(name, entry[1]);
+            variables.set(entry[0], null);
+        }
+    }
+}